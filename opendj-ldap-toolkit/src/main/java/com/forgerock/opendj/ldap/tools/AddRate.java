@@ -34,9 +34,6 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.codahale.metrics.Counter;
@@ -48,6 +45,7 @@ import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.Entry;
 import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.OperationType;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.responses.Responses;
 import org.forgerock.opendj.ldap.responses.Result;
@@ -78,30 +76,20 @@ public class AddRate extends ConsoleApplication {
 
     private final class AddPerformanceRunner extends PerformanceRunner {
         private final class AddStatsHandler extends UpdateStatsResultHandler<Result> {
+            private final AddedEntries.Shard addedEntriesShard;
             private final String entryDN;
 
-            private AddStatsHandler(final long currentTime, final String entryDN) {
-                super(currentTime);
+            private AddStatsHandler(final long currentTime, final AddedEntries.Shard addedEntriesShard,
+                    final String entryDN) {
+                super(OperationType.ADD, currentTime);
+                this.addedEntriesShard = addedEntriesShard;
                 this.entryDN = entryDN;
             }
 
             @Override
             void updateAdditionalStatsOnResult() {
-                switch (delStrategy) {
-                case RANDOM:
-                    long newKey;
-                    do {
-                        newKey = randomSeq.get().nextInt();
-                    } while (dnEntriesAdded.putIfAbsent(newKey, entryDN) != null);
-                    break;
-                case FIFO:
-                    long uniqueTime = operationStartTimeNs;
-                    while (dnEntriesAdded.putIfAbsent(uniqueTime, entryDN) != null) {
-                        uniqueTime++;
-                    }
-                    break;
-                default:
-                    break;
+                if (delStrategy != DeleteStrategy.OFF) {
+                    addedEntriesShard.add(operationStartTimeNs, entryDN);
                 }
 
                 addCounter.inc();
@@ -111,7 +99,7 @@ public class AddRate extends ConsoleApplication {
 
         private final class DeleteStatsHandler extends UpdateStatsResultHandler<Result> {
             private DeleteStatsHandler(final long startTime) {
-                super(startTime);
+                super(OperationType.DELETE, startTime);
             }
 
             @Override
@@ -150,6 +138,8 @@ public class AddRate extends ConsoleApplication {
         }
 
         private final class AddDeleteWorkerThread extends WorkerThread {
+            private final AddedEntries.Shard addedEntriesShard = addedEntries.newShard();
+
             private AddDeleteWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
                 super(connection, connectionFactory);
             }
@@ -176,8 +166,7 @@ public class AddRate extends ConsoleApplication {
             private void startToggleDeleteIfAgeThresholdReached(long currentTime) {
                 if (!toggleDelete
                         && delThreshold == DeleteThreshold.AGE_THRESHOLD
-                        && !dnEntriesAdded.isEmpty()
-                        && dnEntriesAdded.firstKey() + timeToWait < currentTime) {
+                        && addedEntriesShard.getOldestAddTimeNs() < currentTime - timeToWait) {
                     setSizeThreshold(entryCount.getCount());
                 }
             }
@@ -205,16 +194,16 @@ public class AddRate extends ConsoleApplication {
 
             // @Checkstyle:ignore
             private String purgeEntry() throws AddRateExecutionEndedException {
-                if (!dnEntriesAdded.isEmpty()) {
-                    return removeFirstAddedEntry();
+                final String entryToRemove = removeFirstAddedEntry();
+                if (entryToRemove != null) {
+                    return entryToRemove;
                 }
                 localStopRequested = true;
                 throw new AddRateExecutionEndedException();
             }
 
             private String removeFirstAddedEntry() {
-                final Map.Entry<Long, String> entry = dnEntriesAdded.pollFirstEntry();
-                return entry != null ? entry.getValue() : null;
+                return addedEntries.remove(addedEntriesShard);
             }
 
             private Promise<Result, LdapException> doAdd(
@@ -225,7 +214,7 @@ public class AddRate extends ConsoleApplication {
                 }
 
                 final LdapResultHandler<Result> addHandler = new AddStatsHandler(
-                        currentTime, entry.getName().toString());
+                        currentTime, addedEntriesShard, entry.getName().toString());
                 return connection.addAsync(newAddRequest(entry))
                                  .thenOnResultOrException(addHandler, addHandler);
             }
@@ -260,14 +249,7 @@ public class AddRate extends ConsoleApplication {
             }
         }
 
-        private final ConcurrentSkipListMap<Long, String> dnEntriesAdded = new ConcurrentSkipListMap<>();
-        private final ThreadLocal<Random> randomSeq = new ThreadLocal<Random>() {
-            @Override
-            protected Random initialValue() {
-                return new Random();
-            }
-        };
-
+        private AddedEntries addedEntries;
         private EntryGenerator generator;
         private DeleteStrategy delStrategy;
         private DeleteThreshold delThreshold;
@@ -309,6 +291,7 @@ public class AddRate extends ConsoleApplication {
                 final BooleanArgument noPurgeArgument) throws ArgumentException {
             super.validate();
             delStrategy = delModeArg.getTypedValue();
+            addedEntries = new AddedEntries(delStrategy == DeleteStrategy.RANDOM);
             maxNbAddIterations = maxIterationsArgument.getIntValue();
             purgeEnabled = !noPurgeArgument.isPresent();
 
@@ -395,6 +378,15 @@ public class AddRate extends ConsoleApplication {
     }
 
     int run(final String[] args) {
+        return run(args, null);
+    }
+
+    /**
+     * Runs this tool using the provided connection factory, if any, rather than
+     * the one configured by the connection arguments. This allows the tool to
+     * be run against an in-process server, for example by benchmarks.
+     */
+    int run(final String[] args, final ConnectionFactory internalConnectionFactory) {
         // Create the command-line argument parser for use with this program.
         final LocalizableMessage toolDescription = INFO_ADDRATE_TOOL_DESCRIPTION.get();
         final ArgumentParser argParser =
@@ -497,7 +489,8 @@ public class AddRate extends ConsoleApplication {
                 return EXIT_CODE_SUCCESS;
             }
 
-            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            connectionFactory = internalConnectionFactory != null ? internalConnectionFactory
+                    : connectionFactoryProvider.getAuthenticatedConnectionFactory();
             runner.setBindRequest(connectionFactoryProvider.getBindRequest());
             runner.validate(deleteMode, deleteSizeThreshold, deleteAgeThreshold, noPurgeArgument);
         } catch (final ArgumentException ae) {
@@ -0,0 +1,153 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps track of the entries added by addrate, so that they can be deleted
+ * later on, either in insertion order or randomly.
+ * <p>
+ * The entries are split into shards, one per worker thread, so that worker
+ * threads do not contend with each other. Each shard is a ring buffer which
+ * only grows when it is full, hence the memory used is proportional to the
+ * highest number of entries tracked at once, which is bounded by the delete
+ * thresholds. DNs are stored as UTF-8 bytes, which is about half the size of
+ * the equivalent strings.
+ */
+final class AddedEntries {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int INITIAL_SHARD_CAPACITY = 1024;
+
+    /**
+     * The entries added by a worker thread, in the order in which the add
+     * operations completed.
+     */
+    final class Shard {
+        private long[] addTimesNs = new long[INITIAL_SHARD_CAPACITY];
+        private byte[][] dns = new byte[INITIAL_SHARD_CAPACITY][];
+        private int head;
+        private int size;
+
+        private Shard() {
+            // Created by newShard().
+        }
+
+        /**
+         * Adds an entry.
+         *
+         * @param addTimeNs
+         *            The time at which the entry has been added, as returned
+         *            by {@link System#nanoTime()}.
+         * @param dn
+         *            The DN of the entry.
+         */
+        synchronized void add(final long addTimeNs, final String dn) {
+            if (size == dns.length) {
+                grow();
+            }
+            final int index = (head + size) & (dns.length - 1);
+            addTimesNs[index] = addTimeNs;
+            dns[index] = dn.getBytes(UTF8);
+            size++;
+        }
+
+        /** Returns the time at which the oldest entry has been added, or {@link Long#MAX_VALUE} if there is none. */
+        synchronized long getOldestAddTimeNs() {
+            return size > 0 ? addTimesNs[head] : Long.MAX_VALUE;
+        }
+
+        private synchronized String remove(final boolean isRandom) {
+            if (size == 0) {
+                return null;
+            }
+            if (isRandom && size > 1) {
+                // Move a random entry to the head so that it is removed instead of the oldest one.
+                final int index = (head + ThreadLocalRandom.current().nextInt(size)) & (dns.length - 1);
+                final byte[] dn = dns[index];
+                dns[index] = dns[head];
+                dns[head] = dn;
+                addTimesNs[index] = addTimesNs[head];
+            }
+            final byte[] dn = dns[head];
+            dns[head] = null;
+            head = (head + 1) & (dns.length - 1);
+            size--;
+            return new String(dn, UTF8);
+        }
+
+        private void grow() {
+            final int capacity = dns.length;
+            final long[] newAddTimesNs = new long[capacity << 1];
+            final byte[][] newDns = new byte[capacity << 1][];
+            final int headLength = capacity - head;
+            System.arraycopy(addTimesNs, head, newAddTimesNs, 0, headLength);
+            System.arraycopy(addTimesNs, 0, newAddTimesNs, headLength, head);
+            System.arraycopy(dns, head, newDns, 0, headLength);
+            System.arraycopy(dns, 0, newDns, headLength, head);
+            addTimesNs = newAddTimesNs;
+            dns = newDns;
+            head = 0;
+        }
+    }
+
+    private final List<Shard> shards = new CopyOnWriteArrayList<>();
+    private final boolean isRandom;
+
+    /**
+     * Creates a new tracker of added entries.
+     *
+     * @param isRandom
+     *            {@code true} if entries should be removed randomly rather
+     *            than in insertion order.
+     */
+    AddedEntries(final boolean isRandom) {
+        this.isRandom = isRandom;
+    }
+
+    /** Returns a new shard, which should only be used by one worker thread. */
+    Shard newShard() {
+        final Shard shard = new Shard();
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     * Removes an entry, preferably from the provided shard.
+     *
+     * @param preferredShard
+     *            The shard of the calling worker thread.
+     * @return The DN of the removed entry, or {@code null} if there are no
+     *         entries left in any shard.
+     */
+    String remove(final Shard preferredShard) {
+        final String dn = preferredShard.remove(isRandom);
+        if (dn != null) {
+            return dn;
+        }
+        // Take over the entries of worker threads which add less than they delete.
+        for (final Shard shard : shards) {
+            final String otherDn = shard.remove(isRandom);
+            if (otherDn != null) {
+                return otherDn;
+            }
+        }
+        return null;
+    }
+}
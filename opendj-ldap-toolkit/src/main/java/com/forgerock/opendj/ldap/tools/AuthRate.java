@@ -38,6 +38,7 @@ import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.DereferenceAliasesPolicy;
 import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.OperationType;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.requests.BindRequest;
@@ -166,8 +167,8 @@ public final class AuthRate extends ConsoleApplication {
                 }
 
                 incrementIterationCount();
-                return returnedPromise.thenOnResult(new UpdateStatsResultHandler<BindResult>(currentTimeNs))
-                                      .thenOnException(new UpdateStatsResultHandler<BindResult>(currentTimeNs));
+                return returnedPromise.thenOnResult(new UpdateStatsResultHandler<BindResult>(OperationType.BIND, currentTimeNs))
+                                      .thenOnException(new UpdateStatsResultHandler<BindResult>(OperationType.BIND, currentTimeNs));
             }
 
             private Promise<BindResult, LdapException> performBind(final Connection connection,
@@ -373,6 +374,15 @@ public final class AuthRate extends ConsoleApplication {
     }
 
     int run(final String[] args) {
+        return run(args, null);
+    }
+
+    /**
+     * Runs this tool using the provided connection factory, if any, rather than
+     * the one configured by the connection arguments. This allows the tool to
+     * be run against an in-process server, for example by benchmarks.
+     */
+    int run(final String[] args, final ConnectionFactory internalConnectionFactory) {
         // Create the command-line argument parser for use with this program.
         final LocalizableMessage toolDescription = INFO_AUTHRATE_TOOL_DESCRIPTION.get();
         final ArgumentParser argParser =
@@ -466,7 +476,8 @@ public final class AuthRate extends ConsoleApplication {
                 return 0;
             }
 
-            connectionFactory = connectionFactoryProvider.getUnauthenticatedConnectionFactory();
+            connectionFactory = internalConnectionFactory != null ? internalConnectionFactory
+                    : connectionFactoryProvider.getUnauthenticatedConnectionFactory();
             final BindRequest bindRequestTemplate = connectionFactoryProvider.getBindRequest();
             if (bindRequestTemplate == null) {
                 throw new ArgumentException(ERR_AUTHRATE_NO_BIND_DN_PROVIDED.get());
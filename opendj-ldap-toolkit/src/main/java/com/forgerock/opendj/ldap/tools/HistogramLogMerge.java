@@ -0,0 +1,492 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.filterExitCode;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.HistogramLogReader;
+import org.HdrHistogram.HistogramLogWriter;
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ResultCode;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * A tool that merges the HdrHistogram interval logs written by the rate tools
+ * of one or more clients, and reports the aggregate throughput and response
+ * time percentiles of each type of operation.
+ * <p>
+ * Interval histograms are aligned using their absolute start time, so that the
+ * logs written by clients running on several hosts at the same time can be
+ * merged, provided their clocks are synchronized. An interval histogram which
+ * spans several merged intervals, e.g. because the merged intervals are shorter
+ * than the logged ones, is split across them pro rata of the time it overlaps
+ * each of them, assuming that its operations were evenly spread over time.
+ */
+public final class HistogramLogMerge extends ConsoleApplication {
+    /** The tag used for interval histograms which have none. */
+    private static final String UNTAGGED = "all";
+    private static final String TOTAL = "total";
+    private static final int NUMBER_OF_SIGNIFICANT_VALUE_DIGITS = 3;
+    private static final double MS_IN_S = TimeUnit.SECONDS.toMillis(1);
+    private static final double NS_IN_MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int STANDARD_WIDTH = 8;
+    private static final double[] DEFAULT_PERCENTILES = new double[] { 99.9, 99.99, 99.999 };
+
+    /**
+     * The main method for HistogramLogMerge tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new HistogramLogMerge().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    /** The merged histograms of each operation type, indexed by interval. */
+    private final SortedMap<String, SortedMap<Long, Histogram>> intervalHistograms = new TreeMap<>();
+    /** The merged histograms of each operation type over the whole run. */
+    private final SortedMap<String, Histogram> totalHistograms = new TreeMap<>();
+    private long startTimeMs = Long.MAX_VALUE;
+    private long endTimeMs;
+    private long intervalMs;
+    private double[] percentiles;
+
+    private BooleanArgument scriptFriendly;
+
+    private HistogramLogMerge() {
+        // Nothing to do.
+    }
+
+    /**
+     * Constructor to allow tests.
+     *
+     * @param out
+     *            output stream of console application
+     * @param err
+     *            error stream of console application
+     */
+    HistogramLogMerge(final PrintStream out, final PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    int run(final String[] args) {
+        final LocalizableMessage toolDescription = INFO_HLOGMERGE_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser = new ArgumentParser(HistogramLogMerge.class.getName(), toolDescription,
+                false, true, 1, 0, "{histogramLogFile}...");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_HLOGMERGE.get());
+
+        final IntegerArgument statInterval;
+        final IntegerArgument percentilesArgument;
+        final StringArgument outputFile;
+        final BooleanArgument showUsage;
+        try {
+            statInterval =
+                    IntegerArgument.builder("statInterval")
+                            .shortIdentifier('i')
+                            .description(INFO_HLOGMERGE_DESCRIPTION_STAT_INTERVAL.get())
+                            .lowerBound(1)
+                            .defaultValue(5)
+                            .valuePlaceholder(LocalizableMessage.raw("{statInterval}"))
+                            .buildAndAddToParser(argParser);
+            percentilesArgument =
+                    IntegerArgument.builder("percentile")
+                            .shortIdentifier('e')
+                            .description(INFO_HLOGMERGE_DESCRIPTION_PERCENTILE.get())
+                            .multiValued()
+                            .range(0, 100)
+                            .valuePlaceholder(LocalizableMessage.raw("{percentile}"))
+                            .buildAndAddToParser(argParser);
+            outputFile =
+                    StringArgument.builder("outputFile")
+                            .shortIdentifier('o')
+                            .description(INFO_HLOGMERGE_DESCRIPTION_OUTPUT_FILE.get())
+                            .valuePlaceholder(LocalizableMessage.raw("{outputFile}"))
+                            .buildAndAddToParser(argParser);
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+
+            showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+        } catch (final ArgumentException ae) {
+            errPrintln(ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        try {
+            argParser.parseArguments(args);
+            if (argParser.usageOrVersionDisplayed()) {
+                return ResultCode.SUCCESS.intValue();
+            }
+            intervalMs = statInterval.getIntValue() * 1000L;
+            percentiles = getPercentiles(percentilesArgument);
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final List<String> histogramLogFiles = argParser.getTrailingArguments();
+        // Intervals are aligned on the earliest start time, which is the start time of the first histograms.
+        for (final String histogramLogFile : histogramLogFiles) {
+            try {
+                final Histogram histogram = nextHistogram(new HistogramLogReader(histogramLogFile));
+                if (histogram != null) {
+                    startTimeMs = Math.min(startTimeMs, histogram.getStartTimeStamp());
+                }
+            } catch (final FileNotFoundException | RuntimeException e) {
+                errPrintln(ERR_HLOGMERGE_CANNOT_READ_LOG.get(histogramLogFile, e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+        }
+        for (final String histogramLogFile : histogramLogFiles) {
+            try {
+                final HistogramLogReader reader = new HistogramLogReader(histogramLogFile);
+                Histogram histogram;
+                while ((histogram = nextHistogram(reader)) != null) {
+                    addIntervalHistogram(histogram);
+                }
+            } catch (final FileNotFoundException | RuntimeException e) {
+                errPrintln(ERR_HLOGMERGE_CANNOT_READ_LOG.get(histogramLogFile, e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+        }
+        if (totalHistograms.isEmpty()) {
+            errPrintln(ERR_HLOGMERGE_NO_HISTOGRAMS.get());
+            return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+        }
+
+        if (outputFile.isPresent()) {
+            try {
+                writeMergedLog(outputFile.getValue());
+            } catch (final FileNotFoundException e) {
+                errPrintln(ERR_HLOGMERGE_CANNOT_WRITE_LOG.get(outputFile.getValue(), e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+        }
+        printIntervals();
+        println();
+        printSummary();
+        return ResultCode.SUCCESS.intValue();
+    }
+
+    /** Returns the next interval histogram of the log, skipping histograms of double values. */
+    private static Histogram nextHistogram(final HistogramLogReader reader) {
+        EncodableHistogram histogram;
+        while ((histogram = reader.nextIntervalHistogram()) != null) {
+            if (histogram instanceof Histogram) {
+                return (Histogram) histogram;
+            }
+        }
+        return null;
+    }
+
+    private void addIntervalHistogram(final Histogram histogram) {
+        final String tag = histogram.getTag() != null ? histogram.getTag() : UNTAGGED;
+        final long histogramStartMs = histogram.getStartTimeStamp();
+        final long histogramEndMs = histogram.getEndTimeStamp();
+        final long firstInterval = Math.max(0, histogramStartMs - startTimeMs) / intervalMs;
+        final long lastInterval = Math.max(0, histogramEndMs - 1 - startTimeMs) / intervalMs;
+        if (lastInterval <= firstInterval) {
+            addIntervalHistogram(tag, firstInterval, histogram);
+            endTimeMs = Math.max(endTimeMs, histogramEndMs);
+            return;
+        }
+
+        // Split the histogram across the intervals it overlaps, pro rata of the overlapping durations.
+        final Histogram[] parts = new Histogram[(int) (lastInterval - firstInterval + 1)];
+        for (int i = 0; i < parts.length; i++) {
+            final long intervalStartMs = startTimeMs + (firstInterval + i) * intervalMs;
+            parts[i] = newHistogram(tag);
+            parts[i].setStartTimeStamp(Math.max(histogramStartMs, intervalStartMs));
+            parts[i].setEndTimeStamp(Math.min(histogramEndMs, intervalStartMs + intervalMs));
+        }
+        final double durationMs = histogramEndMs - histogramStartMs;
+        for (final HistogramIterationValue value : histogram.recordedValues()) {
+            // Rounding cumulative counts ensures that the parts add up to the original count.
+            final long count = value.getCountAtValueIteratedTo();
+            long splitCount = 0;
+            for (int i = 0; i < parts.length; i++) {
+                final long cumulativeCount = i == parts.length - 1
+                        ? count : Math.round(count * ((parts[i].getEndTimeStamp() - histogramStartMs) / durationMs));
+                if (cumulativeCount > splitCount) {
+                    parts[i].recordValueWithCount(value.getValueIteratedTo(), cumulativeCount - splitCount);
+                    splitCount = cumulativeCount;
+                }
+            }
+        }
+        for (int i = 0; i < parts.length; i++) {
+            addIntervalHistogram(tag, firstInterval + i, parts[i]);
+        }
+        endTimeMs = Math.max(endTimeMs, histogramEndMs);
+    }
+
+    private void addIntervalHistogram(final String tag, final long interval, final Histogram histogram) {
+        SortedMap<Long, Histogram> histograms = intervalHistograms.get(tag);
+        if (histograms == null) {
+            histograms = new TreeMap<>();
+            intervalHistograms.put(tag, histograms);
+            totalHistograms.put(tag, newHistogram(tag));
+        }
+        Histogram intervalHistogram = histograms.get(interval);
+        if (intervalHistogram == null) {
+            intervalHistogram = newHistogram(tag);
+            histograms.put(interval, intervalHistogram);
+        }
+        add(intervalHistogram, histogram);
+        add(totalHistograms.get(tag), histogram);
+    }
+
+    private static Histogram newHistogram(final String tag) {
+        final Histogram histogram = new Histogram(NUMBER_OF_SIGNIFICANT_VALUE_DIGITS);
+        histogram.setTag(tag);
+        return histogram;
+    }
+
+    private static void add(final Histogram to, final Histogram histogram) {
+        to.add(histogram);
+        to.setStartTimeStamp(Math.min(to.getStartTimeStamp(), histogram.getStartTimeStamp()));
+        to.setEndTimeStamp(Math.max(to.getEndTimeStamp(), histogram.getEndTimeStamp()));
+    }
+
+    /** Writes the merged interval histograms to a new histogram log, in chronological order. */
+    private void writeMergedLog(final String outputFile) throws FileNotFoundException {
+        final PrintStream log = new PrintStream(new FileOutputStream(outputFile));
+        try {
+            final HistogramLogWriter writer = new HistogramLogWriter(log);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(startTimeMs);
+            writer.outputBaseTime(startTimeMs);
+            writer.setBaseTime(startTimeMs);
+            writer.outputLegend();
+            for (final long interval : getIntervals()) {
+                for (final SortedMap<Long, Histogram> histograms : intervalHistograms.values()) {
+                    final Histogram histogram = histograms.get(interval);
+                    if (histogram != null) {
+                        writer.outputIntervalHistogram(histogram);
+                    }
+                }
+            }
+        } finally {
+            closeSilently(log);
+        }
+    }
+
+    /** Returns the indexes of the intervals for which at least one histogram has been logged. */
+    private List<Long> getIntervals() {
+        final SortedMap<Long, Boolean> intervals = new TreeMap<>();
+        for (final SortedMap<Long, Histogram> histograms : intervalHistograms.values()) {
+            for (final Long interval : histograms.keySet()) {
+                intervals.put(interval, true);
+            }
+        }
+        return new ArrayList<>(intervals.keySet());
+    }
+
+    /** Prints the throughput and response times of each operation type for each interval. */
+    private void printIntervals() {
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        if (!isScriptFriendly()) {
+            columns.add(separatorColumn());
+        }
+        columns.add(column("time", isScriptFriendly() ? "time" : "time (s)", STANDARD_WIDTH, 1));
+        for (final String tag : intervalHistograms.keySet()) {
+            if (!isScriptFriendly()) {
+                columns.add(separatorColumn());
+            }
+            columns.add(column(tag + ".throughput", title(tag, "ops/s", "throughput"), STANDARD_WIDTH, 1));
+            columns.add(column(tag + ".average", title(tag, "avg", "average response time"), STANDARD_WIDTH, 3));
+            for (final double percentile : percentiles) {
+                columns.add(column(tag + "." + percentile,
+                        title(tag, percentile + "%", percentile + "% response time"), STANDARD_WIDTH, 2));
+            }
+        }
+        if (!isScriptFriendly()) {
+            columns.add(separatorColumn());
+        }
+
+        final MultiColumnPrinter printer = newPrinter(columns);
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+            printer.printTitleSection("", 1);
+            for (final String tag : intervalHistograms.keySet()) {
+                printer.printTitleSection(tag, 2 + percentiles.length);
+            }
+            printer.printTitleSection("", 1);
+            for (int i = 0; i < intervalHistograms.size(); i++) {
+                printer.printTitleSection("(ops/second, milliseconds)", 2 + percentiles.length);
+            }
+        }
+        printer.printTitleLine();
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+
+        for (final long interval : getIntervals()) {
+            final long intervalEndMs = Math.min(startTimeMs + (interval + 1) * intervalMs, endTimeMs);
+            printer.printData((intervalEndMs - startTimeMs) / MS_IN_S);
+            for (final SortedMap<Long, Histogram> histograms : intervalHistograms.values()) {
+                final Histogram histogram = histograms.get(interval);
+                if (histogram == null) {
+                    printer.printData(0.0);
+                    printer.printData(Double.NaN);
+                    for (int i = 0; i < percentiles.length; i++) {
+                        printer.printData(Double.NaN);
+                    }
+                    continue;
+                }
+                final long durationMs = Math.min(intervalMs, histogram.getEndTimeStamp()
+                        - histogram.getStartTimeStamp());
+                printer.printData(getThroughput(histogram.getTotalCount(), durationMs));
+                printer.printData(histogram.getMean() / NS_IN_MS);
+                for (final double percentile : percentiles) {
+                    printer.printData(histogram.getValueAtPercentile(percentile) / NS_IN_MS);
+                }
+            }
+        }
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+    }
+
+    /** Prints the throughput and response times of each operation type over the whole run. */
+    private void printSummary() {
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        if (!isScriptFriendly()) {
+            columns.add(separatorColumn());
+        }
+        columns.add(column("operation", "operation", 10, 0));
+        columns.add(column("count", "count", 10, 0));
+        columns.add(column("throughput", isScriptFriendly() ? "throughput" : "ops/s", STANDARD_WIDTH, 1));
+        columns.add(column("average", isScriptFriendly() ? "average response time" : "avg", STANDARD_WIDTH, 3));
+        for (final double percentile : percentiles) {
+            columns.add(column(String.valueOf(percentile),
+                    isScriptFriendly() ? percentile + "% response time" : percentile + "%", STANDARD_WIDTH, 2));
+        }
+        columns.add(column("max", isScriptFriendly() ? "max response time" : "max", STANDARD_WIDTH, 2));
+        if (!isScriptFriendly()) {
+            columns.add(separatorColumn());
+        }
+
+        final MultiColumnPrinter printer = newPrinter(columns);
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+        printer.printTitleLine();
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+        for (final Map.Entry<String, Histogram> entry : totalHistograms.entrySet()) {
+            printSummaryRow(printer, entry.getKey(), entry.getValue());
+        }
+        if (totalHistograms.size() > 1) {
+            final Histogram total = newHistogram(TOTAL);
+            for (final Histogram histogram : totalHistograms.values()) {
+                add(total, histogram);
+            }
+            printSummaryRow(printer, TOTAL, total);
+        }
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+    }
+
+    private void printSummaryRow(final MultiColumnPrinter printer, final String tag, final Histogram histogram) {
+        printer.printData(tag);
+        printer.printData(String.valueOf(histogram.getTotalCount()));
+        printer.printData(getThroughput(histogram.getTotalCount(), endTimeMs - startTimeMs));
+        printer.printData(histogram.getMean() / NS_IN_MS);
+        for (final double percentile : percentiles) {
+            printer.printData(histogram.getValueAtPercentile(percentile) / NS_IN_MS);
+        }
+        printer.printData(histogram.getMaxValue() / NS_IN_MS);
+    }
+
+    private String title(final String tag, final String consoleTitle, final String csvTitle) {
+        return isScriptFriendly() ? tag + " " + csvTitle : consoleTitle;
+    }
+
+    private MultiColumnPrinter newPrinter(final List<MultiColumnPrinter.Column> columns) {
+        if (isScriptFriendly()) {
+            return MultiColumnPrinter.builder(getOutputStream(), columns)
+                                     .columnSeparator(",")
+                                     .build();
+        }
+        return MultiColumnPrinter.builder(getOutputStream(), columns)
+                                 .format(true)
+                                 .titleAlignment(MultiColumnPrinter.Alignment.CENTER)
+                                 .build();
+    }
+
+    private static double getThroughput(final long count, final long durationMs) {
+        return durationMs > 0 ? count / (durationMs / MS_IN_S) : Double.NaN;
+    }
+
+    private static double[] getPercentiles(final IntegerArgument percentilesArgument) {
+        if (!percentilesArgument.isPresent()) {
+            return DEFAULT_PERCENTILES;
+        }
+        final double[] percentiles = new double[percentilesArgument.getValues().size()];
+        int index = 0;
+        for (final String percentile : percentilesArgument.getValues()) {
+            percentiles[index++] = Double.parseDouble(percentile);
+        }
+        Arrays.sort(percentiles);
+        return percentiles;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.ArgumentConstants.*;
+import static com.forgerock.opendj.cli.CliMessages.ERR_TOOL_CONFLICTING_ARGS;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.filterExitCode;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static com.forgerock.opendj.ldap.tools.Utils.printErrorMessage;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldif.CompressedLDIF;
+import org.forgerock.opendj.ldif.EntryGenerator;
+import org.forgerock.opendj.ldif.EntryReader;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.forgerock.opendj.ldif.PipelinedConnectionEntryWriter;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * A tool that can be used to load entries generated from a template file or
+ * read from an LDIF file into a Directory Server, using pipelined Add
+ * requests over several connections.
+ */
+public final class LDAPLoad extends ConsoleApplication {
+    /**
+     * The main method for LDAPLoad tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new LDAPLoad().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+
+    private LDAPLoad() {
+        // Nothing to do.
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_LDAPLOAD_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser = new ArgumentParser(LDAPLoad.class.getName(), toolDescription, false);
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_LDAPLOAD.get());
+
+        final ConnectionFactoryProvider connectionFactoryProvider;
+        final ConnectionFactory connectionFactory;
+
+        final StringArgument filename;
+        final StringArgument templateFile;
+        final StringArgument resourcePath;
+        final IntegerArgument randomSeed;
+        final StringArgument constants;
+        final IntegerArgument numConnections;
+        final IntegerArgument windowSize;
+        final IntegerArgument maxRetries;
+        final IntegerArgument statInterval;
+
+        try {
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+
+            final StringArgument propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            final BooleanArgument noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            filename =
+                    StringArgument.builder(OPTION_LONG_FILENAME)
+                            .shortIdentifier(OPTION_SHORT_FILENAME)
+                            .description(INFO_LDAPLOAD_DESCRIPTION_FILENAME.get())
+                            .valuePlaceholder(INFO_FILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            templateFile =
+                    StringArgument.builder("templateFile")
+                            .description(INFO_LDAPLOAD_DESCRIPTION_TEMPLATE_FILE.get())
+                            .valuePlaceholder(INFO_FILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            resourcePath =
+                    StringArgument.builder(MakeLDIF.OPTION_LONG_RESOURCE_PATH)
+                            .shortIdentifier('r')
+                            .description(INFO_LDAPLOAD_DESCRIPTION_RESOURCE_PATH.get())
+                            .docDescriptionSupplement(SUPPLEMENT_DESCRIPTION_RESOURCE_PATH.get())
+                            .valuePlaceholder(INFO_PATH_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            randomSeed =
+                    IntegerArgument.builder(OPTION_LONG_RANDOM_SEED)
+                            .shortIdentifier('R')
+                            .description(INFO_LDAPLOAD_DESCRIPTION_SEED.get())
+                            .defaultValue(0)
+                            .valuePlaceholder(INFO_SEED_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            constants =
+                    StringArgument.builder(MakeLDIF.OPTION_LONG_CONSTANT)
+                            .shortIdentifier('g')
+                            .description(INFO_LDAPLOAD_DESCRIPTION_CONSTANT.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_CONSTANT_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            numConnections =
+                    IntegerArgument.builder("numConnections")
+                            .shortIdentifier('c')
+                            .description(INFO_LDAPLOAD_DESCRIPTION_NUM_CONNECTIONS.get())
+                            .lowerBound(1)
+                            .defaultValue(1)
+                            .valuePlaceholder(LocalizableMessage.raw("{numConnections}"))
+                            .buildAndAddToParser(argParser);
+            windowSize =
+                    IntegerArgument.builder("windowSize")
+                            .description(INFO_LDAPLOAD_DESCRIPTION_WINDOW_SIZE.get())
+                            .lowerBound(1)
+                            .defaultValue(16)
+                            .valuePlaceholder(LocalizableMessage.raw("{windowSize}"))
+                            .buildAndAddToParser(argParser);
+            maxRetries =
+                    IntegerArgument.builder("maxRetries")
+                            .description(INFO_LDAPLOAD_DESCRIPTION_MAX_RETRIES.get())
+                            .lowerBound(0)
+                            .defaultValue(10)
+                            .valuePlaceholder(LocalizableMessage.raw("{maxRetries}"))
+                            .buildAndAddToParser(argParser);
+            statInterval =
+                    IntegerArgument.builder("statInterval")
+                            .shortIdentifier('i')
+                            .description(INFO_LDAPLOAD_DESCRIPTION_STAT_INTERVAL.get())
+                            .lowerBound(0)
+                            .defaultValue(5)
+                            .valuePlaceholder(LocalizableMessage.raw("{statInterval}"))
+                            .buildAndAddToParser(argParser);
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            final BooleanArgument showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+        } catch (final ArgumentException ae) {
+            errPrintln(ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        final int connectionCount;
+        final int retryCount;
+        final long statIntervalNanos;
+        final int windowSizePerConnection;
+        try {
+            argParser.parseArguments(args);
+
+            // If we should just display usage or version information, then print it and exit.
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+
+            if (filename.isPresent() && templateFile.isPresent()) {
+                throw new ArgumentException(ERR_TOOL_CONFLICTING_ARGS.get(filename.getLongIdentifier(),
+                        templateFile.getLongIdentifier()));
+            }
+            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            connectionCount = numConnections.getIntValue();
+            windowSizePerConnection = windowSize.getIntValue();
+            retryCount = maxRetries.getIntValue();
+            statIntervalNanos = TimeUnit.SECONDS.toNanos(statInterval.getIntValue());
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Entries are generated or parsed using all the available processors.
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        final EntryReader reader;
+        if (templateFile.isPresent()) {
+            final EntryGenerator generator = MakeLDIF.createGenerator(
+                    templateFile.getValue(), resourcePath, randomSeed, constants, true, this);
+            if (generator == null) {
+                // Error message has already been logged.
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+            reader = generator.setParallelism(parallelism);
+        } else if (filename.isPresent()) {
+            try {
+                reader = new LDIFEntryReader(
+                        CompressedLDIF.decompress(new FileInputStream(filename.getValue()), parallelism))
+                        .setParallelism(parallelism);
+            } catch (final IOException e) {
+                errPrintln(ERR_LDIF_FILE_CANNOT_OPEN_FOR_READ.get(filename.getValue(), e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        } else {
+            reader = new LDIFEntryReader(getInputStream());
+        }
+
+        final List<Connection> connections = new ArrayList<>(connectionCount);
+        PipelinedConnectionEntryWriter writer = null;
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                connections.add(connectionFactory.getConnection());
+            }
+            writer = new PipelinedConnectionEntryWriter(connections)
+                    .setWindowSize(windowSizePerConnection * connectionCount)
+                    .setRetryPolicy(retryCount, 100, TimeUnit.MILLISECONDS);
+            return load(reader, writer, templateFile.isPresent() ? templateFile.getValue() : filename.getValue(),
+                    statIntervalNanos);
+        } catch (final LdapException e) {
+            return printErrorMessage(this, e);
+        } finally {
+            closeSilently(reader);
+            if (writer != null) {
+                closeSilently(writer);
+            } else {
+                closeSilently(connections);
+            }
+        }
+    }
+
+    /**
+     * Sends all the entries of the reader to the writer, reporting the throughput periodically. The source is
+     * {@code null} when the entries are read from the standard input.
+     */
+    private int load(final EntryReader reader, final PipelinedConnectionEntryWriter writer, final String source,
+            final long statIntervalNanos) {
+        final long startTime = System.nanoTime();
+        // Progress is reported by a timer, as writes may block for a long time while the server is busy.
+        final ScheduledExecutorService progressScheduler = Executors.newSingleThreadScheduledExecutor();
+        if (statIntervalNanos > 0) {
+            progressScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    final long entries = writer.getEntriesWritten();
+                    errPrintln(INFO_LDAPLOAD_PROGRESS.get(entries, getThroughput(entries, startTime),
+                            writer.getRetries()));
+                }
+            }, statIntervalNanos, statIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+        try {
+            while (reader.hasNext()) {
+                writer.writeEntry(reader.readEntry());
+            }
+            writer.flush();
+        } catch (final LdapException e) {
+            return printErrorMessage(this, e);
+        } catch (final IOException e) {
+            if (source != null) {
+                errPrintln(ERR_LDIF_FILE_READ_ERROR.get(source, e.getLocalizedMessage()));
+            } else {
+                errPrintln(ERR_LDAPLOAD_CANNOT_READ_STDIN.get(e.getLocalizedMessage()));
+            }
+            return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+        } finally {
+            stopProgressReports(progressScheduler);
+        }
+
+        final long entries = writer.getEntriesWritten();
+        errPrintln(INFO_LDAPLOAD_COMPLETE.get(entries, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime),
+                getThroughput(entries, startTime), writer.getRetries()));
+        return ResultCode.SUCCESS.intValue();
+    }
+
+    /** Stops the progress reports, waiting for a report being printed so that it precedes the final messages. */
+    private static void stopProgressReports(final ScheduledExecutorService progressScheduler) {
+        progressScheduler.shutdown();
+        try {
+            progressScheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns the number of entries added per second since the start time. */
+    private static long getThroughput(final long entries, final long startTime) {
+        final long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+        return entries * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
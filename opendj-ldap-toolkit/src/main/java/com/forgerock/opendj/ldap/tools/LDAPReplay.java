@@ -0,0 +1,646 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.CliMessages.ERR_TOOL_CONFLICTING_ARGS;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.filterExitCode;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static com.forgerock.opendj.ldap.tools.Utils.printErrorMessage;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.OperationLatencyRecorder;
+import org.forgerock.opendj.ldap.OperationType;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+import com.forgerock.opendj.ldap.tools.ReplayLogReader.ReplayedOperation;
+
+/**
+ * A tool that replays the operations recorded in a replay log or in a
+ * directory server access log against a Directory Server, and compares the
+ * response times of the server with the original ones.
+ * <p>
+ * The operations of an original connection are replayed in order on the same
+ * connection, and several original connections may share a connection. Each
+ * replay connection has its own dispatcher thread which sends its operations
+ * within the window size, so that a slow connection only delays its own
+ * operations. Bind requests are replayed on dedicated connections, one at a
+ * time, so that they do not change the authorization identity used for the
+ * other operations.
+ */
+public final class LDAPReplay extends ConsoleApplication {
+    private static final double NS_IN_MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NS_IN_S = TimeUnit.SECONDS.toNanos(1);
+    private static final int STANDARD_WIDTH = 8;
+    private static final double[] DEFAULT_PERCENTILES = new double[] { 50, 99 };
+    /** The maximum number of operations waiting to be sent by a dispatcher before the replay waits for it. */
+    private static final int MAX_QUEUED_REQUESTS = 10000;
+    /** Marks the end of the operations sent by a dispatcher. */
+    private static final Request END_OF_REPLAY = Requests.newUnbindRequest();
+
+    /** Search result handler ignoring the returned entries and references. */
+    private static final SearchResultHandler IGNORE_SEARCH_RESULTS = new SearchResultHandler() {
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+    };
+
+    /**
+     * Sends the operations of a replay connection, in order, once the window
+     * of the connection allows it. Bind requests are sent on the bind
+     * connection, one at a time.
+     */
+    private final class Dispatcher extends Thread {
+        private final BlockingQueue<Request> requests = new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS);
+        private final Connection connection;
+        private final Connection bindConnection;
+        private final Semaphore window = new Semaphore(windowSize);
+        private final Semaphore bindWindow = new Semaphore(1);
+
+        private Dispatcher(final int index, final Connection connection, final Connection bindConnection) {
+            super("LDAPReplay dispatcher " + index);
+            this.connection = connection;
+            this.bindConnection = bindConnection;
+            setDaemon(true);
+        }
+
+        /** Queues an operation, waiting if the dispatcher is too far behind. */
+        private void dispatch(final Request request) {
+            boolean isInterrupted = false;
+            for (;;) {
+                try {
+                    requests.put(request);
+                    break;
+                } catch (final InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Request request = requests.take(); request != END_OF_REPLAY; request = requests.take()) {
+                    final Semaphore operationWindow = request instanceof BindRequest ? bindWindow : window;
+                    operationWindow.acquireUninterruptibly();
+                    send(request instanceof BindRequest ? bindConnection : connection, request).thenAlways(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    completedCount.incrementAndGet();
+                                    operationWindow.release();
+                                }
+                            });
+                }
+                // Wait for the outstanding operations.
+                window.acquireUninterruptibly(windowSize);
+                bindWindow.acquireUninterruptibly();
+            } catch (final InterruptedException e) {
+                // The replay has been stopped.
+            }
+        }
+    }
+
+    /**
+     * The main method for LDAPReplay tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new LDAPReplay().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+    private BooleanArgument scriptFriendly;
+
+    /** Records the response times of the replayed operations. */
+    private final OperationLatencyRecorder latencyRecorder = new OperationLatencyRecorder();
+    private ConnectionFactory connectionFactory;
+    /** The replay connections and the connections used for bind requests. */
+    private final List<Connection> connections = new ArrayList<>();
+    private Dispatcher[] dispatchers;
+    private int windowSize;
+    /** The replay connection of each original connection which has not been closed. */
+    private final Map<String, Integer> connectionIndexes = new HashMap<>();
+    private int nextConnectionIndex;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final Map<OperationType, Long> skippedCounts = new EnumMap<>(OperationType.class);
+    /** The difference between the actual and the scheduled time of the last replayed operation. */
+    private long lagNs;
+
+    private LDAPReplay() {
+        // Nothing to do.
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_LDAPREPLAY_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser = new ArgumentParser(LDAPReplay.class.getName(), toolDescription, false,
+                true, 1, 1, "{replayLogFile}");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_LDAPREPLAY.get());
+
+        final ConnectionFactoryProvider connectionFactoryProvider;
+        final IntegerArgument numConnections;
+        final IntegerArgument windowSizeArgument;
+        final StringArgument speedArgument;
+        final BooleanArgument maxThroughput;
+        final IntegerArgument statInterval;
+        final IntegerArgument percentilesArgument;
+        try {
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+
+            final StringArgument propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            final BooleanArgument noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            numConnections =
+                    IntegerArgument.builder("numConnections")
+                            .shortIdentifier('c')
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_NUM_CONNECTIONS.get())
+                            .lowerBound(1)
+                            .defaultValue(1)
+                            .valuePlaceholder(LocalizableMessage.raw("{numConnections}"))
+                            .buildAndAddToParser(argParser);
+            windowSizeArgument =
+                    IntegerArgument.builder("windowSize")
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_WINDOW_SIZE.get())
+                            .lowerBound(1)
+                            .defaultValue(16)
+                            .valuePlaceholder(LocalizableMessage.raw("{windowSize}"))
+                            .buildAndAddToParser(argParser);
+            speedArgument =
+                    StringArgument.builder("speed")
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_SPEED.get())
+                            .defaultValue("1")
+                            .valuePlaceholder(LocalizableMessage.raw("{speed}"))
+                            .buildAndAddToParser(argParser);
+            maxThroughput =
+                    BooleanArgument.builder("maxThroughput")
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_MAX_THROUGHPUT.get())
+                            .buildAndAddToParser(argParser);
+            statInterval =
+                    IntegerArgument.builder("statInterval")
+                            .shortIdentifier('i')
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_STAT_INTERVAL.get())
+                            .lowerBound(0)
+                            .defaultValue(5)
+                            .valuePlaceholder(LocalizableMessage.raw("{statInterval}"))
+                            .buildAndAddToParser(argParser);
+            percentilesArgument =
+                    IntegerArgument.builder("percentile")
+                            .shortIdentifier('e')
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_PERCENTILE.get())
+                            .multiValued()
+                            .range(0, 100)
+                            .valuePlaceholder(LocalizableMessage.raw("{percentile}"))
+                            .buildAndAddToParser(argParser);
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            final BooleanArgument showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+        } catch (final ArgumentException ae) {
+            errPrintln(ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        final double speed;
+        final int connectionCount;
+        final long statIntervalNanos;
+        final double[] percentiles;
+        try {
+            argParser.parseArguments(args);
+
+            // If we should just display usage or version information, then print it and exit.
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+
+            if (speedArgument.isPresent() && maxThroughput.isPresent()) {
+                throw new ArgumentException(ERR_TOOL_CONFLICTING_ARGS.get(speedArgument.getLongIdentifier(),
+                        maxThroughput.getLongIdentifier()));
+            }
+            speed = maxThroughput.isPresent() ? 0 : parseSpeed(speedArgument.getValue());
+            connectionFactory = Connections.newInstrumentedConnectionFactory(
+                    connectionFactoryProvider.getAuthenticatedConnectionFactory(), latencyRecorder);
+            connectionCount = numConnections.getIntValue();
+            windowSize = windowSizeArgument.getIntValue();
+            statIntervalNanos = TimeUnit.SECONDS.toNanos(statInterval.getIntValue());
+            percentiles = getPercentiles(percentilesArgument);
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final String replayLogFile = argParser.getTrailingArguments().get(0);
+        final ReplayLogReader reader;
+        try {
+            reader = new ReplayLogReader(new BufferedReader(
+                    new InputStreamReader(new FileInputStream(replayLogFile), StandardCharsets.UTF_8)));
+        } catch (final IOException e) {
+            errPrintln(ERR_LDAPREPLAY_CANNOT_READ_LOG.get(replayLogFile, e.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        dispatchers = new Dispatcher[connectionCount];
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                final Connection connection = connectionFactory.getConnection();
+                connections.add(connection);
+                final Connection bindConnection = connectionFactory.getConnection();
+                connections.add(bindConnection);
+                dispatchers[i] = new Dispatcher(i, connection, bindConnection);
+            }
+            for (final Dispatcher dispatcher : dispatchers) {
+                dispatcher.start();
+            }
+            final long startTimeNs = System.nanoTime();
+            replay(reader, speed, statIntervalNanos);
+            awaitOutstandingOperations();
+
+            final long completed = completedCount.get();
+            errPrintln(INFO_LDAPREPLAY_COMPLETE.get(completed,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTimeNs),
+                    getThroughput(completed, startTimeNs), getSkippedCount()));
+            printReport(reader.getOriginalResponseTimes(), latencyRecorder.getIntervalHistograms(), percentiles);
+            return ResultCode.SUCCESS.intValue();
+        } catch (final LdapException e) {
+            return printErrorMessage(this, e);
+        } catch (final IOException e) {
+            errPrintln(ERR_LDAPREPLAY_CANNOT_READ_LOG.get(replayLogFile, e.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+        } finally {
+            for (final Dispatcher dispatcher : dispatchers) {
+                if (dispatcher != null) {
+                    dispatcher.interrupt();
+                }
+            }
+            closeSilently(reader);
+            closeSilently(connections);
+        }
+    }
+
+    /**
+     * Replays all the operations of the log. Operations are scheduled
+     * according to their original time divided by the speed, or as fast as
+     * possible when the speed is 0. Operations logged with the same timestamp,
+     * typically because the log has a one second resolution, are spread
+     * evenly until the next timestamp. The reader returns operations in time
+     * order, except those logged too late to be reordered, which are replayed
+     * immediately.
+     */
+    private void replay(final ReplayLogReader reader, final double speed, final long statIntervalNanos)
+            throws IOException {
+        final long startTimeNs = System.nanoTime();
+        long nextStatTimeNs = startTimeNs + statIntervalNanos;
+        long firstOperationTimeNs = 0;
+
+        ReplayedOperation next = reader.readOperation();
+        if (next != null) {
+            firstOperationTimeNs = next.getTimeNs();
+        }
+        while (next != null) {
+            final List<ReplayedOperation> operations = new ArrayList<>();
+            final long timeNs = next.getTimeNs();
+            do {
+                operations.add(next);
+                next = reader.readOperation();
+            } while (next != null && next.getTimeNs() == timeNs);
+            final long spreadNs = next != null
+                    ? Math.max(0, Math.min(next.getTimeNs() - timeNs, TimeUnit.SECONDS.toNanos(1))) : 0;
+
+            for (int i = 0; i < operations.size(); i++) {
+                if (speed > 0) {
+                    final long logOffsetNs = timeNs - firstOperationTimeNs + spreadNs * i / operations.size();
+                    final long scheduledTimeNs = startTimeNs + (long) (logOffsetNs / speed);
+                    long waitNs;
+                    while ((waitNs = scheduledTimeNs - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(waitNs);
+                    }
+                    replay(operations.get(i));
+                    lagNs = System.nanoTime() - scheduledTimeNs;
+                } else {
+                    replay(operations.get(i));
+                }
+
+                if (statIntervalNanos > 0 && System.nanoTime() >= nextStatTimeNs) {
+                    nextStatTimeNs += statIntervalNanos;
+                    final long completed = completedCount.get();
+                    errPrintln(INFO_LDAPREPLAY_PROGRESS.get(completed, getThroughput(completed, startTimeNs),
+                            getSkippedCount(), TimeUnit.NANOSECONDS.toMillis(Math.max(0, lagNs))));
+                }
+            }
+        }
+    }
+
+    private void replay(final ReplayedOperation operation) {
+        if (operation.isConnectionClosed()) {
+            connectionIndexes.remove(operation.getConnectionId());
+            return;
+        }
+        final Request request = operation.getRequest();
+        if (request == null) {
+            final Long skippedCount = skippedCounts.get(operation.getType());
+            skippedCounts.put(operation.getType(), skippedCount != null ? skippedCount + 1 : 1);
+            return;
+        }
+        dispatchers[getConnectionIndex(operation.getConnectionId())].dispatch(request);
+    }
+
+    /** Returns the index of the replay connection of an original connection. */
+    private int getConnectionIndex(final String connectionId) {
+        Integer index = connectionIndexes.get(connectionId);
+        if (index == null) {
+            index = nextConnectionIndex;
+            nextConnectionIndex = (nextConnectionIndex + 1) % dispatchers.length;
+            connectionIndexes.put(connectionId, index);
+        }
+        return index;
+    }
+
+    private static LdapPromise<? extends Result> send(final Connection connection, final Request request) {
+        if (request instanceof SearchRequest) {
+            return connection.searchAsync((SearchRequest) request, IGNORE_SEARCH_RESULTS);
+        } else if (request instanceof ModifyRequest) {
+            return connection.modifyAsync((ModifyRequest) request);
+        } else if (request instanceof BindRequest) {
+            return connection.bindAsync((BindRequest) request);
+        } else if (request instanceof AddRequest) {
+            return connection.addAsync((AddRequest) request);
+        } else if (request instanceof DeleteRequest) {
+            return connection.deleteAsync((DeleteRequest) request);
+        } else if (request instanceof CompareRequest) {
+            return connection.compareAsync((CompareRequest) request);
+        } else {
+            return connection.modifyDNAsync((ModifyDNRequest) request);
+        }
+    }
+
+    private void awaitOutstandingOperations() {
+        for (final Dispatcher dispatcher : dispatchers) {
+            dispatcher.dispatch(END_OF_REPLAY);
+        }
+        boolean isInterrupted = false;
+        for (final Dispatcher dispatcher : dispatchers) {
+            while (dispatcher.isAlive()) {
+                try {
+                    dispatcher.join();
+                } catch (final InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Prints the original and replayed response times of each type of operation, and their difference. */
+    private void printReport(final Map<OperationType, Histogram> originalResponseTimes,
+            final Map<OperationType, Map<ResultCode, Histogram>> replayedResponseTimes, final double[] percentiles) {
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        if (!isScriptFriendly()) {
+            columns.add(separatorColumn());
+        }
+        columns.add(column("operation", "operation", 10, 0));
+        columns.add(column("count", "count", STANDARD_WIDTH, 0));
+        columns.add(column("errors", "errors", STANDARD_WIDTH, 0));
+        columns.add(column("skipped", "skipped", STANDARD_WIDTH, 0));
+        final List<String> statistics = new ArrayList<>();
+        statistics.add("average");
+        for (final double percentile : percentiles) {
+            statistics.add(percentile + "%");
+        }
+        for (final String statistic : statistics) {
+            if (!isScriptFriendly()) {
+                columns.add(separatorColumn());
+            }
+            columns.add(column(statistic + ".original", title("original", statistic), STANDARD_WIDTH, 3));
+            columns.add(column(statistic + ".replay", title("replay", statistic), STANDARD_WIDTH, 3));
+            columns.add(column(statistic + ".delta", title("delta", statistic), STANDARD_WIDTH, 3));
+        }
+        if (!isScriptFriendly()) {
+            columns.add(separatorColumn());
+        }
+
+        final MultiColumnPrinter printer;
+        if (isScriptFriendly()) {
+            printer = MultiColumnPrinter.builder(getOutputStream(), columns)
+                                        .columnSeparator(",")
+                                        .build();
+        } else {
+            printer = MultiColumnPrinter.builder(getOutputStream(), columns)
+                                        .format(true)
+                                        .titleAlignment(MultiColumnPrinter.Alignment.CENTER)
+                                        .build();
+            printer.printDashedLine();
+            printer.printTitleSection("", 4);
+            for (final String statistic : statistics) {
+                printer.printTitleSection(statistic + " (ms)", 3);
+            }
+        }
+        printer.printTitleLine();
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+
+        for (final OperationType type : OperationType.values()) {
+            final Histogram replayed = mergeResultCodes(replayedResponseTimes.get(type));
+            final Long skippedCount = skippedCounts.get(type);
+            if (replayed.getTotalCount() == 0 && skippedCount == null) {
+                continue;
+            }
+            final Histogram original = originalResponseTimes.get(type);
+            printer.printData(type.toString());
+            printer.printData(String.valueOf(replayed.getTotalCount()));
+            printer.printData(String.valueOf(getErrorCount(replayedResponseTimes.get(type))));
+            printer.printData(String.valueOf(skippedCount != null ? skippedCount : 0));
+            printComparison(printer, original != null ? original.getMean() : Double.NaN, replayed.getMean(),
+                    replayed.getTotalCount());
+            for (final double percentile : percentiles) {
+                printComparison(printer, original != null ? original.getValueAtPercentile(percentile) : Double.NaN,
+                        replayed.getValueAtPercentile(percentile), replayed.getTotalCount());
+            }
+        }
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+    }
+
+    private String title(final String title, final String statistic) {
+        return isScriptFriendly() ? title + " " + statistic : title;
+    }
+
+    /** Prints an original and a replayed response time in nanoseconds, and their difference, in milliseconds. */
+    private static void printComparison(final MultiColumnPrinter printer, final double originalNs,
+            final double replayedNs, final long replayedCount) {
+        final double replayedMs = replayedCount > 0 ? replayedNs / NS_IN_MS : Double.NaN;
+        printer.printData(originalNs / NS_IN_MS);
+        printer.printData(replayedMs);
+        printer.printData(replayedMs - originalNs / NS_IN_MS);
+    }
+
+    private static Histogram mergeResultCodes(final Map<ResultCode, Histogram> histograms) {
+        final Histogram merged = new Histogram(OperationLatencyRecorder.DEFAULT_SIGNIFICANT_VALUE_DIGITS);
+        if (histograms != null) {
+            for (final Histogram histogram : histograms.values()) {
+                merged.add(histogram);
+            }
+        }
+        return merged;
+    }
+
+    private static long getErrorCount(final Map<ResultCode, Histogram> histograms) {
+        long errorCount = 0;
+        if (histograms != null) {
+            for (final Map.Entry<ResultCode, Histogram> entry : histograms.entrySet()) {
+                if (entry.getKey().isExceptional()) {
+                    errorCount += entry.getValue().getTotalCount();
+                }
+            }
+        }
+        return errorCount;
+    }
+
+    private long getSkippedCount() {
+        long skippedCount = 0;
+        for (final long count : skippedCounts.values()) {
+            skippedCount += count;
+        }
+        return skippedCount;
+    }
+
+    private static double parseSpeed(final String speed) throws ArgumentException {
+        try {
+            final double value = Double.parseDouble(speed);
+            if (value > 0 && !Double.isInfinite(value)) {
+                return value;
+            }
+        } catch (final NumberFormatException e) {
+            // Fall through.
+        }
+        throw new ArgumentException(ERR_LDAPREPLAY_INVALID_SPEED.get(speed));
+    }
+
+    private static double[] getPercentiles(final IntegerArgument percentilesArgument) throws ArgumentException {
+        if (!percentilesArgument.isPresent()) {
+            return DEFAULT_PERCENTILES;
+        }
+        final double[] percentiles = new double[percentilesArgument.getValues().size()];
+        int index = 0;
+        for (final String percentile : percentilesArgument.getValues()) {
+            percentiles[index++] = Double.parseDouble(percentile);
+        }
+        Arrays.sort(percentiles);
+        return percentiles;
+    }
+
+    /** Returns the number of operations completed per second since the start time. */
+    private static long getThroughput(final long operations, final long startTimeNs) {
+        final long elapsedNanos = Math.max(System.nanoTime() - startTimeNs, 1);
+        return (long) (operations * NS_IN_S / elapsedNanos);
+    }
+}
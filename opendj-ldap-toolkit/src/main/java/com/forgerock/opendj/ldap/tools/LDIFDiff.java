@@ -25,6 +25,7 @@ import static com.forgerock.opendj.cli.CommonArguments.*;
 
 import static org.forgerock.util.Utils.closeSilently;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -36,6 +37,8 @@ import java.util.List;
 import org.forgerock.i18n.LocalizableException;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldif.ChangeRecordReader;
+import org.forgerock.opendj.ldif.CompressedLDIF;
 import org.forgerock.opendj.ldif.LDIF;
 import org.forgerock.opendj.ldif.LDIFChangeRecordWriter;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
@@ -44,6 +47,7 @@ import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
 import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 /**
@@ -51,6 +55,10 @@ import com.forgerock.opendj.cli.StringArgument;
  * in LDIF format.
  */
 public final class LDIFDiff extends ConsoleApplication {
+    private static final long MB = 1024 * 1024;
+
+    /** The memory budget used when only the temporary directory is specified. */
+    private static final int DEFAULT_MEMORY_BUDGET_MB = 256;
 
     /**
      * The main method for LDIFDiff tool.
@@ -77,6 +85,8 @@ public final class LDIFDiff extends ConsoleApplication {
 
         final BooleanArgument showUsage;
         final StringArgument outputFilename;
+        final IntegerArgument memoryBudget;
+        final StringArgument tempDirectory;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -86,6 +96,19 @@ public final class LDIFDiff extends ConsoleApplication {
                             .defaultValue("stdout")
                             .valuePlaceholder(INFO_OUTPUT_LDIF_FILE_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
+            memoryBudget =
+                    IntegerArgument.builder("memoryBudget")
+                            .shortIdentifier('m')
+                            .description(INFO_LDIFDIFF_DESCRIPTION_MEMORY_BUDGET.get())
+                            .lowerBound(1)
+                            .valuePlaceholder(INFO_MEMORY_BUDGET_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            tempDirectory =
+                    StringArgument.builder("tempDirectory")
+                            .shortIdentifier('t')
+                            .description(INFO_LDIFDIFF_DESCRIPTION_TEMP_DIRECTORY.get())
+                            .valuePlaceholder(INFO_PATH_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
 
             showUsage = showUsageArgument();
             argParser.addArgument(showUsage);
@@ -97,6 +120,7 @@ public final class LDIFDiff extends ConsoleApplication {
         }
 
         // Parse the command-line arguments provided to this program.
+        final long memoryBudgetBytes;
         try {
             argParser.parseArguments(args);
 
@@ -104,6 +128,7 @@ public final class LDIFDiff extends ConsoleApplication {
             if (argParser.usageOrVersionDisplayed()) {
                 return ResultCode.SUCCESS.intValue();
             }
+            memoryBudgetBytes = (memoryBudget.isPresent() ? memoryBudget.getIntValue() : DEFAULT_MEMORY_BUDGET_MB) * MB;
         } catch (final ArgumentException ae) {
             argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
@@ -175,11 +200,30 @@ public final class LDIFDiff extends ConsoleApplication {
                 return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
             }
 
+            // Parse and (de)compress entries using all the available processors.
+            final int parallelism = Runtime.getRuntime().availableProcessors();
+            sourceInputStream = CompressedLDIF.decompress(sourceInputStream, parallelism);
+            targetInputStream = CompressedLDIF.decompress(targetInputStream, parallelism);
+            if (outputFilename.isPresent() && CompressedLDIF.isCompressed(outputFilename.getValue())) {
+                outputStream = CompressedLDIF.compress(outputStream, parallelism);
+            }
+
             // Perform the diff.
-            try (LDIFEntryReader sourceReader = new LDIFEntryReader(sourceInputStream);
-                LDIFEntryReader targetReader = new LDIFEntryReader(targetInputStream);
+            try (LDIFEntryReader sourceReader = new LDIFEntryReader(sourceInputStream).setParallelism(parallelism);
+                LDIFEntryReader targetReader = new LDIFEntryReader(targetInputStream).setParallelism(parallelism);
                 LDIFChangeRecordWriter outputWriter = new LDIFChangeRecordWriter(outputStream)) {
-                LDIF.copyTo(LDIF.diff(sourceReader, targetReader), outputWriter);
+                final ChangeRecordReader diff;
+                if (memoryBudget.isPresent() || tempDirectory.isPresent()) {
+                    final File directory = tempDirectory.isPresent() ? new File(tempDirectory.getValue()) : null;
+                    diff = LDIF.diff(sourceReader, targetReader, memoryBudgetBytes, directory);
+                } else {
+                    diff = LDIF.diff(sourceReader, targetReader);
+                }
+                try {
+                    LDIF.copyTo(diff, outputWriter);
+                } finally {
+                    diff.close();
+                }
             }
         } catch (final IOException e) {
             if (e instanceof LocalizableException) {
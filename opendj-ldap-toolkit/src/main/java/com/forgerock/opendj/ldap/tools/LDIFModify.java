@@ -23,6 +23,7 @@ import static com.forgerock.opendj.cli.Utils.filterExitCode;
 import static org.forgerock.util.Utils.closeSilently;
 import static com.forgerock.opendj.cli.CommonArguments.*;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -40,6 +41,8 @@ import org.forgerock.opendj.ldap.requests.AddRequest;
 import org.forgerock.opendj.ldap.requests.DeleteRequest;
 import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
 import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldif.CompressedLDIF;
+import org.forgerock.opendj.ldif.EntryReader;
 import org.forgerock.opendj.ldif.LDIF;
 import org.forgerock.opendj.ldif.LDIFChangeRecordReader;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
@@ -50,6 +53,7 @@ import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
 import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 /**
@@ -57,6 +61,10 @@ import com.forgerock.opendj.cli.StringArgument;
  * to a set of entries contained in an LDIF file.
  */
 public final class LDIFModify extends ConsoleApplication {
+    private static final long MB = 1024 * 1024;
+
+    /** The memory budget used when only the temporary directory is specified. */
+    private static final int DEFAULT_MEMORY_BUDGET_MB = 256;
     /**
      * The main method for LDIFModify tool.
      *
@@ -83,6 +91,9 @@ public final class LDIFModify extends ConsoleApplication {
         final BooleanArgument continueOnError;
         final BooleanArgument showUsage;
         final StringArgument outputFilename;
+        final IntegerArgument memoryBudget;
+        final StringArgument tempDirectory;
+        final BooleanArgument sortedSource;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -92,6 +103,23 @@ public final class LDIFModify extends ConsoleApplication {
                             .defaultValue("stdout")
                             .valuePlaceholder(INFO_OUTPUT_LDIF_FILE_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
+            memoryBudget =
+                    IntegerArgument.builder("memoryBudget")
+                            .shortIdentifier('m')
+                            .description(INFO_LDIFMODIFY_DESCRIPTION_MEMORY_BUDGET.get())
+                            .lowerBound(1)
+                            .valuePlaceholder(INFO_MEMORY_BUDGET_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            tempDirectory =
+                    StringArgument.builder("tempDirectory")
+                            .shortIdentifier('t')
+                            .description(INFO_LDIFMODIFY_DESCRIPTION_TEMP_DIRECTORY.get())
+                            .valuePlaceholder(INFO_PATH_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            sortedSource =
+                    BooleanArgument.builder("sortedSource")
+                            .description(INFO_LDIFMODIFY_DESCRIPTION_SORTED_SOURCE.get())
+                            .buildAndAddToParser(argParser);
 
             continueOnError = continueOnErrorArgument();
             argParser.addArgument(continueOnError);
@@ -106,6 +134,7 @@ public final class LDIFModify extends ConsoleApplication {
         }
 
         // Parse the command-line arguments provided to this program.
+        final long memoryBudgetBytes;
         try {
             argParser.parseArguments(args);
 
@@ -114,6 +143,7 @@ public final class LDIFModify extends ConsoleApplication {
             if (argParser.usageOrVersionDisplayed()) {
                 return ResultCode.SUCCESS.intValue();
             }
+            memoryBudgetBytes = (memoryBudget.isPresent() ? memoryBudget.getIntValue() : DEFAULT_MEMORY_BUDGET_MB) * MB;
         } catch (final ArgumentException ae) {
             argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
@@ -125,6 +155,7 @@ public final class LDIFModify extends ConsoleApplication {
         LDIFEntryReader sourceReader = null;
         LDIFChangeRecordReader changesReader = null;
         LDIFEntryWriter outputWriter = null;
+        EntryReader patchedReader = null;
 
         try {
             // First source file.
@@ -188,10 +219,18 @@ public final class LDIFModify extends ConsoleApplication {
                 return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
             }
 
+            // Parse, encode and (de)compress entries using all the available processors.
+            final int parallelism = Runtime.getRuntime().availableProcessors();
+            sourceInputStream = CompressedLDIF.decompress(sourceInputStream, parallelism);
+            changesInputStream = CompressedLDIF.decompress(changesInputStream, parallelism);
+            if (outputFilename.isPresent() && CompressedLDIF.isCompressed(outputFilename.getValue())) {
+                outputStream = CompressedLDIF.compress(outputStream, parallelism);
+            }
+
             // Apply the changes.
-            sourceReader = new LDIFEntryReader(sourceInputStream);
+            sourceReader = new LDIFEntryReader(sourceInputStream).setParallelism(parallelism);
             changesReader = new LDIFChangeRecordReader(changesInputStream);
-            outputWriter = new LDIFEntryWriter(outputStream);
+            outputWriter = new LDIFEntryWriter(outputStream).setParallelism(parallelism);
 
             final RejectedChangeRecordListener listener = new RejectedChangeRecordListener() {
                 @Override
@@ -271,7 +310,14 @@ public final class LDIFModify extends ConsoleApplication {
                 }
             };
 
-            LDIF.copyTo(LDIF.patch(sourceReader, changesReader, listener), outputWriter);
+            if (memoryBudget.isPresent() || tempDirectory.isPresent() || sortedSource.isPresent()) {
+                final File directory = tempDirectory.isPresent() ? new File(tempDirectory.getValue()) : null;
+                patchedReader = LDIF.patch(sourceReader, changesReader, listener, memoryBudgetBytes, directory,
+                        sortedSource.isPresent());
+            } else {
+                patchedReader = LDIF.patch(sourceReader, changesReader, listener);
+            }
+            LDIF.copyTo(patchedReader, outputWriter);
         } catch (final IOException e) {
             if (e instanceof LocalizableException) {
                 errPrintln(ERR_LDIFMODIFY_PATCH_FAILED.get(((LocalizableException) e)
@@ -281,7 +327,7 @@ public final class LDIFModify extends ConsoleApplication {
             }
             return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
         } finally {
-            closeSilently(sourceReader, changesReader, outputWriter);
+            closeSilently(patchedReader, sourceReader, changesReader, outputWriter);
             closeSilently(sourceInputStream, changesInputStream, outputStream);
         }
 
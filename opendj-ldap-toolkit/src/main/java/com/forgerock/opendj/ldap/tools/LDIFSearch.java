@@ -24,6 +24,7 @@ import static com.forgerock.opendj.cli.CommonArguments.*;
 import static org.forgerock.util.Utils.closeSilently;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -31,21 +32,27 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.forgerock.i18n.LocalizableException;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.AttributeDescription;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.Filter;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldif.CompressedLDIF;
+import org.forgerock.opendj.ldif.EntryReader;
 import org.forgerock.opendj.ldif.LDIF;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.forgerock.opendj.ldif.LDIFEntryWriter;
+import org.forgerock.opendj.ldif.LDIFIndex;
 
 import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
@@ -88,6 +95,8 @@ public final class LDIFSearch extends ConsoleApplication {
         final StringArgument baseDN;
         final MultiChoiceArgument<SearchScope> searchScope;
         final IntegerArgument sizeLimit;
+        final BooleanArgument useIndex;
+        final StringArgument indexAttributes;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -133,6 +142,16 @@ public final class LDIFSearch extends ConsoleApplication {
                             .defaultValue(0)
                             .valuePlaceholder(INFO_TIME_LIMIT_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
+            useIndex =
+                    BooleanArgument.builder("useIndex")
+                            .description(INFO_LDIFSEARCH_DESCRIPTION_USE_INDEX.get())
+                            .buildAndAddToParser(argParser);
+            indexAttributes =
+                    StringArgument.builder("indexAttribute")
+                            .description(INFO_LDIFSEARCH_DESCRIPTION_INDEX_ATTRIBUTE.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_ATTRIBUTE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
 
             showUsage = showUsageArgument();
             argParser.addArgument(showUsage);
@@ -206,7 +225,13 @@ public final class LDIFSearch extends ConsoleApplication {
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
         }
 
+        if (useIndex.isPresent() && "-".equals(trailingArguments.get(0))) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_LDIFSEARCH_INDEX_REQUIRES_FILE.get());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
         final SearchRequest search;
+        final List<AttributeDescription> indexedAttributes = new ArrayList<>();
         try {
             final SearchScope scope = searchScope.getTypedValue();
             search =
@@ -214,6 +239,9 @@ public final class LDIFSearch extends ConsoleApplication {
                             attributes.toArray(new String[attributes.size()])).setTypesOnly(
                             typesOnly.isPresent()).setTimeLimit(timeLimit.getIntValue())
                             .setSizeLimit(sizeLimit.getIntValue());
+            for (final String indexAttribute : indexAttributes.getValues()) {
+                indexedAttributes.add(AttributeDescription.valueOf(indexAttribute));
+            }
         } catch (final ArgumentException | LocalizedIllegalArgumentException e) {
             errPrintln(e.getMessageObject());
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
@@ -259,10 +287,25 @@ public final class LDIFSearch extends ConsoleApplication {
                 outputStream = System.out;
             }
 
-            // Perform the search.
-            try (LDIFEntryReader sourceReader = new LDIFEntryReader(sourceInputStream);
-                LDIFEntryWriter outputWriter = new LDIFEntryWriter(outputStream)) {
-                LDIF.copyTo(LDIF.search(sourceReader, search), outputWriter);
+            // Parse, encode and (de)compress entries using all the available processors.
+            final int parallelism = Runtime.getRuntime().availableProcessors();
+            sourceInputStream = CompressedLDIF.decompress(sourceInputStream, parallelism);
+            if (outputFilename.isPresent() && CompressedLDIF.isCompressed(outputFilename.getValue())) {
+                outputStream = CompressedLDIF.compress(outputStream, parallelism);
+            }
+
+            // Perform the search, reading only the candidate entries if the source is indexed.
+            final EntryReader sourceReader;
+            final File sourceFile = new File(trailingArguments.get(0));
+            if (useIndex.isPresent() && !CompressedLDIF.isCompressed(sourceFile)) {
+                sourceReader = LDIFIndex.openOrBuild(sourceFile, Schema.getDefaultSchema(), indexedAttributes)
+                                        .search(search);
+            } else {
+                sourceReader = LDIF.search(new LDIFEntryReader(sourceInputStream).setParallelism(parallelism), search);
+            }
+            try (EntryReader searchReader = sourceReader;
+                LDIFEntryWriter outputWriter = new LDIFEntryWriter(outputStream).setParallelism(parallelism)) {
+                LDIF.copyTo(searchReader, outputWriter);
             }
         } catch (final IOException e) {
             if (e instanceof LocalizableException) {
@@ -23,9 +23,9 @@ import static com.forgerock.opendj.cli.Utils.filterExitCode;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_MAKELDIF_WRAP_COLUMN_PLACEHOLDER;
 import static org.forgerock.util.Utils.closeSilently;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 
@@ -39,6 +39,7 @@ import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldif.CompressedLDIF;
 import org.forgerock.opendj.ldif.EntryGenerator;
 import org.forgerock.opendj.ldif.LDIFEntryWriter;
 
@@ -82,6 +83,7 @@ public final class MakeLDIF extends ConsoleApplication {
         StringArgument resourcePath;
         StringArgument constants;
         IntegerArgument wrapColumn;
+        IntegerArgument numThreads;
         try {
             resourcePath =
                     StringArgument.builder(OPTION_LONG_RESOURCE_PATH)
@@ -125,6 +127,15 @@ public final class MakeLDIF extends ConsoleApplication {
                             .valuePlaceholder(INFO_MAKELDIF_WRAP_COLUMN_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
 
+            numThreads =
+                    IntegerArgument.builder("numThreads")
+                            .shortIdentifier('t')
+                            .description(INFO_MAKELDIF_DESCRIPTION_NUM_THREADS.get())
+                            .lowerBound(1)
+                            .defaultValue(1)
+                            .valuePlaceholder(LocalizableMessage.raw("{numThreads}"))
+                            .buildAndAddToParser(argParser);
+
             argParser.setUsageArgument(showUsage, getOutputStream());
         } catch (ArgumentException ae) {
             errPrintln(ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage()));
@@ -143,14 +154,23 @@ public final class MakeLDIF extends ConsoleApplication {
             return 0;
         }
         final String templatePath = argParser.getTrailingArguments().get(0);
-        return run(templatePath, resourcePath, ldifFile, randomSeed, constants, wrapColumn);
+        final int parallelism;
+        try {
+            parallelism = numThreads.getIntValue();
+        } catch (ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return EXIT_CODE_FAILURE;
+        }
+        return run(templatePath, resourcePath, ldifFile, randomSeed, constants, wrapColumn, parallelism);
     }
 
     /** Run Make LDIF with provided arguments. */
     private int run(final String templatePath, final StringArgument resourcePath, final StringArgument ldifFile,
-            final IntegerArgument randomSeedArg, final StringArgument constants, final IntegerArgument wrapColumn) {
+            final IntegerArgument randomSeedArg, final StringArgument constants, final IntegerArgument wrapColumn,
+            final int parallelism) {
         LDIFEntryWriter writer = null;
-        try (EntryGenerator generator = createGenerator(templatePath, resourcePath, randomSeedArg, constants)) {
+        try (EntryGenerator generator = createGenerator(templatePath, resourcePath, randomSeedArg, constants,
+                parallelism)) {
             if (generator == null) {
                 return EXIT_CODE_FAILURE;
             }
@@ -162,7 +182,7 @@ public final class MakeLDIF extends ConsoleApplication {
             }
 
             try {
-                writer = createLdifWriter(ldifFile, wrapColumn);
+                writer = createLdifWriter(ldifFile, wrapColumn).setParallelism(parallelism);
             } catch (final IOException e) {
                 errPrintln(ERR_MAKELDIF_UNABLE_TO_CREATE_LDIF.get(ldifFile.getValue(), e.getMessage()));
                 return EXIT_CODE_FAILURE;
@@ -186,8 +206,12 @@ public final class MakeLDIF extends ConsoleApplication {
     private LDIFEntryWriter createLdifWriter(final StringArgument ldifFile, final IntegerArgument wrapColumn)
             throws IOException, ArgumentException {
         final LDIFEntryWriter writer;
-        if (ldifFile.isPresent()) {
-            writer = new LDIFEntryWriter(new BufferedWriter(new FileWriter(ldifFile.getValue())));
+        if (ldifFile.isPresent() && CompressedLDIF.isCompressed(ldifFile.getValue())) {
+            // Compress the entries using all the available processors.
+            writer = new LDIFEntryWriter(CompressedLDIF.compress(new FileOutputStream(ldifFile.getValue()),
+                    Runtime.getRuntime().availableProcessors()));
+        } else if (ldifFile.isPresent()) {
+            writer = new LDIFEntryWriter(new BufferedOutputStream(new FileOutputStream(ldifFile.getValue())));
         } else {
             writer = new LDIFEntryWriter(getOutputStream());
         }
@@ -252,8 +276,10 @@ public final class MakeLDIF extends ConsoleApplication {
     }
 
     private EntryGenerator createGenerator(final String templatePath, final StringArgument resourcePath,
-            final IntegerArgument randomSeedArg, final StringArgument constants) {
-        return createGenerator(templatePath, resourcePath, randomSeedArg, constants, true, this);
+            final IntegerArgument randomSeedArg, final StringArgument constants, final int parallelism) {
+        final EntryGenerator generator = createGenerator(templatePath, resourcePath, randomSeedArg, constants, true,
+                this);
+        return generator != null ? generator.setParallelism(parallelism) : null;
     }
 
     /** Returns true if generation is successful, false otherwise. */
@@ -272,6 +298,13 @@ public final class MakeLDIF extends ConsoleApplication {
                     errPrintln(INFO_MAKELDIF_PROCESSED_N_ENTRIES.get(numberOfEntriesWritten));
                 }
             }
+            try {
+                // Entries encoded in parallel are only written when the writer is flushed.
+                writer.flush();
+            } catch (IOException e) {
+                errPrintln(ERR_MAKELDIF_ERROR_WRITING_LDIF.get(ldifFile.getValue(), e.getMessage()));
+                return false;
+            }
         } catch (Exception e) {
             errPrintln(ERR_MAKELDIF_EXCEPTION_DURING_PROCESSING.get(e.getMessage()));
             return false;
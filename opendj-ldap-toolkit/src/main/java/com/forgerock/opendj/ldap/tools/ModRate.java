@@ -16,11 +16,14 @@
  */
 package com.forgerock.opendj.ldap.tools;
 
+import java.io.PrintStream;
+
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.OperationType;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.LdapResultHandler;
 import org.forgerock.opendj.ldap.requests.ModifyRequest;
@@ -50,6 +53,15 @@ public final class ModRate extends ConsoleApplication {
         private final class ModifyWorkerThread extends WorkerThread {
             private ModifyRequest mr;
             private Object[] data;
+            private final ParameterGenerator<ModifyRequest> requests = new ParameterGenerator<ModifyRequest>() {
+                @Override
+                ModifyRequest generate(final DataSource[] dataSources) {
+                    if (dataSources != null) {
+                        data = DataSource.generateData(dataSources, data);
+                    }
+                    return newModifyRequest(data);
+                }
+            };
 
             private ModifyWorkerThread(final Connection connection,
                     final ConnectionFactory connectionFactory) {
@@ -59,11 +71,8 @@ public final class ModRate extends ConsoleApplication {
             @Override
             public Promise<?, LdapException> performOperation(final Connection connection,
                     final DataSource[] dataSources, final long currentTimeNs) {
-                if (dataSources != null) {
-                    data = DataSource.generateData(dataSources, data);
-                }
-                mr = newModifyRequest(data);
-                LdapResultHandler<Result> modRes = new UpdateStatsResultHandler<>(currentTimeNs);
+                mr = requests.next(dataSources);
+                LdapResultHandler<Result> modRes = new UpdateStatsResultHandler<>(OperationType.MODIFY, currentTimeNs);
 
                 incrementIterationCount();
                 return connection.modifyAsync(mr).thenOnResult(modRes).thenOnException(modRes);
@@ -132,6 +141,18 @@ public final class ModRate extends ConsoleApplication {
         // Nothing to do.
     }
 
+    /**
+     * Constructor to allow tests.
+     *
+     * @param out
+     *            output stream of console application
+     * @param err
+     *            error stream of console application
+     */
+    ModRate(PrintStream out, PrintStream err) {
+        super(out, err);
+    }
+
     @Override
     public boolean isInteractive() {
         return false;
@@ -148,6 +169,15 @@ public final class ModRate extends ConsoleApplication {
     }
 
     private int run(final String[] args) {
+        return run(args, null);
+    }
+
+    /**
+     * Runs this tool using the provided connection factory, if any, rather than
+     * the one configured by the connection arguments. This allows the tool to
+     * be run against an in-process server, for example by benchmarks.
+     */
+    int run(final String[] args, final ConnectionFactory internalConnectionFactory) {
         // Creates the command-line argument parser for use with this program
         final LocalizableMessage toolDescription = INFO_MODRATE_TOOL_DESCRIPTION.get();
         final ArgumentParser argParser =
@@ -168,8 +198,11 @@ public final class ModRate extends ConsoleApplication {
         try {
             Utils.setDefaultPerfToolProperties();
 
+            final PerformanceRunnerOptions options = new PerformanceRunnerOptions(argParser, this);
+            options.setSupportsPregeneration(true);
+
             connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
-            runner = new ModifyPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+            runner = new ModifyPerformanceRunner(options);
 
             propertiesFileArgument = propertiesFileArgument();
             argParser.addArgument(propertiesFileArgument);
@@ -214,7 +247,8 @@ public final class ModRate extends ConsoleApplication {
                 return 0;
             }
 
-            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            connectionFactory = internalConnectionFactory != null ? internalConnectionFactory
+                    : connectionFactoryProvider.getAuthenticatedConnectionFactory();
             runner.setBindRequest(connectionFactoryProvider.getBindRequest());
             runner.validate();
         } catch (final ArgumentException ae) {
@@ -21,24 +21,41 @@ import static java.util.concurrent.TimeUnit.*;
 
 import static org.forgerock.util.Utils.*;
 
+import static com.forgerock.opendj.cli.CliMessages.ERR_TOOL_CONFLICTING_ARGS;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.HistogramLogWriter;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.ConnectionEventListener;
 import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.Connections;
 import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.OperationLatencyRecorder;
+import org.forgerock.opendj.ldap.OperationType;
+import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.Promise;
 
+import com.forgerock.opendj.cli.Argument;
 import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
@@ -81,45 +98,130 @@ abstract class PerformanceRunner implements ConnectionEventListener {
      *            The type of expected result.
      */
     class UpdateStatsResultHandler<S extends Result> implements LdapResultHandler<S> {
+        private final OperationType operationType;
         protected final long operationStartTimeNs;
 
-        UpdateStatsResultHandler(final long currentTimeNs) {
+        UpdateStatsResultHandler(final OperationType operationType, final long currentTimeNs) {
+            this.operationType = operationType;
             this.operationStartTimeNs = currentTimeNs;
         }
 
         @Override
         public final void handleException(final LdapException exception) {
             statsThread.incrementFailedCount();
-            updateResponseTime();
+            updateResponseTime(exception.getResult().getResultCode());
             app.errPrintVerboseMessage(LocalizableMessage.raw(exception.getResult().toString()));
         }
 
         @Override
         public final void handleResult(final S result) {
             statsThread.incrementSuccessCount();
-            updateResponseTime();
+            updateResponseTime(result.getResultCode());
             updateAdditionalStatsOnResult();
         }
 
         /** Do nothing by default, child classes which manage additional stats need to override this method. */
         void updateAdditionalStatsOnResult() { }
 
-        private void updateResponseTime() {
-            statsThread.addResponseTime(System.nanoTime() - operationStartTimeNs);
+        private void updateResponseTime(final ResultCode resultCode) {
+            final long responseTimeNs = System.nanoTime() - operationStartTimeNs;
+            statsThread.addResponseTime(responseTimeNs);
+            if (openLoop && latencyRecorder != null) {
+                // Open-loop connections are not instrumented, see run(ConnectionFactory).
+                latencyRecorder.recordLatency(operationType, resultCode, responseTimeNs);
+            }
         }
     }
 
-    /** Worker thread base implementation. */
+    /**
+     * Worker thread base implementation.
+     * <p>
+     * By default, worker threads are closed-loop: each thread waits for the
+     * completion of an operation before performing the next one. When more
+     * than one outstanding request per connection is allowed, worker threads
+     * do not wait for completions, but only for a free slot in the window of
+     * outstanding requests of their connection, so that a few threads can keep
+     * many requests in flight. In open-loop mode, operations are performed at
+     * intended start times which are independent of their completion, and
+     * response times are measured from these intended start times, so that
+     * server stalls are fully accounted for rather than delaying the next
+     * operations.
+     */
     abstract class WorkerThread extends Thread {
+        /**
+         * Generates the requests, or other parameters, of the operations
+         * performed by a worker thread using its data sources. When requests
+         * are pre-generated, they are all generated before the run starts and
+         * then reused in turn, so that evaluating the data sources and the
+         * format strings does not slow down the measurement loop.
+         *
+         * @param <T>
+         *            The type of generated parameters.
+         */
+        abstract class ParameterGenerator<T> {
+            private List<T> pregeneratedParameters;
+            private int nextIndex;
+
+            ParameterGenerator() {
+                parameterGenerators.add(this);
+            }
+
+            /** Generates the parameters of an operation. */
+            abstract T generate(DataSource[] dataSources);
+
+            /** Returns the parameters of the next operation. */
+            final T next(final DataSource[] dataSources) {
+                if (pregeneratedParameters == null) {
+                    return generate(dataSources);
+                }
+                final T parameters = pregeneratedParameters.get(nextIndex);
+                if (++nextIndex == pregeneratedParameters.size()) {
+                    nextIndex = 0;
+                }
+                return parameters;
+            }
+
+            private void pregenerate(final DataSource[] dataSources) {
+                final List<T> parameters = new ArrayList<>(pregenerateCount);
+                for (int i = 0; i < pregenerateCount; i++) {
+                    parameters.add(generate(dataSources));
+                }
+                pregeneratedParameters = parameters;
+            }
+        }
+
         private int count;
+        /** The connection used for the operations of this thread, which may be instrumented. */
         private final Connection connection;
+        /** The same connection, without instrumentation, so that rebinds are not recorded as operations. */
+        private final Connection rebindConnection;
         private final ConnectionFactory connectionFactory;
+        /** Limits the outstanding requests of the connection, or {@code null} if this thread is not pipelined. */
+        private final Semaphore window;
         boolean localStopRequested;
+        /** Protects {@link #outstandingOperations}, and is notified when an asynchronous operation completes. */
+        private final Object lock = new Object();
+        private int outstandingOperations;
+        private final List<ParameterGenerator<?>> parameterGenerators = new ArrayList<>();
+
+        /** Stops the tool if an asynchronous operation failed because of a network error. */
+        private final ExceptionHandler<LdapException> ioErrorHandler = new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException e) {
+                if (!stopRequested && e.getCause() instanceof IOException) {
+                    e.getCause().printStackTrace(app.getErrorStream());
+                    stopTool(true);
+                }
+                // Otherwise ignore. Handled by result handler
+            }
+        };
 
         WorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
             super("Worker Thread");
-            this.connection = connection;
+            this.connection = connection != null ? instrument(connection) : null;
+            this.rebindConnection = connection;
             this.connectionFactory = connectionFactory;
+            this.window = connection != null && maxOutstanding > 1 ? getWindow(connection) : null;
         }
 
         public abstract Promise<?, LdapException> performOperation(
@@ -127,6 +229,29 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
         @Override
         public void run() {
+            try {
+                if (pregenerateCount > 0) {
+                    for (final ParameterGenerator<?> generator : parameterGenerators) {
+                        generator.pregenerate(dataSources.get());
+                    }
+                }
+            } finally {
+                workerThreadsReady.countDown();
+            }
+            try {
+                startSignal.await();
+            } catch (final InterruptedException e) {
+                return;
+            }
+
+            if (openLoop) {
+                runOpenLoop();
+            } else {
+                runClosedLoop();
+            }
+        }
+
+        private void runClosedLoop() {
             Promise<?, LdapException> promise;
             Connection connection;
             final double targetTimeMs = 1000.0 / (targetThroughput / (double) (numThreads * numConnections));
@@ -144,24 +269,43 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                     break;
                 }
 
+                if (window != null) {
+                    try {
+                        window.acquire();
+                    } catch (final InterruptedException e) {
+                        // Ignore and check stop requested
+                        continue;
+                    }
+                }
+
                 long startTimeNs = System.nanoTime();
                 promise = performOperation(connection, dataSources.get(), startTimeNs);
                 statsThread.incrementOperationCount();
-                try {
-                    promise.getOrThrow();
-                } catch (final InterruptedException e) {
-                    // Ignore and check stop requested
-                    continue;
-                } catch (final LdapException e) {
-                    if (!stopRequested && e.getCause() instanceof IOException) {
-                        e.getCause().printStackTrace(app.getErrorStream());
-                        stopTool(true);
-                        break;
-                    }
-                    // Ignore. Handled by result handler
-                } finally {
-                    if (this.connection == null) {
-                        connection.close();
+                if (window != null) {
+                    operationStarted();
+                    promise.thenOnException(ioErrorHandler).thenAlways(new Runnable() {
+                        @Override
+                        public void run() {
+                            operationCompleted();
+                        }
+                    });
+                } else {
+                    try {
+                        promise.getOrThrow();
+                    } catch (final InterruptedException e) {
+                        // Ignore and check stop requested
+                        continue;
+                    } catch (final LdapException e) {
+                        if (!stopRequested && e.getCause() instanceof IOException) {
+                            e.getCause().printStackTrace(app.getErrorStream());
+                            stopTool(true);
+                            break;
+                        }
+                        // Ignore. Handled by result handler
+                    } finally {
+                        if (this.connection == null) {
+                            connection.close();
+                        }
                     }
                 }
 
@@ -182,17 +326,106 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                     }
                 }
             }
+            awaitOutstandingOperations();
+        }
+
+        private void runOpenLoop() {
+            final double intervalNs = SECONDS.toNanos(1) / (targetThroughput / (double) (numThreads * numConnections));
+            final Random random = new Random();
+            final long startTimeNs = System.nanoTime();
+            double elapsedTimeNs = 0;
+
+            while (!stopRequested && !localStopRequested
+                    && (maxIterations <= 0 || count < maxIterations)) {
+                final long intendedStartTimeNs = startTimeNs + (long) elapsedTimeNs;
+                final long waitTimeNs = intendedStartTimeNs - System.nanoTime();
+                if (waitTimeNs > 0) {
+                    // Check stop requested again once woken up.
+                    LockSupport.parkNanos(waitTimeNs);
+                    continue;
+                }
+
+                final Connection connection;
+                try {
+                    connection = getConnectionToUse();
+                } catch (final InterruptedException e) {
+                    // Ignore and check stop requested
+                    continue;
+                } catch (final LdapException e) {
+                    handleConnectionError(false, e);
+                    break;
+                }
+
+                if (window != null) {
+                    // Late requests are still measured from their intended start time.
+                    try {
+                        window.acquire();
+                    } catch (final InterruptedException e) {
+                        // Ignore and check stop requested
+                        continue;
+                    }
+                }
+
+                final long actualStartTimeNs = System.nanoTime();
+                operationStarted();
+                performOperation(connection, dataSources.get(), intendedStartTimeNs)
+                        .thenOnException(ioErrorHandler)
+                        .thenAlways(new Runnable() {
+                            @Override
+                            public void run() {
+                                statsThread.addUncorrectedResponseTime(System.nanoTime() - actualStartTimeNs);
+                                if (WorkerThread.this.connection == null) {
+                                    connection.close();
+                                }
+                                operationCompleted();
+                            }
+                        });
+                statsThread.incrementOperationCount();
+
+                // Exponentially distributed intervals between operations result in Poisson arrivals.
+                elapsedTimeNs += poissonArrivals ? -Math.log(1 - random.nextDouble()) * intervalNs : intervalNs;
+            }
+            awaitOutstandingOperations();
+        }
+
+        private void operationStarted() {
+            synchronized (lock) {
+                outstandingOperations++;
+            }
+        }
+
+        private void operationCompleted() {
+            if (window != null) {
+                window.release();
+            }
+            synchronized (lock) {
+                outstandingOperations--;
+                lock.notifyAll();
+            }
+        }
+
+        /** Waits for the completion of the asynchronous operations, unless the tool is stopped. */
+        private void awaitOutstandingOperations() {
+            synchronized (lock) {
+                while (outstandingOperations > 0 && !stopRequested) {
+                    try {
+                        // Stopping the tool does not notify the lock.
+                        lock.wait(100);
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+            }
         }
 
         private Connection getConnectionToUse() throws InterruptedException, LdapException {
             if (this.connection == null) {
                 return connectionFactory.getConnectionAsync().getOrThrow();
             } else {
-                final Connection resultConnection = this.connection;
                 if (!noRebind && bindRequest != null) {
-                    resultConnection.bindAsync(bindRequest).getOrThrow();
+                    rebindConnection.bindAsync(bindRequest).getOrThrow();
                 }
-                return resultConnection;
+                return this.connection;
             }
         }
 
@@ -204,6 +437,14 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private final ConsoleApplication app;
     private DataSource[] dataSourcePrototypes;
 
+    /** Counted down by each worker thread once it is ready to perform operations. */
+    private CountDownLatch workerThreadsReady;
+    /** Released once all the worker threads are ready, so that they start performing operations together. */
+    private final CountDownLatch startSignal = new CountDownLatch(1);
+
+    /** The windows of outstanding requests of the connections shared by pipelined worker threads. */
+    private final ConcurrentMap<Connection, Semaphore> windows = new ConcurrentHashMap<>();
+
     /** Thread local copies of the data sources. */
     private final ThreadLocal<DataSource[]> dataSources = new ThreadLocal<DataSource[]>() {
         @Override
@@ -224,6 +465,14 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private boolean stopRequested;
 
     private int targetThroughput;
+    /** Target throughput used when none is provided on the command line. */
+    private int defaultTargetThroughput;
+    private int maxOutstanding;
+    private int pregenerateCount;
+    private int steadyStateWindow;
+    private double steadyStateThreshold;
+    private boolean openLoop;
+    private boolean poissonArrivals;
     private int maxIterations;
     /** Warm-up duration time in ms. */
     private long warmUpDurationMs;
@@ -233,6 +482,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private BindRequest bindRequest;
     private int statsIntervalMs;
     private final IntegerArgument numThreadsArgument;
+    private final IntegerArgument maxOutstandingArgument;
+    private final IntegerArgument pregenerateArgument;
     private final IntegerArgument maxDurationArgument;
     private final IntegerArgument statsIntervalArgument;
     private final IntegerArgument targetThroughputArgument;
@@ -240,12 +491,25 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private final IntegerArgument percentilesArgument;
     private final BooleanArgument keepConnectionsOpen;
     private final BooleanArgument noRebindArgument;
+    /** {@code false} if the operations of the tool are binds, in which case connections are never rebound. */
+    private final boolean supportsRebind;
+    private final BooleanArgument openLoopArgument;
+    private final BooleanArgument poissonArrivalsArgument;
     private final StringArgument arguments;
+    private final StringArgument histogramLogFileArgument;
+    private final IntegerArgument steadyStateWindowArgument;
+    private final IntegerArgument steadyStateThresholdArgument;
+    private final StringArgument steadyStateSummaryFileArgument;
     protected final IntegerArgument maxIterationsArgument;
     protected final IntegerArgument warmUpArgument;
 
     private final List<Thread> workerThreads = new ArrayList<>();
     StatsThread statsThread;
+    /** Records the response times of each type of operation when a histogram log is written, otherwise null. */
+    private OperationLatencyRecorder latencyRecorder;
+    private HistogramLogWriter histogramLogWriter;
+    /** The stream to which the steady state summary is written, or null. */
+    private PrintStream steadyStateSummary;
 
     PerformanceRunner(final PerformanceRunnerOptions options) throws ArgumentException {
         ArgumentParser argParser = options.getArgumentParser();
@@ -266,6 +530,21 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             numThreadsArgument.addValue("1");
         }
 
+        maxOutstandingArgument =
+                IntegerArgument.builder("maxOutstanding")
+                        .description(LocalizableMessage.raw("Maximum number of outstanding requests per "
+                                + "connection. Values greater than 1 let worker threads send requests without "
+                                + "waiting for the previous ones to complete"))
+                        .lowerBound(1)
+                        .defaultValue(1)
+                        .valuePlaceholder(LocalizableMessage.raw("{maxOutstanding}"))
+                        .buildArgument();
+        if (options.supportsMultipleThreadsPerConnection()) {
+            argParser.addArgument(maxOutstandingArgument);
+        } else {
+            maxOutstandingArgument.addValue("1");
+        }
+
         numConnectionsArgument =
                 IntegerArgument.builder("numConnections")
                         .shortIdentifier('c')
@@ -311,6 +590,51 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                         .defaultValue(0)
                         .valuePlaceholder(LocalizableMessage.raw("{targetThroughput}"))
                         .buildAndAddToParser(argParser);
+        openLoopArgument =
+                BooleanArgument.builder("openLoop")
+                        .description(LocalizableMessage.raw("Perform operations at the target average throughput "
+                                + "without waiting for previous operations to complete, and measure response times "
+                                + "from their intended start time"))
+                        .buildAndAddToParser(argParser);
+        poissonArrivalsArgument =
+                BooleanArgument.builder("poissonArrivals")
+                        .description(LocalizableMessage.raw("Use random, exponentially distributed intervals "
+                                + "between open-loop operations instead of fixed intervals"))
+                        .buildAndAddToParser(argParser);
+        histogramLogFileArgument =
+                StringArgument.builder("histogramLogFile")
+                        .description(LocalizableMessage.raw("Write the response time distribution of each type of "
+                                + "operation for each statistics interval to the specified file, using the "
+                                + "HdrHistogram interval log format. Logs of several clients can be merged with the "
+                                + "hlogmerge command. In open-loop mode, response times are measured from the "
+                                + "intended start time of operations, like the response times reported on the "
+                                + "console"))
+                        .valuePlaceholder(LocalizableMessage.raw("{histogramLogFile}"))
+                        .buildAndAddToParser(argParser);
+        steadyStateWindowArgument =
+                IntegerArgument.builder("steadyStateWindow")
+                        .description(LocalizableMessage.raw("Number of consecutive statistics intervals over which "
+                                + "the throughput and the 99% response time must be stable for steady state to be "
+                                + "reached. Once steady state is reached, it is reported and the final summary of "
+                                + "the run only covers the steady intervals. 0 disables steady state detection"))
+                        .lowerBound(0)
+                        .defaultValue(0)
+                        .valuePlaceholder(LocalizableMessage.raw("{numIntervals}"))
+                        .buildAndAddToParser(argParser);
+        steadyStateThresholdArgument =
+                IntegerArgument.builder("steadyStateThreshold")
+                        .description(LocalizableMessage.raw("Maximum coefficient of variation, in percent, of the "
+                                + "throughput and of the 99% response time of the steady state intervals"))
+                        .range(1, 100)
+                        .defaultValue(5)
+                        .valuePlaceholder(LocalizableMessage.raw("{percent}"))
+                        .buildAndAddToParser(argParser);
+        steadyStateSummaryFileArgument =
+                StringArgument.builder("steadyStateSummaryFile")
+                        .description(LocalizableMessage.raw("Write the final summary of the run to the specified "
+                                + "file in JSON format, for example in order to track performance regressions"))
+                        .valuePlaceholder(LocalizableMessage.raw("{file}"))
+                        .buildAndAddToParser(argParser);
         percentilesArgument =
                 IntegerArgument.builder("percentile")
                         .shortIdentifier('e')
@@ -330,7 +654,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                         .shortIdentifier('F')
                         .description(LocalizableMessage.raw("Keep connections open and do not rebind"))
                         .buildArgument();
-        if (options.supportsRebind()) {
+        supportsRebind = options.supportsRebind();
+        if (supportsRebind) {
             argParser.addArgument(noRebindArgument);
         }
 
@@ -351,6 +676,22 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         if (options.supportsGeneratorArgument()) {
             argParser.addArgument(arguments);
         }
+
+        pregenerateArgument =
+                IntegerArgument.builder("pregenerate")
+                        .description(LocalizableMessage.raw("Number of requests generated by each worker thread "
+                                + "before the run starts, and then reused in turn, so that evaluating the "
+                                + "generator functions and format strings does not limit the throughput of the "
+                                + "tool. 0 generates a new request for each operation"))
+                        .lowerBound(0)
+                        .defaultValue(0)
+                        .valuePlaceholder(LocalizableMessage.raw("{numRequests}"))
+                        .buildArgument();
+        if (options.supportsPregeneration()) {
+            argParser.addArgument(pregenerateArgument);
+        } else {
+            pregenerateArgument.addValue("0");
+        }
     }
 
     @Override
@@ -377,19 +718,66 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     public final void validate() throws ArgumentException {
         numConnections = numConnectionsArgument.getIntValue();
         numThreads = numThreadsArgument.getIntValue();
+        maxOutstanding = maxOutstandingArgument.getIntValue();
+        pregenerateCount = pregenerateArgument.getIntValue();
         warmUpDurationMs = warmUpArgument.getIntValue() * 1000L;
         maxIterations = maxIterationsArgument.getIntValue() / numConnections / numThreads;
         maxDurationTimeMs = maxDurationArgument.getIntValue() * 1000L;
         statsIntervalMs = statsIntervalArgument.getIntValue() * 1000;
-        targetThroughput = targetThroughputArgument.getIntValue();
+        targetThroughput = targetThroughputArgument.isPresent() ? targetThroughputArgument.getIntValue()
+                                                                : defaultTargetThroughput;
 
         noRebind = noRebindArgument.isPresent();
+        openLoop = openLoopArgument.isPresent();
+        poissonArrivals = poissonArrivalsArgument.isPresent();
+
+        if (openLoop && targetThroughput <= 0) {
+            throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                "--" + targetThroughputArgument.getLongIdentifier(), "--" + openLoopArgument.getLongIdentifier(),
+                "present"));
+        }
+
+        if (poissonArrivals && !openLoop) {
+            throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                "--" + openLoopArgument.getLongIdentifier(), "--" + poissonArrivalsArgument.getLongIdentifier(),
+                "present"));
+        }
 
         if (!noRebindArgument.isPresent() && this.numThreads > 1) {
             throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
                 "--" + noRebindArgument.getLongIdentifier(), "--" + numThreadsArgument.getLongIdentifier(), "> 1"));
         }
 
+        if (!noRebindArgument.isPresent() && maxOutstanding > 1) {
+            throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                "--" + noRebindArgument.getLongIdentifier(), "--" + maxOutstandingArgument.getLongIdentifier(),
+                "> 1"));
+        }
+
+        // Open-loop operations overlap, and a bind must not be sent while other operations are outstanding.
+        if (openLoop && supportsRebind && !noRebind) {
+            throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                "--" + noRebindArgument.getLongIdentifier(), "--" + openLoopArgument.getLongIdentifier(),
+                "present"));
+        }
+        if (openLoop && !supportsRebind && keepConnectionsOpen.isPresent()) {
+            throw new ArgumentException(ERR_TOOL_CONFLICTING_ARGS.get(
+                openLoopArgument.getLongIdentifier(), keepConnectionsOpen.getLongIdentifier()));
+        }
+
+        steadyStateWindow = steadyStateWindowArgument.getIntValue();
+        steadyStateThreshold = steadyStateThresholdArgument.getIntValue() / 100.0;
+        if (steadyStateWindow == 0) {
+            for (final Argument argument : new Argument[] {
+                steadyStateThresholdArgument, steadyStateSummaryFileArgument }) {
+                if (argument.isPresent()) {
+                    throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                        "--" + steadyStateWindowArgument.getLongIdentifier(), "--" + argument.getLongIdentifier(),
+                        "present"));
+                }
+            }
+        }
+
         if (maxIterationsArgument.isPresent() && maxIterations <= 0) {
             throw new ArgumentException(ERR_TOOL_NOT_ENOUGH_ITERATIONS.get(
                 "--" + maxIterationsArgument.getLongIdentifier(), numConnections * numThreads,
@@ -415,23 +803,57 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
     final int run(final ConnectionFactory connectionFactory) {
         final List<Connection> connections = new ArrayList<>();
+        ConnectionFactory operationConnectionFactory = connectionFactory;
+        PrintStream histogramLog = null;
+        if (histogramLogFileArgument.isPresent()) {
+            final String histogramLogFile = histogramLogFileArgument.getValue();
+            try {
+                histogramLog = new PrintStream(new FileOutputStream(histogramLogFile), true);
+            } catch (final FileNotFoundException e) {
+                app.errPrintln(ERR_RATE_TOOLS_CANNOT_WRITE_HISTOGRAM_LOG.get(histogramLogFile,
+                        e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+            histogramLogWriter = new HistogramLogWriter(histogramLog);
+            latencyRecorder = new OperationLatencyRecorder();
+            if (!openLoop) {
+                // Open-loop response times are measured from the intended start time of operations, as the
+                // instrumented connections would hide the delays of late operations (coordinated omission).
+                operationConnectionFactory =
+                        Connections.newInstrumentedConnectionFactory(connectionFactory, latencyRecorder);
+            }
+        }
+        if (steadyStateSummaryFileArgument.isPresent()) {
+            final String summaryFile = steadyStateSummaryFileArgument.getValue();
+            try {
+                steadyStateSummary = new PrintStream(new FileOutputStream(summaryFile), true, "UTF-8");
+            } catch (final IOException e) {
+                app.errPrintln(ERR_RATE_TOOLS_CANNOT_WRITE_SUMMARY.get(summaryFile, e.getLocalizedMessage()));
+                closeSilently(histogramLog);
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+        }
         statsThread = newStatsThread(this, app);
 
         try {
             validateCanConnectToServer(connectionFactory);
+            workerThreadsReady = new CountDownLatch(numConnections * numThreads);
             for (int i = 0; i < numConnections; i++) {
                 Connection connection = null;
                 if (keepConnectionsOpen.isPresent() || noRebindArgument.isPresent()) {
+                    // Worker threads instrument their connection themselves, so that rebinds are not recorded.
                     connection = connectionFactory.getConnection();
                     connection.addConnectionEventListener(this);
                     connections.add(connection);
                 }
                 for (int j = 0; j < numThreads; j++) {
-                    final Thread thread = newWorkerThread(connection, connectionFactory);
+                    final Thread thread = newWorkerThread(connection, operationConnectionFactory);
                     workerThreads.add(thread);
                     thread.start();
                 }
             }
+            workerThreadsReady.await();
+            startSignal.countDown();
 
             if (maxDurationTimeMs > 0) {
                 newEndTimerThread(maxDurationTimeMs).start();
@@ -447,7 +869,10 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             printErrorMessage(app, e);
             return e.getResult().getResultCode().intValue();
         } finally {
+            // Let the worker threads which have already been started notice that the tool is stopped.
+            startSignal.countDown();
             closeSilently(connections);
+            closeSilently(histogramLog, steadyStateSummary);
         }
 
         return 0;
@@ -493,6 +918,38 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         return DEFAULT_PERCENTILES;
     }
 
+    /**
+     * Sets the target throughput to use when none is provided on the command
+     * line. This method must be called before {@link #validate()}.
+     */
+    void setDefaultTargetThroughput(final int targetThroughput) {
+        this.defaultTargetThroughput = targetThroughput;
+    }
+
+    /** Returns a connection recording the latency of its operations in the histogram log, if there is one. */
+    private Connection instrument(final Connection connection) {
+        if (latencyRecorder != null && !openLoop) {
+            return Connections.newInstrumentedConnection(connection, latencyRecorder);
+        }
+        return connection;
+    }
+
+    /** Returns {@code true} if several operations may be outstanding on a connection at the same time. */
+    boolean hasConcurrentOperationsPerConnection() {
+        return numThreads > 1 || maxOutstanding > 1 || openLoop;
+    }
+
+    /** Returns the window of outstanding requests shared by the pipelined worker threads of a connection. */
+    private Semaphore getWindow(final Connection connection) {
+        final Semaphore window = new Semaphore(maxOutstanding);
+        final Semaphore existingWindow = windows.putIfAbsent(connection, window);
+        return existingWindow != null ? existingWindow : window;
+    }
+
+    boolean isOpenLoop() {
+        return openLoop;
+    }
+
     long getWarmUpDurationMs() {
         return warmUpDurationMs;
     }
@@ -500,4 +957,29 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     long getStatsInterval() {
         return statsIntervalMs;
     }
+
+    /** Returns the recorder of the response times of each type of operation, or {@code null}. */
+    OperationLatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /** Returns the number of intervals used for detecting steady state, or 0 if it is not detected. */
+    int getSteadyStateWindow() {
+        return steadyStateWindow;
+    }
+
+    /** Returns the maximum coefficient of variation of steady statistics, for example 0.05 for 5%. */
+    double getSteadyStateThreshold() {
+        return steadyStateThreshold;
+    }
+
+    /** Returns the stream to which the steady state summary is written, or {@code null}. */
+    PrintStream getSteadyStateSummary() {
+        return steadyStateSummary;
+    }
+
+    /** Returns the writer of the histogram log, or {@code null} if no histogram log is written. */
+    HistogramLogWriter getHistogramLogWriter() {
+        return histogramLogWriter;
+    }
 }
@@ -0,0 +1,533 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.Histogram;
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.OperationType;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.Requests;
+
+/**
+ * Reads the operations recorded in a replay log, or in a directory server
+ * access log, and reconstructs their requests. The format of each line is
+ * detected independently:
+ * <ul>
+ * <li>lines of replay logs have the form
+ * {@code <time in ms> <connection> <TYPE> name="value" ...}, where quoted
+ * values may contain the {@code \"}, {@code \\}, {@code \n} and {@code \r} escape
+ * sequences, and where the optional {@code etime} is the original response
+ * time in milliseconds,
+ * <li>lines of OpenDJ file based access logs have the form
+ * {@code [timestamp] <TYPE> REQ|RES conn=<id> op=<id> name="value" ...},
+ * where {@code etime} is in milliseconds,
+ * <li>lines of 389 Directory Server and Oracle Directory Server Enterprise
+ * Edition access logs have the form
+ * {@code [timestamp] conn=<id> op=<id> <TYPE>|RESULT name="value" ...}, where
+ * {@code etime} is in seconds.
+ * </ul>
+ * The closing of the original connections, recorded by {@code UNBIND} requests
+ * or disconnection lines, is returned as an operation without type so that
+ * the state kept for the connection can be released. Blank lines, comments,
+ * and the other lines which do not describe a request or its result are
+ * ignored. Property names are not case sensitive. Original response
+ * times are read from the result lines of access logs, and collected for the
+ * operations whose request could be reconstructed.
+ * <p>
+ * Operations are returned in the order of their time. Logs are not necessarily
+ * sorted, for instance traffic captures record operations when they complete
+ * but with the time at which they were sent, hence the reader looks ahead and
+ * reorders the operations logged up to {@link #REORDER_WINDOW_NS} apart.
+ * Operations logged later than that are returned as soon as they are read.
+ */
+final class ReplayLogReader implements Closeable {
+    /**
+     * An operation read from a replay log, or the closing of an original
+     * connection.
+     */
+    static final class ReplayedOperation {
+        private final long timeNs;
+        private final String connectionId;
+        private final OperationType type;
+        private final Request request;
+
+        ReplayedOperation(final long timeNs, final String connectionId, final OperationType type,
+                final Request request) {
+            this.timeNs = timeNs;
+            this.connectionId = connectionId;
+            this.type = type;
+            this.request = request;
+        }
+
+        /** Returns the time at which the operation was logged, in nanoseconds. */
+        long getTimeNs() {
+            return timeNs;
+        }
+
+        /** Returns the identifier of the connection on which the operation was originally performed. */
+        String getConnectionId() {
+            return connectionId;
+        }
+
+        /** Returns the type of the operation, or {@code null} if the original connection has been closed. */
+        OperationType getType() {
+            return type;
+        }
+
+        /** Returns {@code true} if this records that the original connection has been closed. */
+        boolean isConnectionClosed() {
+            return type == null;
+        }
+
+        /** Returns the reconstructed request, or {@code null} if the log does not contain enough information. */
+        Request getRequest() {
+            return request;
+        }
+    }
+
+    /** An operation which has been read ahead, waiting to be returned in time order. */
+    private static final class ReorderedOperation implements Comparable<ReorderedOperation> {
+        private final ReplayedOperation operation;
+        /** The position of the operation in the log, so that operations with the same time keep their order. */
+        private final long position;
+
+        private ReorderedOperation(final ReplayedOperation operation, final long position) {
+            this.operation = operation;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(final ReorderedOperation other) {
+            if (operation.timeNs != other.operation.timeNs) {
+                return operation.timeNs < other.operation.timeNs ? -1 : 1;
+            }
+            return position < other.position ? -1 : (position == other.position ? 0 : 1);
+        }
+    }
+
+    /** The maximum number of requests of access logs whose result has not been read yet. */
+    private static final int MAX_PENDING_REQUESTS = 100000;
+    /** The maximum time difference between operations which are returned in time order. */
+    private static final long REORDER_WINDOW_NS = TimeUnit.SECONDS.toNanos(10);
+    /** The maximum number of operations read ahead in order to return them in time order. */
+    private static final int MAX_REORDERED_OPERATIONS = 100000;
+    private static final double NS_IN_MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NS_IN_S = TimeUnit.SECONDS.toNanos(1);
+    private static final Pattern ACCESS_LOG_LINE =
+            Pattern.compile("^\\[(\\d+/\\w+/\\d+:\\d+:\\d+:\\d+)(?:\\.(\\d{1,9}))? ([+-]\\d{4})\\]\\s*(.*)$");
+
+    /** The operation types of replay logs and OpenDJ access logs. */
+    private static final Map<String, OperationType> OPERATION_TYPES = new HashMap<>();
+    /** The operation types of 389 Directory Server and Directory Server Enterprise Edition access logs. */
+    private static final Map<String, OperationType> CONN_OP_OPERATION_TYPES = new HashMap<>();
+    private static final Map<String, SearchScope> SCOPES = new HashMap<>();
+    static {
+        OPERATION_TYPES.put("ADD", OperationType.ADD);
+        OPERATION_TYPES.put("BIND", OperationType.BIND);
+        OPERATION_TYPES.put("COMPARE", OperationType.COMPARE);
+        OPERATION_TYPES.put("DELETE", OperationType.DELETE);
+        OPERATION_TYPES.put("MODIFY", OperationType.MODIFY);
+        OPERATION_TYPES.put("MODIFYDN", OperationType.MODIFY_DN);
+        OPERATION_TYPES.put("SEARCH", OperationType.SEARCH);
+
+        CONN_OP_OPERATION_TYPES.put("ADD", OperationType.ADD);
+        CONN_OP_OPERATION_TYPES.put("BIND", OperationType.BIND);
+        CONN_OP_OPERATION_TYPES.put("CMP", OperationType.COMPARE);
+        CONN_OP_OPERATION_TYPES.put("DEL", OperationType.DELETE);
+        CONN_OP_OPERATION_TYPES.put("MOD", OperationType.MODIFY);
+        CONN_OP_OPERATION_TYPES.put("MODRDN", OperationType.MODIFY_DN);
+        CONN_OP_OPERATION_TYPES.put("SRCH", OperationType.SEARCH);
+
+        for (final String scope : new String[] { "base", "baseobject", "0" }) {
+            SCOPES.put(scope, SearchScope.BASE_OBJECT);
+        }
+        for (final String scope : new String[] { "one", "onelevel", "singlelevel", "1" }) {
+            SCOPES.put(scope, SearchScope.SINGLE_LEVEL);
+        }
+        for (final String scope : new String[] { "sub", "wholesubtree", "2" }) {
+            SCOPES.put(scope, SearchScope.WHOLE_SUBTREE);
+        }
+        for (final String scope : new String[] { "subordinates", "subordinatesubtree", "3" }) {
+            SCOPES.put(scope, SearchScope.SUBORDINATES);
+        }
+    }
+
+    private final BufferedReader reader;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+    /** The types of the reconstructed requests of access logs, indexed by connection and operation identifiers. */
+    @SuppressWarnings("serial")
+    private final Map<String, OperationType> pendingRequests = new LinkedHashMap<String, OperationType>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, OperationType> eldest) {
+            return size() > MAX_PENDING_REQUESTS;
+        }
+    };
+    private final Map<OperationType, Histogram> originalResponseTimes = new EnumMap<>(OperationType.class);
+    private final PriorityQueue<ReorderedOperation> reorderedOperations = new PriorityQueue<>();
+    private long readOperationCount;
+    private long latestTimeNs = Long.MIN_VALUE;
+    private boolean isEndOfLog;
+
+    ReplayLogReader(final BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next operation of the log.
+     *
+     * @return The next operation of the log, or {@code null} if the end of
+     *         the log has been reached.
+     * @throws IOException
+     *             If an error occurred while reading the log.
+     */
+    ReplayedOperation readOperation() throws IOException {
+        while (!isEndOfLog && reorderedOperations.size() < MAX_REORDERED_OPERATIONS
+                && (reorderedOperations.isEmpty()
+                    || latestTimeNs - reorderedOperations.peek().operation.timeNs < REORDER_WINDOW_NS)) {
+            final ReplayedOperation operation = readNextOperation();
+            if (operation == null) {
+                isEndOfLog = true;
+            } else {
+                reorderedOperations.add(new ReorderedOperation(operation, readOperationCount++));
+                latestTimeNs = Math.max(latestTimeNs, operation.timeNs);
+            }
+        }
+        final ReorderedOperation next = reorderedOperations.poll();
+        return next != null ? next.operation : null;
+    }
+
+    private ReplayedOperation readNextOperation() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final ReplayedOperation operation = line.startsWith("[") ? parseAccessLogLine(line)
+                                                                     : parseReplayLogLine(line);
+            if (operation != null) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the original response times, in nanoseconds, of the operations
+     * read so far whose request could be reconstructed.
+     */
+    Map<OperationType, Histogram> getOriginalResponseTimes() {
+        return originalResponseTimes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private ReplayedOperation parseReplayLogLine(final String line) {
+        final Map<String, String> properties = new HashMap<>();
+        final List<String> words = tokenize(line, properties, true);
+        if (words.size() < 3) {
+            return null;
+        }
+        final String typeName = words.get(2).toUpperCase(Locale.ENGLISH);
+        final OperationType type = OPERATION_TYPES.get(typeName);
+        final boolean isConnectionClosed = "UNBIND".equals(typeName) || "DISCONNECT".equals(typeName);
+        if (type == null && !isConnectionClosed) {
+            return null;
+        }
+        try {
+            final long timeNs = (long) (Double.parseDouble(words.get(0)) * NS_IN_MS);
+            if (isConnectionClosed) {
+                return new ReplayedOperation(timeNs, words.get(1), null, null);
+            }
+            final Request request = newRequest(type, properties);
+            if (request != null) {
+                recordOriginalResponseTime(type, properties.get("etime"), NS_IN_MS);
+            }
+            return new ReplayedOperation(timeNs, words.get(1), type, request);
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private ReplayedOperation parseAccessLogLine(final String line) {
+        final Matcher matcher = ACCESS_LOG_LINE.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final Map<String, String> properties = new HashMap<>();
+        final List<String> words = tokenize(matcher.group(4), properties, false);
+        final String connectionId = properties.get("conn");
+        if (words.isEmpty() || connectionId == null || connectionId.startsWith("-")) {
+            // Internal operations are not replayed.
+            return null;
+        }
+        final String firstWord = words.get(0).toUpperCase(Locale.ENGLISH);
+        if (isConnectionClosed(firstWord, words)) {
+            try {
+                return new ReplayedOperation(parseTime(matcher), connectionId, null, null);
+            } catch (final ParseException e) {
+                return null;
+            }
+        }
+        final String operationId = properties.get("op");
+        if (operationId == null) {
+            // The other connection events are not replayed.
+            return null;
+        }
+        final String requestKey = connectionId + '/' + operationId;
+
+        final boolean isOpenDJLog = words.size() > 1;
+        if (isOpenDJLog ? "RES".equals(words.get(1)) : "RESULT".equals(firstWord)) {
+            final OperationType type = pendingRequests.remove(requestKey);
+            if (type != null) {
+                recordOriginalResponseTime(type, properties.get("etime"), isOpenDJLog ? NS_IN_MS : NS_IN_S);
+            }
+            return null;
+        }
+        final OperationType type = isOpenDJLog ? ("REQ".equals(words.get(1)) ? OPERATION_TYPES.get(firstWord) : null)
+                                               : CONN_OP_OPERATION_TYPES.get(firstWord);
+        if (type == null) {
+            return null;
+        }
+        try {
+            final Request request = newRequest(type, properties);
+            if (request != null) {
+                pendingRequests.put(requestKey, type);
+            }
+            return new ReplayedOperation(parseTime(matcher), connectionId, type, request);
+        } catch (final ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the words of an access log line record that a
+     * connection has been closed: {@code UNBIND} requests and
+     * {@code DISCONNECT} lines of OpenDJ, {@code UNBIND} and {@code closed}
+     * lines of 389 Directory Server, and {@code closed.} lines of Directory
+     * Server Enterprise Edition.
+     */
+    private static boolean isConnectionClosed(final String firstWord, final List<String> words) {
+        if ("UNBIND".equals(firstWord) || "DISCONNECT".equals(firstWord)) {
+            return true;
+        }
+        for (final String word : words) {
+            if (word.startsWith("closed")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the time of an access log line in nanoseconds. */
+    private long parseTime(final Matcher matcher) throws ParseException {
+        return TimeUnit.MILLISECONDS.toNanos(dateFormat.parse(matcher.group(1) + " " + matcher.group(3)).getTime())
+                + parseFraction(matcher.group(2));
+    }
+
+    /** Returns the nanoseconds represented by the fractional part of a timestamp. */
+    private static long parseFraction(final String fraction) {
+        if (fraction == null) {
+            return 0;
+        }
+        long nanos = Long.parseLong(fraction);
+        for (int i = fraction.length(); i < 9; i++) {
+            nanos *= 10;
+        }
+        return nanos;
+    }
+
+    private void recordOriginalResponseTime(final OperationType type, final String etime, final double nsPerUnit) {
+        if (etime == null) {
+            return;
+        }
+        try {
+            final long responseTimeNs = (long) (Double.parseDouble(etime) * nsPerUnit);
+            Histogram histogram = originalResponseTimes.get(type);
+            if (histogram == null) {
+                histogram = new Histogram(3);
+                originalResponseTimes.put(type, histogram);
+            }
+            histogram.recordValue(Math.max(0, responseTimeNs));
+        } catch (final NumberFormatException e) {
+            // Ignore invalid response times.
+        }
+    }
+
+    /**
+     * Reconstructs the request of an operation, returning {@code null} if the
+     * properties of the operation do not contain enough information.
+     */
+    private Request newRequest(final OperationType type, final Map<String, String> properties) {
+        final String dn = properties.get("dn");
+        try {
+            switch (type) {
+            case SEARCH:
+                final String base = properties.get("base");
+                final SearchScope scope = getScope(properties.get("scope"));
+                final String filter = properties.get("filter");
+                if (base == null || scope == null) {
+                    return null;
+                }
+                return Requests.newSearchRequest(base, scope, filter != null ? filter : "(objectClass=*)",
+                        getAttributes(properties.get("attrs")));
+            case MODIFY:
+                if (dn == null) {
+                    return null;
+                }
+                // Access logs do not record the modifications, which cannot be made up without altering the data.
+                final String changes = properties.get("changes");
+                return changes != null ? Requests.newModifyRequest(toLDIFLines(dn, "changetype: modify", changes))
+                                       : null;
+            case ADD:
+                final String entry = properties.get("entry");
+                return dn != null && entry != null ? Requests.newAddRequest(toLDIFLines(dn, null, entry)) : null;
+            case DELETE:
+                return dn != null ? Requests.newDeleteRequest(dn) : null;
+            case COMPARE:
+                final String attribute = properties.get("attr");
+                final String value = properties.get("value");
+                return dn != null && attribute != null && value != null
+                        ? Requests.newCompareRequest(dn, attribute, value) : null;
+            case MODIFY_DN:
+                final String newRDN = properties.get("newrdn");
+                if (dn == null || newRDN == null) {
+                    return null;
+                }
+                final ModifyDNRequest request = Requests.newModifyDNRequest(dn, newRDN);
+                final String deleteOldRDN = properties.get("deleteoldrdn");
+                request.setDeleteOldRDN("true".equalsIgnoreCase(deleteOldRDN) || "1".equals(deleteOldRDN));
+                final String newSuperior = properties.get("newsuperior");
+                if (newSuperior != null && !newSuperior.isEmpty() && !"(null)".equals(newSuperior)) {
+                    request.setNewSuperior(newSuperior);
+                }
+                return request;
+            case BIND:
+                final String password = properties.get("password");
+                return dn != null && password != null
+                        ? Requests.newSimpleBindRequest(dn, password.toCharArray()) : null;
+            default:
+                return null;
+            }
+        } catch (final LocalizedIllegalArgumentException e) {
+            // Invalid DN, filter or LDIF.
+            return null;
+        }
+    }
+
+    private static SearchScope getScope(final String scope) {
+        return scope != null ? SCOPES.get(scope.toLowerCase(Locale.ENGLISH)) : SearchScope.WHOLE_SUBTREE;
+    }
+
+    private static String[] getAttributes(final String attributes) {
+        if (attributes == null || attributes.trim().isEmpty() || "ALL".equalsIgnoreCase(attributes.trim())) {
+            return new String[0];
+        }
+        return attributes.trim().split("[,\\s]+");
+    }
+
+    private static String[] toLDIFLines(final String dn, final String changeType, final String ldif) {
+        final List<String> lines = new ArrayList<>();
+        lines.add("dn: " + dn);
+        if (changeType != null) {
+            lines.add(changeType);
+        }
+        for (final String line : ldif.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Splits a line into words and name="value" properties, whose names are
+     * converted to lower case. A quoted value ends with a quote which is
+     * followed by a space or by the end of the line. Escape sequences are only
+     * interpreted in replay logs: access logs contain LDAP filters, which
+     * have their own escape sequences.
+     */
+    private static List<String> tokenize(final String line, final Map<String, String> properties,
+            final boolean unescape) {
+        final List<String> words = new ArrayList<>();
+        final int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            final int start = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i)) && line.charAt(i) != '=') {
+                i++;
+            }
+            if (i == length || line.charAt(i) != '=') {
+                words.add(line.substring(start, i));
+                continue;
+            }
+            final String name = line.substring(start, i).toLowerCase(Locale.ENGLISH);
+            i++;
+            final StringBuilder value = new StringBuilder();
+            if (i < length && line.charAt(i) == '"') {
+                i++;
+                while (i < length) {
+                    final char c = line.charAt(i);
+                    if (unescape && c == '\\' && i + 1 < length) {
+                        final char escaped = line.charAt(i + 1);
+                        value.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+                        i += 2;
+                    } else if (c == '"' && (i + 1 == length || Character.isWhitespace(line.charAt(i + 1)))) {
+                        i++;
+                        break;
+                    } else {
+                        value.append(c);
+                        i++;
+                    }
+                }
+            } else {
+                while (i < length && !Character.isWhitespace(line.charAt(i))) {
+                    value.append(line.charAt(i++));
+                }
+            }
+            properties.put(name, value.toString());
+        }
+        return words;
+    }
+}
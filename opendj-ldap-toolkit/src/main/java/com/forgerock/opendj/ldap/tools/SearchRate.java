@@ -23,6 +23,7 @@ import static com.forgerock.opendj.cli.Utils.*;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 import static com.forgerock.opendj.cli.CommonArguments.*;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -35,6 +36,7 @@ import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.DereferenceAliasesPolicy;
 import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.OperationType;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchResultHandler;
 import org.forgerock.opendj.ldap.SearchScope;
@@ -61,7 +63,7 @@ public final class SearchRate extends ConsoleApplication {
     private final class SearchPerformanceRunner extends PerformanceRunner {
         private final class SearchStatsHandler extends UpdateStatsResultHandler<Result> implements SearchResultHandler {
             private SearchStatsHandler(final long startTime) {
-                super(startTime);
+                super(OperationType.SEARCH, startTime);
             }
 
             @Override
@@ -105,6 +107,14 @@ public final class SearchRate extends ConsoleApplication {
         private final class SearchWorkerThread extends WorkerThread {
             private SearchRequest sr;
             private Object[] data;
+            private final ParameterGenerator<SearchRequest> requests = new ParameterGenerator<SearchRequest>() {
+                @Override
+                SearchRequest generate(final DataSource[] dataSources) {
+                    data = DataSource.generateData(dataSources, data);
+                    return Requests.newSearchRequest(String.format(baseDN, data), scope, String.format(filter, data),
+                            attributes).setDereferenceAliasesPolicy(dereferencesAliasesPolicy);
+                }
+            };
 
             private SearchWorkerThread(final Connection connection,
                     final ConnectionFactory connectionFactory) {
@@ -114,20 +124,11 @@ public final class SearchRate extends ConsoleApplication {
             @Override
             public Promise<?, LdapException> performOperation(final Connection connection,
                     final DataSource[] dataSources, final long currentTimeNs) {
-                if (sr == null) {
-                    if (dataSources == null) {
-                        sr = Requests.newSearchRequest(baseDN, scope, filter, attributes);
-                    } else {
-                        data = DataSource.generateData(dataSources, data);
-                        sr =
-                                Requests.newSearchRequest(String.format(baseDN, data), scope,
-                                        String.format(filter, data), attributes);
-                    }
+                if (dataSources != null) {
+                    sr = requests.next(dataSources);
+                } else if (sr == null) {
+                    sr = Requests.newSearchRequest(baseDN, scope, filter, attributes);
                     sr.setDereferenceAliasesPolicy(dereferencesAliasesPolicy);
-                } else if (dataSources != null) {
-                    data = DataSource.generateData(dataSources, data);
-                    sr.setFilter(String.format(filter, data));
-                    sr.setName(String.format(baseDN, data));
                 }
 
                 final SearchStatsHandler handler = new SearchStatsHandler(currentTimeNs);
@@ -178,6 +179,18 @@ public final class SearchRate extends ConsoleApplication {
         // Nothing to do.
     }
 
+    /**
+     * Constructor to allow tests.
+     *
+     * @param out
+     *            output stream of console application
+     * @param err
+     *            error stream of console application
+     */
+    SearchRate(PrintStream out, PrintStream err) {
+        super(out, err);
+    }
+
     @Override
     public boolean isInteractive() {
         return false;
@@ -193,7 +206,16 @@ public final class SearchRate extends ConsoleApplication {
         return verbose.isPresent();
     }
 
-    private int run(final String[] args) {
+    int run(final String[] args) {
+        return run(args, null);
+    }
+
+    /**
+     * Runs this tool using the provided connection factory, if any, rather than
+     * the one configured by the connection arguments. This allows the tool to
+     * be run against an in-process server, for example by benchmarks.
+     */
+    int run(final String[] args, final ConnectionFactory internalConnectionFactory) {
         // Create the command-line argument parser for use with this program.
         final LocalizableMessage toolDescription = INFO_SEARCHRATE_TOOL_DESCRIPTION.get();
         final ArgumentParser argParser =
@@ -216,8 +238,11 @@ public final class SearchRate extends ConsoleApplication {
         try {
             Utils.setDefaultPerfToolProperties();
 
+            final PerformanceRunnerOptions options = new PerformanceRunnerOptions(argParser, this);
+            options.setSupportsPregeneration(true);
+
             connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
-            runner = new SearchPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+            runner = new SearchPerformanceRunner(options);
 
             propertiesFileArgument = propertiesFileArgument();
             argParser.addArgument(propertiesFileArgument);
@@ -275,7 +300,8 @@ public final class SearchRate extends ConsoleApplication {
                 return 0;
             }
 
-            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            connectionFactory = internalConnectionFactory != null ? internalConnectionFactory
+                    : connectionFactoryProvider.getAuthenticatedConnectionFactory();
             runner.setBindRequest(connectionFactoryProvider.getBindRequest());
             runner.validate();
         } catch (final ArgumentException ae) {
@@ -17,14 +17,17 @@ package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
 import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
-import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_TOOL_WARMING_UP;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.io.PrintStream;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -41,6 +44,10 @@ import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Timer;
 import com.forgerock.opendj.cli.ConsoleApplication;
 import com.forgerock.opendj.cli.MultiColumnPrinter;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.forgerock.opendj.ldap.OperationType;
+import org.forgerock.opendj.ldap.ResultCode;
 import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
 
 /**
@@ -58,6 +65,7 @@ class StatsThread extends Thread {
     private static final String RECENT_RESPONSE_TIME_MS = STAT_ID_PREFIX + "recent_response_time";
     private static final String AVERAGE_RESPONSE_TIME_MS = STAT_ID_PREFIX + "average_response_time";
     private static final String PERCENTILES = STAT_ID_PREFIX + "percentiles";
+    private static final String UNCORRECTED_PERCENTILES = STAT_ID_PREFIX + "uncorrected_percentiles";
     private static final String ERROR_PER_SECOND = STAT_ID_PREFIX + "error_per_second";
 
     public static final double MS_IN_S = TimeUnit.SECONDS.toMillis(1);
@@ -82,6 +90,7 @@ class StatsThread extends Thread {
                            final SortedMap<String, Meter> meters,
                            final SortedMap<String, Timer> timers) {
             int percentileIndex = 0;
+            int uncorrectedPercentileIndex = 0;
             for (final MultiColumnPrinter.Column column : printer.getColumns()) {
                 final String statKey = column.getId();
                 if (gauges.containsKey(statKey)) {
@@ -90,6 +99,10 @@ class StatsThread extends Thread {
                     final double quantile = percentiles[percentileIndex++] / 100.0;
                     printer.printData(
                             histograms.get(PERCENTILES).getSnapshot().getValue(quantile) / MILLISECONDS.toNanos(1));
+                } else if (statKey.startsWith(UNCORRECTED_PERCENTILES)) {
+                    final double quantile = percentiles[uncorrectedPercentileIndex++] / 100.0;
+                    printer.printData(histograms.get(UNCORRECTED_PERCENTILES).getSnapshot().getValue(quantile)
+                            / MILLISECONDS.toNanos(1));
                 } else {
                     printer.printData("-");
                 }
@@ -110,9 +123,15 @@ class StatsThread extends Thread {
             printer.printDashedLine();
             printer.printTitleSection("Throughput", throughputRawSpan);
             printer.printTitleSection("Response Time", responseTimeRawSpan);
+            if (isOpenLoop) {
+                printer.printTitleSection("Uncorrected", percentiles.length);
+            }
             printer.printTitleSection(additionalStatsRawSpan > 1 ? "Additional" : "", additionalStatsRawSpan);
             printer.printTitleSection("(ops/second)", throughputRawSpan);
             printer.printTitleSection("(milliseconds)", responseTimeRawSpan);
+            if (isOpenLoop) {
+                printer.printTitleSection("(milliseconds)", percentiles.length);
+            }
             printer.printTitleSection(additionalStatsRawSpan > 1 ? "Statistics" : "", additionalStatsRawSpan);
             printer.printTitleLine();
             printer.printDashedLine();
@@ -132,6 +151,12 @@ class StatsThread extends Thread {
             for (double percentile : percentiles) {
                 columns.add(column(PERCENTILES + percentile, percentile + "%", STANDARD_WIDTH, 2));
             }
+            if (isOpenLoop) {
+                columns.add(separatorColumn());
+                for (double percentile : percentiles) {
+                    columns.add(column(UNCORRECTED_PERCENTILES + percentile, percentile + "%", STANDARD_WIDTH, 2));
+                }
+            }
             // Additional stats
             columns.add(separatorColumn());
             columns.add(column(ERROR_PER_SECOND, "err/sec", STANDARD_WIDTH, 1));
@@ -167,6 +192,12 @@ class StatsThread extends Thread {
                 columns.add(column(
                         PERCENTILES + percentile, percentile + "% response time", 2));
             }
+            if (isOpenLoop) {
+                for (double percentile : percentiles) {
+                    columns.add(column(UNCORRECTED_PERCENTILES + percentile,
+                            percentile + "% uncorrected response time", 2));
+                }
+            }
             columns.add(column(ERROR_PER_SECOND, "errors/second", 1));
             columns.addAll(registerAdditionalColumns());
 
@@ -229,6 +260,13 @@ class StatsThread extends Thread {
 
     final MetricRegistry registry = new MetricRegistry();
     private final Histogram responseTimes = new Histogram(new HdrHistogramReservoir());
+    /** Response times measured from the actual start of open-loop operations, rather than the intended one. */
+    private final Histogram uncorrectedResponseTimes = new Histogram(new HdrHistogramReservoir());
+    /** Response times of the current interval when steady state is detected, otherwise null. */
+    private final Recorder intervalResponseTimes;
+    private org.HdrHistogram.Histogram lastIntervalResponseTimes;
+    /** Detects steady state, or null if it is not detected. */
+    private final SteadyStateDetector steadyStateDetector;
 
     private final StatsTimer gcTimerMs = new StatsTimer() {
         private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
@@ -259,6 +297,7 @@ class StatsThread extends Thread {
 
     private final ConsoleApplication app;
     private final double[] percentiles;
+    private final boolean isOpenLoop;
     private final PerformanceRunner performanceRunner;
     private final RateReporter reporter;
     private long startTimeMs;
@@ -271,8 +310,18 @@ class StatsThread extends Thread {
         this.performanceRunner = performanceRunner;
         this.app = application;
         this.percentiles = performanceRunner.getPercentiles();
+        this.isOpenLoop = performanceRunner.isOpenLoop();
+        this.warmingUp = performanceRunner.getWarmUpDurationMs() > 0;
         this.reporter = app.isScriptFriendly() ? new CsvRateReporter()
                                                : new ConsoleRateReporter();
+        if (performanceRunner.getSteadyStateWindow() > 0) {
+            this.intervalResponseTimes = new Recorder(3);
+            this.steadyStateDetector = new SteadyStateDetector(
+                    performanceRunner.getSteadyStateWindow(), performanceRunner.getSteadyStateThreshold());
+        } else {
+            this.intervalResponseTimes = null;
+            this.steadyStateDetector = null;
+        }
         registerStats();
     }
 
@@ -335,6 +384,9 @@ class StatsThread extends Thread {
             }
         });
         registry.register(PERCENTILES, responseTimes);
+        if (isOpenLoop) {
+            registry.register(UNCORRECTED_PERCENTILES, uncorrectedResponseTimes);
+        }
     }
 
     void startReporting() throws InterruptedException {
@@ -361,6 +413,20 @@ class StatsThread extends Thread {
         timerMs.start();
         gcTimerMs.start();
         startTimeMs = System.currentTimeMillis();
+        if (intervalResponseTimes != null) {
+            // Discard the response times recorded before the first interval, e.g. during the warm up.
+            intervalResponseTimes.reset();
+        }
+        final HistogramLogWriter histogramLogWriter = performanceRunner.getHistogramLogWriter();
+        if (histogramLogWriter != null) {
+            // Discard the response times recorded before the first interval, e.g. during the warm up.
+            performanceRunner.getLatencyRecorder().getIntervalHistograms();
+            histogramLogWriter.outputLogFormatVersion();
+            histogramLogWriter.outputStartTime(startTimeMs);
+            histogramLogWriter.outputBaseTime(startTimeMs);
+            histogramLogWriter.setBaseTime(startTimeMs);
+            histogramLogWriter.outputLegend();
+        }
     }
 
     public void stopRecording(final boolean stoppedByError) {
@@ -373,6 +439,7 @@ class StatsThread extends Thread {
                 // Do nothing.
             }
             run();
+            reportSummary();
         }
     }
 
@@ -387,15 +454,134 @@ class StatsThread extends Thread {
         waitDurationNsCount.refreshIntervalCount();
 
         reporter.report();
+        logIntervalHistograms();
+        detectSteadyState();
+    }
+
+    /** Adds the statistics of the last interval to the steady state detector, if any. */
+    private void detectSteadyState() {
+        if (steadyStateDetector == null) {
+            return;
+        }
+        lastIntervalResponseTimes = intervalResponseTimes.getIntervalHistogram(lastIntervalResponseTimes);
+        if (steadyStateDetector.addInterval(durationMsCount.getLastIntervalCount(),
+                errorCount.getLastIntervalCount(), lastIntervalResponseTimes)) {
+            app.errPrintln(INFO_TOOL_STEADY_STATE_REACHED.get(
+                    MILLISECONDS.toSeconds(steadyStateDetector.getSteadyStateStartMs()),
+                    SteadyStateDetector.STABLE_PERCENTILE,
+                    Math.round(performanceRunner.getSteadyStateThreshold() * 100),
+                    performanceRunner.getSteadyStateWindow()));
+        }
+    }
+
+    /**
+     * Prints the summary of the steady window, or of the whole run if steady
+     * state has not been reached, and writes it to the summary file, if any.
+     */
+    private void reportSummary() {
+        if (steadyStateDetector == null) {
+            return;
+        }
+        final SteadyStateDetector.Summary summary = steadyStateDetector.getSummary();
+        final org.HdrHistogram.Histogram summaryResponseTimes = summary.getResponseTimes();
+        final double durationS = summary.getDurationMs() / MS_IN_S;
+        final double errorsPerSecond = durationS > 0 ? summary.getErrorCount() / durationS : 0;
+        if (!steadyStateDetector.isSteadyStateReached()) {
+            app.errPrintln(INFO_TOOL_STEADY_STATE_NOT_REACHED.get());
+        }
+        app.errPrintln(INFO_TOOL_STEADY_STATE_SUMMARY.get(format("%.1f", durationS),
+                format("%.1f", summary.getThroughput()), format("%.3f", summaryResponseTimes.getMean() / NS_IN_MS),
+                format("%.3f", summaryResponseTimes.getValueAtPercentile(SteadyStateDetector.STABLE_PERCENTILE)
+                        / NS_IN_MS), SteadyStateDetector.STABLE_PERCENTILE, format("%.1f", errorsPerSecond)));
+
+        final PrintStream summaryFile = performanceRunner.getSteadyStateSummary();
+        if (summaryFile == null) {
+            return;
+        }
+        summaryFile.println("{");
+        summaryFile.println("  \"steadyStateReached\": " + steadyStateDetector.isSteadyStateReached() + ",");
+        summaryFile.println("  \"steadyStateStartSeconds\": "
+                + format("%.3f", steadyStateDetector.getSteadyStateStartMs() / MS_IN_S) + ",");
+        summaryFile.println("  \"durationSeconds\": " + format("%.3f", durationS) + ",");
+        summaryFile.println("  \"operations\": " + summary.getOperationCount() + ",");
+        summaryFile.println("  \"errors\": " + summary.getErrorCount() + ",");
+        summaryFile.println("  \"throughput\": " + format("%.3f", summary.getThroughput()) + ",");
+        summaryFile.println("  \"errorsPerSecond\": " + format("%.3f", errorsPerSecond) + ",");
+        summaryFile.println("  \"averageResponseTimeMs\": "
+                + format("%.3f", summaryResponseTimes.getMean() / NS_IN_MS) + ",");
+        summaryFile.println("  \"maxResponseTimeMs\": "
+                + format("%.3f", summaryResponseTimes.getMaxValue() / NS_IN_MS) + ",");
+        summaryFile.println("  \"responseTimePercentilesMs\": {");
+        for (int i = 0; i < percentiles.length; i++) {
+            summaryFile.println("    \"" + percentiles[i] + "\": "
+                    + format("%.3f", summaryResponseTimes.getValueAtPercentile(percentiles[i]) / NS_IN_MS)
+                    + (i < percentiles.length - 1 ? "," : ""));
+        }
+        summaryFile.println("  }");
+        summaryFile.println("}");
+    }
+
+    private static String format(final String format, final double value) {
+        return String.format(Locale.ENGLISH, format, value);
+    }
+
+    /**
+     * Writes the response times recorded since the previous interval to the
+     * histogram log, if any, using one histogram per type of operation tagged
+     * with the name of the operation type.
+     */
+    private void logIntervalHistograms() {
+        final HistogramLogWriter histogramLogWriter = performanceRunner.getHistogramLogWriter();
+        if (histogramLogWriter == null) {
+            return;
+        }
+        for (final Map.Entry<OperationType, Map<ResultCode, org.HdrHistogram.Histogram>> entry
+                : performanceRunner.getLatencyRecorder().getIntervalHistograms().entrySet()) {
+            org.HdrHistogram.Histogram histogram = null;
+            for (final org.HdrHistogram.Histogram resultCodeHistogram : entry.getValue().values()) {
+                if (histogram == null) {
+                    histogram = resultCodeHistogram;
+                } else {
+                    histogram.add(resultCodeHistogram);
+                    histogram.setStartTimeStamp(
+                            Math.min(histogram.getStartTimeStamp(), resultCodeHistogram.getStartTimeStamp()));
+                    histogram.setEndTimeStamp(
+                            Math.max(histogram.getEndTimeStamp(), resultCodeHistogram.getEndTimeStamp()));
+                }
+            }
+            if (histogram != null && histogram.getTotalCount() > 0) {
+                histogram.setTag(entry.getKey().toString());
+                histogramLogWriter.outputIntervalHistogram(histogram);
+            }
+        }
     }
 
     void addResponseTime(final long responseTimeNs) {
         if (!warmingUp) {
             waitDurationNsCount.inc(responseTimeNs);
             responseTimes.update(responseTimeNs);
+            if (intervalResponseTimes != null) {
+                intervalResponseTimes.recordValue(Math.max(responseTimeNs, 0));
+            }
         }
     }
 
+    /** Returns {@code true} while statistics are not recorded because the warm up is in progress. */
+    boolean isWarmingUp() {
+        return warmingUp;
+    }
+
+    void addUncorrectedResponseTime(final long responseTimeNs) {
+        if (!warmingUp) {
+            uncorrectedResponseTimes.update(responseTimeNs);
+        }
+    }
+
+    /** Returns the duration of the last statistics interval, excluding garbage collections. */
+    long getLastIntervalDurationMs() {
+        return durationMsCount.getLastIntervalCount();
+    }
+
     void incrementFailedCount() {
         errorCount.inc();
     }
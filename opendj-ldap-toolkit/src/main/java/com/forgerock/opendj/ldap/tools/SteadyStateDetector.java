@@ -0,0 +1,198 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Detects when the throughput and the response times of a rate tool have
+ * stabilized, and computes the statistics of the run from then on.
+ * <p>
+ * Steady state is reached once the coefficient of variation, i.e. the ratio of
+ * the standard deviation to the mean, of both the throughput and the 99th
+ * percentile response time of the last intervals is below a threshold. The
+ * steady window then starts with the first of these intervals, and includes
+ * all the following intervals. If steady state is never reached, the summary
+ * covers the whole run.
+ */
+final class SteadyStateDetector {
+    /** The percentile of response times whose stability is checked. */
+    static final double STABLE_PERCENTILE = 99.0;
+
+    private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+
+    /** The statistics of a statistics interval. */
+    private static final class Interval {
+        private final long durationMs;
+        private final long errorCount;
+        private final Histogram responseTimes;
+        private final double throughput;
+        private final double stablePercentileResponseTime;
+
+        private Interval(final long durationMs, final long errorCount, final Histogram responseTimes) {
+            this.durationMs = durationMs;
+            this.errorCount = errorCount;
+            this.responseTimes = responseTimes;
+            this.throughput = durationMs > 0 ? responseTimes.getTotalCount() * 1000.0 / durationMs : 0;
+            this.stablePercentileResponseTime = responseTimes.getValueAtPercentile(STABLE_PERCENTILE);
+        }
+    }
+
+    /** Accumulates the statistics of several intervals. */
+    static final class Summary {
+        private final Histogram responseTimes = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+        private long durationMs;
+        private long errorCount;
+
+        private void add(final Interval interval) {
+            responseTimes.add(interval.responseTimes);
+            durationMs += interval.durationMs;
+            errorCount += interval.errorCount;
+        }
+
+        /** Returns the response times of the completed operations, in nanoseconds. */
+        Histogram getResponseTimes() {
+            return responseTimes;
+        }
+
+        /** Returns the duration of the summarized intervals, in milliseconds. */
+        long getDurationMs() {
+            return durationMs;
+        }
+
+        /** Returns the number of completed operations, including failed ones. */
+        long getOperationCount() {
+            return responseTimes.getTotalCount();
+        }
+
+        /** Returns the number of failed operations. */
+        long getErrorCount() {
+            return errorCount;
+        }
+
+        /** Returns the number of completed operations per second. */
+        double getThroughput() {
+            return durationMs > 0 ? getOperationCount() * 1000.0 / durationMs : 0;
+        }
+    }
+
+    private final int windowSize;
+    private final double maxCoefficientOfVariation;
+    private final Deque<Interval> window = new ArrayDeque<>();
+    private final Summary wholeRun = new Summary();
+    private Summary steadyState;
+    private long elapsedMs;
+    private long steadyStateStartMs;
+
+    /**
+     * Creates a new steady state detector.
+     *
+     * @param windowSize
+     *            The number of consecutive intervals whose statistics must be
+     *            stable.
+     * @param maxCoefficientOfVariation
+     *            The maximum coefficient of variation of stable statistics,
+     *            for example 0.05 for 5%.
+     */
+    SteadyStateDetector(final int windowSize, final double maxCoefficientOfVariation) {
+        this.windowSize = windowSize;
+        this.maxCoefficientOfVariation = maxCoefficientOfVariation;
+    }
+
+    /**
+     * Adds the statistics of a statistics interval.
+     *
+     * @param durationMs
+     *            The duration of the interval in milliseconds.
+     * @param errorCount
+     *            The number of operations which failed during the interval.
+     * @param responseTimes
+     *            The response times, in nanoseconds, of the operations which
+     *            completed during the interval. The histogram is copied.
+     * @return {@code true} if steady state has been reached with this interval.
+     */
+    boolean addInterval(final long durationMs, final long errorCount, final Histogram responseTimes) {
+        final Interval interval = new Interval(durationMs, errorCount, responseTimes.copy());
+        elapsedMs += durationMs;
+        wholeRun.add(interval);
+        if (steadyState != null) {
+            steadyState.add(interval);
+            return false;
+        }
+
+        window.addLast(interval);
+        if (window.size() > windowSize) {
+            window.removeFirst();
+        }
+        if (window.size() < windowSize || !isStable()) {
+            return false;
+        }
+        steadyState = new Summary();
+        for (final Interval stableInterval : window) {
+            steadyState.add(stableInterval);
+        }
+        steadyStateStartMs = elapsedMs - steadyState.getDurationMs();
+        window.clear();
+        return true;
+    }
+
+    /** Returns {@code true} if steady state has been reached. */
+    boolean isSteadyStateReached() {
+        return steadyState != null;
+    }
+
+    /** Returns the time at which the steady window starts, in milliseconds since the first interval. */
+    long getSteadyStateStartMs() {
+        return steadyStateStartMs;
+    }
+
+    /** Returns the statistics of the steady window, or of the whole run if steady state has not been reached. */
+    Summary getSummary() {
+        return steadyState != null ? steadyState : wholeRun;
+    }
+
+    private boolean isStable() {
+        final double[] throughputs = new double[window.size()];
+        final double[] responseTimes = new double[window.size()];
+        int i = 0;
+        for (final Interval interval : window) {
+            throughputs[i] = interval.throughput;
+            responseTimes[i] = interval.stablePercentileResponseTime;
+            i++;
+        }
+        return isStable(throughputs) && isStable(responseTimes);
+    }
+
+    private boolean isStable(final double[] values) {
+        double mean = 0;
+        for (final double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        if (mean <= 0) {
+            return false;
+        }
+        double variance = 0;
+        for (final double value : values) {
+            variance += (value - mean) * (value - mean);
+        }
+        variance /= values.length;
+        return Math.sqrt(variance) / mean <= maxCoefficientOfVariation;
+    }
+}
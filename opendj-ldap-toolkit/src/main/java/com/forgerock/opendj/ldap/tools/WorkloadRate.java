@@ -0,0 +1,546 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.*;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.util.promise.Promise;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.RatioGauge;
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * A load generation tool that can be used to load a Directory Server with a
+ * mix of Search, Modify, Add, Delete, Compare and Bind requests, as defined by
+ * a workload profile, using one or more LDAP connections.
+ */
+public final class WorkloadRate extends ConsoleApplication {
+    /** The types of operations which may be used in a workload profile. */
+    enum OperationType {
+        SEARCH, MODIFY, ADD, DELETE, COMPARE, BIND
+    }
+
+    /** An operation of the workload, and the statistics of the requests performed for it. */
+    static final class Operation {
+        final String name;
+        final OperationType type;
+        final double weight;
+        final boolean isRate;
+        /** The DN format string of the target entry, or the base DN of searches. */
+        private final String dn;
+        private final SearchScope scope;
+        private final String filter;
+        private final String[] attributes;
+        /** The attribute:value format strings of the modifications, entries and assertions. */
+        private final List<String> attributeValues;
+        private final String password;
+
+        /** Statistics are not recorded during the warm up, so that they never need to be reset. */
+        private final StatsThread.IntervalCounter operationCount = StatsThread.newIntervalCounter();
+        private final StatsThread.IntervalCounter durationNsCount = StatsThread.newIntervalCounter();
+        private final Histogram responseTimes = new Histogram(new HdrHistogramReservoir());
+
+        private Operation(final Properties profile, final String name) {
+            this.name = name;
+            this.type = parseType(name + ".type", getRequiredProperty(profile, name + ".type"));
+            final String rate = profile.getProperty(name + ".rate");
+            this.isRate = rate != null;
+            this.weight = parseWeight(rate != null ? name + ".rate" : name + ".weight",
+                    rate != null ? rate : profile.getProperty(name + ".weight", "1"));
+            this.dn = getRequiredProperty(profile, name + ".dn");
+            this.scope = parseScope(name + ".scope", profile.getProperty(name + ".scope", "sub"));
+            this.filter = profile.getProperty(name + ".filter", "(objectClass=*)").trim();
+            final String attributeList = profile.getProperty(name + ".attributes", "").trim();
+            this.attributes = attributeList.isEmpty() ? new String[0] : attributeList.split("[,\\s]+");
+            this.attributeValues = getAttributeValues(profile, name);
+            this.password = profile.getProperty(name + ".password", "");
+
+            switch (type) {
+            case MODIFY:
+            case ADD:
+                if (attributeValues.isEmpty()) {
+                    throw new LocalizedIllegalArgumentException(
+                            ERR_WORKLOADRATE_MISSING_PROPERTY.get(name + ".attribute"));
+                }
+                break;
+            case COMPARE:
+                if (attributeValues.size() != 1) {
+                    throw new LocalizedIllegalArgumentException(
+                            ERR_WORKLOADRATE_MISSING_PROPERTY.get(name + ".attribute"));
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        /** Evaluates the format strings of this operation, throwing an exception if they are invalid. */
+        private void validate(final Object[] data) {
+            String.format(dn, data);
+            String.format(filter, data);
+            for (final String attributeValue : attributeValues) {
+                String.format(attributeValue, data);
+            }
+        }
+
+        private void addResponseTime(final long responseTimeNs) {
+            operationCount.inc();
+            durationNsCount.inc(responseTimeNs);
+            responseTimes.update(responseTimeNs);
+        }
+
+        private static String getRequiredProperty(final Properties profile, final String key) {
+            final String value = profile.getProperty(key);
+            if (value == null || value.trim().isEmpty()) {
+                throw new LocalizedIllegalArgumentException(ERR_WORKLOADRATE_MISSING_PROPERTY.get(key));
+            }
+            return value.trim();
+        }
+
+        /** Returns the values of the "attribute" property and of its numbered variants, sorted by key. */
+        private static List<String> getAttributeValues(final Properties profile, final String name) {
+            final String key = name + ".attribute";
+            final List<String> keys = new ArrayList<>();
+            for (final String propertyName : profile.stringPropertyNames()) {
+                if (propertyName.equals(key) || propertyName.startsWith(key + ".")) {
+                    keys.add(propertyName);
+                }
+            }
+            Collections.sort(keys);
+            final List<String> values = new ArrayList<>(keys.size());
+            for (final String propertyName : keys) {
+                final String value = profile.getProperty(propertyName).trim();
+                if (value.indexOf(':') <= 0) {
+                    throw new LocalizedIllegalArgumentException(
+                            ERR_WORKLOADRATE_INVALID_PROPERTY.get(value, propertyName));
+                }
+                values.add(value);
+            }
+            return values;
+        }
+
+        private static OperationType parseType(final String key, final String value) {
+            for (final OperationType type : OperationType.values()) {
+                if (type.name().equalsIgnoreCase(value)) {
+                    return type;
+                }
+            }
+            throw new LocalizedIllegalArgumentException(ERR_WORKLOADRATE_INVALID_PROPERTY.get(value, key));
+        }
+
+        private static double parseWeight(final String key, final String value) {
+            try {
+                final double weight = Double.parseDouble(value.trim());
+                if (weight > 0) {
+                    return weight;
+                }
+            } catch (final NumberFormatException e) {
+                // Fall through.
+            }
+            throw new LocalizedIllegalArgumentException(ERR_WORKLOADRATE_INVALID_PROPERTY.get(value, key));
+        }
+
+        private static SearchScope parseScope(final String key, final String value) {
+            for (final SearchScope scope : SearchScope.values()) {
+                if (scope.toString().equalsIgnoreCase(value.trim())) {
+                    return scope;
+                }
+            }
+            throw new LocalizedIllegalArgumentException(ERR_WORKLOADRATE_INVALID_PROPERTY.get(value, key));
+        }
+    }
+
+    /**
+     * Reads the operations of a workload profile.
+     *
+     * @throws LocalizedIllegalArgumentException
+     *             If the profile is invalid.
+     */
+    static List<Operation> readProfile(final Properties profile) {
+        final List<Operation> operations = new ArrayList<>();
+        for (final String name : profile.getProperty("operations", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                operations.add(new Operation(profile, name.trim()));
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new LocalizedIllegalArgumentException(ERR_WORKLOADRATE_NO_OPERATIONS.get());
+        }
+        for (final Operation operation : operations) {
+            if (operation.isRate != operations.get(0).isRate) {
+                throw new LocalizedIllegalArgumentException(ERR_WORKLOADRATE_MIXED_RATES_AND_WEIGHTS.get());
+            }
+        }
+        return operations;
+    }
+
+    private final class WorkloadPerformanceRunner extends PerformanceRunner {
+        private final class WorkloadStatsThread extends StatsThread {
+            private static final int OPERATION_COLUMN_WIDTH = 8;
+
+            private WorkloadStatsThread(final PerformanceRunner perfRunner, final ConsoleApplication app) {
+                super(perfRunner, app);
+            }
+
+            @Override
+            List<MultiColumnPrinter.Column> registerAdditionalColumns() {
+                final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+                for (final Operation operation : operations) {
+                    final String statId = STAT_ID_PREFIX + "workload." + operation.name;
+                    registry.register(statId + ".throughput", new RatioGauge() {
+                        @Override
+                        protected Ratio getRatio() {
+                            return Ratio.of(operation.operationCount.refreshIntervalCount(),
+                                            getLastIntervalDurationMs() / MS_IN_S);
+                        }
+                    });
+                    registry.register(statId + ".response_time", new RatioGauge() {
+                        @Override
+                        protected Ratio getRatio() {
+                            return Ratio.of(operation.durationNsCount.refreshIntervalCount() / NS_IN_MS,
+                                            operation.operationCount.getLastIntervalCount());
+                        }
+                    });
+                    columns.add(column(statId + ".throughput", operation.name + "/s", OPERATION_COLUMN_WIDTH, 1));
+                    columns.add(column(statId + ".response_time", operation.name + " ms", OPERATION_COLUMN_WIDTH, 3));
+                    for (final double percentile : getPercentiles()) {
+                        registry.register(statId + ".percentile." + percentile, new Gauge<Double>() {
+                            @Override
+                            public Double getValue() {
+                                final double quantile = percentile / 100.0;
+                                return operation.responseTimes.getSnapshot().getValue(quantile) / NS_IN_MS;
+                            }
+                        });
+                        columns.add(column(statId + ".percentile." + percentile,
+                                operation.name + " " + percentile + "%", OPERATION_COLUMN_WIDTH, 2));
+                    }
+                }
+                return columns;
+            }
+        }
+
+        private final class WorkloadWorkerThread extends WorkerThread {
+            private final Random random = new Random();
+            private Object[] data;
+
+            private WorkloadWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+                super(connection, connectionFactory);
+            }
+
+            @Override
+            public Promise<?, LdapException> performOperation(final Connection connection,
+                    final DataSource[] dataSources, final long currentTimeNs) {
+                final Operation operation = nextOperation();
+                data = DataSource.generateData(dataSources, data);
+                final String dn = String.format(operation.dn, data);
+
+                final Promise<? extends Result, LdapException> promise;
+                switch (operation.type) {
+                case SEARCH:
+                    promise = connection.searchAsync(Requests.newSearchRequest(
+                            dn, operation.scope, String.format(operation.filter, data), operation.attributes),
+                            IGNORE_SEARCH_RESULTS);
+                    break;
+                case MODIFY:
+                    final ModifyRequest mr = Requests.newModifyRequest(dn);
+                    for (final String attributeValue : operation.attributeValues) {
+                        final String formattedString = String.format(attributeValue, data);
+                        final int colonPos = formattedString.indexOf(':');
+                        mr.addModification(ModificationType.REPLACE, formattedString.substring(0, colonPos).trim(),
+                                formattedString.substring(colonPos + 1).trim());
+                    }
+                    promise = connection.modifyAsync(mr);
+                    break;
+                case ADD:
+                    final AddRequest ar = Requests.newAddRequest(dn);
+                    for (final String attributeValue : operation.attributeValues) {
+                        final String formattedString = String.format(attributeValue, data);
+                        final int colonPos = formattedString.indexOf(':');
+                        ar.addAttribute(formattedString.substring(0, colonPos).trim(),
+                                formattedString.substring(colonPos + 1).trim());
+                    }
+                    promise = connection.addAsync(ar);
+                    break;
+                case DELETE:
+                    promise = connection.deleteAsync(Requests.newDeleteRequest(dn));
+                    break;
+                case COMPARE:
+                    final String assertion = String.format(operation.attributeValues.get(0), data);
+                    final int colonPos = assertion.indexOf(':');
+                    promise = connection.compareAsync(Requests.newCompareRequest(
+                            dn, assertion.substring(0, colonPos).trim(), assertion.substring(colonPos + 1).trim()));
+                    break;
+                default:
+                    promise = connection.bindAsync(
+                            Requests.newSimpleBindRequest(dn, operation.password.toCharArray()));
+                    break;
+                }
+
+                final UpdateStatsResultHandler<Result> handler = new UpdateStatsResultHandler<>(
+                        org.forgerock.opendj.ldap.OperationType.valueOf(operation.type.name()), currentTimeNs);
+                incrementIterationCount();
+                return promise.thenOnResult(handler).thenOnException(handler).thenAlways(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!statsThread.isWarmingUp()) {
+                            operation.addResponseTime(System.nanoTime() - currentTimeNs);
+                        }
+                    }
+                });
+            }
+
+            /** Randomly selects the next operation according to the weights of the operations. */
+            private Operation nextOperation() {
+                double value = random.nextDouble() * totalWeight;
+                for (final Operation operation : operations) {
+                    value -= operation.weight;
+                    if (value < 0) {
+                        return operation;
+                    }
+                }
+                return operations.get(operations.size() - 1);
+            }
+        }
+
+        private List<Operation> operations;
+        private double totalWeight;
+
+        private WorkloadPerformanceRunner(final PerformanceRunnerOptions options) throws ArgumentException {
+            super(options);
+        }
+
+        private void setOperations(final List<Operation> operations) {
+            this.operations = operations;
+            totalWeight = 0;
+            for (final Operation operation : operations) {
+                totalWeight += operation.weight;
+            }
+            if (operations.get(0).isRate) {
+                // The rates of the operations define the target throughput of the workload.
+                setDefaultTargetThroughput((int) Math.max(1, Math.round(totalWeight)));
+            }
+        }
+
+        @Override
+        WorkerThread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+            return new WorkloadWorkerThread(connection, connectionFactory);
+        }
+
+        @Override
+        StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app) {
+            return new WorkloadStatsThread(performanceRunner, app);
+        }
+    }
+
+    /** Search result handler ignoring the returned entries and references. */
+    private static final SearchResultHandler IGNORE_SEARCH_RESULTS = new SearchResultHandler() {
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+    };
+
+    /**
+     * The main method for WorkloadRate tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new WorkloadRate().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+    private BooleanArgument scriptFriendly;
+
+    private WorkloadRate() {
+        // Nothing to do.
+    }
+
+    /**
+     * Constructor to allow tests.
+     *
+     * @param out
+     *            output stream of console application
+     * @param err
+     *            error stream of console application
+     */
+    WorkloadRate(final PrintStream out, final PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_WORKLOADRATE_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser =
+                new ArgumentParser(WorkloadRate.class.getName(), toolDescription, false, true, 1, 1, "{profile}");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_WORKLOADRATE.get());
+        argParser.setDocToolDescriptionSupplement(SUPPLEMENT_DESCRIPTION_RATE_TOOLS.get());
+
+        ConnectionFactoryProvider connectionFactoryProvider;
+        ConnectionFactory connectionFactory;
+        WorkloadPerformanceRunner runner;
+
+        BooleanArgument showUsage;
+        StringArgument propertiesFileArgument;
+        BooleanArgument noPropertiesFileArgument;
+        try {
+            Utils.setDefaultPerfToolProperties();
+
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+            runner = new WorkloadPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+
+            propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+        } catch (final ArgumentException ae) {
+            final LocalizableMessage message = ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage());
+            errPrintln(message);
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        try {
+            argParser.parseArguments(args);
+
+            // If we should just display usage or version information,
+            // then print it and exit.
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Read the workload profile, which may define the target throughput.
+        final String profileFile = argParser.getTrailingArguments().get(0);
+        final Properties profile = new Properties();
+        try (InputStream in = new FileInputStream(profileFile)) {
+            profile.load(in);
+            runner.setOperations(readProfile(profile));
+        } catch (final IOException e) {
+            errPrintln(ERR_WORKLOADRATE_CANNOT_READ_PROFILE.get(profileFile, e.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        } catch (final LocalizedIllegalArgumentException e) {
+            errPrintln(e.getMessageObject());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        try {
+            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            runner.setBindRequest(connectionFactoryProvider.getBindRequest());
+            runner.validate();
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final Object[] data = DataSource.generateData(runner.getDataSources(), null);
+        for (final Operation operation : runner.operations) {
+            if (operation.type == OperationType.BIND && runner.hasConcurrentOperationsPerConnection()) {
+                errPrintln(ERR_WORKLOADRATE_BIND_REQUIRES_SINGLE_OPERATION_PER_CONNECTION.get());
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+            try {
+                /* Try it out to make sure the format strings and data sources match. */
+                operation.validate(data);
+            } catch (final Exception e) {
+                errPrintln(ERR_WORKLOADRATE_INVALID_FORMAT_STRING.get(operation.name, e));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        }
+
+        return runner.run(connectionFactory);
+    }
+}
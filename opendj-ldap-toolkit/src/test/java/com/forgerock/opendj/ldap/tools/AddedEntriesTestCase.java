@@ -0,0 +1,81 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AddedEntriesTestCase extends ToolsTestCase {
+
+    @Test
+    public void testEntriesAreRemovedInInsertionOrder() {
+        final AddedEntries entries = new AddedEntries(false);
+        final AddedEntries.Shard shard = entries.newShard();
+        assertThat(entries.remove(shard)).isNull();
+        assertThat(shard.getOldestAddTimeNs()).isEqualTo(Long.MAX_VALUE);
+
+        // Interleave adds and removes so that the ring buffer wraps around before it grows.
+        int next = 0;
+        for (int i = 0; i < 3000; i++) {
+            shard.add(i, dn(i));
+            if (i % 3 == 0) {
+                assertThat(entries.remove(shard)).isEqualTo(dn(next++));
+            }
+        }
+        assertThat(shard.getOldestAddTimeNs()).isEqualTo(next);
+        while (next < 3000) {
+            assertThat(entries.remove(shard)).isEqualTo(dn(next++));
+        }
+        assertThat(entries.remove(shard)).isNull();
+    }
+
+    @Test
+    public void testEntriesAreRemovedRandomly() {
+        final AddedEntries entries = new AddedEntries(true);
+        final AddedEntries.Shard shard = entries.newShard();
+        for (int i = 0; i < 100; i++) {
+            shard.add(i, dn(i));
+        }
+        final Set<String> removed = new HashSet<>();
+        String dn;
+        while ((dn = entries.remove(shard)) != null) {
+            assertThat(removed.add(dn)).isTrue();
+        }
+        assertThat(removed).hasSize(100);
+    }
+
+    @Test
+    public void testEntriesAreRemovedFromOtherShardsWhenEmpty() {
+        final AddedEntries entries = new AddedEntries(false);
+        final AddedEntries.Shard shard1 = entries.newShard();
+        final AddedEntries.Shard shard2 = entries.newShard();
+        shard1.add(1, dn(1));
+        shard2.add(2, dn(2));
+
+        assertThat(entries.remove(shard2)).isEqualTo(dn(2));
+        assertThat(entries.remove(shard2)).isEqualTo(dn(1));
+        assertThat(entries.remove(shard1)).isNull();
+    }
+
+    private static String dn(final int i) {
+        return "uid=user." + i + ",ou=People,dc=example,dc=com";
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class HistogramLogMergeTestCase extends ToolsTestCase {
+    private static final long START_TIME_MS = 1460000000000L;
+    private static final String TAG = "search";
+
+    private ByteStringBuilder out;
+    private ByteStringBuilder err;
+    private PrintStream outStream;
+    private PrintStream errStream;
+    private String histogramLogFile;
+
+    @BeforeMethod
+    private void setUp() throws Exception {
+        out = new ByteStringBuilder();
+        err = new ByteStringBuilder();
+        outStream = new PrintStream(out.asOutputStream());
+        errStream = new PrintStream(err.asOutputStream());
+
+        // Two intervals of 2 seconds: 100 operations of 1 ms, followed by 200 operations of 2 ms.
+        final File file = File.createTempFile("hlogmerge", ".hlog");
+        file.deleteOnExit();
+        histogramLogFile = file.getPath();
+        final PrintStream log = new PrintStream(file);
+        try {
+            final HistogramLogWriter writer = new HistogramLogWriter(log);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(START_TIME_MS);
+            writer.outputBaseTime(START_TIME_MS);
+            writer.setBaseTime(START_TIME_MS);
+            writer.outputLegend();
+            writer.outputIntervalHistogram(newHistogram(0, 2000, 100, 1));
+            writer.outputIntervalHistogram(newHistogram(2000, 4000, 200, 2));
+        } finally {
+            closeSilently(log);
+        }
+    }
+
+    @AfterMethod
+    private void closeStreams() {
+        closeSilently(outStream, errStream);
+    }
+
+    @Test
+    public void testIntervalsLongerThanLoggedIntervals() {
+        assertThat(hlogMerge("-i", "4")).isEqualTo(0);
+        final List<String[]> intervals = getIntervalRows();
+        assertThat(intervals).hasSize(1);
+        assertThat(intervals.get(0)[0]).isEqualTo("4.0");
+        assertThat(intervals.get(0)[1]).isEqualTo("75.0");
+        assertTotal(300);
+    }
+
+    @Test
+    public void testIntervalsShorterThanLoggedIntervalsAreNotOverstated() {
+        assertThat(hlogMerge("-i", "1")).isEqualTo(0);
+        final List<String[]> intervals = getIntervalRows();
+        assertThat(intervals).hasSize(4);
+        final String[] expectedThroughputs = { "50.0", "50.0", "100.0", "100.0" };
+        for (int i = 0; i < intervals.size(); i++) {
+            assertThat(intervals.get(i)[0]).isEqualTo((i + 1) + ".0");
+            assertThat(intervals.get(i)[1]).isEqualTo(expectedThroughputs[i]);
+        }
+        assertTotal(300);
+    }
+
+    @Test
+    public void testIntervalsNotAlignedWithLoggedIntervals() {
+        assertThat(hlogMerge("-i", "3")).isEqualTo(0);
+        final List<String[]> intervals = getIntervalRows();
+        assertThat(intervals).hasSize(2);
+        // 100 operations during the first 2 seconds, then 100 of the 200 operations of the last 2 seconds.
+        assertThat(intervals.get(0)[1]).isEqualTo("66.7");
+        assertThat(intervals.get(1)[0]).isEqualTo("4.0");
+        assertThat(intervals.get(1)[1]).isEqualTo("100.0");
+        assertTotal(300);
+    }
+
+    private static Histogram newHistogram(final long startMs, final long endMs, final int count,
+            final long responseTimeMs) {
+        final Histogram histogram = new Histogram(3);
+        histogram.recordValueWithCount(TimeUnit.MILLISECONDS.toNanos(responseTimeMs), count);
+        histogram.setStartTimeStamp(START_TIME_MS + startMs);
+        histogram.setEndTimeStamp(START_TIME_MS + endMs);
+        histogram.setTag(TAG);
+        return histogram;
+    }
+
+    private int hlogMerge(final String... args) {
+        final List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        arguments.add("-S");
+        arguments.add(histogramLogFile);
+        return new HistogramLogMerge(outStream, errStream).run(arguments.toArray(new String[arguments.size()]));
+    }
+
+    /** Returns the rows of the interval section of the script friendly output, excluding the header. */
+    private List<String[]> getIntervalRows() {
+        final List<String[]> rows = new ArrayList<>();
+        final String[] lines = out.toString().split(System.getProperty("line.separator"));
+        assertThat(lines[0]).startsWith("time,");
+        for (int i = 1; i < lines.length && !lines[i].isEmpty(); i++) {
+            rows.add(trim(lines[i].split(",")));
+        }
+        return rows;
+    }
+
+    private void assertTotal(final long expectedCount) {
+        final String[] lines = out.toString().split(System.getProperty("line.separator"));
+        final String[] summary = trim(lines[lines.length - 1].split(","));
+        assertThat(summary[0]).isEqualTo(TAG);
+        assertThat(summary[1]).isEqualTo(String.valueOf(expectedCount));
+        assertThat(summary[2]).isEqualTo("75.0");
+    }
+
+    private static String[] trim(final String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].trim();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.forgerock.opendj.ldap.Connections.newInternalConnectionFactory;
+import static org.forgerock.opendj.ldap.TestCaseUtils.createTempFile;
+import static org.forgerock.opendj.ldap.TestCaseUtils.findFreeSocketAddress;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.IntermediateResponseHandler;
+import org.forgerock.opendj.ldap.LDAPClientContext;
+import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.RequestContext;
+import org.forgerock.opendj.ldap.RequestHandler;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ExtendedRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.ExtendedResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldif.EntryGenerator;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+
+/**
+ * Benchmarks the SDK end-to-end by running the rate tools against an
+ * in-process {@link MemoryBackend}, so that changes to the transport or to the
+ * codecs can be evaluated locally without the noise of a real server.
+ * <p>
+ * The backend is loaded with the users of the default {@code MakeLDIF}
+ * template, generated with a fixed random seed. The rate tools connect to it
+ * either through an {@link LDAPListener} over the loopback interface, or
+ * through an internal connection factory which bypasses the network and the
+ * codecs. Each scenario is run once to warm up the JVM, then once more to be
+ * measured. The throughput is the number of requests received by the backend
+ * per second, and the allocation rate is the number of bytes allocated by all
+ * the threads of the JVM per request, which includes the server side when
+ * running over the loopback interface.
+ * <p>
+ * Usage, from the test classpath of this module:
+ *
+ * <pre>
+ * java com.forgerock.opendj.ldap.tools.RateToolsBenchmark loopback|internal [duration in seconds [scenario ...]]
+ * </pre>
+ *
+ * The scenarios are {@code bind}, {@code base-search}, {@code sub-search},
+ * {@code modify} and {@code add-delete}. All the scenarios are run by default,
+ * for 30 seconds each.
+ */
+public final class RateToolsBenchmark {
+    private static final String SUFFIX = "dc=example,dc=com";
+    private static final String PEOPLE = "ou=People," + SUFFIX;
+    private static final String ADD_RATE_TEMPLATE = "org/forgerock/opendj/ldif/addrate.template";
+    private static final String ADDED_PEOPLE = "ou=People,ou=Added," + SUFFIX;
+    private static final int NUMBER_OF_USERS = 10000;
+    private static final int RANDOM_SEED = 0;
+    private static final int DEFAULT_DURATION_IN_SECONDS = 30;
+    private static final int WARM_UP_DURATION_IN_SECONDS = 10;
+    private static final String CONNECTIONS = "4";
+    private static final String USER_DN_FORMAT = "uid=user.%d," + PEOPLE;
+    private static final String RANDOM_USER = "rand(0," + (NUMBER_OF_USERS - 1) + ")";
+
+    /** A workload generated by one of the rate tools. */
+    private enum Scenario {
+        BIND("bind") {
+            @Override
+            int run(final PrintStream out, final PrintStream err, final String[] commonArgs,
+                    final ConnectionFactory factory) throws Exception {
+                return new AuthRate(out, err).run(args(commonArgs, "-f", "-D", USER_DN_FORMAT, "-w", "password",
+                        "-g", RANDOM_USER), factory);
+            }
+        },
+        BASE_SEARCH("base-search") {
+            @Override
+            int run(final PrintStream out, final PrintStream err, final String[] commonArgs,
+                    final ConnectionFactory factory) throws Exception {
+                return new SearchRate(out, err).run(args(commonArgs, "-t", CONNECTIONS, "-F",
+                        "-b", USER_DN_FORMAT, "-s", "base", "-g", RANDOM_USER, "(objectClass=*)"), factory);
+            }
+        },
+        SUB_SEARCH("sub-search") {
+            @Override
+            int run(final PrintStream out, final PrintStream err, final String[] commonArgs,
+                    final ConnectionFactory factory) throws Exception {
+                return new SearchRate(out, err).run(args(commonArgs, "-t", CONNECTIONS, "-F",
+                        "-b", PEOPLE, "-s", "sub", "-g", RANDOM_USER, "(uid=user.%d)"), factory);
+            }
+        },
+        MODIFY("modify") {
+            @Override
+            int run(final PrintStream out, final PrintStream err, final String[] commonArgs,
+                    final ConnectionFactory factory) throws Exception {
+                return new ModRate(out, err).run(args(commonArgs, "-t", CONNECTIONS, "-F", "-b", USER_DN_FORMAT,
+                        "-g", RANDOM_USER, "-g", "randstr(16)", "description:%2$s"), factory);
+            }
+        },
+        ADD_DELETE("add-delete") {
+            @Override
+            int run(final PrintStream out, final PrintStream err, final String[] commonArgs,
+                    final ConnectionFactory factory) throws Exception {
+                return new AddRate(out, err).run(args(commonArgs, "-t", CONNECTIONS, "-F",
+                        "-C", "fifo", "-s", "1000", "-R", Integer.toString(RANDOM_SEED), addRateTemplate()), factory);
+            }
+
+            /**
+             * Returns the path of a copy of the addrate template which generates entries below ou=Added. Its
+             * branch entries are already in the backend, so that only users are added and deleted.
+             */
+            private String addRateTemplate() throws Exception {
+                final List<String> lines = new ArrayList<>();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        getClass().getClassLoader().getResourceAsStream(ADD_RATE_TEMPLATE), "UTF-8"))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.add(line.equals("define suffix=" + SUFFIX) ? "define suffix=ou=Added," + SUFFIX : line);
+                    }
+                }
+                return createTempFile(lines.toArray(new String[lines.size()]));
+            }
+        };
+
+        private final String name;
+
+        Scenario(final String name) {
+            this.name = name;
+        }
+
+        abstract int run(PrintStream out, PrintStream err, String[] commonArgs, ConnectionFactory factory)
+                throws Exception;
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        static Scenario forName(final String name) {
+            for (final Scenario scenario : values()) {
+                if (scenario.name.equals(name)) {
+                    return scenario;
+                }
+            }
+            throw new IllegalArgumentException("Unknown scenario: " + name);
+        }
+    }
+
+    /**
+     * Counts the requests received by a backend.
+     */
+    private static final class CountingRequestHandler implements RequestHandler<RequestContext> {
+        private final RequestHandler<RequestContext> delegate;
+        private final AtomicLong requestCount = new AtomicLong();
+
+        private CountingRequestHandler(final RequestHandler<RequestContext> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void handleAdd(final RequestContext requestContext, final AddRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleAdd(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleBind(final RequestContext requestContext, final int version, final BindRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<BindResult> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleBind(requestContext, version, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleCompare(final RequestContext requestContext, final CompareRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<CompareResult> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleCompare(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleDelete(final RequestContext requestContext, final DeleteRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleDelete(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public <R extends ExtendedResult> void handleExtendedRequest(final RequestContext requestContext,
+                final ExtendedRequest<R> request, final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<R> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleExtendedRequest(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleModify(final RequestContext requestContext, final ModifyRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleModify(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleModifyDN(final RequestContext requestContext, final ModifyDNRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleModifyDN(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleSearch(final RequestContext requestContext, final SearchRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            requestCount.incrementAndGet();
+            delegate.handleSearch(requestContext, request, intermediateResponseHandler, entryHandler, resultHandler);
+        }
+    }
+
+    /**
+     * Samples the number of bytes allocated by each thread of the JVM. Threads
+     * which terminate between two samples are only accounted for up to the
+     * previous sample, hence the short sampling interval.
+     */
+    private static final class AllocationSampler extends Thread {
+        private static final long SAMPLING_INTERVAL_MS = 10;
+
+        private final com.sun.management.ThreadMXBean threads;
+        private final Map<Long, Long> initialBytes = new HashMap<>();
+        private final Map<Long, Long> lastBytes = new HashMap<>();
+        private volatile boolean isStopped;
+
+        private AllocationSampler(final com.sun.management.ThreadMXBean threads) {
+            super("Allocation sampler");
+            setDaemon(true);
+            this.threads = threads;
+            sample(initialBytes);
+        }
+
+        @Override
+        public void run() {
+            while (!isStopped) {
+                sample(lastBytes);
+                try {
+                    Thread.sleep(SAMPLING_INTERVAL_MS);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /** Stops sampling and returns the number of bytes allocated since this sampler was created. */
+        private long stopSampling() throws InterruptedException {
+            isStopped = true;
+            join();
+            sample(lastBytes);
+            long allocatedBytes = 0;
+            for (final Map.Entry<Long, Long> thread : lastBytes.entrySet()) {
+                final Long initial = initialBytes.get(thread.getKey());
+                allocatedBytes += thread.getValue() - (initial != null ? initial : 0);
+            }
+            return allocatedBytes;
+        }
+
+        private void sample(final Map<Long, Long> bytesByThread) {
+            final long[] ids = threads.getAllThreadIds();
+            final long[] bytes = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    bytesByThread.put(ids[i], bytes[i]);
+                }
+            }
+        }
+    }
+
+    private RateToolsBenchmark() {
+        // Not used.
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            The transport, {@code loopback} or {@code internal},
+     *            optionally followed by the duration of each scenario in
+     *            seconds and by the names of the scenarios to run.
+     * @throws Exception
+     *             If the backend cannot be loaded or if a scenario fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1 || !Arrays.asList("loopback", "internal").contains(args[0])) {
+            System.err.println("Usage: loopback|internal [duration in seconds [scenario ...]]");
+            System.exit(1);
+        }
+        final boolean isInternal = "internal".equals(args[0]);
+        final int durationInSeconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DURATION_IN_SECONDS;
+        final List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            scenarios.add(Scenario.forName(args[i]));
+        }
+        if (scenarios.isEmpty()) {
+            scenarios.addAll(Arrays.asList(Scenario.values()));
+        }
+
+        final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        final MemoryBackend backend = new MemoryBackend(new EntryGenerator()
+                .setConstant("numusers", NUMBER_OF_USERS)
+                .setRandomSeed(RANDOM_SEED));
+        backend.load(new LDIFEntryReader("dn: ou=Added," + SUFFIX, "objectClass: top",
+                "objectClass: organizationalUnit", "ou: Added", "", "dn: " + ADDED_PEOPLE, "objectClass: top",
+                "objectClass: organizationalUnit", "ou: People"), false);
+        final CountingRequestHandler handler = new CountingRequestHandler(backend);
+
+        LDAPListener listener = null;
+        final ConnectionFactory factory;
+        final String[] connectionArgs;
+        if (isInternal) {
+            factory = newInternalConnectionFactory(handler);
+            connectionArgs = new String[0];
+        } else {
+            final InetSocketAddress address = findFreeSocketAddress();
+            listener = new LDAPListener(address, Connections.<LDAPClientContext> newServerConnectionFactory(handler));
+            factory = null;
+            connectionArgs = new String[] { "-h", address.getHostName(), "-p", Integer.toString(address.getPort()) };
+        }
+
+        try {
+            System.out.println(String.format(Locale.ENGLISH, "%-12s %-9s %12s %14s %14s", "scenario", "transport",
+                    "requests", "requests/s", "bytes/request"));
+            for (final Scenario scenario : scenarios) {
+                run(scenario, factory, args(connectionArgs, commonArgs(WARM_UP_DURATION_IN_SECONDS)));
+
+                final long requestsBefore = handler.requestCount.get();
+                final AllocationSampler sampler = threads != null ? new AllocationSampler(threads) : null;
+                if (sampler != null) {
+                    sampler.start();
+                }
+                final long startNs = System.nanoTime();
+                run(scenario, factory, args(connectionArgs, commonArgs(durationInSeconds)));
+                final long elapsedNs = System.nanoTime() - startNs;
+                final long allocatedBytes = sampler != null ? sampler.stopSampling() : -1;
+                final long requests = handler.requestCount.get() - requestsBefore;
+
+                System.out.println(String.format(Locale.ENGLISH, "%-12s %-9s %12d %14.1f %14s", scenario, args[0],
+                        requests, requests * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNs,
+                        allocatedBytes >= 0 && requests > 0 ? Long.toString(allocatedBytes / requests) : "n/a"));
+            }
+        } finally {
+            closeSilently(listener);
+        }
+    }
+
+    private static void run(final Scenario scenario, final ConnectionFactory factory, final String[] commonArgs)
+            throws Exception {
+        final ByteStringBuilder out = new ByteStringBuilder();
+        final ByteStringBuilder err = new ByteStringBuilder();
+        final PrintStream outStream = new PrintStream(out.asOutputStream());
+        final PrintStream errStream = new PrintStream(err.asOutputStream());
+        try {
+            final int resultCode = scenario.run(outStream, errStream, commonArgs, factory);
+            if (resultCode != 0) {
+                throw new IllegalStateException("The " + scenario + " scenario failed with code " + resultCode + ":"
+                        + System.getProperty("line.separator") + err);
+            }
+        } finally {
+            closeSilently(outStream, errStream);
+        }
+    }
+
+    private static String[] commonArgs(final int durationInSeconds) {
+        return new String[] { "-c", CONNECTIONS, "-S", "-i", "1", "-d", Integer.toString(durationInSeconds) };
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+            return (com.sun.management.ThreadMXBean) threads;
+        }
+        System.err.println("Allocated memory is not measured because this JVM does not support it");
+        return null;
+    }
+
+    private static String[] args(final String[] first, final String... second) {
+        final String[] args = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, args, first.length, second.length);
+        return args;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.newTrafficCaptureConnectionFactory;
+import static org.forgerock.opendj.ldap.requests.Requests.newAddRequest;
+import static org.forgerock.opendj.ldap.requests.Requests.newModifyRequest;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.IntermediateResponseHandler;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.Modification;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.OperationType;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.requests.SimpleBindRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.forgerock.util.Options;
+import org.testng.annotations.Test;
+
+import com.forgerock.opendj.ldap.tools.ReplayLogReader.ReplayedOperation;
+
+@SuppressWarnings("javadoc")
+public class ReplayLogReaderTestCase extends ToolsTestCase {
+
+    @Test
+    public void testReadReplayLog() throws Exception {
+        final ReplayLogReader reader = newReader(
+                "# A replay log",
+                "",
+                "1000 conn-1 SEARCH base=\"dc=example,dc=com\" scope=one filter=\"(uid=user.1)\" "
+                        + "attrs=\"cn,mail\" etime=0.5",
+                "1000.5 conn-2 MODIFY dn=\"uid=user.1,dc=example,dc=com\" "
+                        + "changes=\"replace: sn\\nsn: a \\\"quoted\\\" value\\n-\" etime=2",
+                "1002 conn-1 ADD dn=\"uid=user.2,dc=example,dc=com\" "
+                        + "entry=\"objectClass: top\\nobjectClass: person\\ncn: user\\nsn: 2\"",
+                "1003 conn-1 COMPARE dn=\"uid=user.1,dc=example,dc=com\" attr=sn value=2",
+                "1004 conn-1 MODIFYDN dn=\"uid=user.2,dc=example,dc=com\" newRDN=uid=user.3 deleteOldRDN=true",
+                "1005 conn-3 BIND dn=\"uid=user.1,dc=example,dc=com\" password=secret",
+                "1006 conn-3 BIND dn=\"uid=user.1,dc=example,dc=com\"",
+                "1007 conn-1 UNBIND");
+
+        ReplayedOperation operation = reader.readOperation();
+        assertThat(operation.getTimeNs()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(operation.getConnectionId()).isEqualTo("conn-1");
+        assertThat(operation.getType()).isEqualTo(OperationType.SEARCH);
+        final SearchRequest search = (SearchRequest) operation.getRequest();
+        assertThat(search.getName().toString()).isEqualTo("dc=example,dc=com");
+        assertThat(search.getScope()).isEqualTo(SearchScope.SINGLE_LEVEL);
+        assertThat(search.getFilter().toString()).isEqualTo("(uid=user.1)");
+        assertThat(search.getAttributes()).containsExactly("cn", "mail");
+
+        operation = reader.readOperation();
+        assertThat(operation.getTimeNs()).isEqualTo(TimeUnit.MICROSECONDS.toNanos(1000500));
+        assertThat(operation.getConnectionId()).isEqualTo("conn-2");
+        final Modification modification = ((ModifyRequest) operation.getRequest()).getModifications().get(0);
+        assertThat(modification.getModificationType()).isEqualTo(ModificationType.REPLACE);
+        assertThat(modification.getAttribute().firstValueAsString()).isEqualTo("a \"quoted\" value");
+
+        final AddRequest add = (AddRequest) reader.readOperation().getRequest();
+        assertThat(add.getName().toString()).isEqualTo("uid=user.2,dc=example,dc=com");
+        assertThat(add.getAttribute("objectClass").size()).isEqualTo(2);
+
+        final CompareRequest compare = (CompareRequest) reader.readOperation().getRequest();
+        assertThat(compare.getAttributeDescription().toString()).isEqualTo("sn");
+        assertThat(compare.getAssertionValueAsString()).isEqualTo("2");
+
+        final ModifyDNRequest modifyDN = (ModifyDNRequest) reader.readOperation().getRequest();
+        assertThat(modifyDN.getNewRDN().toString()).isEqualTo("uid=user.3");
+        assertThat(modifyDN.isDeleteOldRDN()).isTrue();
+
+        final SimpleBindRequest bind = (SimpleBindRequest) reader.readOperation().getRequest();
+        assertThat(bind.getName()).isEqualTo("uid=user.1,dc=example,dc=com");
+        assertThat(bind.getPassword()).isEqualTo("secret".getBytes("UTF-8"));
+
+        operation = reader.readOperation();
+        assertThat(operation.getType()).isEqualTo(OperationType.BIND);
+        assertThat(operation.getRequest()).isNull();
+
+        operation = reader.readOperation();
+        assertThat(operation.isConnectionClosed()).isTrue();
+        assertThat(operation.getConnectionId()).isEqualTo("conn-1");
+        assertThat(operation.getRequest()).isNull();
+
+        assertThat(reader.readOperation()).isNull();
+        assertThat(reader.getOriginalResponseTimes().keySet())
+                .containsOnly(OperationType.SEARCH, OperationType.MODIFY);
+        assertThat(reader.getOriginalResponseTimes().get(OperationType.MODIFY).getMaxValue())
+                .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(2) - 1000);
+    }
+
+    @Test
+    public void testReadOpenDJAccessLog() throws Exception {
+        final ReplayLogReader reader = newReader(
+                "[08/Jul/2016:10:00:00 +0000] CONNECT conn=0 from=127.0.0.1:50000 to=127.0.0.1:1389 protocol=LDAP",
+                "[08/Jul/2016:10:00:00.250 +0000] SEARCH REQ conn=0 op=0 msgID=1 base=\"dc=example,dc=com\" "
+                        + "scope=sub filter=\"(uid=user.1)\" attrs=\"ALL\"",
+                "[08/Jul/2016:10:00:00.251 +0000] SEARCH REQ conn=-1 op=1 msgID=2 base=\"cn=config\" "
+                        + "scope=base filter=\"(objectClass=*)\" attrs=\"ALL\"",
+                "[08/Jul/2016:10:00:00.252 +0000] SEARCH RES conn=0 op=0 msgID=1 result=0 nentries=1 etime=3",
+                "[08/Jul/2016:10:00:01 +0000] MODIFY REQ conn=0 op=1 msgID=2 dn=\"uid=user.1,dc=example,dc=com\"",
+                "[08/Jul/2016:10:00:01 +0000] ADD REQ conn=0 op=2 msgID=3 dn=\"uid=user.2,dc=example,dc=com\"",
+                "[08/Jul/2016:10:00:01 +0000] ADD RES conn=0 op=2 msgID=3 result=0 etime=5",
+                "[08/Jul/2016:10:00:02 +0000] DISCONNECT conn=0 reason=\"Client Unbind\"");
+
+        ReplayedOperation operation = reader.readOperation();
+        assertThat(operation.getTimeNs() % TimeUnit.SECONDS.toNanos(1)).isEqualTo(
+                TimeUnit.MILLISECONDS.toNanos(250));
+        assertThat(operation.getConnectionId()).isEqualTo("0");
+        final SearchRequest search = (SearchRequest) operation.getRequest();
+        assertThat(search.getScope()).isEqualTo(SearchScope.WHOLE_SUBTREE);
+        assertThat(search.getAttributes()).isEmpty();
+
+        // Modifications are not logged, so the modify request cannot be replayed.
+        operation = reader.readOperation();
+        assertThat(operation.getType()).isEqualTo(OperationType.MODIFY);
+        assertThat(operation.getRequest()).isNull();
+
+        operation = reader.readOperation();
+        assertThat(operation.getType()).isEqualTo(OperationType.ADD);
+        assertThat(operation.getRequest()).isNull();
+
+        operation = reader.readOperation();
+        assertThat(operation.isConnectionClosed()).isTrue();
+        assertThat(operation.getConnectionId()).isEqualTo("0");
+
+        assertThat(reader.readOperation()).isNull();
+        assertThat(reader.getOriginalResponseTimes().keySet()).containsOnly(OperationType.SEARCH);
+        assertThat(reader.getOriginalResponseTimes().get(OperationType.SEARCH).getTotalCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRead389AccessLog() throws Exception {
+        final ReplayLogReader reader = newReader(
+                "[08/Jul/2016:10:00:00 +0200] conn=7 fd=64 slot=64 connection from 127.0.0.1 to 127.0.0.1",
+                "[08/Jul/2016:10:00:00 +0200] conn=7 op=0 SRCH base=\"dc=example,dc=com\" scope=0 "
+                        + "filter=\"(objectClass=*)\" attrs=\"cn sn\"",
+                "[08/Jul/2016:10:00:00 +0200] conn=7 op=0 RESULT err=0 tag=101 nentries=1 etime=0.002",
+                "[08/Jul/2016:10:00:01 +0200] conn=7 op=1 MODRDN dn=\"uid=user.1,dc=example,dc=com\" "
+                        + "newrdn=\"uid=user.9\" newsuperior=\"(null)\"",
+                "[08/Jul/2016:10:00:01 +0200] conn=7 op=1 RESULT err=0 tag=109 nentries=0 etime=0",
+                "[08/Jul/2016:10:00:02 +0200] conn=7 op=2 UNBIND",
+                "[08/Jul/2016:10:00:02 +0200] conn=7 op=2 fd=64 closed - U1");
+
+        final List<ReplayedOperation> operations = new ArrayList<>();
+        ReplayedOperation operation;
+        while ((operation = reader.readOperation()) != null) {
+            operations.add(operation);
+        }
+        // Both the unbind and the closed lines report the end of the connection.
+        assertThat(operations).hasSize(4);
+        assertThat(operations.get(2).isConnectionClosed()).isTrue();
+        assertThat(operations.get(2).getConnectionId()).isEqualTo("7");
+        assertThat(operations.get(3).isConnectionClosed()).isTrue();
+        assertThat(operations.get(1).getTimeNs() - operations.get(0).getTimeNs()).isEqualTo(
+                TimeUnit.SECONDS.toNanos(1));
+        final SearchRequest search = (SearchRequest) operations.get(0).getRequest();
+        assertThat(search.getScope()).isEqualTo(SearchScope.BASE_OBJECT);
+        assertThat(search.getAttributes()).containsExactly("cn", "sn");
+        final ModifyDNRequest modifyDN = (ModifyDNRequest) operations.get(1).getRequest();
+        assertThat(modifyDN.getNewSuperior()).isNull();
+        assertThat(modifyDN.isDeleteOldRDN()).isFalse();
+
+        final long searchTimeNs = reader.getOriginalResponseTimes().get(OperationType.SEARCH).getMaxValue();
+        assertThat(searchTimeNs).isGreaterThan(TimeUnit.MICROSECONDS.toNanos(1990));
+        assertThat(searchTimeNs).isLessThan(TimeUnit.MICROSECONDS.toNanos(2010));
+        assertThat(reader.getOriginalResponseTimes().get(OperationType.MODIFY_DN).getTotalCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidRequestsAreSkipped() throws Exception {
+        final ReplayLogReader reader = newReader(
+                "1000 conn-1 SEARCH base=\"dc=example,dc=com\" filter=\"(uid=\"",
+                "1001 conn-1 DELETE dn=\"not a dn\"",
+                "not-a-time conn-1 DELETE dn=\"uid=user.1,dc=example,dc=com\"");
+
+        assertThat(reader.readOperation().getRequest()).isNull();
+        assertThat(reader.readOperation().getRequest()).isNull();
+        assertThat(reader.readOperation()).isNull();
+    }
+
+    @Test
+    public void testOperationsAreReturnedInTimeOrder() throws Exception {
+        final ReplayLogReader reader = newReader(
+                "1002 conn-1 DELETE dn=\"uid=user.2,dc=example,dc=com\"",
+                "1000 conn-1 DELETE dn=\"uid=user.0,dc=example,dc=com\"",
+                "1002 conn-2 DELETE dn=\"uid=user.3,dc=example,dc=com\"",
+                "1001 conn-1 DELETE dn=\"uid=user.1,dc=example,dc=com\"");
+
+        for (int i = 0; i < 4; i++) {
+            final ReplayedOperation operation = reader.readOperation();
+            assertThat(((DeleteRequest) operation.getRequest()).getName().toString()).isEqualTo(
+                    "uid=user." + i + ",dc=example,dc=com");
+        }
+        assertThat(reader.readOperation()).isNull();
+    }
+
+    /** Operations are captured when they complete, but must be replayed in the order in which they were sent. */
+    @Test
+    public void testReadTrafficCaptureOfOperationsCompletedOutOfOrder() throws Exception {
+        final LdapPromiseImpl<Result> slowAdd = LdapPromiseImpl.newLdapPromiseImpl();
+        final Connection connection = mock(Connection.class);
+        when(connection.addAsync(any(AddRequest.class), any(IntermediateResponseHandler.class))).thenReturn(slowAdd);
+        when(connection.modifyAsync(any(ModifyRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS)));
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnection()).thenReturn(connection);
+        final File file = File.createTempFile("capture", ".log");
+        file.deleteOnExit();
+
+        final ConnectionFactory capturing = newTrafficCaptureConnectionFactory(factory, file, Options.defaultOptions());
+        final Connection capturingConnection = capturing.getConnection();
+        final LdapPromise<Result> add = capturingConnection.addAsync(
+                newAddRequest("uid=user.1,dc=example,dc=com").addAttribute("objectClass", "top"));
+        Thread.sleep(5);
+        capturingConnection.modify(newModifyRequest("uid=user.1,dc=example,dc=com")
+                .addModification(ModificationType.REPLACE, "description", "value"));
+        slowAdd.handleResult(Responses.newResult(ResultCode.SUCCESS));
+        add.getOrThrow();
+        capturing.close();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).contains(" MODIFY ");
+        assertThat(lines.get(1)).contains(" ADD ");
+
+        final ReplayLogReader reader = new ReplayLogReader(new BufferedReader(new FileReader(file)));
+        try {
+            final ReplayedOperation first = reader.readOperation();
+            assertThat(first.getType()).isEqualTo(OperationType.ADD);
+            final AddRequest addRequest = (AddRequest) first.getRequest();
+            assertThat(addRequest.getName().toString()).isEqualTo("uid=user.1,dc=example,dc=com");
+            assertThat(addRequest.getAttribute("objectClass").firstValueAsString()).isEqualTo("top");
+
+            final ReplayedOperation second = reader.readOperation();
+            assertThat(second.getType()).isEqualTo(OperationType.MODIFY);
+            assertThat(second.getConnectionId()).isEqualTo(first.getConnectionId());
+            assertThat(second.getTimeNs()).isGreaterThan(first.getTimeNs());
+            final Modification modification = ((ModifyRequest) second.getRequest()).getModifications().get(0);
+            assertThat(modification.getAttribute().firstValueAsString()).isEqualTo("value");
+
+            assertThat(reader.readOperation()).isNull();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static ReplayLogReader newReader(final String... lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return new ReplayLogReader(new BufferedReader(new StringReader(builder.toString())));
+    }
+}
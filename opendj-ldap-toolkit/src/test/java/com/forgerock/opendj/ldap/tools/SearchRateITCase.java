@@ -0,0 +1,200 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.OperationType;
+import org.forgerock.opendj.ldap.TestCaseUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SearchRateITCase extends ToolsITCase {
+    private static final String THROUGHPUT_COLUMN = "recent throughput";
+    private static final String ERRORS_COLUMN = "errors/second";
+
+    private ByteStringBuilder out;
+    private ByteStringBuilder err;
+    private PrintStream outStream;
+    private PrintStream errStream;
+
+    @BeforeMethod
+    private void refreshStreams() {
+        out = new ByteStringBuilder();
+        err = new ByteStringBuilder();
+        outStream = new PrintStream(out.asOutputStream());
+        errStream = new PrintStream(err.asOutputStream());
+    }
+
+    @AfterMethod
+    private void closeStreams() {
+        closeSilently(outStream, errStream);
+    }
+
+    @Test(timeOut = 20000)
+    public void testOpenLoop() throws Exception {
+        assertThat(searchRate("-c", "2", "-F", "--openLoop", "-M", "200", "-d", "2")).isEqualTo(0);
+        assertNoErrors();
+    }
+
+    @Test(timeOut = 20000)
+    public void testOpenLoopHistogramLog() throws Exception {
+        final String histogramLogFile = TestCaseUtils.createTempFile();
+        assertThat(searchRate("-c", "2", "-F", "--openLoop", "-M", "200", "-d", "2",
+                "--histogramLogFile", histogramLogFile)).isEqualTo(0);
+
+        final HistogramLogReader reader = new HistogramLogReader(histogramLogFile);
+        long count = 0;
+        EncodableHistogram histogram;
+        while ((histogram = reader.nextIntervalHistogram()) != null) {
+            assertThat(histogram.getTag()).isEqualTo(OperationType.SEARCH.toString());
+            count += ((Histogram) histogram).getTotalCount();
+        }
+        assertThat(count).isGreaterThan(0);
+    }
+
+    @Test
+    public void testOpenLoopRequiresNoRebind() throws Exception {
+        assertThat(searchRate("-c", "2", "-f", "--openLoop", "-M", "200", "-d", "2")).isNotEqualTo(0);
+        checkOutputStream(err, ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get("--noRebind", "--openLoop",
+                "present"));
+    }
+
+    @Test(timeOut = 20000)
+    public void testMaxOutstanding() throws Exception {
+        assertThat(searchRate("-c", "1", "-t", "2", "-F", "--maxOutstanding", "4", "-m", "2000")).isEqualTo(0);
+        assertNoErrors();
+    }
+
+    /** Failed operations must release their window permit, otherwise the workers would block once it is used up. */
+    @Test(timeOut = 20000)
+    public void testMaxOutstandingIsReleasedOnError() throws Exception {
+        assertThat(searchRateWithBaseDN("uid=user.%d,ou=missing,o=test",
+                "-c", "1", "-t", "2", "-F", "--maxOutstanding", "4", "-m", "2000")).isEqualTo(0);
+        assertErrors();
+    }
+
+    /**
+     * Only the two pre-generated requests of each worker thread, which target existing entries, must be sent: the
+     * following values of the data source target entries which do not exist.
+     */
+    @Test(timeOut = 20000)
+    public void testPregeneratedRequestsAreCycled() throws Exception {
+        assertThat(searchRateWithDataSource("inc(998,1997)",
+                "-c", "1", "-t", "2", "-F", "--pregenerate", "2", "-m", "500")).isEqualTo(0);
+        assertNoErrors();
+    }
+
+    /** The workers which are ready must not wait forever for a worker whose pre-generation failed. */
+    @Test(timeOut = 20000)
+    public void testFailedPregenerationDoesNotBlockTheStart() throws Exception {
+        // The base DNs are formatted when the arguments are validated, but are only parsed, and rejected, once generated.
+        searchRateWithBaseDN("%d", "-c", "1", "-t", "2", "-F", "--pregenerate", "2", "-m", "500");
+    }
+
+    @Test(timeOut = 20000)
+    public void testRebindsAreNotRecordedInHistogramLog() throws Exception {
+        final String histogramLogFile = TestCaseUtils.createTempFile();
+        // Connections are kept open, so each search is preceded by a bind on the same connection.
+        assertThat(new SearchRate(outStream, errStream).run(new String[] {
+            "-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+            "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+            "-D", "uid=user.0,ou=people,o=test", "-w", "password", "-f", "-m", "100",
+            "--histogramLogFile", histogramLogFile,
+            "-b", "uid=user.%d,ou=people,o=test", "-s", "base", "-g", "rand(0,999)", "(objectclass=*)" }))
+            .isEqualTo(0);
+
+        final HistogramLogReader reader = new HistogramLogReader(histogramLogFile);
+        long count = 0;
+        EncodableHistogram histogram;
+        while ((histogram = reader.nextIntervalHistogram()) != null) {
+            assertThat(histogram.getTag()).isEqualTo(OperationType.SEARCH.toString());
+            count += ((Histogram) histogram).getTotalCount();
+        }
+        assertThat(count).isEqualTo(100);
+    }
+
+    private int searchRate(final String... args) {
+        return runSearchRate("uid=user.%d,ou=people,o=test", "rand(0,999)", args);
+    }
+
+    private int searchRateWithBaseDN(final String baseDN, final String... args) {
+        return runSearchRate(baseDN, "rand(0,999)", args);
+    }
+
+    private int searchRateWithDataSource(final String dataSource, final String... args) {
+        return runSearchRate("uid=user.%d,ou=people,o=test", dataSource, args);
+    }
+
+    private int runSearchRate(final String baseDN, final String dataSource, final String... args) {
+        final List<String> arguments = Arrays.asList(
+                "-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                "-i", "1", "-S", "-b", baseDN, "-s", "base", "-g", dataSource);
+        final String[] allArgs = arguments.toArray(new String[arguments.size() + args.length + 1]);
+        System.arraycopy(args, 0, allArgs, arguments.size(), args.length);
+        allArgs[allArgs.length - 1] = "(objectclass=*)";
+        return new SearchRate(outStream, errStream).run(allArgs);
+    }
+
+    /** Checks that operations have been performed, and that none of them failed. */
+    private void assertNoErrors() {
+        final String[] lines = out.toString().split(System.getProperty("line.separator"));
+        final List<String> header = Arrays.asList(lines[0].split(","));
+        final int throughputColumn = header.indexOf(THROUGHPUT_COLUMN);
+        final int errorsColumn = header.indexOf(ERRORS_COLUMN);
+        assertThat(throughputColumn).isNotEqualTo(-1);
+        assertThat(errorsColumn).isNotEqualTo(-1);
+        assertThat(lines.length).isGreaterThan(1);
+        double throughput = 0;
+        for (int i = 1; i < lines.length; i++) {
+            final String[] values = lines[i].split(",");
+            assertThat(values[errorsColumn].trim()).isEqualTo("0.0");
+            throughput += Double.parseDouble(values[throughputColumn].trim());
+        }
+        assertThat(throughput).isGreaterThan(0);
+    }
+
+    /** Checks that operations have been performed, and that they all failed. */
+    private void assertErrors() {
+        final String[] lines = out.toString().split(System.getProperty("line.separator"));
+        final List<String> header = Arrays.asList(lines[0].split(","));
+        final int throughputColumn = header.indexOf(THROUGHPUT_COLUMN);
+        final int errorsColumn = header.indexOf(ERRORS_COLUMN);
+        assertThat(lines.length).isGreaterThan(1);
+        double throughput = 0;
+        double errors = 0;
+        for (int i = 1; i < lines.length; i++) {
+            final String[] values = lines[i].split(",");
+            throughput += Double.parseDouble(values[throughputColumn].trim());
+            errors += Double.parseDouble(values[errorsColumn].trim());
+        }
+        assertThat(errors).isGreaterThan(0);
+        assertThat(errors).isEqualTo(throughput);
+    }
+}
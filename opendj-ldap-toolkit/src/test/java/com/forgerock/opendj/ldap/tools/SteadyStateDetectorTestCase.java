@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SteadyStateDetectorTestCase extends ToolsTestCase {
+
+    @Test
+    public void testSteadyStateIsReachedAfterWarmUp() {
+        final SteadyStateDetector detector = new SteadyStateDetector(3, 0.05);
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(100, 10))).isFalse();
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(500, 4))).isFalse();
+        assertThat(detector.addInterval(1000, 1, newResponseTimes(1000, 2))).isFalse();
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(1010, 2))).isFalse();
+        assertThat(detector.isSteadyStateReached()).isFalse();
+        assertThat(detector.addInterval(1000, 2, newResponseTimes(990, 2))).isTrue();
+        assertThat(detector.isSteadyStateReached()).isTrue();
+        assertThat(detector.getSteadyStateStartMs()).isEqualTo(2000);
+
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(2000, 1))).isFalse();
+        final SteadyStateDetector.Summary summary = detector.getSummary();
+        assertThat(summary.getDurationMs()).isEqualTo(4000);
+        assertThat(summary.getOperationCount()).isEqualTo(5000);
+        assertThat(summary.getErrorCount()).isEqualTo(3);
+        assertThat(summary.getThroughput()).isEqualTo(1250.0);
+    }
+
+    @Test
+    public void testUnstableResponseTimesPreventSteadyState() {
+        final SteadyStateDetector detector = new SteadyStateDetector(2, 0.05);
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(1000, 2))).isFalse();
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(1000, 8))).isFalse();
+        assertThat(detector.addInterval(1000, 0, newResponseTimes(1000, 2))).isFalse();
+        assertThat(detector.isSteadyStateReached()).isFalse();
+    }
+
+    @Test
+    public void testSummaryCoversWholeRunWhenSteadyStateIsNotReached() {
+        final SteadyStateDetector detector = new SteadyStateDetector(5, 0.05);
+        detector.addInterval(1000, 1, newResponseTimes(100, 1));
+        detector.addInterval(500, 2, newResponseTimes(200, 1));
+
+        final SteadyStateDetector.Summary summary = detector.getSummary();
+        assertThat(detector.isSteadyStateReached()).isFalse();
+        assertThat(summary.getDurationMs()).isEqualTo(1500);
+        assertThat(summary.getOperationCount()).isEqualTo(300);
+        assertThat(summary.getErrorCount()).isEqualTo(3);
+        assertThat(summary.getThroughput()).isEqualTo(200.0);
+    }
+
+    @Test
+    public void testResponseTimesAreCopied() {
+        final SteadyStateDetector detector = new SteadyStateDetector(1, 0.05);
+        final Histogram responseTimes = newResponseTimes(10, 1);
+        assertThat(detector.addInterval(1000, 0, responseTimes)).isTrue();
+        responseTimes.reset();
+        assertThat(detector.getSummary().getOperationCount()).isEqualTo(10);
+    }
+
+    private static Histogram newResponseTimes(final int operationCount, final long responseTimeMs) {
+        final Histogram responseTimes = new Histogram(3);
+        responseTimes.recordValueWithCount(TimeUnit.MILLISECONDS.toNanos(responseTimeMs), operationCount);
+        return responseTimes;
+    }
+}
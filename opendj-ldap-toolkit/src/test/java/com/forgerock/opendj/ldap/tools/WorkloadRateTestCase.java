@@ -0,0 +1,163 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.TestCaseUtils;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.forgerock.opendj.ldap.tools.WorkloadRate.Operation;
+import com.forgerock.opendj.ldap.tools.WorkloadRate.OperationType;
+
+@SuppressWarnings("javadoc")
+public class WorkloadRateTestCase extends ToolsTestCase {
+
+    @Test
+    public void testReadProfileWithWeights() {
+        final List<Operation> operations = WorkloadRate.readProfile(profile(
+                "operations", " search, modify ",
+                "search.type", "search",
+                "search.weight", "3",
+                "search.dn", "ou=people,dc=example,dc=com",
+                "modify.type", "MODIFY",
+                "modify.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "modify.attribute", "description:value"));
+        assertThat(operations).hasSize(2);
+        assertThat(operations.get(0).name).isEqualTo("search");
+        assertThat(operations.get(0).type).isEqualTo(OperationType.SEARCH);
+        assertThat(operations.get(0).weight).isEqualTo(3.0);
+        assertThat(operations.get(0).isRate).isFalse();
+        assertThat(operations.get(1).name).isEqualTo("modify");
+        assertThat(operations.get(1).type).isEqualTo(OperationType.MODIFY);
+        assertThat(operations.get(1).weight).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testReadProfileWithRates() {
+        final List<Operation> operations = WorkloadRate.readProfile(profile(
+                "operations", "bind,compare",
+                "bind.type", "bind",
+                "bind.rate", "10",
+                "bind.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "compare.type", "compare",
+                "compare.rate", "2.5",
+                "compare.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "compare.attribute", "uid:user.%d"));
+        assertThat(operations).hasSize(2);
+        assertThat(operations.get(0).type).isEqualTo(OperationType.BIND);
+        assertThat(operations.get(0).isRate).isTrue();
+        assertThat(operations.get(0).weight).isEqualTo(10.0);
+        assertThat(operations.get(1).type).isEqualTo(OperationType.COMPARE);
+        assertThat(operations.get(1).weight).isEqualTo(2.5);
+    }
+
+    @DataProvider
+    public Object[][] invalidProfiles() {
+        return new Object[][] {
+            { profile("operations", " , "), ERR_WORKLOADRATE_NO_OPERATIONS.get() },
+            { profile("operations", "op", "op.dn", "o=test"), ERR_WORKLOADRATE_MISSING_PROPERTY.get("op.type") },
+            { profile("operations", "op", "op.type", "modrdn", "op.dn", "o=test"),
+              ERR_WORKLOADRATE_INVALID_PROPERTY.get("modrdn", "op.type") },
+            { profile("operations", "op", "op.type", "search"), ERR_WORKLOADRATE_MISSING_PROPERTY.get("op.dn") },
+            { profile("operations", "op", "op.type", "search", "op.dn", "o=test", "op.weight", "0"),
+              ERR_WORKLOADRATE_INVALID_PROPERTY.get("0", "op.weight") },
+            { profile("operations", "op", "op.type", "search", "op.dn", "o=test", "op.weight", "-1"),
+              ERR_WORKLOADRATE_INVALID_PROPERTY.get("-1", "op.weight") },
+            { profile("operations", "op", "op.type", "search", "op.dn", "o=test", "op.rate", "fast"),
+              ERR_WORKLOADRATE_INVALID_PROPERTY.get("fast", "op.rate") },
+            { profile("operations", "op", "op.type", "search", "op.dn", "o=test", "op.scope", "everything"),
+              ERR_WORKLOADRATE_INVALID_PROPERTY.get("everything", "op.scope") },
+            { profile("operations", "op", "op.type", "add", "op.dn", "o=test"),
+              ERR_WORKLOADRATE_MISSING_PROPERTY.get("op.attribute") },
+            { profile("operations", "op", "op.type", "modify", "op.dn", "o=test", "op.attribute", "description"),
+              ERR_WORKLOADRATE_INVALID_PROPERTY.get("description", "op.attribute") },
+            { profile("operations", "op", "op.type", "compare", "op.dn", "o=test",
+                      "op.attribute.1", "cn:a", "op.attribute.2", "cn:b"),
+              ERR_WORKLOADRATE_MISSING_PROPERTY.get("op.attribute") },
+            { profile("operations", "op1,op2",
+                      "op1.type", "search", "op1.dn", "o=test", "op1.rate", "10",
+                      "op2.type", "search", "op2.dn", "o=test", "op2.weight", "10"),
+              ERR_WORKLOADRATE_MIXED_RATES_AND_WEIGHTS.get() },
+        };
+    }
+
+    @Test(dataProvider = "invalidProfiles")
+    public void testReadInvalidProfile(final Properties profile, final LocalizableMessage expectedMessage) {
+        try {
+            WorkloadRate.readProfile(profile);
+            fail("Expected the profile to be rejected with: " + expectedMessage);
+        } catch (final LocalizedIllegalArgumentException e) {
+            assertThat(e.getMessageObject().toString()).isEqualTo(expectedMessage.toString());
+        }
+    }
+
+    @DataProvider
+    public Object[][] concurrentOperationsPerConnection() {
+        return new Object[][] {
+            { new String[] { "-t", "2", "-F" } },
+            { new String[] { "--maxOutstanding", "2", "-F" } },
+            { new String[] { "--openLoop", "-M", "100", "-F" } },
+        };
+    }
+
+    @Test(dataProvider = "concurrentOperationsPerConnection")
+    public void testBindIsRejectedWithConcurrentOperationsPerConnection(final String[] args) throws Exception {
+        final String profileFile = TestCaseUtils.createTempFile(
+                "operations=bind",
+                "bind.type=bind",
+                "bind.dn=uid=user.0,ou=people,dc=example,dc=com",
+                "bind.password=password");
+        final ByteStringBuilder out = new ByteStringBuilder();
+        final ByteStringBuilder err = new ByteStringBuilder();
+        final PrintStream outStream = new PrintStream(out.asOutputStream());
+        final PrintStream errStream = new PrintStream(err.asOutputStream());
+        try {
+            final List<String> arguments = new ArrayList<>(Arrays.asList("-h", "localhost", "-p", "1389"));
+            arguments.addAll(Arrays.asList(args));
+            arguments.add(profileFile);
+            final int result = new WorkloadRate(outStream, errStream).run(
+                    arguments.toArray(new String[arguments.size()]));
+            assertThat(result).isEqualTo(ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue());
+            assertThat(err.toString().replace(System.getProperty("line.separator"), " "))
+                    .contains(ERR_WORKLOADRATE_BIND_REQUIRES_SINGLE_OPERATION_PER_CONNECTION.get().toString());
+        } finally {
+            closeSilently(outStream, errStream);
+        }
+    }
+
+    private static Properties profile(final String... keysAndValues) {
+        final Properties profile = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            profile.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return profile;
+    }
+}
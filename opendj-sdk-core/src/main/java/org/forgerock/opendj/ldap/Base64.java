@@ -20,6 +20,9 @@ import org.forgerock.util.Reject;
 import static com.forgerock.opendj.ldap.CoreMessages.ERR_BASE64_DECODE_INVALID_CHARACTER;
 import static com.forgerock.opendj.ldap.CoreMessages.ERR_BASE64_DECODE_INVALID_LENGTH;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
 
@@ -41,6 +44,19 @@ final class Base64 {
     private static final char[] BASE64_ALPHABET = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
             + "abcdefghijklmnopqrstuvwxyz" + "0123456789+/").toCharArray();
 
+    /**
+     * Maps the bytes of base64-encoded values to their 6 bit values,
+     * {@code -1} for invalid characters and {@code -2} for padding.
+     */
+    private static final byte[] BASE64_VALUES = new byte[256];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[BASE64_ALPHABET[i]] = (byte) i;
+        }
+        BASE64_VALUES['='] = -2;
+    }
+
     /**
      * Decodes the provided base64 encoded data.
      *
@@ -298,6 +314,61 @@ final class Base64 {
         return builder.toByteString();
     }
 
+    /**
+     * Decodes the provided base64 encoded data, held as ASCII bytes, following
+     * the same rules as {@link #decode(String)}.
+     *
+     * @param base64
+     *            The byte array containing the base64 encoded data.
+     * @param offset
+     *            The offset of the encoded data in the byte array.
+     * @param length
+     *            The length of the encoded data.
+     * @return The decoded data.
+     * @throws LocalizedIllegalArgumentException
+     *             If a problem occurs while attempting to decode the data.
+     */
+    static ByteString decode(final byte[] base64, final int offset, final int length) {
+        if (length % 4 != 0) {
+            final LocalizableMessage message = ERR_BASE64_DECODE_INVALID_LENGTH.get(toString(base64, offset, length));
+            throw new LocalizedIllegalArgumentException(message);
+        }
+
+        final byte[] decoded = new byte[length / 4 * 3];
+        int decodedLength = 0;
+        for (int i = offset; i < offset + length; i += 4) {
+            int value = 0;
+            for (int j = 0; j < 4; j++) {
+                final byte b = base64[i + j];
+                final int bits = BASE64_VALUES[b & 0xFF];
+                if (bits >= 0) {
+                    value = (value << 6) | bits;
+                } else if (bits == -2) {
+                    // Padding ends the encoded data.
+                    if (j == 2) {
+                        decoded[decodedLength++] = (byte) (value >>> 4);
+                    } else if (j == 3) {
+                        decoded[decodedLength++] = (byte) (value >>> 10);
+                        decoded[decodedLength++] = (byte) (value >>> 2);
+                    }
+                    return ByteString.wrap(decoded, 0, decodedLength);
+                } else {
+                    final LocalizableMessage message = ERR_BASE64_DECODE_INVALID_CHARACTER.get(
+                            toString(base64, offset, length), (char) (b & 0xFF));
+                    throw new LocalizedIllegalArgumentException(message);
+                }
+            }
+            decoded[decodedLength++] = (byte) (value >>> 16);
+            decoded[decodedLength++] = (byte) (value >>> 8);
+            decoded[decodedLength++] = (byte) value;
+        }
+        return ByteString.wrap(decoded, 0, decodedLength);
+    }
+
+    private static String toString(final byte[] bytes, final int offset, final int length) {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
     /**
      * Encodes the provided data as a base64 string.
      *
@@ -156,6 +156,38 @@ public final class ByteString implements ByteSequence {
         return Base64.decode(s);
     }
 
+    /**
+     * Returns a byte string containing the Base64 decoded bytes of the provided
+     * sub-sequence of a byte array holding Base64 encoded content as ASCII
+     * characters, without decoding them as a string first.
+     *
+     * @param bytes
+     *            The byte array containing the Base64 encoded content.
+     * @param offset
+     *            The offset of the Base64 encoded content; must be
+     *            non-negative and no larger than {@code bytes.length} .
+     * @param length
+     *            The length of the Base64 encoded content; must be
+     *            non-negative and no larger than {@code bytes.length - offset}.
+     * @return The byte string containing the Base64 decoded bytes of the
+     *         provided content.
+     * @throws LocalizedIllegalArgumentException
+     *             If the provided bytes do not contain valid Base64 encoded
+     *             content.
+     * @throws IndexOutOfBoundsException
+     *             If {@code offset} is negative or if {@code length} is
+     *             negative or if {@code offset + length} is greater than
+     *             {@code bytes.length}.
+     * @see #valueOfBase64(String)
+     */
+    public static ByteString valueOfBase64(final byte[] bytes, final int offset, final int length) {
+        checkArrayBounds(bytes, offset, length);
+        if (length == 0) {
+            return EMPTY;
+        }
+        return Base64.decode(bytes, offset, length);
+    }
+
     /**
      * Returns a byte string containing the bytes of the provided hexadecimal string.
      *
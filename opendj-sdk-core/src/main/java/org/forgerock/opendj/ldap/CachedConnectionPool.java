@@ -12,10 +12,11 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009-2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldap;
 
+import static org.forgerock.opendj.ldap.Connections.*;
 import static org.forgerock.opendj.ldap.LdapException.*;
 import static org.forgerock.util.promise.Promises.*;
 
@@ -32,6 +33,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -54,6 +56,7 @@ import org.forgerock.opendj.ldap.responses.SearchResultEntry;
 import org.forgerock.opendj.ldap.responses.SearchResultReference;
 import org.forgerock.opendj.ldif.ChangeRecord;
 import org.forgerock.opendj.ldif.ConnectionEntryReader;
+import org.forgerock.util.Options;
 import org.forgerock.util.Reject;
 import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.Promise;
@@ -68,19 +71,26 @@ import com.forgerock.opendj.util.ReferenceCountedObject;
  * connections with a configurable core pool size, maximum size, and expiration
  * policy.
  */
-final class CachedConnectionPool implements ConnectionPool {
+final class CachedConnectionPool implements ConnectionPool, ConnectionPoolStatistics {
 
     /**
      * This success handler is invoked when an attempt to add a new connection
      * to the pool completes.
      */
     private final class ConnectionResultHandler implements ResultHandler<Connection> {
+        private final long startTimeNanos;
+
+        private ConnectionResultHandler(final long startTimeNanos) {
+            this.startTimeNanos = startTimeNanos;
+        }
+
         @Override
         public void handleResult(final Connection connection) {
             logger.debug(LocalizableMessage.raw(
                     "Connection attempt succeeded:  availableConnections=%d, maxPoolSize=%d",
                      currentPoolSize(), maxPoolSize));
             pendingConnectionAttempts.decrementAndGet();
+            eventListener.handleConnectionCreated(System.nanoTime() - startTimeNanos);
             publishConnection(connection);
         }
     }
@@ -90,11 +100,18 @@ final class CachedConnectionPool implements ConnectionPool {
      * to the pool ended in error.
      */
     private final class ConnectionFailureHandler implements ExceptionHandler<LdapException> {
+        private final long startTimeNanos;
+
+        private ConnectionFailureHandler(final long startTimeNanos) {
+            this.startTimeNanos = startTimeNanos;
+        }
+
         @Override
         public void handleException(final LdapException exception) {
             // Connection attempt failed, so decrease the pool size.
             pendingConnectionAttempts.decrementAndGet();
             availableConnections.release();
+            eventListener.handleConnectionCreationFailed(System.nanoTime() - startTimeNanos, exception);
 
             logger.debug(LocalizableMessage.raw(
                     "Connection attempt failed: availableConnections=%d, maxPoolSize=%d",
@@ -131,6 +148,9 @@ final class CachedConnectionPool implements ConnectionPool {
      */
     class PooledConnection implements Connection, ConnectionEventListener {
         private final Connection connection;
+        /** The connection used for performing operations, which may be instrumented. */
+        private final Connection operationConnection;
+        private final long checkOutTimeNanos = System.nanoTime();
         private LdapException error;
         private final AtomicBoolean isClosed = new AtomicBoolean(false);
         private boolean isDisconnectNotification;
@@ -139,6 +159,17 @@ final class CachedConnectionPool implements ConnectionPool {
 
         PooledConnection(final Connection connection) {
             this.connection = connection;
+            if (eventListener != ConnectionPoolEventListener.NO_OP) {
+                this.operationConnection = new InstrumentedConnection(connection) {
+                    @Override
+                    void handleOperationCompleted(final OperationType type, final ResultCode resultCode,
+                            final long latencyNanos) {
+                        eventListener.handleOperationCompleted(type, resultCode, latencyNanos);
+                    }
+                };
+            } else {
+                this.operationConnection = connection;
+            }
         }
 
         @Override
@@ -259,6 +290,7 @@ final class CachedConnectionPool implements ConnectionPool {
             if (tmpListeners != null) {
                 connection.removeConnectionEventListener(this);
             }
+            eventListener.handleConnectionReleased(System.nanoTime() - checkOutTimeNanos);
 
             // Don't put invalid connections back in the pool.
             if (connection.isValid()) {
@@ -269,16 +301,25 @@ final class CachedConnectionPool implements ConnectionPool {
                  * server, but the server may still be available. In order to
                  * avoid leaving pending promises hanging indefinitely, we should
                  * try to reconnect immediately. No need to release/acquire
-                 * availableConnections.
+                 * availableConnections, unless the pool has been closed.
                  */
-                connection.close();
-                pendingConnectionAttempts.incrementAndGet();
-                factory.getConnectionAsync().thenOnResult(connectionResultHandler)
-                                            .thenOnException(connectionFailureHandler);
+                destroyConnection(connection);
+                final boolean connectionPoolIsClosing;
+                synchronized (queue) {
+                    connectionPoolIsClosing = CachedConnectionPool.this.isClosed;
+                    if (!connectionPoolIsClosing) {
+                        pendingConnectionAttempts.incrementAndGet();
+                    }
+                }
+                if (connectionPoolIsClosing) {
+                    availableConnections.release();
+                } else {
+                    connectAsync();
 
-                logger.debug(LocalizableMessage.raw(
-                        "Connection no longer valid: availableConnections=%d, maxPoolSize=%d",
-                        currentPoolSize(), maxPoolSize));
+                    logger.debug(LocalizableMessage.raw(
+                            "Connection no longer valid: availableConnections=%d, maxPoolSize=%d",
+                            currentPoolSize(), maxPoolSize));
+                }
             }
 
             // Invoke listeners.
@@ -559,7 +600,7 @@ final class CachedConnectionPool implements ConnectionPool {
             if (isClosed()) {
                 throw new IllegalStateException();
             }
-            return connection;
+            return operationConnection;
         }
     }
 
@@ -583,12 +624,14 @@ final class CachedConnectionPool implements ConnectionPool {
                 idleConnections = new LinkedList<>();
                 final long timeoutMillis = timeService.now() - idleTimeoutMillis;
                 int nonCoreConnectionCount = currentPoolSize() - corePoolSize;
-                for (QueueElement holder = queue.peek(); nonCoreConnectionCount > 0
+                int purgeableConnectionCount = idleConnectionCount() - minIdleConnections;
+                for (QueueElement holder = queue.peek(); nonCoreConnectionCount > 0 && purgeableConnectionCount > 0
                         && isTimedOutQueuedConnection(holder, timeoutMillis); holder = queue.peek()) {
                     idleConnections.add(holder.getWaitingConnection());
                     queue.poll();
                     availableConnections.release();
                     nonCoreConnectionCount--;
+                    purgeableConnectionCount--;
                 }
             }
 
@@ -598,7 +641,7 @@ final class CachedConnectionPool implements ConnectionPool {
                         "Closing %d idle pooled connections: availableConnections=%d, maxPoolSize=%d",
                         idleConnections.size(), currentPoolSize(), maxPoolSize));
                 for (final Connection connection : idleConnections) {
-                    connection.close();
+                    destroyConnection(connection);
                 }
             }
         }
@@ -608,6 +651,60 @@ final class CachedConnectionPool implements ConnectionPool {
         }
     }
 
+    /**
+     * Task responsible for opening new connections in the background whenever
+     * the number of idle connections drops below the low-water mark.
+     */
+    private final class ReplenishIdleConnectionsTask implements Runnable {
+        @Override
+        public void run() {
+            isReplenishScheduled.set(false);
+            final int shortfall;
+            synchronized (queue) {
+                if (isClosed) {
+                    return;
+                }
+                /*
+                 * Pending connection attempts will either satisfy a waiting
+                 * promise or become idle, so count them as idle in order to
+                 * avoid over-provisioning.
+                 */
+                shortfall = minIdleConnections - idleConnectionCount() - pendingConnectionAttempts.get();
+            }
+
+            int attempts = 0;
+            while (attempts < shortfall && availableConnections.tryAcquire()) {
+                pendingConnectionAttempts.incrementAndGet();
+                connectAsync();
+                attempts++;
+            }
+
+            if (attempts > 0) {
+                logger.debug(LocalizableMessage.raw(
+                        "Replenishing %d idle pooled connections: availableConnections=%d, maxPoolSize=%d",
+                        attempts, currentPoolSize(), maxPoolSize));
+            }
+        }
+    }
+
+    /**
+     * Task responsible for performing a connection attempt which has been
+     * deferred because of the connection rate limit.
+     */
+    private final class DeferredConnectTask implements Runnable {
+        @Override
+        public void run() {
+            synchronized (queue) {
+                if (isClosed) {
+                    pendingConnectionAttempts.decrementAndGet();
+                    availableConnections.release();
+                    return;
+                }
+            }
+            connectNow();
+        }
+    }
+
     private final class DebugEnabledPooledConnection extends PooledConnection {
         private final StackTraceElement[] stackTrace;
 
@@ -687,16 +784,19 @@ final class CachedConnectionPool implements ConnectionPool {
     TimeService timeService = TimeService.SYSTEM;
 
     private final Semaphore availableConnections;
-    private final ResultHandler<Connection> connectionResultHandler = new ConnectionResultHandler();
-    private final ExceptionHandler<LdapException> connectionFailureHandler = new ConnectionFailureHandler();
     private final int corePoolSize;
     private final ConnectionFactory factory;
     private boolean isClosed;
     private final ScheduledFuture<?> idleTimeoutFuture;
     private final long idleTimeoutMillis;
     private final int maxPoolSize;
+    private final int minIdleConnections;
+    private final AtomicBoolean isReplenishScheduled = new AtomicBoolean();
+    private final Runnable replenishTask = new ReplenishIdleConnectionsTask();
+    private final Runnable deferredConnectTask = new DeferredConnectTask();
     private final LinkedList<QueueElement> queue = new LinkedList<>();
     private final ReferenceCountedObject<ScheduledExecutorService>.Reference scheduler;
+    private final ConnectionPoolEventListener eventListener;
 
     /**
      * The number of new connections which are in the process of being
@@ -704,34 +804,77 @@ final class CachedConnectionPool implements ConnectionPool {
      */
     private final AtomicInteger pendingConnectionAttempts = new AtomicInteger();
 
+    /**
+     * The minimum interval between two successive connection attempts, or
+     * {@code 0} if connection attempts are not rate limited.
+     */
+    private final long connectIntervalNanos;
+
+    /** The earliest time at which the next connection attempt may be performed. */
+    private final AtomicLong nextConnectTimeNanos = new AtomicLong(System.nanoTime());
+
     CachedConnectionPool(final ConnectionFactory factory, final int corePoolSize,
             final int maximumPoolSize, final long idleTimeout, final TimeUnit unit,
             final ScheduledExecutorService scheduler) {
-        Reject.ifNull(factory);
+        this(factory, corePoolSize, maximumPoolSize, idleTimeout, unit, scheduler, Options.defaultOptions());
+    }
+
+    CachedConnectionPool(final ConnectionFactory factory, final int corePoolSize,
+            final int maximumPoolSize, final long idleTimeout, final TimeUnit unit,
+            final ScheduledExecutorService scheduler, final Options options) {
+        Reject.ifNull(factory, options);
         Reject.ifFalse(corePoolSize >= 0, "corePoolSize < 0");
         Reject.ifFalse(maximumPoolSize > 0, "maxPoolSize <= 0");
         Reject.ifFalse(corePoolSize <= maximumPoolSize, "corePoolSize > maxPoolSize");
         Reject.ifFalse(idleTimeout >= 0, "idleTimeout < 0");
         Reject.ifFalse(idleTimeout == 0 || unit != null, "time unit is null");
 
+        final int initialPoolSize = options.get(CONNECTION_POOL_INITIAL_SIZE);
+        final int minIdleConnections = options.get(CONNECTION_POOL_MIN_IDLE_SIZE);
+        final int maxConnectRate = options.get(CONNECTION_POOL_MAX_CONNECT_RATE);
+        final ConnectionPoolEventListener eventListener = options.get(CONNECTION_POOL_EVENT_LISTENER);
+        Reject.ifFalse(initialPoolSize >= 0, "initialPoolSize < 0");
+        Reject.ifFalse(initialPoolSize <= maximumPoolSize, "initialPoolSize > maxPoolSize");
+        Reject.ifFalse(minIdleConnections >= 0, "minIdleSize < 0");
+        Reject.ifFalse(minIdleConnections <= maximumPoolSize, "minIdleSize > maxPoolSize");
+        Reject.ifFalse(maxConnectRate >= 0, "maxConnectRate < 0");
+        Reject.ifNull(eventListener);
+
         this.factory = factory;
         this.corePoolSize = corePoolSize;
         this.maxPoolSize = maximumPoolSize;
+        this.minIdleConnections = minIdleConnections;
+        this.eventListener = eventListener;
+        this.connectIntervalNanos = maxConnectRate > 0 ? TimeUnit.SECONDS.toNanos(1) / maxConnectRate : 0;
         this.availableConnections = new Semaphore(maximumPoolSize);
 
-        if (corePoolSize < maximumPoolSize && idleTimeout > 0) {
-            // Dynamic pool.
+        final boolean isDynamic = corePoolSize < maximumPoolSize && idleTimeout > 0;
+        if (isDynamic || minIdleConnections > 0 || connectIntervalNanos > 0) {
             this.scheduler = DEFAULT_SCHEDULER.acquireIfNull(scheduler);
+        } else {
+            this.scheduler = null;
+        }
+
+        if (isDynamic) {
+            // Dynamic pool.
             this.idleTimeoutMillis = unit.toMillis(idleTimeout);
             this.idleTimeoutFuture =
                     this.scheduler.get().scheduleWithFixedDelay(new PurgeIdleConnectionsTask(),
                             idleTimeout, idleTimeout, unit);
         } else {
             // Fixed pool.
-            this.scheduler = null;
             this.idleTimeoutMillis = 0;
             this.idleTimeoutFuture = null;
         }
+
+        eventListener.handleConnectionPoolCreated(this);
+
+        // Pre-warm the pool: the connection attempts are performed in parallel.
+        final int prewarmSize = Math.max(initialPoolSize, minIdleConnections);
+        for (int i = 0; i < prewarmSize && availableConnections.tryAcquire(); i++) {
+            pendingConnectionAttempts.incrementAndGet();
+            connectAsync();
+        }
     }
 
     @Override
@@ -761,13 +904,16 @@ final class CachedConnectionPool implements ConnectionPool {
 
         if (idleTimeoutFuture != null) {
             idleTimeoutFuture.cancel(false);
+        }
+        if (scheduler != null) {
             scheduler.release();
         }
 
         // Close all idle connections.
         for (final Connection connection : idleConnections) {
-            connection.close();
+            destroyConnection(connection);
         }
+        eventListener.handleConnectionPoolClosed(this);
 
         // Close the underlying factory.
         factory.close();
@@ -784,6 +930,8 @@ final class CachedConnectionPool implements ConnectionPool {
 
     @Override
     public Promise<Connection, LdapException> getConnectionAsync() {
+        final long startTimeNanos = System.nanoTime();
+
         // Loop while iterating through stale connections (see OPENDJ-590).
         for (;;) {
             final QueueElement holder;
@@ -803,8 +951,20 @@ final class CachedConnectionPool implements ConnectionPool {
                 final Promise<Connection, LdapException> promise = holder.getWaitingPromise();
                 if (!promise.isDone() && availableConnections.tryAcquire()) {
                     pendingConnectionAttempts.incrementAndGet();
-                    factory.getConnectionAsync().thenOnResult(connectionResultHandler)
-                                                .thenOnException(connectionFailureHandler);
+                    connectAsync();
+                }
+                if (eventListener != ConnectionPoolEventListener.NO_OP) {
+                    promise.thenOnResultOrException(new ResultHandler<Connection>() {
+                        @Override
+                        public void handleResult(final Connection connection) {
+                            eventListener.handleConnectionCheckedOut(System.nanoTime() - startTimeNanos);
+                        }
+                    }, new ExceptionHandler<LdapException>() {
+                        @Override
+                        public void handleException(final LdapException error) {
+                            eventListener.handleConnectionCheckOutFailed(System.nanoTime() - startTimeNanos, error);
+                        }
+                    });
                 }
                 return promise;
             }
@@ -812,11 +972,13 @@ final class CachedConnectionPool implements ConnectionPool {
             // There was a completed connection attempt.
             final Connection connection = holder.getWaitingConnection();
             if (connection.isValid()) {
+                replenishIfNeeded();
                 final Connection pooledConnection = newPooledConnection(connection, getStackTraceIfDebugEnabled());
+                eventListener.handleConnectionCheckedOut(System.nanoTime() - startTimeNanos);
                 return newResultPromise(pooledConnection);
             } else {
                 // Close the stale connection and try again.
-                connection.close();
+                destroyConnection(connection);
                 availableConnections.release();
 
                 logger.debug(LocalizableMessage.raw("Connection no longer valid: availableConnections=%d, poolSize=%d",
@@ -825,6 +987,40 @@ final class CachedConnectionPool implements ConnectionPool {
         }
     }
 
+    @Override
+    public int getActiveConnectionCount() {
+        return Math.max(0, currentPoolSize() - getIdleConnectionCount() - getPendingConnectionCount());
+    }
+
+    @Override
+    public int getIdleConnectionCount() {
+        synchronized (queue) {
+            return idleConnectionCount();
+        }
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    @Override
+    public int getPendingConnectionCount() {
+        return pendingConnectionAttempts.get();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return currentPoolSize();
+    }
+
+    @Override
+    public int getWaitingRequestCount() {
+        synchronized (queue) {
+            return hasWaitingPromises() ? queue.size() : 0;
+        }
+    }
+
     @Override
     public String toString() {
         final int size = currentPoolSize();
@@ -861,6 +1057,76 @@ final class CachedConnectionPool implements ConnectionPool {
         return maxPoolSize - availableConnections.availablePermits();
     }
 
+    /**
+     * Returns the number of idle connections in the queue. The queue either
+     * contains only idle connections or only waiting promises. Callers must
+     * hold the queue lock.
+     */
+    private int idleConnectionCount() {
+        return hasWaitingConnections() ? queue.size() : 0;
+    }
+
+    /**
+     * Initiates a new connection attempt, deferring it if the connection rate
+     * limit has been reached. The caller must have already acquired a permit
+     * from {@code availableConnections} and incremented
+     * {@code pendingConnectionAttempts}.
+     */
+    private void connectAsync() {
+        final long delayNanos = reserveConnectSlot();
+        if (delayNanos > 0) {
+            scheduler.get().schedule(deferredConnectTask, delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            connectNow();
+        }
+    }
+
+    /** Performs a connection attempt immediately, regardless of the connection rate limit. */
+    private void connectNow() {
+        final long startTimeNanos = System.nanoTime();
+        factory.getConnectionAsync().thenOnResult(new ConnectionResultHandler(startTimeNanos))
+                                    .thenOnException(new ConnectionFailureHandler(startTimeNanos));
+    }
+
+    /** Closes a connection which is being removed from the pool. */
+    private void destroyConnection(final Connection connection) {
+        connection.close();
+        eventListener.handleConnectionDestroyed();
+    }
+
+    /**
+     * Reserves the next available connection slot and returns the delay in
+     * nanoseconds before it may be used.
+     */
+    private long reserveConnectSlot() {
+        if (connectIntervalNanos == 0) {
+            return 0;
+        }
+        for (;;) {
+            final long now = System.nanoTime();
+            final long next = nextConnectTimeNanos.get();
+            final long slot = next - now > 0 ? next : now;
+            if (nextConnectTimeNanos.compareAndSet(next, slot + connectIntervalNanos)) {
+                return slot - now;
+            }
+        }
+    }
+
+    /** Schedules background replenishment if the idle connection count is below the low-water mark. */
+    private void replenishIfNeeded() {
+        if (minIdleConnections == 0) {
+            return;
+        }
+        synchronized (queue) {
+            if (isClosed || idleConnectionCount() + pendingConnectionAttempts.get() >= minIdleConnections) {
+                return;
+            }
+        }
+        if (isReplenishScheduled.compareAndSet(false, true)) {
+            scheduler.get().schedule(replenishTask, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
     private boolean hasWaitingConnections() {
         return !queue.isEmpty() && !queue.getFirst().isWaitingPromise();
     }
@@ -891,7 +1157,7 @@ final class CachedConnectionPool implements ConnectionPool {
         if (connectionPoolIsClosing) {
             // The connection will be closed, so decrease the pool size.
             availableConnections.release();
-            connection.close();
+            destroyConnection(connection);
 
             logger.debug(LocalizableMessage.raw(
                     "Closing connection because connection pool is closing: availableConnections=%d, maxPoolSize=%d",
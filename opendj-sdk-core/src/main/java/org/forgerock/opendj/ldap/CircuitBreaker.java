@@ -0,0 +1,158 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.opendj.ldap.Connections.*;
+
+import java.util.Arrays;
+
+import org.forgerock.util.Options;
+import org.forgerock.util.Reject;
+import org.forgerock.util.time.Duration;
+
+/**
+ * A circuit breaker which determines whether a load-balanced connection
+ * factory should be taken offline because the operations performed using its
+ * connections are failing or are too slow. Outcomes are recorded in a sliding
+ * time window divided into buckets.
+ * <p>
+ * The open state of the circuit breaker is represented by the connection
+ * factory being offline: the load-balancer monitors offline factories and
+ * invokes {@link #halfOpen()} once they are reachable again. While half-open,
+ * a limited number of probe operations are allowed: a single failure trips the
+ * circuit breaker again, whereas enough successes close it.
+ */
+final class CircuitBreaker {
+    /** The number of buckets in the sliding window. */
+    private static final int BUCKET_COUNT = 10;
+
+    /**
+     * Returns {@code true} if the provided result code indicates that the
+     * server is unable to process requests, as opposed to an application
+     * level error.
+     */
+    static boolean isServerFailure(final ResultCode resultCode) {
+        switch (resultCode.asEnum()) {
+        case BUSY:
+        case UNAVAILABLE:
+        case CLIENT_SIDE_TIMEOUT:
+        case CLIENT_SIDE_SERVER_DOWN:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private final double failureRatio;
+    private final long slowRequestNanos;
+    private final int minRequests;
+    private final int halfOpenRequests;
+    private final long bucketNanos;
+    private final long originNanos;
+
+    /** The state of the sliding window, guarded by this. */
+    private final long[] bucketEpochs = new long[BUCKET_COUNT];
+    private final int[] bucketRequests = new int[BUCKET_COUNT];
+    private final int[] bucketFailures = new int[BUCKET_COUNT];
+
+    /** The number of successful probes remaining before closing, or 0 if not half-open. Guarded by this. */
+    private int remainingProbes;
+
+    CircuitBreaker(final Options options, final long nowNanos) {
+        this.failureRatio = options.get(LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO);
+        final Duration slowRequestDuration = options.get(LOAD_BALANCER_CIRCUIT_BREAKER_SLOW_REQUEST_DURATION);
+        this.slowRequestNanos = slowRequestDuration.isUnlimited() ? Long.MAX_VALUE
+                                                                   : slowRequestDuration.to(NANOSECONDS);
+        this.minRequests = options.get(LOAD_BALANCER_CIRCUIT_BREAKER_MIN_REQUESTS);
+        this.halfOpenRequests = options.get(LOAD_BALANCER_CIRCUIT_BREAKER_HALF_OPEN_REQUESTS);
+        final long windowNanos = options.get(LOAD_BALANCER_CIRCUIT_BREAKER_WINDOW).to(NANOSECONDS);
+        Reject.ifFalse(failureRatio > 0 && failureRatio <= 1, "circuit breaker failure ratio must be in (0, 1]");
+        Reject.ifFalse(minRequests > 0, "circuit breaker minimum requests <= 0");
+        Reject.ifFalse(halfOpenRequests > 0, "circuit breaker half-open requests <= 0");
+        Reject.ifFalse(windowNanos >= BUCKET_COUNT, "circuit breaker window is too small");
+        this.bucketNanos = windowNanos / BUCKET_COUNT;
+        this.originNanos = nowNanos;
+        Arrays.fill(bucketEpochs, -1);
+    }
+
+    /** Returns the maximum number of concurrent probe operations while half-open. */
+    int getHalfOpenRequests() {
+        return halfOpenRequests;
+    }
+
+    /** Allows probe operations to be performed because the connection factory is reachable again. */
+    synchronized void halfOpen() {
+        remainingProbes = halfOpenRequests;
+        Arrays.fill(bucketEpochs, -1);
+    }
+
+    synchronized boolean isHalfOpen() {
+        return remainingProbes > 0;
+    }
+
+    /**
+     * Records the outcome of an operation.
+     *
+     * @param resultCode
+     *            The result code of the operation.
+     * @param latencyNanos
+     *            The latency of the operation.
+     * @param nowNanos
+     *            The current time.
+     * @return {@code true} if the circuit breaker has tripped and the
+     *         connection factory should be taken offline.
+     */
+    synchronized boolean recordOperation(final ResultCode resultCode, final long latencyNanos, final long nowNanos) {
+        final boolean isFailure = isServerFailure(resultCode) || latencyNanos >= slowRequestNanos;
+        if (remainingProbes > 0) {
+            if (isFailure) {
+                remainingProbes = 0;
+                return true;
+            }
+            remainingProbes--;
+            return false;
+        }
+
+        final long epoch = (nowNanos - originNanos) / bucketNanos;
+        final int index = (int) (epoch % BUCKET_COUNT);
+        if (bucketEpochs[index] != epoch) {
+            bucketEpochs[index] = epoch;
+            bucketRequests[index] = 0;
+            bucketFailures[index] = 0;
+        }
+        bucketRequests[index]++;
+        if (!isFailure) {
+            return false;
+        }
+        bucketFailures[index]++;
+
+        int requests = 0;
+        int failures = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (bucketEpochs[i] > epoch - BUCKET_COUNT) {
+                requests += bucketRequests[i];
+                failures += bucketFailures[i];
+            }
+        }
+        if (requests >= minRequests && failures >= failureRatio * requests) {
+            // Start afresh once the factory comes back online.
+            Arrays.fill(bucketEpochs, -1);
+            return true;
+        }
+        return false;
+    }
+}
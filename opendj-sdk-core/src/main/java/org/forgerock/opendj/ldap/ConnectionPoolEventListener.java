@@ -0,0 +1,173 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.EventListener;
+
+/**
+ * An object that registers to be notified of activity within a connection
+ * pool, typically in order to collect metrics. All durations are expressed in
+ * nanoseconds.
+ * <p>
+ * <b>NOTE:</b> events are sent from application and I/O threads as they occur,
+ * so implementations must be thread safe and should return quickly.
+ * Implementations which need to observe the number of active, idle, or waiting
+ * connections should retain the statistics passed to
+ * {@link #handleConnectionPoolCreated(ConnectionPoolStatistics)}.
+ *
+ * @see Connections#CONNECTION_POOL_EVENT_LISTENER
+ * @see MetricsConnectionPoolEventListener
+ */
+public interface ConnectionPoolEventListener extends EventListener {
+    /**
+     * An event listener implementation which ignores all events. This event
+     * listener is the default implementation configured using the
+     * {@link Connections#CONNECTION_POOL_EVENT_LISTENER} option. Connection
+     * pools do not instrument the operations performed by pooled connections
+     * when this listener is in use.
+     */
+    ConnectionPoolEventListener NO_OP = new ConnectionPoolEventListener() {
+        @Override
+        public void handleConnectionPoolCreated(final ConnectionPoolStatistics statistics) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionPoolClosed(final ConnectionPoolStatistics statistics) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionCheckedOut(final long waitTimeNanos) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionCheckOutFailed(final long waitTimeNanos, final LdapException error) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionReleased(final long leaseTimeNanos) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionCreated(final long connectTimeNanos) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionCreationFailed(final long connectTimeNanos, final LdapException error) {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleConnectionDestroyed() {
+            // Do nothing.
+        }
+
+        @Override
+        public void handleOperationCompleted(final OperationType type, final ResultCode resultCode,
+                final long latencyNanos) {
+            // Do nothing.
+        }
+    };
+
+    /**
+     * Invoked once a connection pool has been created.
+     *
+     * @param statistics
+     *            A live view of the state of the connection pool.
+     */
+    void handleConnectionPoolCreated(ConnectionPoolStatistics statistics);
+
+    /**
+     * Invoked once a connection pool has been closed.
+     *
+     * @param statistics
+     *            The view of the state of the connection pool which was passed
+     *            to {@link #handleConnectionPoolCreated}.
+     */
+    void handleConnectionPoolClosed(ConnectionPoolStatistics statistics);
+
+    /**
+     * Invoked when a connection has been handed out to the application.
+     *
+     * @param waitTimeNanos
+     *            The time spent waiting for the connection to become
+     *            available.
+     */
+    void handleConnectionCheckedOut(long waitTimeNanos);
+
+    /**
+     * Invoked when a request for a connection could not be satisfied.
+     *
+     * @param waitTimeNanos
+     *            The time spent waiting before the request failed.
+     * @param error
+     *            The reason why the request failed.
+     */
+    void handleConnectionCheckOutFailed(long waitTimeNanos, LdapException error);
+
+    /**
+     * Invoked when the application releases a pooled connection.
+     *
+     * @param leaseTimeNanos
+     *            The time during which the application was in possession of
+     *            the connection.
+     */
+    void handleConnectionReleased(long leaseTimeNanos);
+
+    /**
+     * Invoked when the pool has successfully established a new connection.
+     *
+     * @param connectTimeNanos
+     *            The time taken to establish the connection.
+     */
+    void handleConnectionCreated(long connectTimeNanos);
+
+    /**
+     * Invoked when the pool has failed to establish a new connection.
+     *
+     * @param connectTimeNanos
+     *            The time taken before the connection attempt failed.
+     * @param error
+     *            The reason why the connection attempt failed.
+     */
+    void handleConnectionCreationFailed(long connectTimeNanos, LdapException error);
+
+    /**
+     * Invoked when the pool closes one of its connections, either because it
+     * is no longer valid, has been idle for too long, or because the pool is
+     * closing.
+     */
+    void handleConnectionDestroyed();
+
+    /**
+     * Invoked when an operation performed using a pooled connection has
+     * completed, whether successfully or not.
+     *
+     * @param type
+     *            The type of operation.
+     * @param resultCode
+     *            The result code of the operation.
+     * @param latencyNanos
+     *            The time elapsed between the request being sent and the
+     *            result being received.
+     */
+    void handleOperationCompleted(OperationType type, ResultCode resultCode, long latencyNanos);
+}
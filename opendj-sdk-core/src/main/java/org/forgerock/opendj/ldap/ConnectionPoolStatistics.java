@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+/**
+ * A point in time view of the state of a connection pool. The values returned
+ * by the methods of this interface are computed on demand and may therefore be
+ * inconsistent with each other if the pool is in use.
+ *
+ * @see ConnectionPoolEventListener#handleConnectionPoolCreated(ConnectionPoolStatistics)
+ */
+public interface ConnectionPoolStatistics {
+    /**
+     * Returns the number of pooled connections which are currently in use by
+     * the application.
+     *
+     * @return The number of pooled connections which are currently in use.
+     */
+    int getActiveConnectionCount();
+
+    /**
+     * Returns the number of pooled connections which are currently idle and
+     * available for immediate use.
+     *
+     * @return The number of pooled connections which are currently idle.
+     */
+    int getIdleConnectionCount();
+
+    /**
+     * Returns the maximum number of connections which the pool may contain.
+     *
+     * @return The maximum number of connections which the pool may contain.
+     */
+    int getMaxPoolSize();
+
+    /**
+     * Returns the number of connection attempts which are in progress.
+     *
+     * @return The number of connection attempts which are in progress.
+     */
+    int getPendingConnectionCount();
+
+    /**
+     * Returns the total number of connections in the pool, including active,
+     * idle, and pending connections.
+     *
+     * @return The total number of connections in the pool.
+     */
+    int getPoolSize();
+
+    /**
+     * Returns the number of connection requests which are blocked waiting for
+     * a connection to become available.
+     *
+     * @return The number of connection requests which are waiting.
+     */
+    int getWaitingRequestCount();
+}
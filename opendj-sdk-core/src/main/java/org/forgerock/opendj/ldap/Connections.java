@@ -20,6 +20,8 @@ package org.forgerock.opendj.ldap;
 import static org.forgerock.opendj.ldap.RequestHandlerFactoryAdapter.adaptRequestHandler;
 import static org.forgerock.util.time.Duration.duration;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Collection;
@@ -75,6 +77,150 @@ public final class Connections {
     public static final Option<ScheduledExecutorService> LOAD_BALANCER_SCHEDULER =
             Option.of(ScheduledExecutorService.class, null);
 
+    /**
+     * Specifies the proportion of failed operations, between 0 and 1, which will cause a load-balancer to take a
+     * connection factory offline, as if it were unreachable. An operation is considered to have failed if it returns
+     * a result code indicating that the server cannot process requests ({@code busy}, {@code unavailable}, client side
+     * timeout or server down), or if it takes longer than the
+     * {@link #LOAD_BALANCER_CIRCUIT_BREAKER_SLOW_REQUEST_DURATION}. Once the connection factory is reachable again a
+     * limited number of probe operations are allowed, and it is taken offline again if any of them fail. The default
+     * configuration, {@code 0}, disables the circuit breaker.
+     */
+    public static final Option<Double> LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO = Option.withDefault(0.0);
+
+    /**
+     * Specifies the duration after which a load-balanced operation is considered to have failed for the purpose of
+     * the circuit breaker. Operations are not subject to any duration limit by default.
+     *
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     */
+    public static final Option<Duration> LOAD_BALANCER_CIRCUIT_BREAKER_SLOW_REQUEST_DURATION =
+            Option.withDefault(Duration.UNLIMITED);
+
+    /**
+     * Specifies the sliding time window over which the circuit breaker computes the proportion of failed operations.
+     * The default is 10 seconds.
+     *
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     */
+    public static final Option<Duration> LOAD_BALANCER_CIRCUIT_BREAKER_WINDOW =
+            Option.withDefault(duration("10 seconds"));
+
+    /**
+     * Specifies the minimum number of operations which must have been performed during the sliding window before the
+     * circuit breaker can take a connection factory offline. The default is 20.
+     *
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     */
+    public static final Option<Integer> LOAD_BALANCER_CIRCUIT_BREAKER_MIN_REQUESTS = Option.withDefault(20);
+
+    /**
+     * Specifies the number of probe operations which must succeed before a connection factory which has come back
+     * online is considered healthy again. This is also the maximum number of concurrent operations routed to it in the
+     * meantime. The default is 5.
+     *
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     */
+    public static final Option<Integer> LOAD_BALANCER_CIRCUIT_BREAKER_HALF_OPEN_REQUESTS = Option.withDefault(5);
+
+    /**
+     * Specifies the maximum number of outstanding operations for each load-balanced connection factory. Saturated
+     * connection factories are skipped by the load-balancer, and when all the available connection factories are
+     * saturated the load is shed locally: the load-balancer fails immediately with a {@link ResultCode#BUSY} error
+     * rather than queueing more work. The default configuration, {@code 0}, does not limit outstanding operations.
+     */
+    public static final Option<Integer> LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS = Option.withDefault(0);
+
+    /**
+     * Specifies the percentile of recent read latencies after which a hedged request load-balancer sends a duplicate of
+     * an outstanding read request to another replica. The default is the 95th percentile.
+     *
+     * @see #newHedgedRequestLoadBalancer(Collection, Options)
+     */
+    public static final Option<Double> HEDGED_REQUEST_LATENCY_PERCENTILE = Option.withDefault(95.0);
+
+    /**
+     * Specifies the minimum delay after which a hedged request load-balancer sends a duplicate of an outstanding read
+     * request to another replica. This delay is also used until enough latencies have been recorded in order to
+     * compute the percentile based delay. The default is 10 milliseconds.
+     *
+     * @see #newHedgedRequestLoadBalancer(Collection, Options)
+     */
+    public static final Option<Duration> HEDGED_REQUEST_MIN_DELAY = Option.withDefault(duration("10 milliseconds"));
+
+    /**
+     * Specifies the maximum proportion of read requests which a hedged request load-balancer may duplicate, which
+     * prevents hedging from overloading the replicas when they are all slow. The default is 0.05, i.e. at most 5% of
+     * read requests are hedged.
+     *
+     * @see #newHedgedRequestLoadBalancer(Collection, Options)
+     */
+    public static final Option<Double> HEDGED_REQUEST_MAX_RATIO = Option.withDefault(0.05);
+
+    /**
+     * Specifies the number of connections which should be opened in parallel when a connection pool is created, in
+     * order to avoid paying the connection establishment cost during the first burst of requests. The default
+     * configuration is to create connections lazily.
+     */
+    public static final Option<Integer> CONNECTION_POOL_INITIAL_SIZE = Option.withDefault(0);
+
+    /**
+     * Specifies the low-water mark for idle connections in a connection pool. Whenever the number of idle
+     * connections drops below this value new connections will be opened asynchronously in the background, and idle
+     * connections will not be purged below this value. The pool will also be pre-warmed to at least this size. The
+     * default configuration is to disable proactive replenishment.
+     */
+    public static final Option<Integer> CONNECTION_POOL_MIN_IDLE_SIZE = Option.withDefault(0);
+
+    /**
+     * Specifies the maximum number of connection attempts per second which a connection pool will perform. Excess
+     * connection attempts are deferred rather than rejected, which prevents the pool from stampeding a server, for
+     * example after a fail-over. The default configuration, {@code 0}, disables rate limiting.
+     */
+    public static final Option<Integer> CONNECTION_POOL_MAX_CONNECT_RATE = Option.withDefault(0);
+
+    /**
+     * Specifies the event listener which should be notified of connection pool activity, such as connections being
+     * checked out, released, created or destroyed, and operations performed using pooled connections. This is
+     * typically used for collecting metrics. The default configuration is to ignore events using the
+     * {@link ConnectionPoolEventListener#NO_OP} listener, in which case pooled connections are not instrumented.
+     */
+    public static final Option<ConnectionPoolEventListener> CONNECTION_POOL_EVENT_LISTENER =
+            Option.of(ConnectionPoolEventListener.class, ConnectionPoolEventListener.NO_OP);
+
+    /**
+     * Specifies the proportion of operations which are captured by a traffic capture connection factory. The default
+     * is 1.0, i.e. all operations are captured.
+     *
+     * @see #newTrafficCaptureConnectionFactory(ConnectionFactory, File, Options)
+     */
+    public static final Option<Double> TRAFFIC_CAPTURE_SAMPLING_RATIO = Option.withDefault(1.0);
+
+    /**
+     * Specifies the size after which a traffic capture file is rotated. The default is 100 MB. The value {@code 0}
+     * disables rotation.
+     *
+     * @see #newTrafficCaptureConnectionFactory(ConnectionFactory, File, Options)
+     */
+    public static final Option<Long> TRAFFIC_CAPTURE_MAX_FILE_SIZE_IN_BYTES = Option.withDefault(100L * 1024 * 1024);
+
+    /**
+     * Specifies the number of traffic capture files which are kept when the capture file is rotated, including the
+     * current one. The default is 10.
+     *
+     * @see #newTrafficCaptureConnectionFactory(ConnectionFactory, File, Options)
+     */
+    public static final Option<Integer> TRAFFIC_CAPTURE_MAX_FILES = Option.withDefault(10);
+
+    /**
+     * Specifies the number of captured operations which may be waiting to be written to the traffic capture file.
+     * Operations are not captured when this buffer is full, so that the application is never slowed down by the
+     * file system. The default is 65536 operations.
+     *
+     * @see #newTrafficCaptureConnectionFactory(ConnectionFactory, File, Options)
+     */
+    public static final Option<Integer> TRAFFIC_CAPTURE_BUFFER_SIZE = Option.withDefault(65536);
+
     /**
      * Creates a new connection pool which creates new connections as needed
      * using the provided connection factory, but will reuse previously
@@ -211,6 +357,55 @@ public final class Connections {
                 scheduler);
     }
 
+    /**
+     * Creates a new connection pool which creates new connections using the
+     * provided connection factory, but will reuse previously allocated
+     * connections when they are available. This method behaves like
+     * {@link #newCachedConnectionPool(ConnectionFactory, int, int, long, TimeUnit, ScheduledExecutorService)}
+     * but, in addition, allows the pool to be pre-warmed and replenished
+     * proactively, and connection attempts to be rate limited.
+     *
+     * @param factory
+     *            The connection factory to use for creating new connections.
+     * @param corePoolSize
+     *            The minimum number of connections to keep in the pool, even if
+     *            they are idle.
+     * @param maximumPoolSize
+     *            The maximum number of connections to allow in the pool.
+     * @param idleTimeout
+     *            The time out period, after which unused non-core connections
+     *            will be closed.
+     * @param unit
+     *            The time unit for the {@code keepAliveTime} argument.
+     * @param scheduler
+     *            The scheduler which should be used for periodically checking
+     *            for idle connections, replenishing idle connections, and
+     *            performing deferred connection attempts, or {@code null} if
+     *            the default scheduler should be used.
+     * @param options
+     *            The configuration options for the connection pool.
+     * @return The new connection pool.
+     * @throws IllegalArgumentException
+     *             If {@code corePoolSize}, {@code maximumPoolSize} are less
+     *             than or equal to zero, or if {@code idleTimeout} is negative,
+     *             or if {@code corePoolSize} is greater than
+     *             {@code maximumPoolSize}, or if {@code idleTimeout} is
+     *             non-zero and {@code unit} is {@code null}, or if one of the
+     *             options is negative or exceeds {@code maximumPoolSize}.
+     * @throws NullPointerException
+     *             If {@code factory} or {@code options} was {@code null}.
+     * @see #CONNECTION_POOL_INITIAL_SIZE
+     * @see #CONNECTION_POOL_MIN_IDLE_SIZE
+     * @see #CONNECTION_POOL_MAX_CONNECT_RATE
+     * @see #CONNECTION_POOL_EVENT_LISTENER
+     */
+    public static ConnectionPool newCachedConnectionPool(final ConnectionFactory factory,
+            final int corePoolSize, final int maximumPoolSize, final long idleTimeout,
+            final TimeUnit unit, final ScheduledExecutorService scheduler, final Options options) {
+        return new CachedConnectionPool(factory, corePoolSize, maximumPoolSize, idleTimeout, unit,
+                scheduler, options);
+    }
+
     /**
      * Creates a new connection pool which will maintain {@code poolSize}
      * connections created using the provided connection factory.
@@ -424,6 +619,8 @@ public final class Connections {
      * @see #LOAD_BALANCER_EVENT_LISTENER
      * @see #LOAD_BALANCER_MONITORING_INTERVAL
      * @see #LOAD_BALANCER_SCHEDULER
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     * @see #LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS
      */
     public static ConnectionFactory newRoundRobinLoadBalancer(
             final Collection<? extends ConnectionFactory> factories, final Options options) {
@@ -491,6 +688,8 @@ public final class Connections {
      * @see #LOAD_BALANCER_EVENT_LISTENER
      * @see #LOAD_BALANCER_MONITORING_INTERVAL
      * @see #LOAD_BALANCER_SCHEDULER
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     * @see #LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS
      */
     public static ConnectionFactory newFailoverLoadBalancer(
             final Collection<? extends ConnectionFactory> factories, final Options options) {
@@ -542,6 +741,8 @@ public final class Connections {
      * @see #LOAD_BALANCER_EVENT_LISTENER
      * @see #LOAD_BALANCER_MONITORING_INTERVAL
      * @see #LOAD_BALANCER_SCHEDULER
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     * @see #LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS
      */
     public static ConnectionFactory newShardedRequestLoadBalancer(
             final Collection<? extends ConnectionFactory> factories, final Options options) {
@@ -551,6 +752,61 @@ public final class Connections {
                                        newShardedRequestLoadBalancerFunction(factories));
     }
 
+    /**
+     * Creates a new "hedged" load-balancer which will load-balance individual requests across the provided set of
+     * connection factories, each typically representing a single replica, in a round robin manner. Read requests
+     * (searches and compares) which have not completed within a delay, determined by a percentile of recent read
+     * latencies, are sent again to the next operational replica. The first response wins and the request sent to the
+     * other replica is abandoned. This reduces tail latencies caused by a single slow replica at the cost of a small
+     * amount of additional load, which is bounded by the {@link #HEDGED_REQUEST_MAX_RATIO} budget. Update requests
+     * are never duplicated.
+     * <p/>
+     * Search result entries are only returned from the replica which responds first, so search result handlers never
+     * receive duplicate entries.
+     * <p/>
+     * <b>NOTE:</b> this connection factory returns fake connections, since real connections are obtained for each
+     * request. Therefore, the returned fake connections have the same limitations as those returned by
+     * {@link #newShardedRequestLoadBalancer(Collection, Options)}.
+     *
+     * @param factories
+     *         The connection factories.
+     * @param options
+     *         This configuration options for the load-balancer.
+     * @return The new hedged load balancer.
+     * @see #newShardedRequestLoadBalancer(Collection, Options)
+     * @see #HEDGED_REQUEST_LATENCY_PERCENTILE
+     * @see #HEDGED_REQUEST_MIN_DELAY
+     * @see #HEDGED_REQUEST_MAX_RATIO
+     * @see #LOAD_BALANCER_EVENT_LISTENER
+     * @see #LOAD_BALANCER_MONITORING_INTERVAL
+     * @see #LOAD_BALANCER_SCHEDULER
+     * @see #LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO
+     * @see #LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS
+     */
+    public static ConnectionFactory newHedgedRequestLoadBalancer(
+            final Collection<? extends ConnectionFactory> factories, final Options options) {
+        final HedgingPolicy hedgingPolicy = new HedgingPolicy(options);
+        return new RequestLoadBalancer("HedgedRequestLoadBalancer",
+                                       factories,
+                                       options,
+                                       newRoundRobinRequestLoadBalancerFunction(factories),
+                                       hedgingPolicy);
+    }
+
+    private static Function<Request, Integer, NeverThrowsException> newRoundRobinRequestLoadBalancerFunction(
+            final Collection<? extends ConnectionFactory> factories) {
+        return new Function<Request, Integer, NeverThrowsException>() {
+            private final int maxIndex = factories.size();
+            private final AtomicInteger nextIndex = new AtomicInteger();
+
+            @Override
+            public Integer apply(final Request request) {
+                // Mask the sign bit in order to cope with overflow.
+                return (nextIndex.getAndIncrement() & Integer.MAX_VALUE) % maxIndex;
+            }
+        };
+    }
+
     // Package private for testing.
     static Function<Request, Integer, NeverThrowsException> newShardedRequestLoadBalancerFunction(
             final Collection<? extends ConnectionFactory> factories) {
@@ -619,6 +875,157 @@ public final class Connections {
         };
     }
 
+    /**
+     * Returns a view of the provided connection which records the latency of
+     * each operation in the provided recorder, broken down by operation type
+     * and result code. The latency of an operation is the time elapsed between
+     * the request being sent and its result being received, including any
+     * time spent processing search result entries.
+     *
+     * @param connection
+     *            The connection to be instrumented.
+     * @param recorder
+     *            The recorder in which operation latencies will be recorded.
+     * @return The instrumented connection.
+     * @throws NullPointerException
+     *             If {@code connection} or {@code recorder} was {@code null}.
+     */
+    public static Connection newInstrumentedConnection(final Connection connection,
+            final OperationLatencyRecorder recorder) {
+        Reject.ifNull(connection, recorder);
+        return new InstrumentedConnection(connection) {
+            @Override
+            void handleOperationCompleted(final OperationType type, final ResultCode resultCode,
+                    final long latencyNanos) {
+                recorder.recordLatency(type, resultCode, latencyNanos);
+            }
+        };
+    }
+
+    /**
+     * Creates a new connection factory whose connections record the latency of
+     * each operation in the provided recorder. A single recorder may be shared
+     * by several connection factories.
+     *
+     * @param factory
+     *            The connection factory whose connections are to be
+     *            instrumented.
+     * @param recorder
+     *            The recorder in which operation latencies will be recorded.
+     * @return The instrumented connection factory.
+     * @throws NullPointerException
+     *             If {@code factory} or {@code recorder} was {@code null}.
+     * @see #newInstrumentedConnection(Connection, OperationLatencyRecorder)
+     */
+    public static ConnectionFactory newInstrumentedConnectionFactory(final ConnectionFactory factory,
+            final OperationLatencyRecorder recorder) {
+        Reject.ifNull(factory, recorder);
+        final Function<Connection, Connection, LdapException> instrument =
+                new Function<Connection, Connection, LdapException>() {
+                    @Override
+                    public Connection apply(final Connection connection) {
+                        return newInstrumentedConnection(connection, recorder);
+                    }
+                };
+
+        return new ConnectionFactory() {
+            @Override
+            public void close() {
+                factory.close();
+            }
+
+            @Override
+            public Connection getConnection() throws LdapException {
+                return newInstrumentedConnection(factory.getConnection(), recorder);
+            }
+
+            @Override
+            public Promise<Connection, LdapException> getConnectionAsync() {
+                return factory.getConnectionAsync().then(instrument);
+            }
+
+            @Override
+            public String toString() {
+                return "InstrumentedConnectionFactory(" + factory + ')';
+            }
+        };
+    }
+
+    /**
+     * Creates a new connection factory which captures the operations performed
+     * using its connections to a file, so that they can later be replayed
+     * using the {@code ldapreplay} tool. Each captured operation is written on
+     * a line containing the time at which it was sent, an identifier of the
+     * connection, its type and parameters, the OIDs of its request controls,
+     * its result code and its response time. The entries of add requests and
+     * the changes of modify requests are captured, but the passwords of bind
+     * requests are not.
+     * <p>
+     * Operations are written asynchronously by a background thread, so that
+     * capturing operations adds very little overhead to them. Operations are
+     * not captured when the background thread cannot keep up with the
+     * application, or when they are not sampled according to the
+     * {@link #TRAFFIC_CAPTURE_SAMPLING_RATIO} option. The capture file is
+     * overwritten if it already exists, and rotated according to the
+     * {@link #TRAFFIC_CAPTURE_MAX_FILE_SIZE_IN_BYTES} and
+     * {@link #TRAFFIC_CAPTURE_MAX_FILES} options. Closing the returned
+     * connection factory writes the remaining captured operations and closes
+     * the capture file.
+     *
+     * @param factory
+     *            The connection factory whose connections are to be captured.
+     * @param file
+     *            The file to which captured operations will be written.
+     * @param options
+     *            The configuration options of the traffic capture.
+     * @return The traffic capture connection factory.
+     * @throws IOException
+     *             If the capture file could not be created.
+     * @throws NullPointerException
+     *             If {@code factory}, {@code file} or {@code options} was {@code null}.
+     * @throws IllegalArgumentException
+     *             If the configuration options are invalid.
+     * @see #TRAFFIC_CAPTURE_SAMPLING_RATIO
+     * @see #TRAFFIC_CAPTURE_MAX_FILE_SIZE_IN_BYTES
+     * @see #TRAFFIC_CAPTURE_MAX_FILES
+     * @see #TRAFFIC_CAPTURE_BUFFER_SIZE
+     */
+    public static ConnectionFactory newTrafficCaptureConnectionFactory(final ConnectionFactory factory,
+            final File file, final Options options) throws IOException {
+        Reject.ifNull(factory, file, options);
+        final TrafficCapture capture = new TrafficCapture(file, options);
+        final Function<Connection, Connection, LdapException> wrap =
+                new Function<Connection, Connection, LdapException>() {
+                    @Override
+                    public Connection apply(final Connection connection) {
+                        return new TrafficCaptureConnection(connection, capture);
+                    }
+                };
+
+        return new ConnectionFactory() {
+            @Override
+            public void close() {
+                factory.close();
+                capture.close();
+            }
+
+            @Override
+            public Connection getConnection() throws LdapException {
+                return new TrafficCaptureConnection(factory.getConnection(), capture);
+            }
+
+            @Override
+            public Promise<Connection, LdapException> getConnectionAsync() {
+                return factory.getConnectionAsync().then(wrap);
+            }
+
+            @Override
+            public String toString() {
+                return "TrafficCaptureConnectionFactory(" + factory + ", " + capture + ')';
+            }
+        };
+    }
+
     /**
      * Creates a new connection factory which forwards connection requests to
      * the provided factory, but whose {@code toString} method will always
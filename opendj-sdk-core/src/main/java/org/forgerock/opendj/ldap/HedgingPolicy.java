@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.forgerock.opendj.ldap.Connections.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.forgerock.util.Options;
+import org.forgerock.util.Reject;
+
+/**
+ * Determines when a read request should be hedged, i.e. duplicated to another
+ * replica. A request is hedged once it has been outstanding for longer than a
+ * configurable percentile of recent read latencies, subject to a budget which
+ * limits the proportion of hedged requests.
+ * <p>
+ * The budget is a token bucket: each read deposits a fraction of a token,
+ * equal to the maximum hedge ratio, and each hedge withdraws a whole token.
+ * Tokens are stored in thousandths in order to avoid floating point
+ * arithmetic.
+ */
+final class HedgingPolicy {
+    /** The number of budget units in a token. */
+    private static final long TOKEN = 1000;
+
+    /** The maximum number of tokens which may be accumulated, which bounds bursts of hedged requests. */
+    private static final long MAX_BUDGET = 10 * TOKEN;
+
+    /** The minimum number of latency samples used for computing the hedge delay. */
+    private static final int MIN_SAMPLES = 100;
+
+    /** The minimum interval between two computations of the hedge delay. */
+    private static final long REFRESH_INTERVAL_NANOS = MILLISECONDS.toNanos(100);
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long depositPerRead;
+    private final AtomicLong budget = new AtomicLong();
+    private final Recorder recorder = new Recorder(2);
+    private final AtomicLong nextRefreshNanos = new AtomicLong(System.nanoTime());
+    private volatile long hedgeDelayNanos;
+
+    /** Latencies accumulated since the hedge delay was last computed, guarded by recorder. */
+    private final Histogram samples = new Histogram(2);
+
+    /** The previous interval histogram which is recycled by the recorder, guarded by recorder. */
+    private Histogram intervalHistogram;
+
+    HedgingPolicy(final Options options) {
+        this.percentile = options.get(HEDGED_REQUEST_LATENCY_PERCENTILE);
+        this.minDelayNanos = options.get(HEDGED_REQUEST_MIN_DELAY).to(NANOSECONDS);
+        final double maxRatio = options.get(HEDGED_REQUEST_MAX_RATIO);
+        Reject.ifFalse(percentile > 0 && percentile <= 100, "hedged request latency percentile must be in (0, 100]");
+        Reject.ifFalse(minDelayNanos >= 0, "hedged request minimum delay < 0");
+        Reject.ifFalse(maxRatio >= 0 && maxRatio <= 1, "hedged request maximum ratio must be in [0, 1]");
+        this.depositPerRead = Math.round(maxRatio * TOKEN);
+        this.hedgeDelayNanos = minDelayNanos;
+    }
+
+    /**
+     * Returns the delay after which an outstanding read request should be
+     * hedged. The delay is recomputed periodically from the recorded
+     * latencies.
+     */
+    long getHedgeDelayNanos() {
+        final long now = System.nanoTime();
+        final long next = nextRefreshNanos.get();
+        if (now - next >= 0 && nextRefreshNanos.compareAndSet(next, now + REFRESH_INTERVAL_NANOS)) {
+            refreshHedgeDelay();
+        }
+        return hedgeDelayNanos;
+    }
+
+    /** Records the latency of a completed read request and credits the hedging budget. */
+    void recordLatency(final long latencyNanos) {
+        recorder.recordValue(Math.max(0, latencyNanos));
+        if (depositPerRead > 0) {
+            for (;;) {
+                final long current = budget.get();
+                final long updated = Math.min(MAX_BUDGET, current + depositPerRead);
+                if (current == updated || budget.compareAndSet(current, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the hedging budget currently holds at least one
+     * token, in which case a hedge may be scheduled.
+     */
+    boolean hasHedgeBudget() {
+        return budget.get() >= TOKEN;
+    }
+
+    /**
+     * Attempts to withdraw a token from the hedging budget.
+     *
+     * @return {@code true} if the request may be hedged.
+     */
+    boolean tryAcquireHedge() {
+        for (;;) {
+            final long current = budget.get();
+            if (current < TOKEN) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+
+    private void refreshHedgeDelay() {
+        synchronized (recorder) {
+            intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+            samples.add(intervalHistogram);
+            if (samples.getTotalCount() >= MIN_SAMPLES) {
+                hedgeDelayNanos = Math.max(minDelayNanos, samples.getValueAtPercentile(percentile));
+                samples.reset();
+            }
+        }
+    }
+}
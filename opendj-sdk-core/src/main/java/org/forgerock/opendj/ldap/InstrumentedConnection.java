@@ -0,0 +1,190 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import org.forgerock.opendj.ldap.requests.AbandonRequest;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ExtendedRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.requests.UnbindRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.ExtendedResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * A connection which measures the latency of each operation performed using
+ * an underlying connection. Only the core asynchronous methods are
+ * intercepted: the synchronous and convenience methods are implemented in
+ * terms of them by {@link AbstractAsynchronousConnection}.
+ */
+abstract class InstrumentedConnection extends AbstractAsynchronousConnection {
+    /** Invokes {@link #handleOperationCompleted} once an operation has completed. */
+    private final class OperationCompletionHandler<R extends Result>
+            implements ResultHandler<R>, ExceptionHandler<LdapException> {
+        private final OperationType type;
+        private final long startTimeNanos;
+
+        private OperationCompletionHandler(final OperationType type) {
+            this.type = type;
+            this.startTimeNanos = System.nanoTime();
+        }
+
+        @Override
+        public void handleResult(final R result) {
+            handleOperationCompleted(type, result.getResultCode(), System.nanoTime() - startTimeNanos);
+        }
+
+        @Override
+        public void handleException(final LdapException exception) {
+            handleOperationCompleted(type, exception.getResult().getResultCode(), System.nanoTime()
+                    - startTimeNanos);
+        }
+
+        private LdapPromise<R> register(final LdapPromise<R> promise) {
+            handleOperationStarted(type);
+            return promise.thenOnResultOrException(this, this);
+        }
+    }
+
+    /** The instrumented connection. */
+    final Connection connection;
+
+    InstrumentedConnection(final Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public LdapPromise<Void> abandonAsync(final AbandonRequest request) {
+        return connection.abandonAsync(request);
+    }
+
+    @Override
+    public LdapPromise<Result> addAsync(final AddRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<Result>(OperationType.ADD).register(
+                connection.addAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public void addConnectionEventListener(final ConnectionEventListener listener) {
+        connection.addConnectionEventListener(listener);
+    }
+
+    @Override
+    public LdapPromise<BindResult> bindAsync(final BindRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<BindResult>(OperationType.BIND).register(
+                connection.bindAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public void close(final UnbindRequest request, final String reason) {
+        connection.close(request, reason);
+    }
+
+    @Override
+    public LdapPromise<CompareResult> compareAsync(final CompareRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<CompareResult>(OperationType.COMPARE).register(
+                connection.compareAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public LdapPromise<Result> deleteAsync(final DeleteRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<Result>(OperationType.DELETE).register(
+                connection.deleteAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public <R extends ExtendedResult> LdapPromise<R> extendedRequestAsync(final ExtendedRequest<R> request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<R>(OperationType.EXTENDED).register(
+                connection.extendedRequestAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public boolean isClosed() {
+        return connection.isClosed();
+    }
+
+    @Override
+    public boolean isValid() {
+        return connection.isValid();
+    }
+
+    @Override
+    public LdapPromise<Result> modifyAsync(final ModifyRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<Result>(OperationType.MODIFY).register(
+                connection.modifyAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public LdapPromise<Result> modifyDNAsync(final ModifyDNRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        return new OperationCompletionHandler<Result>(OperationType.MODIFY_DN).register(
+                connection.modifyDNAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public void removeConnectionEventListener(final ConnectionEventListener listener) {
+        connection.removeConnectionEventListener(listener);
+    }
+
+    @Override
+    public LdapPromise<Result> searchAsync(final SearchRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler) {
+        return new OperationCompletionHandler<Result>(OperationType.SEARCH).register(
+                connection.searchAsync(request, intermediateResponseHandler, entryHandler));
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedConnection(" + connection + ')';
+    }
+
+    /**
+     * Invoked when an operation has been sent using this connection. The
+     * default implementation does nothing.
+     *
+     * @param type
+     *            The type of operation.
+     */
+    void handleOperationStarted(final OperationType type) {
+        // Do nothing by default.
+    }
+
+    /**
+     * Invoked when an operation performed using this connection has completed.
+     *
+     * @param type
+     *            The type of operation.
+     * @param resultCode
+     *            The result code of the operation.
+     * @param latencyNanos
+     *            The latency of the operation in nanoseconds.
+     */
+    abstract void handleOperationCompleted(OperationType type, ResultCode resultCode, long latencyNanos);
+}
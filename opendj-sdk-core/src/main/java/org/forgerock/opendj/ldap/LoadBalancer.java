@@ -23,6 +23,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -35,6 +36,7 @@ import com.forgerock.opendj.util.ReferenceCountedObject;
 
 import static org.forgerock.opendj.ldap.Connections.*;
 import static org.forgerock.opendj.ldap.LdapException.*;
+import static org.forgerock.opendj.ldap.ResultCode.BUSY;
 import static org.forgerock.opendj.ldap.ResultCode.CLIENT_SIDE_CONNECT_ERROR;
 import static org.forgerock.util.Utils.closeSilently;
 import static org.forgerock.util.Utils.joinAsString;
@@ -57,10 +59,15 @@ abstract class LoadBalancer implements ConnectionFactory {
         Reject.ifNull(loadBalancerName, factories, options);
 
         this.loadBalancerName = loadBalancerName;
+        this.maxInFlightRequests = options.get(LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS);
+        Reject.ifFalse(maxInFlightRequests >= 0, "maxInFlightRequests < 0");
+        final boolean isCircuitBreakerEnabled = options.get(LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO) > 0;
         this.monitoredFactories = new ArrayList<>(factories.size());
         int i = 0;
         for (final ConnectionFactory f : factories) {
-            this.monitoredFactories.add(new MonitoredConnectionFactory(f, i++));
+            final CircuitBreaker circuitBreaker =
+                    isCircuitBreakerEnabled ? new CircuitBreaker(options, System.nanoTime()) : null;
+            this.monitoredFactories.add(new MonitoredConnectionFactory(f, i++, circuitBreaker));
         }
         this.scheduler = DEFAULT_SCHEDULER.acquireIfNull(options.get(LOAD_BALANCER_SCHEDULER));
         this.monitoringIntervalMS = options.get(LOAD_BALANCER_MONITORING_INTERVAL).to(TimeUnit.MILLISECONDS);
@@ -96,10 +103,15 @@ abstract class LoadBalancer implements ConnectionFactory {
         private final AtomicBoolean isOperational = new AtomicBoolean(true);
         private volatile Promise<?, LdapException> pendingConnectPromise;
         private final int index;
+        /** The circuit breaker, or {@code null} if operation results do not affect the state of this factory. */
+        private final CircuitBreaker circuitBreaker;
+        private final AtomicInteger inFlightRequests = new AtomicInteger();
 
-        private MonitoredConnectionFactory(final ConnectionFactory factory, final int index) {
+        private MonitoredConnectionFactory(final ConnectionFactory factory, final int index,
+                final CircuitBreaker circuitBreaker) {
             this.factory = factory;
             this.index = index;
+            this.circuitBreaker = circuitBreaker;
         }
 
         @Override
@@ -120,7 +132,7 @@ abstract class LoadBalancer implements ConnectionFactory {
                 return getMonitoredConnectionFactory(nextIndex).getConnection();
             }
             notifyOnline();
-            return connection;
+            return instrument(connection);
         }
 
         @Override
@@ -130,7 +142,7 @@ abstract class LoadBalancer implements ConnectionFactory {
                     @Override
                     public Promise<Connection, LdapException> apply(Connection value) throws LdapException {
                         notifyOnline();
-                        return newResultPromise(value);
+                        return newResultPromise(instrument(value));
                     }
                 },
                 new AsyncFunction<LdapException, Connection, LdapException>() {
@@ -163,6 +175,43 @@ abstract class LoadBalancer implements ConnectionFactory {
             return factory.toString();
         }
 
+        /**
+         * Returns {@code true} if this factory has reached its maximum number of outstanding operations, or if it is
+         * being probed by the circuit breaker and all the probes are outstanding.
+         */
+        private boolean isSaturated() {
+            final int inFlight = inFlightRequests.get();
+            return (maxInFlightRequests > 0 && inFlight >= maxInFlightRequests)
+                    || (circuitBreaker != null && circuitBreaker.isHalfOpen()
+                            && inFlight >= circuitBreaker.getHalfOpenRequests());
+        }
+
+        /** Tracks the operations performed using the connection if needed by the circuit breaker or load shedding. */
+        private Connection instrument(final Connection connection) {
+            if (circuitBreaker == null && maxInFlightRequests == 0) {
+                return connection;
+            }
+            return new InstrumentedConnection(connection) {
+                @Override
+                void handleOperationStarted(final OperationType type) {
+                    inFlightRequests.incrementAndGet();
+                }
+
+                @Override
+                void handleOperationCompleted(final OperationType type, final ResultCode resultCode,
+                        final long latencyNanos) {
+                    inFlightRequests.decrementAndGet();
+                    if (circuitBreaker != null
+                            && circuitBreaker.recordOperation(resultCode, latencyNanos, System.nanoTime())) {
+                        logger.debug(LocalizableMessage.raw("Circuit breaker tripped for factory '%s'",
+                                MonitoredConnectionFactory.this));
+                        notifyOffline(newLdapException(resultCode, "Circuit breaker tripped for connection factory "
+                                + MonitoredConnectionFactory.this));
+                    }
+                }
+            };
+        }
+
         /** Attempt to connect to the factory if it is offline and there is no pending monitoring request. */
         private synchronized void checkIfAvailable() {
             if (!isOperational.get() && (pendingConnectPromise == null || pendingConnectPromise.isDone())) {
@@ -198,6 +247,9 @@ abstract class LoadBalancer implements ConnectionFactory {
         private void notifyOnline() {
             if (!isOperational.getAndSet(true)) {
                 // Transition from offline to online.
+                if (circuitBreaker != null) {
+                    circuitBreaker.halfOpen();
+                }
                 synchronized (listenerLock) {
                     try {
                         listener.handleConnectionFactoryOnline(factory);
@@ -257,6 +309,9 @@ abstract class LoadBalancer implements ConnectionFactory {
     /** Ensures that events are notified one at a time. */
     private final Object listenerLock = new Object();
 
+    /** The maximum number of outstanding operations per connection factory, or {@code 0} if unlimited. */
+    private final int maxInFlightRequests;
+
     /** Guarded by stateLock. */
     private int offlineFactoriesCount;
     private final long monitoringIntervalMS;
@@ -270,19 +325,29 @@ abstract class LoadBalancer implements ConnectionFactory {
      *
      * @param initialIndex The index of the connection factory to be returned if operational.
      * @return The first available connection factory starting from the initial index.
-     * @throws LdapException If no connection factories are available.
+     * @throws LdapException If no connection factories are available, or if all the available connection factories
+     *                       are saturated, in which case the result code is {@link ResultCode#BUSY}.
      */
     final ConnectionFactory getMonitoredConnectionFactory(final int initialIndex) throws LdapException {
         final int maxIndex = monitoredFactories.size();
         int index = initialIndex;
+        boolean isSaturated = false;
         do {
             final MonitoredConnectionFactory factory = monitoredFactories.get(index);
             if (factory.isOperational.get()) {
-                return factory;
+                if (!factory.isSaturated()) {
+                    return factory;
+                }
+                isSaturated = true;
             }
             index = (index + 1) % maxIndex;
         } while (index != initialIndex);
 
+        if (isSaturated) {
+            // Shed load rather than queueing requests on overloaded servers.
+            throw newLdapException(BUSY, "All operational connection factories are saturated");
+        }
+
         /*
          * All factories are offline so give up. We could have a configurable
          * policy here such as waiting indefinitely, or for a configurable
@@ -294,4 +359,12 @@ abstract class LoadBalancer implements ConnectionFactory {
     final String getLoadBalancerName() {
         return loadBalancerName;
     }
+
+    final int getConnectionFactoryCount() {
+        return monitoredFactories.size();
+    }
+
+    final ScheduledExecutorService getScheduler() {
+        return scheduler.get();
+    }
 }
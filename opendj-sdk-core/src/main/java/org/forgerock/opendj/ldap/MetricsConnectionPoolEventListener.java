@@ -0,0 +1,213 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.forgerock.util.Reject;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * A connection pool event listener which publishes connection pool metrics to
+ * a Dropwizard {@link MetricRegistry}. The following metrics are registered
+ * using the provided name prefix:
+ * <ul>
+ * <li>{@code pool.active}, {@code pool.idle}, {@code pool.pending},
+ * {@code pool.waiting}, {@code pool.size}, {@code pool.max_size}: gauges
+ * reflecting the current state of the pool
+ * <li>{@code pool.checkout}, {@code pool.lease}, {@code pool.connect}: timers
+ * measuring respectively the time spent waiting for a connection, the time
+ * during which connections are used by the application, and the time taken to
+ * establish new connections
+ * <li>{@code pool.checkout_failures}, {@code pool.connect_failures},
+ * {@code pool.destroyed}: meters
+ * <li>{@code operations.<type>} and {@code operations.<type>.errors}: a timer
+ * and meter for each operation type
+ * </ul>
+ * Timers use an HdrHistogram reservoir. All the metrics are registered when
+ * the listener is created, hence each listener sharing a registry must use a
+ * different prefix, for example one per pool. Pools sharing a listener are
+ * reported in aggregate: gauges sum the values of the pools which are open.
+ * <p>
+ * The Dropwizard metrics and HdrHistogram reservoir libraries are optional
+ * dependencies of the SDK, which must be provided by applications using this
+ * listener.
+ *
+ * @see Connections#CONNECTION_POOL_EVENT_LISTENER
+ */
+public final class MetricsConnectionPoolEventListener implements ConnectionPoolEventListener {
+    /** A gauge summing a statistic of the open pools associated with this listener. */
+    private abstract class PoolsGauge implements Gauge<Integer> {
+        @Override
+        public final Integer getValue() {
+            int value = 0;
+            for (final ConnectionPoolStatistics statistics : pools) {
+                value += getValue(statistics);
+            }
+            return value;
+        }
+
+        abstract int getValue(ConnectionPoolStatistics statistics);
+    }
+
+    private final List<ConnectionPoolStatistics> pools = new CopyOnWriteArrayList<>();
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Timer checkOutTimer;
+    private final Meter checkOutFailures;
+    private final Timer leaseTimer;
+    private final Timer connectTimer;
+    private final Meter connectFailures;
+    private final Meter destroyedConnections;
+    private final Map<OperationType, Timer> operationTimers = new EnumMap<>(OperationType.class);
+    private final Map<OperationType, Meter> operationErrors = new EnumMap<>(OperationType.class);
+
+    /**
+     * Creates a new listener which will register its metrics in the provided
+     * registry.
+     *
+     * @param registry
+     *            The registry in which metrics will be registered.
+     * @param prefix
+     *            The prefix which will be prepended to each metric name, for
+     *            example {@code "org.forgerock.opendj.pool1"}.
+     * @throws IllegalArgumentException
+     *             If metrics have already been registered using the same
+     *             prefix in the registry.
+     */
+    public MetricsConnectionPoolEventListener(final MetricRegistry registry, final String prefix) {
+        Reject.ifNull(registry, prefix);
+        this.registry = registry;
+        this.prefix = prefix;
+        registry.register(name("pool.active"), new PoolsGauge() {
+            @Override
+            int getValue(final ConnectionPoolStatistics statistics) {
+                return statistics.getActiveConnectionCount();
+            }
+        });
+        registry.register(name("pool.idle"), new PoolsGauge() {
+            @Override
+            int getValue(final ConnectionPoolStatistics statistics) {
+                return statistics.getIdleConnectionCount();
+            }
+        });
+        registry.register(name("pool.pending"), new PoolsGauge() {
+            @Override
+            int getValue(final ConnectionPoolStatistics statistics) {
+                return statistics.getPendingConnectionCount();
+            }
+        });
+        registry.register(name("pool.waiting"), new PoolsGauge() {
+            @Override
+            int getValue(final ConnectionPoolStatistics statistics) {
+                return statistics.getWaitingRequestCount();
+            }
+        });
+        registry.register(name("pool.size"), new PoolsGauge() {
+            @Override
+            int getValue(final ConnectionPoolStatistics statistics) {
+                return statistics.getPoolSize();
+            }
+        });
+        registry.register(name("pool.max_size"), new PoolsGauge() {
+            @Override
+            int getValue(final ConnectionPoolStatistics statistics) {
+                return statistics.getMaxPoolSize();
+            }
+        });
+        this.checkOutTimer = registerTimer("pool.checkout");
+        this.checkOutFailures = registerMeter("pool.checkout_failures");
+        this.leaseTimer = registerTimer("pool.lease");
+        this.connectTimer = registerTimer("pool.connect");
+        this.connectFailures = registerMeter("pool.connect_failures");
+        this.destroyedConnections = registerMeter("pool.destroyed");
+        for (final OperationType type : OperationType.values()) {
+            operationTimers.put(type, registerTimer("operations." + type));
+            operationErrors.put(type, registerMeter("operations." + type + ".errors"));
+        }
+    }
+
+    @Override
+    public void handleConnectionPoolCreated(final ConnectionPoolStatistics statistics) {
+        pools.add(statistics);
+    }
+
+    @Override
+    public void handleConnectionPoolClosed(final ConnectionPoolStatistics statistics) {
+        pools.remove(statistics);
+    }
+
+    @Override
+    public void handleConnectionCheckedOut(final long waitTimeNanos) {
+        checkOutTimer.update(waitTimeNanos, NANOSECONDS);
+    }
+
+    @Override
+    public void handleConnectionCheckOutFailed(final long waitTimeNanos, final LdapException error) {
+        checkOutFailures.mark();
+    }
+
+    @Override
+    public void handleConnectionReleased(final long leaseTimeNanos) {
+        leaseTimer.update(leaseTimeNanos, NANOSECONDS);
+    }
+
+    @Override
+    public void handleConnectionCreated(final long connectTimeNanos) {
+        connectTimer.update(connectTimeNanos, NANOSECONDS);
+    }
+
+    @Override
+    public void handleConnectionCreationFailed(final long connectTimeNanos, final LdapException error) {
+        connectFailures.mark();
+    }
+
+    @Override
+    public void handleConnectionDestroyed() {
+        destroyedConnections.mark();
+    }
+
+    @Override
+    public void handleOperationCompleted(final OperationType type, final ResultCode resultCode,
+            final long latencyNanos) {
+        operationTimers.get(type).update(latencyNanos, NANOSECONDS);
+        if (resultCode.isExceptional()) {
+            operationErrors.get(type).mark();
+        }
+    }
+
+    private Timer registerTimer(final String name) {
+        return registry.register(name(name), new Timer(new HdrHistogramReservoir()));
+    }
+
+    private Meter registerMeter(final String name) {
+        return registry.register(name(name), new Meter());
+    }
+
+    private String name(final String name) {
+        return MetricRegistry.name(prefix, name);
+    }
+}
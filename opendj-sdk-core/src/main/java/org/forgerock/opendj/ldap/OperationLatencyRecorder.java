@@ -0,0 +1,169 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.forgerock.util.Reject;
+
+/**
+ * Records the latency distribution of LDAP operations, broken down by
+ * operation type and result code. Latencies are recorded in nanoseconds using
+ * HdrHistogram {@link Recorder}s, which are wait-free for writers. In order to
+ * reduce contention each distribution is striped across several recorders,
+ * the stripe being selected by the recording thread.
+ * <p>
+ * Recorded distributions are retrieved using {@link #getIntervalHistograms()}
+ * which returns the values recorded since the previous call. Applications
+ * typically invoke this method periodically in order to export latencies to
+ * a monitoring system. Interval histograms may be accumulated into a
+ * {@link Histogram} in order to obtain the overall distribution.
+ *
+ * @see Connections#newInstrumentedConnection(Connection, OperationLatencyRecorder)
+ * @see Connections#newInstrumentedConnectionFactory(ConnectionFactory, OperationLatencyRecorder)
+ */
+public final class OperationLatencyRecorder {
+    /** A latency distribution striped across several recorders. */
+    private static final class StripedRecorder {
+        private final Recorder[] stripes;
+
+        private StripedRecorder(final int stripeCount, final int numberOfSignificantValueDigits) {
+            stripes = new Recorder[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new Recorder(numberOfSignificantValueDigits);
+            }
+        }
+
+        private void recordValue(final long value) {
+            stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)].recordValue(value);
+        }
+
+        private Histogram getIntervalHistogram() {
+            final Histogram histogram = stripes[0].getIntervalHistogram();
+            for (int i = 1; i < stripes.length; i++) {
+                final Histogram stripe = stripes[i].getIntervalHistogram();
+                histogram.add(stripe);
+                histogram.setStartTimeStamp(Math.min(histogram.getStartTimeStamp(), stripe.getStartTimeStamp()));
+                histogram.setEndTimeStamp(Math.max(histogram.getEndTimeStamp(), stripe.getEndTimeStamp()));
+            }
+            return histogram;
+        }
+    }
+
+    /** The default number of significant decimal digits to which values are recorded. */
+    public static final int DEFAULT_SIGNIFICANT_VALUE_DIGITS = 3;
+
+    private final Map<OperationType, ConcurrentMap<ResultCode, StripedRecorder>> recorders =
+            new EnumMap<>(OperationType.class);
+    private final int numberOfSignificantValueDigits;
+    private final int stripeCount;
+
+    /**
+     * Creates a new operation latency recorder which records values to
+     * {@link #DEFAULT_SIGNIFICANT_VALUE_DIGITS} significant digits, and which
+     * uses one stripe per available processor.
+     */
+    public OperationLatencyRecorder() {
+        this(DEFAULT_SIGNIFICANT_VALUE_DIGITS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new operation latency recorder.
+     *
+     * @param numberOfSignificantValueDigits
+     *            The number of significant decimal digits to which values are
+     *            recorded, between 0 and 5.
+     * @param concurrencyLevel
+     *            The expected number of threads concurrently recording
+     *            latencies. It is rounded up to the next power of two in order
+     *            to obtain the number of stripes.
+     */
+    public OperationLatencyRecorder(final int numberOfSignificantValueDigits, final int concurrencyLevel) {
+        Reject.ifFalse(numberOfSignificantValueDigits >= 0 && numberOfSignificantValueDigits <= 5,
+                "numberOfSignificantValueDigits must be between 0 and 5");
+        Reject.ifFalse(concurrencyLevel > 0, "concurrencyLevel <= 0");
+        this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+        int stripes = 1;
+        while (stripes < concurrencyLevel) {
+            stripes <<= 1;
+        }
+        this.stripeCount = stripes;
+        for (final OperationType type : OperationType.values()) {
+            recorders.put(type, new ConcurrentHashMap<ResultCode, StripedRecorder>());
+        }
+    }
+
+    /**
+     * Records the latency of an operation.
+     *
+     * @param type
+     *            The type of operation.
+     * @param resultCode
+     *            The result code of the operation.
+     * @param latencyNanos
+     *            The latency of the operation in nanoseconds.
+     */
+    public void recordLatency(final OperationType type, final ResultCode resultCode, final long latencyNanos) {
+        final ConcurrentMap<ResultCode, StripedRecorder> typeRecorders = recorders.get(type);
+        StripedRecorder recorder = typeRecorders.get(resultCode);
+        if (recorder == null) {
+            final StripedRecorder newRecorder = new StripedRecorder(stripeCount, numberOfSignificantValueDigits);
+            recorder = typeRecorders.putIfAbsent(resultCode, newRecorder);
+            if (recorder == null) {
+                recorder = newRecorder;
+            }
+        }
+        recorder.recordValue(Math.max(0, latencyNanos));
+    }
+
+    /**
+     * Returns the latencies recorded since the previous invocation of this
+     * method, or since this recorder was created. Only the operation types and
+     * result codes for which at least one latency has ever been recorded are
+     * included. The returned histograms belong to the caller and record
+     * latencies in nanoseconds.
+     *
+     * @return The latencies recorded since the previous invocation of this
+     *         method, indexed by operation type and result code.
+     */
+    public Map<OperationType, Map<ResultCode, Histogram>> getIntervalHistograms() {
+        final Map<OperationType, Map<ResultCode, Histogram>> histograms = new EnumMap<>(OperationType.class);
+        for (final Map.Entry<OperationType, ConcurrentMap<ResultCode, StripedRecorder>> entry
+                : recorders.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            final Map<ResultCode, Histogram> typeHistograms = new HashMap<>();
+            for (final Map.Entry<ResultCode, StripedRecorder> recorder : entry.getValue().entrySet()) {
+                typeHistograms.put(recorder.getKey(), recorder.getValue().getIntervalHistogram());
+            }
+            histograms.put(entry.getKey(), typeHistograms);
+        }
+        return histograms;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationLatencyRecorder(significantDigits=" + numberOfSignificantValueDigits + ", stripes="
+                + stripeCount + ')';
+    }
+}
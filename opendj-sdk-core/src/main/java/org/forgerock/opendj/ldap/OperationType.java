@@ -0,0 +1,98 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ExtendedRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+
+/**
+ * The type of an LDAP operation which yields a result. Operation types are
+ * typically used for classifying requests when collecting statistics.
+ */
+public enum OperationType {
+    /** An add operation. */
+    ADD("add"),
+
+    /** A bind operation. */
+    BIND("bind"),
+
+    /** A compare operation. */
+    COMPARE("compare"),
+
+    /** A delete operation. */
+    DELETE("delete"),
+
+    /** An extended operation. */
+    EXTENDED("extended"),
+
+    /** A modify operation. */
+    MODIFY("modify"),
+
+    /** A modify DN operation. */
+    MODIFY_DN("modifyDN"),
+
+    /** A search operation. */
+    SEARCH("search");
+
+    /**
+     * Returns the operation type of the provided request.
+     *
+     * @param request
+     *            The request.
+     * @return The operation type of the provided request, or {@code null} if
+     *         the request does not yield a result (e.g. abandon or unbind).
+     */
+    public static OperationType forRequest(final Request request) {
+        // The most common operations appear first in order to reduce the average number of branches.
+        if (request instanceof SearchRequest) {
+            return SEARCH;
+        } else if (request instanceof ModifyRequest) {
+            return MODIFY;
+        } else if (request instanceof BindRequest) {
+            return BIND;
+        } else if (request instanceof AddRequest) {
+            return ADD;
+        } else if (request instanceof DeleteRequest) {
+            return DELETE;
+        } else if (request instanceof CompareRequest) {
+            return COMPARE;
+        } else if (request instanceof ModifyDNRequest) {
+            return MODIFY_DN;
+        } else if (request instanceof ExtendedRequest) {
+            return EXTENDED;
+        } else {
+            return null;
+        }
+    }
+
+    private final String name;
+
+    private OperationType(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -15,11 +15,14 @@
  */
 package org.forgerock.opendj.ldap;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.forgerock.opendj.ldap.spi.LdapPromises.newFailedLdapPromise;
 import static org.forgerock.util.Utils.closeSilently;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.util.Collection;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.opendj.ldap.requests.AbandonRequest;
@@ -31,12 +34,16 @@ import org.forgerock.opendj.ldap.requests.ExtendedRequest;
 import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
 import org.forgerock.opendj.ldap.requests.ModifyRequest;
 import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.requests.UnbindRequest;
 import org.forgerock.opendj.ldap.responses.BindResult;
 import org.forgerock.opendj.ldap.responses.CompareResult;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
+import org.forgerock.opendj.ldap.responses.IntermediateResponse;
 import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
 import org.forgerock.opendj.ldap.spi.ConnectionState;
 import org.forgerock.opendj.ldap.spi.LdapPromises;
 import org.forgerock.util.AsyncFunction;
@@ -45,6 +52,7 @@ import org.forgerock.util.Options;
 import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.promise.ResultHandler;
 
 /**
@@ -53,6 +61,9 @@ import org.forgerock.util.promise.ResultHandler;
  * <p>
  * Implementations should override the method {@code getInitialConnectionFactoryIndex()} in order to provide the policy
  * for selecting the first connection factory to use for each request.
+ * <p>
+ * When a {@link HedgingPolicy} is provided, search and compare requests which are slow to complete are duplicated to
+ * the next operational connection factory, and the first response wins.
  */
 final class RequestLoadBalancer extends LoadBalancer {
     /**
@@ -62,12 +73,24 @@ final class RequestLoadBalancer extends LoadBalancer {
      */
     private final Function<Request, Integer, NeverThrowsException> nextFactoryFunction;
 
+    /** The policy which determines when read requests are hedged, or {@code null} if reads are not hedged. */
+    private final HedgingPolicy hedgingPolicy;
+
     RequestLoadBalancer(final String loadBalancerName,
                         final Collection<? extends ConnectionFactory> factories,
                         final Options options,
                         final Function<Request, Integer, NeverThrowsException> nextFactoryFunction) {
+        this(loadBalancerName, factories, options, nextFactoryFunction, null);
+    }
+
+    RequestLoadBalancer(final String loadBalancerName,
+                        final Collection<? extends ConnectionFactory> factories,
+                        final Options options,
+                        final Function<Request, Integer, NeverThrowsException> nextFactoryFunction,
+                        final HedgingPolicy hedgingPolicy) {
         super(loadBalancerName, factories, options);
         this.nextFactoryFunction = nextFactoryFunction;
+        this.hedgingPolicy = hedgingPolicy;
     }
 
     @Override
@@ -81,6 +104,194 @@ final class RequestLoadBalancer extends LoadBalancer {
     }
 
     private class ConnectionImpl extends AbstractAsynchronousConnection {
+        /**
+         * A read request which is sent to a first replica, and then duplicated to a second replica if it has not
+         * completed within the delay determined by the hedging policy. The first replica to respond wins, and the
+         * request sent to the other replica is abandoned.
+         */
+        private abstract class HedgedRequest<R extends Result> implements Runnable {
+            /** A copy of the request which has been sent to one of the replicas. */
+            final class Attempt implements SearchResultHandler, IntermediateResponseHandler {
+                private final ConnectionFactory factory;
+                private final AtomicBoolean isReleased = new AtomicBoolean();
+                private volatile Connection connection;
+                private volatile LdapPromise<R> requestPromise;
+                private volatile boolean isFailed;
+
+                private Attempt(final ConnectionFactory factory) {
+                    this.factory = factory;
+                }
+
+                @Override
+                public boolean handleEntry(final SearchResultEntry entry) {
+                    return !claim() || entryHandler.handleEntry(entry);
+                }
+
+                @Override
+                public boolean handleReference(final SearchResultReference reference) {
+                    return !claim() || entryHandler.handleReference(reference);
+                }
+
+                @Override
+                public boolean handleIntermediateResponse(final IntermediateResponse response) {
+                    return !claim() || intermediateResponseHandler == null
+                            || intermediateResponseHandler.handleIntermediateResponse(response);
+                }
+
+                private void send() {
+                    factory.getConnectionAsync().thenOnResultOrException(new ResultHandler<Connection>() {
+                        @Override
+                        public void handleResult(final Connection connection) {
+                            Attempt.this.connection = connection;
+                            if (isLoser()) {
+                                release();
+                                return;
+                            }
+                            requestPromise = sendRequest(connection, Attempt.this);
+                            requestPromise.thenOnResultOrException(new ResultHandler<R>() {
+                                @Override
+                                public void handleResult(final R result) {
+                                    if (claim()) {
+                                        // Hedged reads are measured from the request start, not from the hedge.
+                                        hedgingPolicy.recordLatency(System.nanoTime() - startTimeNanos);
+                                        promise.handleResult(result);
+                                    }
+                                }
+                            }, new ExceptionHandler<LdapException>() {
+                                @Override
+                                public void handleException(final LdapException exception) {
+                                    fail(exception);
+                                }
+                            }).thenAlways(new Runnable() {
+                                @Override
+                                public void run() {
+                                    release();
+                                }
+                            });
+                            if (isLoser()) {
+                                // The other attempt won while the request was being sent.
+                                abandon();
+                            }
+                        }
+                    }, new ExceptionHandler<LdapException>() {
+                        @Override
+                        public void handleException(final LdapException exception) {
+                            state.notifyConnectionError(false, exception);
+                            fail(exception);
+                        }
+                    });
+                }
+
+                /** Returns {@code true} if this attempt is, or has just become, the winner. */
+                private boolean claim() {
+                    if (winner.compareAndSet(null, this)) {
+                        final ScheduledFuture<?> future = hedgeFuture;
+                        if (future != null) {
+                            future.cancel(false);
+                        }
+                        final Attempt other = this == primary ? hedge : primary;
+                        if (other != null) {
+                            other.abandon();
+                        }
+                        return true;
+                    }
+                    return winner.get() == this;
+                }
+
+                private boolean isLoser() {
+                    final Attempt currentWinner = winner.get();
+                    return currentWinner != null && currentWinner != this;
+                }
+
+                /**
+                 * An attempt which fails only completes the hedged request if the other attempt, if any, has also
+                 * failed, in order to give the other replica a chance to respond.
+                 */
+                private void fail(final LdapException exception) {
+                    isFailed = true;
+                    final Attempt other = this == primary ? hedge : primary;
+                    if ((other == null || other.isFailed) && claim()) {
+                        promise.handleException(exception);
+                    } else if (winner.get() == this) {
+                        promise.handleException(exception);
+                    }
+                }
+
+                private void abandon() {
+                    final LdapPromise<R> pending = requestPromise;
+                    if (pending != null && !pending.isDone() && connection != null) {
+                        connection.abandonAsync(Requests.newAbandonRequest(pending.getRequestID()));
+                        release();
+                    }
+                }
+
+                private void release() {
+                    if (isReleased.compareAndSet(false, true)) {
+                        closeSilently(connection);
+                    }
+                }
+            }
+
+            private final PromiseImpl<R, LdapException> promise = PromiseImpl.create();
+            private final long startTimeNanos = System.nanoTime();
+            private final AtomicReference<Attempt> winner = new AtomicReference<>();
+            private final int primaryIndex;
+            private final IntermediateResponseHandler intermediateResponseHandler;
+            private final SearchResultHandler entryHandler;
+            private volatile Attempt primary;
+            private volatile Attempt hedge;
+            private volatile ScheduledFuture<?> hedgeFuture;
+
+            private HedgedRequest(final Request request, final IntermediateResponseHandler intermediateResponseHandler,
+                    final SearchResultHandler entryHandler) {
+                this.primaryIndex = nextFactoryFunction.apply(request);
+                this.intermediateResponseHandler = intermediateResponseHandler;
+                this.entryHandler = entryHandler;
+            }
+
+            /** Sends the request to the provided connection using the provided attempt as the response handler. */
+            abstract LdapPromise<R> sendRequest(Connection connection, Attempt attempt);
+
+            @Override
+            public void run() {
+                // The hedge delay has expired.
+                if (winner.get() != null || promise.isDone()) {
+                    return;
+                }
+                final ConnectionFactory hedgeFactory;
+                try {
+                    hedgeFactory = getMonitoredConnectionFactory((primaryIndex + 1) % getConnectionFactoryCount());
+                } catch (final LdapException e) {
+                    return;
+                }
+                if (hedgeFactory != primary.factory && hedgingPolicy.tryAcquireHedge()) {
+                    final Attempt attempt = new Attempt(hedgeFactory);
+                    hedge = attempt;
+                    attempt.send();
+                }
+            }
+
+            LdapPromise<R> send() {
+                final ConnectionFactory primaryFactory;
+                try {
+                    primaryFactory = getMonitoredConnectionFactory(primaryIndex);
+                } catch (final LdapException e) {
+                    state.notifyConnectionError(false, e);
+                    return newFailedLdapPromise(e);
+                }
+                final Attempt attempt = new Attempt(primaryFactory);
+                primary = attempt;
+                attempt.send();
+                if (!promise.isDone() && getConnectionFactoryCount() > 1 && hedgingPolicy.hasHedgeBudget()) {
+                    hedgeFuture = getScheduler().schedule(this, hedgingPolicy.getHedgeDelayNanos(), NANOSECONDS);
+                    if (promise.isDone()) {
+                        hedgeFuture.cancel(false);
+                    }
+                }
+                return LdapPromises.asPromise(promise);
+            }
+        }
+
         private final ConnectionState state = new ConnectionState();
 
         @Override
@@ -129,6 +340,15 @@ final class RequestLoadBalancer extends LoadBalancer {
         @Override
         public LdapPromise<CompareResult> compareAsync(
                 final CompareRequest request, final IntermediateResponseHandler intermediateResponseHandler) {
+            if (hedgingPolicy != null) {
+                checkState();
+                return new HedgedRequest<CompareResult>(request, intermediateResponseHandler, null) {
+                    @Override
+                    LdapPromise<CompareResult> sendRequest(final Connection connection, final Attempt attempt) {
+                        return connection.compareAsync(request, attempt);
+                    }
+                }.send();
+            }
             return getConnectionAndSendRequest(request, new AsyncFunction<Connection, CompareResult, LdapException>() {
                 @Override
                 public Promise<CompareResult, LdapException> apply(final Connection connection) throws LdapException {
@@ -201,6 +421,15 @@ final class RequestLoadBalancer extends LoadBalancer {
                 final SearchRequest request,
                 final IntermediateResponseHandler intermediateResponseHandler,
                 final SearchResultHandler entryHandler) {
+            if (hedgingPolicy != null) {
+                checkState();
+                return new HedgedRequest<Result>(request, intermediateResponseHandler, entryHandler) {
+                    @Override
+                    LdapPromise<Result> sendRequest(final Connection connection, final Attempt attempt) {
+                        return connection.searchAsync(request, attempt, attempt);
+                    }
+                }.send();
+            }
             return getConnectionAndSendRequest(request, new AsyncFunction<Connection, Result, LdapException>() {
                 @Override
                 public Promise<Result, LdapException> apply(final Connection connection) throws LdapException {
@@ -211,9 +440,7 @@ final class RequestLoadBalancer extends LoadBalancer {
 
         private <R> LdapPromise<R> getConnectionAndSendRequest(
                 final Request request, final AsyncFunction<Connection, R, LdapException> sendRequest) {
-            if (state.isClosed()) {
-                throw new IllegalStateException();
-            }
+            checkState();
             final AtomicReference<Connection> connectionHolder = new AtomicReference<>();
             return getConnectionAsync(request)
                     .thenOnResult(new ResultHandler<Connection>() {
@@ -231,6 +458,12 @@ final class RequestLoadBalancer extends LoadBalancer {
                     });
         }
 
+        private void checkState() {
+            if (state.isClosed()) {
+                throw new IllegalStateException();
+            }
+        }
+
         private LdapPromise<Connection> getConnectionAsync(final Request request) {
             try {
                 final int index = nextFactoryFunction.apply(request);
@@ -0,0 +1,242 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static com.forgerock.opendj.ldap.CoreMessages.TRAFFIC_CAPTURE_WRITE_FAILED;
+import static org.forgerock.opendj.ldap.Connections.*;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.util.Options;
+import org.forgerock.util.Reject;
+
+/**
+ * Writes the records of the operations captured by traffic capture
+ * connections to a file, one line per operation. Records are passed from the
+ * application threads to a single writer thread using a bounded lock-free ring
+ * buffer: application threads never block nor perform I/O, and records are
+ * dropped when the writer thread cannot keep up. Records are formatted by the
+ * writer thread, using their {@code toString()} method. The file is rotated once it
+ * exceeds the maximum file size, in which case older files are renamed with a
+ * numeric suffix, {@code .1} being the most recent.
+ */
+final class TrafficCapture implements Closeable {
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final File file;
+    private final long maxFileSizeInBytes;
+    private final int maxFiles;
+    private final double samplingRatio;
+
+    private final AtomicReferenceArray<Object> records;
+    private final int mask;
+    /** The sequence number of the next record to be written, only updated by the writer thread. */
+    private final AtomicLong head = new AtomicLong();
+    /** The sequence number of the next record to be added. */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicInteger nextConnectionId = new AtomicInteger();
+
+    private final Thread writerThread;
+    private volatile boolean isClosed;
+    private OutputStream out;
+    private long fileSizeInBytes;
+
+    TrafficCapture(final File file, final Options options) throws IOException {
+        Reject.ifNull(file, options);
+        this.file = file;
+        this.maxFileSizeInBytes = options.get(TRAFFIC_CAPTURE_MAX_FILE_SIZE_IN_BYTES);
+        this.maxFiles = options.get(TRAFFIC_CAPTURE_MAX_FILES);
+        this.samplingRatio = options.get(TRAFFIC_CAPTURE_SAMPLING_RATIO);
+        Reject.ifFalse(maxFileSizeInBytes >= 0, "The maximum file size must be positive or zero");
+        Reject.ifFalse(maxFiles >= 1, "The maximum number of files must be greater than zero");
+        Reject.ifFalse(samplingRatio >= 0 && samplingRatio <= 1, "The sampling ratio must be between 0 and 1");
+
+        final int capacity = Integer.highestOneBit(Math.max(options.get(TRAFFIC_CAPTURE_BUFFER_SIZE) - 1, 1)) << 1;
+        this.records = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.out = newOutputStream();
+
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, "OpenDJ LDAP SDK Traffic Capture (" + file.getName() + ")");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Closes this traffic capture once all the records added so far have been
+     * written. Records added afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        LockSupport.unpark(writerThread);
+        boolean isInterrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (final InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficCapture(" + file + ", droppedRecords=" + droppedRecords.get() + ')';
+    }
+
+    /**
+     * Adds a record to be written, without blocking.
+     *
+     * @param record
+     *            The record, which must not be modified once added and whose
+     *            string representation must not contain line separators.
+     * @return {@code false} if the record has been dropped because the buffer
+     *         is full or because this traffic capture is closed.
+     */
+    boolean addRecord(final Object record) {
+        if (isClosed) {
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+        for (;;) {
+            final long sequenceNumber = tail.get();
+            if (sequenceNumber - head.get() >= records.length()) {
+                droppedRecords.incrementAndGet();
+                return false;
+            }
+            if (tail.compareAndSet(sequenceNumber, sequenceNumber + 1)) {
+                records.set((int) (sequenceNumber & mask), record);
+                return true;
+            }
+        }
+    }
+
+    /** Returns the number of records dropped so far. */
+    long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /** Returns a new identifier for a captured connection. */
+    int nextConnectionId() {
+        return nextConnectionId.incrementAndGet();
+    }
+
+    /** Returns {@code true} if the next operation should be captured. */
+    boolean isSampled() {
+        return samplingRatio >= 1 || (samplingRatio > 0 && ThreadLocalRandom.current().nextDouble() < samplingRatio);
+    }
+
+    /** Returns the next record to be written, or {@code null} if there is none yet. */
+    private Object pollRecord() {
+        final long sequenceNumber = head.get();
+        if (sequenceNumber == tail.get()) {
+            return null;
+        }
+        final int index = (int) (sequenceNumber & mask);
+        final Object record = records.get(index);
+        if (record == null) {
+            // The slot has been claimed but the record has not been published yet.
+            return null;
+        }
+        records.lazySet(index, null);
+        head.lazySet(sequenceNumber + 1);
+        return record;
+    }
+
+    private void writeRecords() {
+        try {
+            for (;;) {
+                final Object record = pollRecord();
+                if (record != null) {
+                    writeRecord(record.toString());
+                } else if (isClosed && head.get() == tail.get()) {
+                    final long dropped = droppedRecords.get();
+                    if (dropped > 0) {
+                        writeRecord("# " + dropped + " operations were not captured because the buffer was full");
+                    }
+                    break;
+                } else {
+                    out.flush();
+                    LockSupport.parkNanos(this, POLL_INTERVAL_NANOS);
+                }
+            }
+        } catch (final IOException e) {
+            logger.error(TRAFFIC_CAPTURE_WRITE_FAILED.get(file, e.getMessage()));
+            // Stop capturing and drop the remaining records.
+            isClosed = true;
+        } finally {
+            try {
+                out.close();
+            } catch (final IOException ignored) {
+                // Ignore.
+            }
+        }
+    }
+
+    private void writeRecord(final String record) throws IOException {
+        final byte[] bytes = (record + '\n').getBytes(UTF8);
+        if (maxFileSizeInBytes > 0 && fileSizeInBytes > 0 && fileSizeInBytes + bytes.length > maxFileSizeInBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        fileSizeInBytes += bytes.length;
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        // When only one file is kept it is simply truncated.
+        final File oldest = new File(file.getPath() + '.' + (maxFiles - 1));
+        if (maxFiles > 1 && oldest.exists() && !oldest.delete()) {
+            throw new IOException("Unable to delete " + oldest);
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            final File source = i == 0 ? file : new File(file.getPath() + '.' + i);
+            if (source.exists() && !source.renameTo(new File(file.getPath() + '.' + (i + 1)))) {
+                throw new IOException("Unable to rename " + source);
+            }
+        }
+        out = newOutputStream();
+    }
+
+    private OutputStream newOutputStream() throws IOException {
+        fileSizeInBytes = 0;
+        return new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.opendj.ldap.controls.Control;
+import org.forgerock.opendj.ldap.requests.AbandonRequest;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ExtendedRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Request;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SASLBindRequest;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.requests.UnbindRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.ExtendedResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldif.LDIFChangeRecordWriter;
+import org.forgerock.opendj.ldif.LDIFEntryWriter;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * A connection which captures the operations performed using an underlying
+ * connection. Each captured operation is described by a line of the form
+ * {@code <time in ms> <connection> <TYPE> name="value" ... result=<code> etime=<ms>},
+ * which is the replay log format of the {@code ldapreplay} tool. The request
+ * part of the record is captured when the operation is sent, so that requests
+ * may be reused by the application once they have completed, and the record is
+ * handed over to the {@link TrafficCapture} when the operation completes. Add
+ * and modify requests are copied, and their LDIF is only formatted by the
+ * writer thread of the traffic capture.
+ * Records are therefore written in the order in which the operations complete,
+ * while their time is the time at which the operations were sent: readers of
+ * the capture must not assume that times are non-decreasing.
+ * Passwords of bind requests are never captured. Closing a connection whose
+ * operations have been captured is recorded as {@code <time in ms> <connection> UNBIND}.
+ */
+final class TrafficCaptureConnection extends AbstractAsynchronousConnection {
+    /**
+     * The record of a completed operation, which is formatted by the writer
+     * thread of the traffic capture.
+     */
+    private static final class OperationRecord {
+        private final StringBuilder record;
+        private final Request changes;
+        private final ResultCode resultCode;
+        private final long latencyMicros;
+
+        private OperationRecord(final StringBuilder record, final Request changes, final ResultCode resultCode,
+                final long latencyMicros) {
+            this.record = record;
+            this.changes = changes;
+            this.resultCode = resultCode;
+            this.latencyMicros = latencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(record);
+            if (changes instanceof AddRequest) {
+                appendEntry(builder, (AddRequest) changes);
+            } else if (changes instanceof ModifyRequest) {
+                appendChanges(builder, (ModifyRequest) changes);
+            }
+            builder.append(" result=").append(resultCode.intValue());
+            builder.append(" etime=").append(latencyMicros / 1000).append('.');
+            final long fraction = latencyMicros % 1000;
+            builder.append(fraction < 100 ? (fraction < 10 ? "00" : "0") : "").append(fraction);
+            return builder.toString();
+        }
+    }
+
+    /** Adds the record of an operation to the traffic capture once it has completed. */
+    private final class OperationCompletionHandler<R extends Result>
+            implements ResultHandler<R>, ExceptionHandler<LdapException> {
+        private final StringBuilder record;
+        /** A copy of the add or modify request whose LDIF should be captured, or {@code null}. */
+        private final Request changes;
+        private final long startTimeNanos;
+
+        private OperationCompletionHandler(final StringBuilder record) {
+            this(record, null);
+        }
+
+        private OperationCompletionHandler(final StringBuilder record, final Request changes) {
+            this.record = record;
+            this.changes = changes;
+            this.startTimeNanos = System.nanoTime();
+        }
+
+        @Override
+        public void handleResult(final R result) {
+            handleOperationCompleted(result.getResultCode());
+        }
+
+        @Override
+        public void handleException(final LdapException exception) {
+            handleOperationCompleted(exception.getResult().getResultCode());
+        }
+
+        private void handleOperationCompleted(final ResultCode resultCode) {
+            final long latencyMicros = (System.nanoTime() - startTimeNanos) / 1000;
+            capture.addRecord(new OperationRecord(record, changes, resultCode, latencyMicros));
+        }
+
+        private LdapPromise<R> register(final LdapPromise<R> promise) {
+            return promise.thenOnResultOrException(this, this);
+        }
+    }
+
+    private final Connection connection;
+    private final TrafficCapture capture;
+    private final int connectionId;
+    /** Whether operations of this connection have been captured, in which case its closing is captured too. */
+    private final AtomicBoolean hasCapturedOperations = new AtomicBoolean();
+
+    TrafficCaptureConnection(final Connection connection, final TrafficCapture capture) {
+        this.connection = connection;
+        this.capture = capture;
+        this.connectionId = capture.nextConnectionId();
+    }
+
+    @Override
+    public LdapPromise<Void> abandonAsync(final AbandonRequest request) {
+        return connection.abandonAsync(request);
+    }
+
+    @Override
+    public LdapPromise<Result> addAsync(final AddRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("ADD", request);
+        if (record == null) {
+            return connection.addAsync(request, intermediateResponseHandler);
+        }
+        appendDN(record, request.getName());
+        return new OperationCompletionHandler<Result>(record, Requests.copyOfAddRequest(request)).register(
+                connection.addAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public void addConnectionEventListener(final ConnectionEventListener listener) {
+        connection.addConnectionEventListener(listener);
+    }
+
+    @Override
+    public LdapPromise<BindResult> bindAsync(final BindRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("BIND", request);
+        if (record == null) {
+            return connection.bindAsync(request, intermediateResponseHandler);
+        }
+        appendProperty(record, "dn", request.getName());
+        if (request instanceof SASLBindRequest) {
+            appendProperty(record, "mechanism", ((SASLBindRequest) request).getSASLMechanism());
+        }
+        return new OperationCompletionHandler<BindResult>(record).register(
+                connection.bindAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public void close(final UnbindRequest request, final String reason) {
+        connection.close(request, reason);
+        if (hasCapturedOperations.getAndSet(false)) {
+            capture.addRecord(System.currentTimeMillis() + " " + connectionId + " UNBIND");
+        }
+    }
+
+    @Override
+    public LdapPromise<CompareResult> compareAsync(final CompareRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("COMPARE", request);
+        if (record == null) {
+            return connection.compareAsync(request, intermediateResponseHandler);
+        }
+        appendDN(record, request.getName());
+        appendProperty(record, "attr", request.getAttributeDescription().toString());
+        appendProperty(record, "value", request.getAssertionValueAsString());
+        return new OperationCompletionHandler<CompareResult>(record).register(
+                connection.compareAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public LdapPromise<Result> deleteAsync(final DeleteRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("DELETE", request);
+        if (record == null) {
+            return connection.deleteAsync(request, intermediateResponseHandler);
+        }
+        appendDN(record, request.getName());
+        return new OperationCompletionHandler<Result>(record).register(
+                connection.deleteAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public <R extends ExtendedResult> LdapPromise<R> extendedRequestAsync(final ExtendedRequest<R> request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("EXTENDED", request);
+        if (record == null) {
+            return connection.extendedRequestAsync(request, intermediateResponseHandler);
+        }
+        appendProperty(record, "oid", request.getOID());
+        return new OperationCompletionHandler<R>(record).register(
+                connection.extendedRequestAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public boolean isClosed() {
+        return connection.isClosed();
+    }
+
+    @Override
+    public boolean isValid() {
+        return connection.isValid();
+    }
+
+    @Override
+    public LdapPromise<Result> modifyAsync(final ModifyRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("MODIFY", request);
+        if (record == null) {
+            return connection.modifyAsync(request, intermediateResponseHandler);
+        }
+        appendDN(record, request.getName());
+        return new OperationCompletionHandler<Result>(record, Requests.copyOfModifyRequest(request)).register(
+                connection.modifyAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public LdapPromise<Result> modifyDNAsync(final ModifyDNRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler) {
+        final StringBuilder record = newRecord("MODIFYDN", request);
+        if (record == null) {
+            return connection.modifyDNAsync(request, intermediateResponseHandler);
+        }
+        appendDN(record, request.getName());
+        appendProperty(record, "newRDN", request.getNewRDN().toString());
+        record.append(" deleteOldRDN=").append(request.isDeleteOldRDN());
+        if (request.getNewSuperior() != null) {
+            appendProperty(record, "newSuperior", request.getNewSuperior().toString());
+        }
+        return new OperationCompletionHandler<Result>(record).register(
+                connection.modifyDNAsync(request, intermediateResponseHandler));
+    }
+
+    @Override
+    public void removeConnectionEventListener(final ConnectionEventListener listener) {
+        connection.removeConnectionEventListener(listener);
+    }
+
+    @Override
+    public LdapPromise<Result> searchAsync(final SearchRequest request,
+            final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler) {
+        final StringBuilder record = newRecord("SEARCH", request);
+        if (record == null) {
+            return connection.searchAsync(request, intermediateResponseHandler, entryHandler);
+        }
+        appendProperty(record, "base", request.getName().toString());
+        record.append(" scope=").append(request.getScope());
+        appendProperty(record, "filter", request.getFilter().toString());
+        if (!request.getAttributes().isEmpty()) {
+            appendProperty(record, "attrs", joinValues(request.getAttributes()));
+        }
+        return new OperationCompletionHandler<Result>(record).register(
+                connection.searchAsync(request, intermediateResponseHandler, entryHandler));
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficCaptureConnection(" + connection + ')';
+    }
+
+    /**
+     * Returns a new record for the provided request, or {@code null} if the
+     * operation should not be captured.
+     */
+    private StringBuilder newRecord(final String type, final Request request) {
+        if (!capture.isSampled()) {
+            return null;
+        }
+        if (!hasCapturedOperations.get()) {
+            hasCapturedOperations.set(true);
+        }
+        final StringBuilder record = new StringBuilder(128);
+        record.append(System.currentTimeMillis()).append(' ').append(connectionId).append(' ').append(type);
+        final List<Control> controls = request.getControls();
+        if (!controls.isEmpty()) {
+            final List<String> oids = new ArrayList<>(controls.size());
+            for (final Control control : controls) {
+                oids.add(control.getOID());
+            }
+            appendProperty(record, "controls", joinValues(oids));
+        }
+        return record;
+    }
+
+    private static void appendDN(final StringBuilder record, final DN dn) {
+        appendProperty(record, "dn", dn.toString());
+    }
+
+    private static void appendEntry(final StringBuilder record, final AddRequest request) {
+        final List<String> ldifLines = new ArrayList<>();
+        try {
+            new LDIFEntryWriter(ldifLines).writeEntry(request).close();
+        } catch (final IOException e) {
+            // Cannot happen when writing to a list.
+            throw new IllegalStateException(e);
+        }
+        // Skip the DN line and the trailing blank line.
+        appendProperty(record, "entry", joinLines(ldifLines.subList(1, ldifLines.size())));
+    }
+
+    private static void appendChanges(final StringBuilder record, final ModifyRequest request) {
+        final List<String> ldifLines = new ArrayList<>();
+        try {
+            new LDIFChangeRecordWriter(ldifLines).writeChangeRecord(request).close();
+        } catch (final IOException e) {
+            // Cannot happen when writing to a list.
+            throw new IllegalStateException(e);
+        }
+        // Only keep the lines following the DN, the controls and the change type.
+        final int changesIndex = ldifLines.indexOf("changetype: modify") + 1;
+        if (changesIndex > 0) {
+            appendProperty(record, "changes", joinLines(ldifLines.subList(changesIndex, ldifLines.size())));
+        }
+    }
+
+    /**
+     * Appends a quoted property, escaping double quotes, backslashes and line
+     * separators.
+     */
+    private static void appendProperty(final StringBuilder record, final String name, final String value) {
+        record.append(' ').append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                record.append('\\').append(c);
+                break;
+            case '\n':
+                record.append("\\n");
+                break;
+            case '\r':
+                record.append("\\r");
+                break;
+            default:
+                record.append(c);
+                break;
+            }
+        }
+        record.append('"');
+    }
+
+    private static String joinLines(final List<String> lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String line : lines) {
+            if (!line.isEmpty()) {
+                if (builder.length() > 0) {
+                    builder.append('\n');
+                }
+                builder.append(line);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String joinValues(final List<String> values) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String value : values) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
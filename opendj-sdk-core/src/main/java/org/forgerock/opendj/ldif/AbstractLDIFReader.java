@@ -38,9 +38,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizableMessageBuilder;
@@ -64,6 +67,9 @@ import org.forgerock.util.Reject;
  * Common LDIF reader functionality.
  */
 abstract class AbstractLDIFReader extends AbstractLDIFStream {
+    /** The maximum number of attribute descriptions cached when parsing byte records. */
+    private static final int MAX_CACHED_ATTRIBUTE_DESCRIPTIONS = 1024;
+
     static final class KeyValuePair {
         String key;
         String value;
@@ -95,14 +101,58 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
     }
 
     static final class LDIFRecord {
+        /** The iterator over the lines of a record read as strings, or {@code null} for byte records. */
         final Iterator<String> iterator;
-        final LinkedList<String> ldifLines;
         final long lineNumber;
+        /** The position of the first byte of a byte record in the input stream, or {@code -1}. */
+        final long offset;
+        private List<String> ldifLines;
+
+        /** The unfolded lines of a record read by a {@link LDIFTokenizer}, or {@code null}. */
+        final byte[] bytes;
+        final int[] lineStarts;
+        final int[] lineEnds;
+        /** The index of the next line of a byte record. */
+        int nextLine;
 
         private LDIFRecord(final long lineNumber, final LinkedList<String> ldifLines) {
             this.lineNumber = lineNumber;
             this.ldifLines = ldifLines;
             this.iterator = ldifLines.iterator();
+            this.offset = -1;
+            this.bytes = null;
+            this.lineStarts = null;
+            this.lineEnds = null;
+        }
+
+        LDIFRecord(final long lineNumber, final long offset, final byte[] bytes, final int[] lineStarts,
+                final int[] lineEnds) {
+            this.lineNumber = lineNumber;
+            this.offset = offset;
+            this.iterator = null;
+            this.bytes = bytes;
+            this.lineStarts = lineStarts;
+            this.lineEnds = lineEnds;
+        }
+
+        boolean hasNextLine() {
+            return bytes != null ? nextLine < lineStarts.length : iterator.hasNext();
+        }
+
+        /** Returns the lines of this record, decoding them if this is a byte record. */
+        List<String> getLdifLines() {
+            if (ldifLines == null) {
+                final List<String> lines = new ArrayList<>(lineStarts.length);
+                for (int i = 0; i < lineStarts.length; i++) {
+                    lines.add(getLine(i));
+                }
+                ldifLines = lines;
+            }
+            return ldifLines;
+        }
+
+        private String getLine(final int i) {
+            return LDIFTokenizer.toString(bytes, lineStarts[i], lineEnds[i]);
         }
     }
 
@@ -169,8 +219,16 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
     Schema schema = Schema.getDefaultSchema().asNonStrictSchema();
     SchemaValidationPolicy schemaValidationPolicy = SchemaValidationPolicy.ignoreAll();
     private final LDIFReaderImpl impl;
+    private final LDIFTokenizer tokenizer;
     private long lineNumber;
 
+    /**
+     * Attribute descriptions parsed from byte records, keyed by their UTF-8
+     * encoding, which are valid for {@link #attributeDescriptionsSchema}.
+     */
+    private final ConcurrentMap<ByteString, AttributeDescription> attributeDescriptions = new ConcurrentHashMap<>();
+    private Schema attributeDescriptionsSchema;
+
     AbstractLDIFReader(final InputStream in) {
         this(new InputStreamReader(in));
     }
@@ -178,36 +236,47 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
     AbstractLDIFReader(final List<String> ldifLines) {
         Reject.ifNull(ldifLines);
         this.impl = new LDIFReaderListImpl(ldifLines);
+        this.tokenizer = null;
     }
 
     AbstractLDIFReader(final Reader reader) {
         this.impl = new LDIFReaderInputStreamImpl(reader);
+        this.tokenizer = null;
+    }
+
+    AbstractLDIFReader(final LDIFTokenizer tokenizer) {
+        this.impl = null;
+        this.tokenizer = tokenizer;
     }
 
     final void close0() throws IOException {
-        impl.close();
+        if (tokenizer != null) {
+            tokenizer.close();
+        } else {
+            impl.close();
+        }
     }
 
     final void handleMalformedRecord(final LDIFRecord record, final LocalizableMessage message)
             throws DecodeException {
-        rejectedRecordListener.handleMalformedRecord(record.lineNumber, record.ldifLines, message);
+        rejectedRecordListener.handleMalformedRecord(record.lineNumber, record.getLdifLines(), message);
     }
 
     final void handleSchemaValidationFailure(final LDIFRecord record,
             final List<LocalizableMessage> messages) throws DecodeException {
-        rejectedRecordListener.handleSchemaValidationFailure(record.lineNumber, record.ldifLines,
+        rejectedRecordListener.handleSchemaValidationFailure(record.lineNumber, record.getLdifLines(),
                 messages);
     }
 
     final void handleSchemaValidationWarning(final LDIFRecord record,
             final List<LocalizableMessage> messages) throws DecodeException {
-        rejectedRecordListener.handleSchemaValidationWarning(record.lineNumber, record.ldifLines,
+        rejectedRecordListener.handleSchemaValidationWarning(record.lineNumber, record.getLdifLines(),
                 messages);
     }
 
     final void handleSkippedRecord(final LDIFRecord record, final LocalizableMessage message)
             throws DecodeException {
-        rejectedRecordListener.handleSkippedRecord(record.lineNumber, record.ldifLines, message);
+        rejectedRecordListener.handleSkippedRecord(record.lineNumber, record.getLdifLines(), message);
     }
 
     final int parseColonPosition(final LDIFRecord record, final String ldifLine)
@@ -267,38 +336,7 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
                     pos++;
                 }
 
-                URL contentURL;
-                try {
-                    contentURL = new URL(ldifLine.substring(pos));
-                } catch (final Exception e) {
-                    // The URL was malformed or had an invalid protocol.
-                    final LocalizableMessage message =
-                            ERR_LDIF_INVALID_URL.get(entryDN.toString(), record.lineNumber,
-                                    attrName, String.valueOf(e));
-                    throw DecodeException.error(message);
-                }
-
-                ByteStringBuilder builder = null;
-                try (InputStream inputStream = contentURL.openConnection().getInputStream()) {
-                    builder = new ByteStringBuilder();
-
-                    int bytesRead;
-                    final byte[] buffer = new byte[4096];
-                    while ((bytesRead = inputStream.read(buffer)) > 0) {
-                        builder.appendBytes(buffer, 0, bytesRead);
-                    }
-
-                    value = builder.toByteString();
-                } catch (final Exception e) {
-                    /*
-                     * We were unable to read the contents of that URL for some
-                     * reason.
-                     */
-                    final LocalizableMessage message =
-                            ERR_LDIF_URL_IO_ERROR.get(entryDN.toString(), record.lineNumber,
-                                    attrName, String.valueOf(contentURL), String.valueOf(e));
-                    throw DecodeException.error(message);
-                }
+                value = readURLValue(record, entryDN, attrName, ldifLine.substring(pos));
             } else {
                 /*
                  * The rest of the line should be the value. Skip over any
@@ -315,7 +353,62 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
         return value;
     }
 
+    /** Reads the content of a value specified as a URL. */
+    private ByteString readURLValue(final LDIFRecord record, final DN entryDN, final String attrName,
+            final String url) throws DecodeException {
+        URL contentURL;
+        try {
+            contentURL = new URL(url);
+        } catch (final Exception e) {
+            // The URL was malformed or had an invalid protocol.
+            final LocalizableMessage message =
+                    ERR_LDIF_INVALID_URL.get(entryDN.toString(), record.lineNumber,
+                            attrName, String.valueOf(e));
+            throw DecodeException.error(message);
+        }
+
+        try (InputStream inputStream = contentURL.openConnection().getInputStream()) {
+            final ByteStringBuilder builder = new ByteStringBuilder();
+
+            int bytesRead;
+            final byte[] buffer = new byte[4096];
+            while ((bytesRead = inputStream.read(buffer)) > 0) {
+                builder.appendBytes(buffer, 0, bytesRead);
+            }
+
+            return builder.toByteString();
+        } catch (final Exception e) {
+            /*
+             * We were unable to read the contents of that URL for some
+             * reason.
+             */
+            final LocalizableMessage message =
+                    ERR_LDIF_URL_IO_ERROR.get(entryDN.toString(), record.lineNumber,
+                            attrName, String.valueOf(contentURL), String.valueOf(e));
+            throw DecodeException.error(message);
+        }
+    }
+
+    /**
+     * Skips the input up to the provided position, so that the next record
+     * read is the record starting at this position. Only supported when the
+     * source of this reader is an input stream.
+     */
+    final void skipLDIFRecordsTo(final long offset) throws IOException {
+        Reject.ifNull(tokenizer);
+        tokenizer.skipTo(offset);
+    }
+
     final LDIFRecord readLDIFRecord() throws IOException {
+        if (tokenizer != null) {
+            if (attributeDescriptionsSchema != schema) {
+                // Cached attribute descriptions depend on the schema.
+                attributeDescriptions.clear();
+                attributeDescriptionsSchema = schema;
+            }
+            return tokenizer.readRecord();
+        }
+
         // Read the entry lines into a buffer.
         final StringBuilder lastLineBuilder = new StringBuilder();
         final LinkedList<String> ldifLines = new LinkedList<>();
@@ -440,26 +533,105 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
         }
     }
 
+    /**
+     * Reads the next line of the record as an attribute value and adds it to
+     * the entry.
+     *
+     * @return {@code false} if the entry should be rejected because the value
+     *         does not conform to the schema.
+     */
+    final boolean readLDIFRecordAttributeValue(final LDIFRecord record, final Entry entry,
+            final List<LocalizableMessage> schemaErrors) throws DecodeException {
+        if (record.bytes == null) {
+            return readLDIFRecordAttributeValue(record, record.iterator.next(), entry, schemaErrors);
+        }
+
+        final byte[] bytes = record.bytes;
+        final int line = record.nextLine++;
+        final int start = record.lineStarts[line];
+        final int end = record.lineEnds[line];
+
+        // Parse the attribute description, avoiding decoding names which have already been seen.
+        final int colonPos = indexOf(bytes, start, end, ':');
+        if (colonPos <= start) {
+            throw DecodeException.error(ERR_LDIF_NO_ATTR_NAME.get(record.lineNumber, record.getLine(line)));
+        }
+        final ByteString name = ByteString.wrap(bytes, start, colonPos - start);
+        AttributeDescription attributeDescription = attributeDescriptions.get(name);
+        if (attributeDescription == null) {
+            attributeDescription = parseAttributeDescription(record, entry, name.toString(), schemaErrors);
+            if (attributeDescription == null) {
+                return !schemaValidationPolicy.checkAttributesAndObjectClasses().isReject();
+            }
+            if (attributeDescriptions.size() < MAX_CACHED_ATTRIBUTE_DESCRIPTIONS) {
+                attributeDescriptions.putIfAbsent(name.toByteString(), attributeDescription);
+            }
+        }
+        final String attrDescr = attributeDescription.toString();
+
+        /*
+         * Now parse the attribute value. Look at the character immediately
+         * after the colon. If there is none, then assume an attribute with an
+         * empty value. If it is another colon, then the value must be
+         * base64-encoded. If it is a less-than sign, then assume that it is a
+         * URL. Otherwise, it is a regular value.
+         */
+        final ByteString value;
+        if (colonPos == end - 1) {
+            value = ByteString.empty();
+        } else if (bytes[colonPos + 1] == ':') {
+            try {
+                final int valueStart = skipSpaces(bytes, colonPos + 2, end);
+                value = ByteString.valueOfBase64(bytes, valueStart, end - valueStart);
+            } catch (final LocalizedIllegalArgumentException e) {
+                final LocalizableMessage message = ERR_LDIF_COULD_NOT_BASE64_DECODE_ATTR.get(
+                        entry.getName().toString(), record.lineNumber, record.getLine(line), e.getMessageObject());
+                throw DecodeException.error(message);
+            }
+        } else if (bytes[colonPos + 1] == '<') {
+            value = readURLValue(record, entry.getName(), attrDescr,
+                    LDIFTokenizer.toString(bytes, skipSpaces(bytes, colonPos + 2, end), end));
+        } else {
+            final int pos = skipSpaces(bytes, colonPos + 1, end);
+            value = ByteString.valueOfBytes(bytes, pos, end - pos);
+        }
+        return addAttributeValue(record, entry, attrDescr, attributeDescription, value, schemaErrors);
+    }
+
     final boolean readLDIFRecordAttributeValue(final LDIFRecord record, final String ldifLine,
             final Entry entry, final List<LocalizableMessage> schemaErrors) throws DecodeException {
         // Parse the attribute description.
         final int colonPos = parseColonPosition(record, ldifLine);
         final String attrDescr = ldifLine.substring(0, colonPos);
+        final AttributeDescription attributeDescription =
+                parseAttributeDescription(record, entry, attrDescr, schemaErrors);
+        if (attributeDescription == null) {
+            return !schemaValidationPolicy.checkAttributesAndObjectClasses().isReject();
+        }
 
-        AttributeDescription attributeDescription;
+        // Now parse the attribute value.
+        final ByteString value =
+                parseSingleValue(record, ldifLine, entry.getName(), colonPos, attrDescr);
+        return addAttributeValue(record, entry, attrDescr, attributeDescription, value, schemaErrors);
+    }
+
+    /**
+     * Parses an attribute description, returning {@code null} if the
+     * attribute type is not defined in the schema.
+     */
+    private AttributeDescription parseAttributeDescription(final LDIFRecord record, final Entry entry,
+            final String attrDescr, final List<LocalizableMessage> schemaErrors) throws DecodeException {
         try {
-            attributeDescription = AttributeDescription.valueOf(attrDescr, schema);
+            return AttributeDescription.valueOf(attrDescr, schema);
         } catch (final UnknownSchemaElementException e) {
             final LocalizableMessage message =
                     ERR_LDIF_UNKNOWN_ATTRIBUTE_TYPE.get(record.lineNumber, entry.getName()
                             .toString(), attrDescr);
             switch (schemaValidationPolicy.checkAttributesAndObjectClasses()) {
             case REJECT:
-                schemaErrors.add(message);
-                return false;
             case WARN:
                 schemaErrors.add(message);
-                return true;
+                return null;
             default: // Ignore
                 /*
                  * This should not happen: we should be using a non-strict
@@ -473,11 +645,11 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
                             .toString(), attrDescr);
             throw DecodeException.error(message);
         }
+    }
 
-        // Now parse the attribute value.
-        final ByteString value =
-                parseSingleValue(record, ldifLine, entry.getName(), colonPos, attrDescr);
-
+    private boolean addAttributeValue(final LDIFRecord record, final Entry entry, final String attrDescr,
+            AttributeDescription attributeDescription, final ByteString value,
+            final List<LocalizableMessage> schemaErrors) {
         /*
          * Skip the attribute if requested before performing any schema
          * checking: the attribute may have been excluded because it is known to
@@ -545,6 +717,9 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
     }
 
     final DN readLDIFRecordDN(final LDIFRecord record) throws DecodeException {
+        if (record.bytes != null) {
+            return readLDIFRecordDNBytes(record);
+        }
         String ldifLine = record.iterator.next();
         int colonPos = ldifLine.indexOf(":");
         if (colonPos <= 0) {
@@ -625,6 +800,60 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
         }
     }
 
+    private DN readLDIFRecordDNBytes(final LDIFRecord record) throws DecodeException {
+        final byte[] bytes = record.bytes;
+        int line = record.nextLine++;
+        int colonPos = indexOf(bytes, record.lineStarts[line], record.lineEnds[line], ':');
+        if (colonPos <= record.lineStarts[line]) {
+            throw DecodeException.error(ERR_LDIF_NO_ATTR_NAME.get(record.lineNumber, record.getLine(line)));
+        }
+
+        if (equalsIgnoreCase(bytes, record.lineStarts[line], colonPos, "version")) {
+            // This is the version line, try the next line if there is one.
+            if (!record.hasNextLine()) {
+                return null;
+            }
+
+            line = record.nextLine++;
+            colonPos = indexOf(bytes, record.lineStarts[line], record.lineEnds[line], ':');
+            if (colonPos <= record.lineStarts[line]) {
+                throw DecodeException.error(ERR_LDIF_NO_ATTR_NAME.get(record.lineNumber, record.getLine(line)));
+            }
+        }
+
+        if (!equalsIgnoreCase(bytes, record.lineStarts[line], colonPos, "dn")) {
+            throw DecodeException.error(ERR_LDIF_NO_DN.get(record.lineNumber, record.getLine(line)));
+        }
+
+        final int end = record.lineEnds[line];
+        if (colonPos == end - 1) {
+            return DN.rootDN();
+        }
+
+        final String dnString;
+        if (bytes[colonPos + 1] == ':') {
+            try {
+                final int dnStart = skipSpaces(bytes, colonPos + 2, end);
+                dnString = ByteString.valueOfBase64(bytes, dnStart, end - dnStart).toString();
+            } catch (final LocalizedIllegalArgumentException e) {
+                // The value did not have a valid base64-encoding.
+                final LocalizableMessage message = ERR_LDIF_COULD_NOT_BASE64_DECODE_DN.get(
+                        record.lineNumber, record.getLine(line), e.getMessageObject());
+                throw DecodeException.error(message);
+            }
+        } else {
+            dnString = LDIFTokenizer.toString(bytes, skipSpaces(bytes, colonPos + 1, end), end);
+        }
+
+        try {
+            return DN.valueOf(dnString, schema);
+        } catch (final LocalizedIllegalArgumentException e) {
+            final LocalizableMessage message =
+                    ERR_LDIF_INVALID_DN.get(record.lineNumber, record.getLine(line), e.getMessageObject());
+            throw DecodeException.error(message);
+        }
+    }
+
     final String readLDIFRecordKeyValuePair(final LDIFRecord record, final KeyValuePair pair,
             final boolean allowBase64) {
         final String ldifLine = record.iterator.next();
@@ -688,6 +917,36 @@ abstract class AbstractLDIFReader extends AbstractLDIFStream {
         return line.charAt(0) == ' ' || line.charAt(0) == '\t';
     }
 
+    private static int indexOf(final byte[] bytes, final int from, final int to, final char c) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(final byte[] bytes, int pos, final int to) {
+        while (pos < to && bytes[pos] == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** Compares ASCII bytes with a lower case name. */
+    private static boolean equalsIgnoreCase(final byte[] bytes, final int from, final int to, final String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final byte b = bytes[from + i];
+            if (b != name.charAt(i) && !(b >= 'A' && b <= 'Z' && b + ('a' - 'A') == name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String readLine() throws IOException {
         final String line = impl.readLine();
         if (line != null) {
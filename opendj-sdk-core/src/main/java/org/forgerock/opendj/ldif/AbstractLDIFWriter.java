@@ -20,7 +20,6 @@ package org.forgerock.opendj.ldif;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -153,23 +152,82 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
         }
     }
 
+    /**
+     * LDIF output stream writer implementation which encodes LDIF directly
+     * into bytes.
+     */
+    private static final class LDIFWriterByteImpl implements LDIFWriterImpl {
+        /** The size of the output buffer, which is written to the output stream once full. */
+        private static final int BUFFER_SIZE = 256 * 1024;
+
+        private final OutputStream out;
+        private final LDIFEncoder encoder = new LDIFEncoder(BUFFER_SIZE + 1024);
+
+        LDIFWriterByteImpl(final OutputStream out) {
+            Reject.ifNull(out);
+            this.out = out;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeBuffer();
+            out.close();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void print(final CharSequence s) throws IOException {
+            encoder.appendUtf8(s);
+        }
+
+        @Override
+        public void println() throws IOException {
+            encoder.appendNewLine();
+            if (encoder.length() >= BUFFER_SIZE) {
+                writeBuffer();
+            }
+        }
+
+        void write(final LDIFEncoder encoded) throws IOException {
+            writeBuffer();
+            encoded.writeTo(out);
+        }
+
+        private void writeBuffer() throws IOException {
+            if (encoder.length() > 0) {
+                encoder.writeTo(out);
+                encoder.clear();
+            }
+        }
+    }
+
     /** Regular expression used for splitting comments on line-breaks. */
     private static final Pattern SPLIT_NEWLINE = Pattern.compile("\\r?\\n");
     boolean addUserFriendlyComments;
     final LDIFWriterImpl impl;
     int wrapColumn;
     private final StringBuilder builder = new StringBuilder(80);
+    /** The implementation used when writing bytes to an output stream, or {@code null}. */
+    private final LDIFWriterByteImpl byteImpl;
 
     AbstractLDIFWriter(final List<String> ldifLines) {
         this.impl = new LDIFWriterListImpl(ldifLines);
+        this.byteImpl = null;
     }
 
     AbstractLDIFWriter(final OutputStream out) {
-        this(new OutputStreamWriter(out));
+        this.byteImpl = new LDIFWriterByteImpl(out);
+        this.impl = byteImpl;
     }
 
     AbstractLDIFWriter(final Writer writer) {
         this.impl = new LDIFWriterOutputStreamImpl(writer);
+        this.byteImpl = null;
     }
 
     final void close0() throws IOException {
@@ -181,6 +239,16 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
         impl.flush();
     }
 
+    /** Returns {@code true} if this writer encodes LDIF directly into bytes. */
+    final boolean isByteOriented() {
+        return byteImpl != null;
+    }
+
+    /** Writes LDIF which has already been encoded, for byte oriented writers. */
+    final void writeEncoded(final LDIFEncoder encoded) throws IOException {
+        byteImpl.write(encoded);
+    }
+
     final void writeComment0(final CharSequence comment) throws IOException {
         Reject.ifNull(comment);
 
@@ -260,6 +328,11 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
 
     final void writeKeyAndValue(final CharSequence key, final ByteSequence value)
             throws IOException {
+        if (byteImpl != null) {
+            byteImpl.encoder.appendKeyAndValue(key, value, wrapColumn);
+            byteImpl.println();
+            return;
+        }
         builder.setLength(0);
 
         /*
@@ -312,7 +385,7 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
         }
     }
 
-    private boolean needsBase64Encoding(final ByteSequence bytes) {
+    static boolean needsBase64Encoding(final ByteSequence bytes) {
         final int length = bytes.length();
         if (length == 0) {
             return false;
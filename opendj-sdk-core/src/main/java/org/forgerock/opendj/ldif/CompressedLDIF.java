@@ -0,0 +1,143 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import org.forgerock.util.Reject;
+
+/**
+ * This class contains methods for reading and writing gzip compressed LDIF
+ * using several processors.
+ * <p>
+ * Compressed LDIF is written as a sequence of independently compressed gzip
+ * members of at most 64KB, using the block compressed gzip format (BGZF). Such
+ * streams can be decompressed by any gzip implementation, and their blocks can
+ * be located without decompressing the preceding ones, which allows both
+ * compression and decompression to be performed in parallel. Other gzip
+ * streams are decompressed sequentially, ahead of the reader.
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * int parallelism = Runtime.getRuntime().availableProcessors();
+ * try (LDIFEntryReader reader = new LDIFEntryReader(
+ *         CompressedLDIF.decompress(new FileInputStream("backup.ldif.gz"), parallelism));
+ *      LDIFEntryWriter writer = new LDIFEntryWriter(
+ *         CompressedLDIF.compress(new FileOutputStream("copy.ldif.gz"), parallelism))) {
+ *     LDIF.copyTo(reader, writer);
+ * }
+ * </pre>
+ */
+public final class CompressedLDIF {
+    /** The file name suffix conventionally used for gzip compressed files. */
+    public static final String GZIP_FILE_SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns an output stream which compresses the data written to it using
+     * gzip before writing it to {@code out}. Closing the returned stream
+     * closes {@code out}.
+     *
+     * @param out
+     *            The output stream to which the compressed data will be
+     *            written.
+     * @param parallelism
+     *            The number of threads which should be used for compressing
+     *            the data.
+     * @return The compressing output stream.
+     */
+    public static OutputStream compress(final OutputStream out, final int parallelism) {
+        return new GZIPBlockOutputStream(out, parallelism, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Returns an input stream which reads the decompressed content of
+     * {@code in} if it is gzip compressed, or the content of {@code in}
+     * unchanged otherwise. The content of {@code in} is buffered, and closing
+     * the returned stream closes {@code in}.
+     *
+     * @param in
+     *            The input stream which may contain gzip compressed data.
+     * @param parallelism
+     *            The number of threads which should be used for decompressing
+     *            the data.
+     * @return The decompressing input stream, or a buffered input stream if
+     *         {@code in} is not compressed.
+     * @throws IOException
+     *             If an error occurred while reading the first bytes of
+     *             {@code in}.
+     */
+    public static InputStream decompress(final InputStream in, final int parallelism) throws IOException {
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        final BufferedInputStream bufferedIn = new BufferedInputStream(in, BUFFER_SIZE);
+        if (isCompressed(bufferedIn)) {
+            return new GZIPBlockInputStream(bufferedIn, parallelism);
+        }
+        return bufferedIn;
+    }
+
+    /**
+     * Returns {@code true} if the provided file is gzip compressed.
+     *
+     * @param file
+     *            The file.
+     * @return {@code true} if the provided file is gzip compressed.
+     * @throws IOException
+     *             If an error occurred while reading the first bytes of the
+     *             file.
+     */
+    public static boolean isCompressed(final File file) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), 2)) {
+            return isCompressed(in);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the provided file name denotes a gzip compressed
+     * file, which is the case if it ends with {@link #GZIP_FILE_SUFFIX}.
+     *
+     * @param fileName
+     *            The file name.
+     * @return {@code true} if the provided file name denotes a gzip
+     *         compressed file.
+     */
+    public static boolean isCompressed(final String fileName) {
+        return fileName.endsWith(GZIP_FILE_SUFFIX);
+    }
+
+    /** Returns {@code true} if the stream starts with the gzip magic number, without consuming any bytes. */
+    private static boolean isCompressed(final BufferedInputStream in) throws IOException {
+        in.mark(2);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /** Prevent instantiation. */
+    private CompressedLDIF() {
+        // Do nothing.
+    }
+}
@@ -20,18 +20,26 @@ import static com.forgerock.opendj.ldap.CoreMessages.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.DecodeException;
 import org.forgerock.opendj.ldap.Entry;
 import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldif.TemplateFile.TemplateEntry;
 
 import org.forgerock.util.Reject;
 
@@ -54,6 +62,9 @@ import org.forgerock.util.Reject;
  */
 public final class EntryGenerator implements EntryReader {
 
+    /** The number of entries which are built together by a single task when generating in parallel. */
+    private static final int BUILD_BATCH_SIZE = 128;
+
     /** Template file that contains directives for generation of entries. */
     private TemplateFile templateFile;
 
@@ -108,6 +119,36 @@ public final class EntryGenerator implements EntryReader {
     /** Dictionary of constants to use in the template file. */
     private Map<String, String> constants = new HashMap<>();
 
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    private final Queue<ForkJoinTask<List<Entry>>> buildTasks = new ArrayDeque<>();
+    /** The generators of the branches which have more entries, or {@code null} if branches are not independent. */
+    private Queue<BranchGenerator> branchGenerators;
+    private Iterator<Entry> builtEntries;
+
+    /** Generates the entries below a branch of the template file, one batch at a time. */
+    private final class BranchGenerator implements Callable<List<Entry>> {
+        private final TemplateFile branchTemplateFile;
+        private ForkJoinTask<List<Entry>> batch;
+
+        private BranchGenerator(final TemplateFile branchTemplateFile) {
+            this.branchTemplateFile = branchTemplateFile;
+        }
+
+        private void submitNextBatch() {
+            batch = pool.submit(this);
+        }
+
+        @Override
+        public List<Entry> call() {
+            final List<Entry> entries = new ArrayList<>(BUILD_BATCH_SIZE);
+            while (entries.size() < BUILD_BATCH_SIZE && branchTemplateFile.hasNext()) {
+                entries.add(branchTemplateFile.nextEntry());
+            }
+            return entries;
+        }
+    }
+
     /**
      * Creates a generator using default values.
      * <p>
@@ -229,6 +270,44 @@ public final class EntryGenerator implements EntryReader {
         return this;
     }
 
+    /**
+     * Specifies the number of threads which should be used for generating
+     * entries. The default is {@code 1}, meaning that entries are generated by
+     * the thread reading them.
+     * <p>
+     * When more than one thread is used, entries are generated by a fork-join
+     * pool which is shut down when this generator is closed:
+     * <ul>
+     * <li>if several branches of the template file have subordinate entries
+     * which do not share any tag keeping state from one entry to the next (see
+     * below), the entries below each branch are generated independently,
+     * each branch using its own random number generator seeded from the
+     * {@link #setRandomSeed(int) seed} of this generator. The branch entries
+     * are returned first, followed by batches of entries taken from each
+     * branch in turn. Entries are therefore not the same as when a single
+     * thread is used, but are reproducible for a given seed whatever the
+     * number of threads.</li>
+     * <li>otherwise, the thread reading entries evaluates the template ahead of
+     * the application and submits batches of generated values to the pool,
+     * which builds the entries. Tags such as sequential counters, sequential
+     * file lines or first and last name combinations depend on the previously
+     * generated entries, so the template is evaluated in order using a single
+     * random number generator: entries are returned in the same order and with
+     * the same content as when a single thread is used.</li>
+     * </ul>
+     *
+     * @param parallelism
+     *            The number of threads which should be used for generating
+     *            entries.
+     * @return A reference to this {@code EntryGenerator}.
+     */
+    public EntryGenerator setParallelism(final int parallelism) {
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        Reject.ifTrue(pool != null, "entries have already been generated");
+        this.parallelism = parallelism;
+        return this;
+    }
+
     /**
      * Checks if there are some warning(s) after parsing the template file.
      * <p>
@@ -256,6 +335,12 @@ public final class EntryGenerator implements EntryReader {
     @Override
     public void close() {
         isClosed = true;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        buildTasks.clear();
+        branchGenerators = null;
+        builtEntries = null;
     }
 
     @Override
@@ -264,15 +349,99 @@ public final class EntryGenerator implements EntryReader {
             return false;
         }
         ensureGeneratorIsInitialized();
-        return templateFile.hasNext();
+        if (parallelism == 1) {
+            return templateFile.hasNext();
+        }
+
+        if (pool == null) {
+            startParallelGeneration();
+        }
+        for (;;) {
+            if (builtEntries.hasNext()) {
+                return true;
+            }
+            final List<Entry> entries = nextBatch();
+            if (entries == null) {
+                return false;
+            }
+            builtEntries = entries.iterator();
+        }
     }
 
     @Override
     public Entry readEntry() throws IOException {
         if (!hasNext()) {
             throw new NoSuchElementException();
-        } else {
+        } else if (parallelism == 1) {
             return templateFile.nextEntry();
+        } else {
+            return builtEntries.next();
+        }
+    }
+
+    /**
+     * Starts generating entries using the fork-join pool, generating the
+     * entries below each branch independently when the template allows it.
+     */
+    private void startParallelGeneration() throws IOException {
+        pool = new ForkJoinPool(parallelism);
+        if (!templateFile.hasIndependentBranches()) {
+            builtEntries = Collections.emptyIterator();
+            return;
+        }
+
+        final List<Entry> branchEntries = new ArrayList<>();
+        for (final TemplateEntry branchEntry : templateFile.getBranchEntries()) {
+            branchEntries.add(branchEntry.toEntry());
+        }
+        builtEntries = branchEntries.iterator();
+        branchGenerators = new ArrayDeque<>();
+        for (int i = 0; i < templateFile.getBranchCount(); i++) {
+            final BranchGenerator generator =
+                    new BranchGenerator(templateFile.newBranchTemplateFile(i, new Random(random.nextLong())));
+            generator.submitNextBatch();
+            branchGenerators.add(generator);
+        }
+    }
+
+    /** Returns the next batch of generated entries, which may be empty, or {@code null} if there are no more. */
+    private List<Entry> nextBatch() {
+        if (branchGenerators == null) {
+            submitBuildTasks();
+            final ForkJoinTask<List<Entry>> task = buildTasks.poll();
+            return task != null ? task.join() : null;
+        }
+
+        final BranchGenerator generator = branchGenerators.poll();
+        if (generator == null) {
+            return null;
+        }
+        final List<Entry> entries = generator.batch.join();
+        if (entries.size() == BUILD_BATCH_SIZE) {
+            // The branch may have more entries: let the other branches go first.
+            generator.submitNextBatch();
+            branchGenerators.add(generator);
+        }
+        return entries;
+    }
+
+    /** Evaluates the template ahead of the application and submits the generated values for building in batches. */
+    private void submitBuildTasks() {
+        while (buildTasks.size() < parallelism * 2 && templateFile.hasNext()) {
+            final List<TemplateEntry> templateEntries = new ArrayList<>(BUILD_BATCH_SIZE);
+            while (templateEntries.size() < BUILD_BATCH_SIZE && templateFile.hasNext()) {
+                templateEntries.add(templateFile.nextTemplateEntry());
+            }
+            buildTasks.add(pool.submit(new Callable<List<Entry>>() {
+                @Override
+                public List<Entry> call() {
+                    final List<Entry> entries = new ArrayList<>(templateEntries.size());
+                    for (final TemplateEntry templateEntry : templateEntries) {
+                        entries.add(templateEntry.toEntry());
+                    }
+                    return entries;
+                }
+            }));
         }
     }
 
@@ -0,0 +1,351 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.forgerock.util.Reject;
+
+/**
+ * Sorts encoded entries by normalized DN using an external merge sort, so
+ * that the number of entries which can be sorted is not limited by the size
+ * of the heap.
+ * <p>
+ * Entries are buffered in memory until the memory budget is exhausted, at
+ * which point the buffered entries are sorted and written to a temporary run
+ * file. Once all the entries have been added the run files, together with any
+ * remaining buffered entries, are merged lazily as the sorted entries are
+ * read. Each temporary file is deleted as soon as all of its entries have
+ * been merged, or when the sorter is closed. If all the entries fit within
+ * the memory budget then no temporary files are created.
+ * <p>
+ * Entries are represented as arrays of byte arrays whose first element is the
+ * normalized DN, which is followed by the ASN.1 encoding of the entry and
+ * optionally by additional data. The sort is stable: entries having the same
+ * DN are returned in the order in which they were added.
+ */
+final class ExternalEntrySorter implements Closeable {
+    /** A sorted sequence of entries. */
+    private abstract static class Run implements Closeable {
+        /** The next entry in this run, or {@code null} if the run is exhausted. */
+        private byte[][] head;
+
+        /** The position of this run within a merge, used for preserving the order of entries having the same DN. */
+        private int position;
+
+        abstract byte[][] read() throws IOException;
+
+        @Override
+        public abstract void close();
+
+        final boolean advance() throws IOException {
+            head = read();
+            return head != null;
+        }
+    }
+
+    /** A run of entries which have been sorted in memory. */
+    private static final class MemoryRun extends Run {
+        private final Iterator<byte[][]> iterator;
+
+        private MemoryRun(final List<byte[][]> entries) {
+            this.iterator = entries.iterator();
+        }
+
+        @Override
+        byte[][] read() {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do.
+        }
+    }
+
+    /** A run of entries which has been written to a temporary file, which is deleted once the run is closed. */
+    private static final class FileRun extends Run {
+        private final File file;
+        private final DataInputStream input;
+        private long remaining;
+
+        private FileRun(final RunFile file) throws IOException {
+            this.file = file.file;
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file.file), BUFFER_SIZE));
+            this.remaining = file.size;
+        }
+
+        @Override
+        byte[][] read() throws IOException {
+            if (remaining == 0) {
+                return null;
+            }
+            remaining--;
+            final byte[][] entry = new byte[input.readInt()][];
+            for (int i = 0; i < entry.length; i++) {
+                entry[i] = readBytes();
+            }
+            return entry;
+        }
+
+        private byte[] readBytes() throws IOException {
+            final byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            closeSilently(input);
+            file.delete();
+        }
+    }
+
+    /** A run which merges other runs. */
+    private static final class MergeRun extends Run {
+        private final PriorityQueue<Run> queue;
+
+        private MergeRun(final List<Run> runs) throws IOException {
+            queue = new PriorityQueue<>(Math.max(1, runs.size()), HEAD_ORDER);
+            int position = 0;
+            try {
+                for (final Run run : runs) {
+                    run.position = position++;
+                    if (run.advance()) {
+                        queue.add(run);
+                    } else {
+                        run.close();
+                    }
+                }
+            } catch (final IOException e) {
+                closeSilently(runs);
+                throw e;
+            }
+        }
+
+        @Override
+        byte[][] read() throws IOException {
+            final Run run = queue.poll();
+            if (run == null) {
+                return null;
+            }
+            final byte[][] entry = run.head;
+            if (run.advance()) {
+                queue.add(run);
+            } else {
+                run.close();
+            }
+            return entry;
+        }
+
+        @Override
+        public void close() {
+            closeSilently(queue);
+            queue.clear();
+        }
+    }
+
+    /** A temporary file containing a sorted run of entries. */
+    private static final class RunFile {
+        private final File file;
+        private final long size;
+
+        private RunFile(final File file, final long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    /** The maximum number of run files which are merged at once. */
+    static final int MAX_MERGE_FAN_IN = 128;
+
+    /** The estimated per entry heap overhead, in addition to the content of the byte arrays. */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** The size of the IO buffer used for reading and writing each run file. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Comparator<Run> HEAD_ORDER = new Comparator<Run>() {
+        @Override
+        public int compare(final Run r1, final Run r2) {
+            final int cmp = LDIF.DN_ORDER2.compare(r1.head, r2.head);
+            return cmp != 0 ? cmp : r1.position - r2.position;
+        }
+    };
+
+    private final long memoryBudget;
+    private final File tempDirectory;
+    private final List<byte[][]> buffer = new ArrayList<>();
+    private final List<RunFile> runFiles = new ArrayList<>();
+    private long bufferedBytes;
+    private Run sortedEntries;
+
+    /**
+     * Creates a new external entry sorter.
+     *
+     * @param memoryBudget
+     *            The approximate number of bytes of heap which may be used for
+     *            buffering entries before spilling them to disk.
+     * @param tempDirectory
+     *            The directory in which temporary files will be created, or
+     *            {@code null} if the default temporary directory should be
+     *            used.
+     */
+    ExternalEntrySorter(final long memoryBudget, final File tempDirectory) {
+        Reject.ifFalse(memoryBudget > 0, "memoryBudget <= 0");
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Adds an entry to be sorted, spilling the buffered entries to disk if the
+     * memory budget is exhausted.
+     */
+    void add(final byte[][] entry) throws IOException {
+        Reject.ifTrue(sortedEntries != null, "entries have already been sorted");
+        buffer.add(entry);
+        bufferedBytes += ENTRY_OVERHEAD;
+        for (final byte[] bytes : entry) {
+            bufferedBytes += bytes.length;
+        }
+        if (bufferedBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Completes the sort. Sorted entries can then be read using
+     * {@link #next()}.
+     */
+    void sort() throws IOException {
+        Reject.ifTrue(sortedEntries != null, "entries have already been sorted");
+        Collections.sort(buffer, LDIF.DN_ORDER2);
+        if (runFiles.isEmpty()) {
+            sortedEntries = new MemoryRun(buffer);
+            return;
+        }
+
+        /*
+         * Reduce the number of runs so that the final merge does not need too many open files and buffers. Each
+         * level merges consecutive groups of runs, so that every entry is rewritten once per level, and the merged
+         * runs replace the groups in order to keep the sort stable.
+         */
+        while (runFiles.size() > MAX_MERGE_FAN_IN) {
+            final List<RunFile> mergedRuns = new ArrayList<>();
+            try {
+                for (int i = 0; i < runFiles.size(); i += MAX_MERGE_FAN_IN) {
+                    final List<RunFile> group = runFiles.subList(i, Math.min(i + MAX_MERGE_FAN_IN, runFiles.size()));
+                    mergedRuns.add(group.size() == 1 ? group.get(0) : mergeRuns(group));
+                }
+            } catch (final IOException | RuntimeException e) {
+                // Let close() delete the runs merged so far.
+                runFiles.addAll(mergedRuns);
+                throw e;
+            }
+            runFiles.clear();
+            runFiles.addAll(mergedRuns);
+        }
+        final List<Run> runs = openRuns(runFiles);
+        runs.add(new MemoryRun(buffer));
+        sortedEntries = new MergeRun(runs);
+    }
+
+    /**
+     * Returns the next entry in DN order, or {@code null} if there are no more
+     * entries.
+     */
+    byte[][] next() throws IOException {
+        Reject.ifNull(sortedEntries);
+        return sortedEntries.read();
+    }
+
+    @Override
+    public void close() {
+        if (sortedEntries != null) {
+            sortedEntries.close();
+        }
+        for (final RunFile file : runFiles) {
+            file.file.delete();
+        }
+        runFiles.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(buffer, LDIF.DN_ORDER2);
+        runFiles.add(writeRun(new MemoryRun(buffer)));
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    private RunFile mergeRuns(final List<RunFile> files) throws IOException {
+        final Run run = new MergeRun(openRuns(files));
+        try {
+            return writeRun(run);
+        } finally {
+            run.close();
+        }
+    }
+
+    private List<Run> openRuns(final List<RunFile> files) throws IOException {
+        final List<Run> runs = new ArrayList<>(files.size() + 1);
+        try {
+            for (final RunFile file : files) {
+                runs.add(new FileRun(file));
+            }
+        } catch (final IOException e) {
+            closeSilently(runs);
+            throw e;
+        }
+        return runs;
+    }
+
+    private RunFile writeRun(final Run run) throws IOException {
+        final File file = File.createTempFile("ldif-sort-", ".run", tempDirectory);
+        long size = 0;
+        try (DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            for (byte[][] entry = run.read(); entry != null; entry = run.read()) {
+                output.writeInt(entry.length);
+                for (final byte[] bytes : entry) {
+                    output.writeInt(bytes.length);
+                    output.write(bytes);
+                }
+                size++;
+            }
+        } catch (final IOException e) {
+            file.delete();
+            throw e;
+        }
+        return new RunFile(file, size);
+    }
+}
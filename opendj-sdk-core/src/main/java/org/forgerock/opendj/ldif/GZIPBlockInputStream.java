@@ -0,0 +1,304 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.forgerock.opendj.ldif.GZIPBlockOutputStream.*;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.forgerock.util.Reject;
+
+/**
+ * Decompresses a gzip stream ahead of the reader using a fork-join pool.
+ * <p>
+ * Gzip members containing a BGZF "BC" extra subfield, such as those written by
+ * {@link GZIPBlockOutputStream}, record their compressed size, so they are
+ * read in batches and decompressed in parallel. Any other gzip member can only
+ * be decompressed sequentially: from the first such member the rest of the
+ * stream is decompressed by a background task, one chunk ahead of the reader.
+ */
+final class GZIPBlockInputStream extends InputStream {
+    /** The number of blocks decompressed by each task. */
+    private static final int BLOCKS_PER_TASK = 16;
+
+    /** The number of bytes decompressed ahead of the reader by each task when decompressing sequentially. */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** The size of the fixed part of a gzip member header, up to and including the extra field length. */
+    private static final int FIXED_HEADER_SIZE = 12;
+
+    private static final int FLAG_EXTRA = 4;
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /** Decompresses a batch of blocks, each of them starting with its extra field length. */
+    private static byte[] decompress(final List<byte[]> blocks) throws ZipException {
+        int length = 0;
+        for (final byte[] block : blocks) {
+            final int blockLength = getUncompressedSize(block);
+            if (blockLength < 0 || blockLength > MAX_BLOCK_SIZE) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+            length += blockLength;
+        }
+        final byte[] data = new byte[length];
+        final byte[] blockData = new byte[MAX_BLOCK_SIZE];
+        final Inflater inflater = new Inflater(true);
+        final CRC32 crc = new CRC32();
+        try {
+            int offset = 0;
+            for (final byte[] block : blocks) {
+                final int dataOffset = 2 + ((block[0] & 0xff) | (block[1] & 0xff) << 8);
+                inflater.reset();
+                inflater.setInput(block, dataOffset, block.length - BLOCK_TRAILER_SIZE - dataOffset);
+                int inflated = 0;
+                while (!inflater.finished() && inflated < blockData.length) {
+                    final int n = inflater.inflate(blockData, inflated, blockData.length - inflated);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                final int blockLength = getUncompressedSize(block);
+                crc.reset();
+                crc.update(blockData, 0, inflated);
+                if (!inflater.finished() || inflated != blockLength
+                        || (int) crc.getValue() != getInt(block, block.length - BLOCK_TRAILER_SIZE)) {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+                System.arraycopy(blockData, 0, data, offset, blockLength);
+                offset += blockLength;
+            }
+        } catch (final DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    private static int getUncompressedSize(final byte[] block) {
+        return getInt(block, block.length - 4);
+    }
+
+    private static int getInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /** Returns the size of the block minus one if the extra field contains a "BC" subfield, or {@code -1}. */
+    private static int getBlockSize(final byte[] extra, final int offset, final int length) {
+        final int end = offset + length;
+        for (int i = offset; i + 4 <= end;) {
+            final int subfieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2 && i + 6 <= end) {
+                return (extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8;
+            }
+            i += 4 + subfieldLength;
+        }
+        return -1;
+    }
+
+    private final BufferedInputStream in;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final Queue<ForkJoinTask<byte[]>> tasks = new ArrayDeque<>();
+    /** The stream decompressing the rest of the input once a member which is not a block has been found. */
+    private GZIPInputStream sequentialIn;
+    /** The last task submitted for decompressing a chunk of the sequential input, if any. */
+    private ForkJoinTask<byte[]> sequentialTask;
+    private volatile boolean isEndOfSequentialInput;
+    private boolean isEndOfInput;
+    private byte[] chunk = NO_BYTES;
+    private int pos;
+    private final byte[] header = new byte[FIXED_HEADER_SIZE + 0xffff];
+
+    GZIPBlockInputStream(final BufferedInputStream in, final int parallelism) {
+        Reject.ifNull(in);
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        this.in = in;
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        isEndOfInput = true;
+        tasks.clear();
+        chunk = NO_BYTES;
+        pos = 0;
+        pool.shutdownNow();
+        in.close();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fillChunk() ? chunk[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (!fillChunk()) {
+            return -1;
+        }
+        final int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /** Makes the next decompressed bytes available, returning {@code false} at the end of the input. */
+    private boolean fillChunk() throws IOException {
+        while (pos == chunk.length) {
+            submitTasks();
+            final ForkJoinTask<byte[]> task = tasks.poll();
+            if (task == null) {
+                return false;
+            }
+            chunk = getResult(task);
+            pos = 0;
+            // Decompress the next chunk while this one is being read.
+            submitTasks();
+        }
+        return true;
+    }
+
+    /** Keeps enough tasks in flight to keep the processors busy ahead of the reader. */
+    private void submitTasks() throws IOException {
+        while (!isEndOfInput) {
+            if (sequentialIn != null) {
+                // Sequential decompression cannot be split: decompress the next chunk once the previous one is done.
+                if (isEndOfSequentialInput) {
+                    isEndOfInput = true;
+                } else if (sequentialTask == null
+                        || (sequentialTask.isDone() && !sequentialTask.isCompletedAbnormally())) {
+                    sequentialTask = pool.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            return readSequentialChunk();
+                        }
+                    });
+                    tasks.add(sequentialTask);
+                }
+                return;
+            }
+            if (tasks.size() >= parallelism * 2) {
+                return;
+            }
+            final List<byte[]> blocks = readBlocks();
+            if (!blocks.isEmpty()) {
+                tasks.add(pool.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws ZipException {
+                        return decompress(blocks);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Reads the next blocks from the input stream, stopping at the end of the
+     * input or at the first member which is not a block, in which case the
+     * rest of the input will be decompressed sequentially.
+     */
+    private List<byte[]> readBlocks() throws IOException {
+        final List<byte[]> blocks = new ArrayList<>(BLOCKS_PER_TASK);
+        while (blocks.size() < BLOCKS_PER_TASK) {
+            in.mark(header.length);
+            final int headerLength = readFully(header, 0, FIXED_HEADER_SIZE);
+            if (headerLength == 0) {
+                isEndOfInput = true;
+                break;
+            }
+            int blockSize = -1;
+            int extraLength = 0;
+            if (headerLength == FIXED_HEADER_SIZE && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b
+                    && header[2] == 8 && header[3] == FLAG_EXTRA) {
+                extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+                if (readFully(header, FIXED_HEADER_SIZE, extraLength) == extraLength) {
+                    blockSize = getBlockSize(header, FIXED_HEADER_SIZE, extraLength);
+                }
+            }
+            final int remaining = blockSize + 1 - FIXED_HEADER_SIZE - extraLength;
+            if (remaining < BLOCK_TRAILER_SIZE) {
+                // Not a block: let the standard implementation decompress, or reject, the rest of the input.
+                in.reset();
+                sequentialIn = new GZIPInputStream(in, CHUNK_SIZE / 16);
+                break;
+            }
+
+            // Keep the extra field length, the extra field, the compressed data and the trailer.
+            final byte[] block = new byte[2 + extraLength + remaining];
+            System.arraycopy(header, FIXED_HEADER_SIZE - 2, block, 0, 2 + extraLength);
+            if (readFully(block, 2 + extraLength, remaining) != remaining) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private byte[] readSequentialChunk() throws IOException {
+        final byte[] data = new byte[CHUNK_SIZE];
+        int length = 0;
+        while (length < data.length) {
+            final int n = sequentialIn.read(data, length, data.length - length);
+            if (n < 0) {
+                isEndOfSequentialInput = true;
+                break;
+            }
+            length += n;
+        }
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    /** Reads up to {@code length} bytes, stopping early only at the end of the input. */
+    private int readFully(final byte[] b, final int offset, final int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(b, offset + read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+}
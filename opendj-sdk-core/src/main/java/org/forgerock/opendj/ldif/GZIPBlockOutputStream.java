@@ -0,0 +1,240 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.forgerock.util.Reject;
+
+/**
+ * Compresses data into a sequence of independent gzip members, each holding
+ * at most {@link #MAX_BLOCK_INPUT} bytes of uncompressed data and recording
+ * its compressed size in a "BC" extra subfield, as defined by the BGZF format.
+ * The result is a valid gzip stream, which can be read by any gzip
+ * implementation, and whose blocks can be located and decompressed
+ * independently of each other.
+ * <p>
+ * Blocks are compressed in batches using a fork-join pool, so that data can
+ * be compressed using several processors while preserving the order of the
+ * blocks in the output stream.
+ */
+final class GZIPBlockOutputStream extends OutputStream {
+    /** The maximum number of uncompressed bytes per block, leaving room for incompressible data. */
+    static final int MAX_BLOCK_INPUT = 0xff00;
+
+    /** The maximum size of a block, including its header and trailer. */
+    static final int MAX_BLOCK_SIZE = 0x10000;
+
+    /** The size of the header of a block, including its "BC" extra subfield. */
+    static final int BLOCK_HEADER_SIZE = 18;
+
+    /** The size of the CRC32 and uncompressed size trailer of a block. */
+    static final int BLOCK_TRAILER_SIZE = 8;
+
+    /** The empty block which marks the end of a BGZF stream. */
+    private static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    /** The number of blocks compressed by each task. */
+    private static final int BLOCKS_PER_TASK = 16;
+
+    /** Compresses the provided data into a sequence of blocks. */
+    static byte[] compress(final byte[] data, final int length, final int level) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + BLOCK_HEADER_SIZE);
+        final byte[] block = new byte[MAX_BLOCK_SIZE];
+        final Deflater deflater = new Deflater(level, true);
+        final CRC32 crc = new CRC32();
+        try {
+            for (int offset = 0; offset < length; offset += MAX_BLOCK_INPUT) {
+                final int blockInput = Math.min(length - offset, MAX_BLOCK_INPUT);
+                deflater.reset();
+                deflater.setInput(data, offset, blockInput);
+                deflater.finish();
+                int blockSize = BLOCK_HEADER_SIZE;
+                while (!deflater.finished()) {
+                    if (blockSize == block.length - BLOCK_TRAILER_SIZE) {
+                        // Cannot happen: deflate adds a few bytes per stored block to incompressible data.
+                        throw new IllegalStateException("compressed block too large");
+                    }
+                    blockSize += deflater.deflate(block, blockSize, block.length - BLOCK_TRAILER_SIZE - blockSize);
+                }
+                crc.reset();
+                crc.update(data, offset, blockInput);
+                blockSize += BLOCK_TRAILER_SIZE;
+
+                System.arraycopy(EOF_BLOCK, 0, block, 0, BLOCK_HEADER_SIZE);
+                putShort(block, 16, blockSize - 1);
+                putInt(block, blockSize - 8, (int) crc.getValue());
+                putInt(block, blockSize - 4, blockInput);
+                output.write(block, 0, blockSize);
+            }
+        } finally {
+            deflater.end();
+        }
+        return output.toByteArray();
+    }
+
+    private static void putShort(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(final byte[] bytes, final int offset, final int value) {
+        putShort(bytes, offset, value);
+        putShort(bytes, offset + 2, value >>> 16);
+    }
+
+    private final OutputStream out;
+    private final int parallelism;
+    private final int level;
+    private ForkJoinPool pool;
+    private final Queue<ForkJoinTask<byte[]>> compressTasks = new ArrayDeque<>();
+    private byte[] buffer = new byte[MAX_BLOCK_INPUT * BLOCKS_PER_TASK];
+    private int length;
+    private boolean isClosed;
+
+    GZIPBlockOutputStream(final OutputStream out, final int parallelism, final int level) {
+        Reject.ifNull(out);
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        this.out = out;
+        this.parallelism = parallelism;
+        this.level = level;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (length == buffer.length) {
+            submitBuffer();
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int written = 0;
+        while (written < len) {
+            if (length == buffer.length) {
+                submitBuffer();
+            }
+            final int chunk = Math.min(len - written, buffer.length - length);
+            System.arraycopy(b, off + written, buffer, length, chunk);
+            length += chunk;
+            written += chunk;
+        }
+    }
+
+    /**
+     * Compresses and writes all the buffered data. Note that each flush ends
+     * the current block, so frequent flushes degrade the compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeCompressedBlocks();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            writeCompressedBlocks();
+            out.write(EOF_BLOCK);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    /** Submits the buffered data for compression, writing the oldest blocks if too many are in flight. */
+    private void submitBuffer() throws IOException {
+        if (length == 0) {
+            return;
+        }
+        final byte[] data = buffer;
+        final int dataLength = length;
+        buffer = new byte[buffer.length];
+        length = 0;
+        if (parallelism == 1) {
+            out.write(compress(data, dataLength, level));
+            return;
+        }
+
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        compressTasks.add(pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, dataLength, level);
+            }
+        }));
+        while (compressTasks.size() > parallelism * 2) {
+            out.write(getResult(compressTasks.poll()));
+        }
+    }
+
+    /** Writes all the buffered data and the blocks being compressed. */
+    private void writeCompressedBlocks() throws IOException {
+        submitBuffer();
+        while (!compressTasks.isEmpty()) {
+            out.write(getResult(compressTasks.poll()));
+        }
+    }
+
+    /** Waits for a task to complete, rethrowing any IO exception which it raised. */
+    static byte[] getResult(final ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (final ExecutionException e) {
+            Throwable cause = e.getCause();
+            // Checked exceptions thrown by callables are wrapped by the pool, possibly more than once.
+            for (Throwable t = cause; t instanceof RuntimeException; t = t.getCause()) {
+                if (t.getCause() instanceof IOException) {
+                    cause = t.getCause();
+                    break;
+                }
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -17,10 +17,10 @@ package org.forgerock.opendj.ldif;
 
 import static com.forgerock.opendj.ldap.CoreMessages.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -57,6 +57,7 @@ import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.schema.AttributeUsage;
 import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.util.Reject;
 
 /**
  * This class contains common utility methods for creating and manipulating
@@ -79,7 +80,7 @@ public final class LDIF {
     /**
      * Comparator ordering the DN ASC.
      */
-    private static final Comparator<byte[][]> DN_ORDER2 = new Comparator<byte[][]>() {
+    static final Comparator<byte[][]> DN_ORDER2 = new Comparator<byte[][]>() {
         @Override
         public int compare(byte[][] b1, byte[][] b2) {
             return DN_ORDER.compare(b1[0], b2[0]);
@@ -89,7 +90,7 @@ public final class LDIF {
     /**
      * Comparator ordering the DN ASC.
      */
-    private static final Comparator<byte[]> DN_ORDER = new Comparator<byte[]>() {
+    static final Comparator<byte[]> DN_ORDER = new Comparator<byte[]>() {
         @Override
         public int compare(byte[] b1, byte[] b2) {
             final ByteString bs = ByteString.valueOfBytes(b1);
@@ -147,7 +148,8 @@ public final class LDIF {
      * <b>NOTE:</b> this method reads the content of {@code source} and
      * {@code target} into memory before calculating the differences, and is
      * therefore not suited for use in cases where a very large number of
-     * entries are to be compared.
+     * entries are to be compared. Use
+     * {@link #diff(EntryReader, EntryReader, long, File)} instead.
      *
      * @param source
      *            The entry reader containing the source entries to be compared.
@@ -159,19 +161,59 @@ public final class LDIF {
      */
     public static ChangeRecordReader diff(final EntryReader source, final EntryReader target)
             throws IOException {
+        return diff(source, target, Long.MAX_VALUE, null);
+    }
 
-        final List<byte[][]> source2 = readEntriesAsList(source);
-        final List<byte[][]> target2 = readEntriesAsList(target);
-        final Iterator<byte[][]> sourceIterator = source2.iterator();
-        final Iterator<byte[][]> targetIterator = target2.iterator();
+    /**
+     * Compares the content of {@code source} to the content of {@code target}
+     * and returns the differences in a change record reader, using at most
+     * approximately {@code memoryBudget} bytes of heap for sorting entries.
+     * Closing the returned reader will cause {@code source} and {@code target}
+     * to be closed as well, and any temporary files to be deleted.
+     * <p>
+     * Both inputs are read fully before this method returns. Entries are
+     * sorted by DN using an external merge sort: when the memory budget is
+     * exhausted the entries read so far are sorted and written to a temporary
+     * file. The sorted files are then merged while the differences are read
+     * from the returned change record reader.
+     *
+     * @param source
+     *            The entry reader containing the source entries to be compared.
+     * @param target
+     *            The entry reader containing the target entries to be compared.
+     * @param memoryBudget
+     *            The approximate number of bytes of heap which may be used for
+     *            sorting entries, which is shared between the source and
+     *            target entries.
+     * @param tempDirectory
+     *            The directory in which temporary files will be created, or
+     *            {@code null} if the default temporary-file directory should
+     *            be used.
+     * @return A change record reader containing the differences.
+     * @throws IOException
+     *             If an unexpected IO error occurred.
+     */
+    public static ChangeRecordReader diff(final EntryReader source, final EntryReader target,
+            final long memoryBudget, final File tempDirectory) throws IOException {
+        Reject.ifFalse(memoryBudget > 1, "memoryBudget must be greater than 1");
+        final ExternalEntrySorter sourceEntries = sortEntries(source, memoryBudget / 2, tempDirectory);
+        final ExternalEntrySorter targetEntries;
+        try {
+            targetEntries = sortEntries(target, memoryBudget / 2, tempDirectory);
+        } catch (final IOException | RuntimeException e) {
+            sourceEntries.close();
+            throw e;
+        }
 
         return new ChangeRecordReader() {
-            private Entry sourceEntry = nextEntry(sourceIterator);
-            private Entry targetEntry = nextEntry(targetIterator);
+            private Entry sourceEntry = nextEntry(sourceEntries);
+            private Entry targetEntry = nextEntry(targetEntries);
 
             @Override
             public void close() throws IOException {
                 try {
+                    sourceEntries.close();
+                    targetEntries.close();
                     source.close();
                 } finally {
                     target.close();
@@ -194,41 +236,39 @@ public final class LDIF {
                         // Modify record: entry in both source and target.
                         final ModifyRequest request =
                                 Requests.newModifyRequest(sourceEntry, targetEntry);
-                        sourceEntry = nextEntry(sourceIterator);
-                        targetEntry = nextEntry(targetIterator);
+                        sourceEntry = nextEntry(sourceEntries);
+                        targetEntry = nextEntry(targetEntries);
                         return request;
                     } else if (cmp < 0) {
                         // Delete record: entry in source but not in target.
                         final DeleteRequest request =
                                 Requests.newDeleteRequest(sourceEntry.getName());
-                        sourceEntry = nextEntry(sourceIterator);
+                        sourceEntry = nextEntry(sourceEntries);
                         return request;
                     } else {
                         // Add record: entry in target but not in source.
                         final AddRequest request = Requests.newAddRequest(targetEntry);
-                        targetEntry = nextEntry(targetIterator);
+                        targetEntry = nextEntry(targetEntries);
                         return request;
                     }
                 } else if (sourceEntry != null) {
                     // Delete remaining source records.
                     final DeleteRequest request = Requests.newDeleteRequest(sourceEntry.getName());
-                    sourceEntry = nextEntry(sourceIterator);
+                    sourceEntry = nextEntry(sourceEntries);
                     return request;
                 } else if (targetEntry != null) {
                     // Add remaining target records.
                     final AddRequest request = Requests.newAddRequest(targetEntry);
-                    targetEntry = nextEntry(targetIterator);
+                    targetEntry = nextEntry(targetEntries);
                     return request;
                 } else {
                     throw new NoSuchElementException();
                 }
             }
 
-            private Entry nextEntry(final Iterator<byte[][]> i) {
-                if (i.hasNext()) {
-                    return decodeEntry(i.next()[1]);
-                }
-                return null;
+            private Entry nextEntry(final ExternalEntrySorter entries) throws IOException {
+                final byte[][] entry = entries.next();
+                return entry != null ? decodeEntry(entry[1]) : null;
             }
         };
     }
@@ -412,7 +452,9 @@ public final class LDIF {
      * <p>
      * <b>NOTE:</b> this method reads the content of {@code input} into memory
      * before applying the changes, and is therefore not suited for use in cases
-     * where a very large number of entries are to be patched.
+     * where a very large number of entries are to be patched. Use
+     * {@link #patch(EntryReader, ChangeRecordReader, RejectedChangeRecordListener, long, File)}
+     * instead.
      * <p>
      * <b>NOTE:</b> this method will not perform modifications required in order
      * to maintain referential integrity. In particular, if an entry references
@@ -505,15 +547,7 @@ public final class LDIF {
                             } else {
                                 // Calculate the old and new DN.
                                 final DN oldDN = changeDN;
-
-                                DN newSuperior = change.getNewSuperior();
-                                if (newSuperior == null) {
-                                    newSuperior = change.getName().parent();
-                                    if (newSuperior == null) {
-                                        newSuperior = DN.rootDN();
-                                    }
-                                }
-                                final DN newDN = newSuperior.child(change.getNewRDN());
+                                final DN newDN = newDN(change);
 
                                 // Move the renamed entries into a separate map
                                 // in order to avoid cases where the renamed subtree overlaps.
@@ -538,14 +572,7 @@ public final class LDIF {
                                 final Entry targetEntry =
                                         decodeEntry(renamedEntries.values().iterator().next());
 
-                                if (change.isDeleteOldRDN()) {
-                                    for (final AVA ava : oldDN.rdn()) {
-                                        targetEntry.removeAttribute(ava.toAttribute(), null);
-                                    }
-                                }
-                                for (final AVA ava : newDN.rdn()) {
-                                    targetEntry.addAttribute(ava.toAttribute());
-                                }
+                                applyNewRDN(targetEntry, change, oldDN, newDN);
 
                                 renamedEntries.remove(toNormalizedByteArray(targetEntry.getName()));
                                 renamedEntries.put(toNormalizedByteArray(targetEntry.getName()),
@@ -591,21 +618,7 @@ public final class LDIF {
                                 }
                             } else {
                                 final Entry entry = decodeEntry(entries.get(changeNormDN));
-                                for (final Modification modification : change.getModifications()) {
-                                    final ModificationType modType =
-                                            modification.getModificationType();
-                                    if (modType.equals(ModificationType.ADD)) {
-                                        entry.addAttribute(modification.getAttribute(), null);
-                                    } else if (modType.equals(ModificationType.DELETE)) {
-                                        entry.removeAttribute(modification.getAttribute(), null);
-                                    } else if (modType.equals(ModificationType.REPLACE)) {
-                                        entry.replaceAttribute(modification.getAttribute());
-                                    } else {
-                                        System.err.println("Unable to apply \"" + modType
-                                                + "\" modification to entry \"" + change.getName()
-                                                + "\": modification type not supported");
-                                    }
-                                }
+                                applyModifications(entry, change);
                                 entries.put(changeNormDN, encodeEntry(entry)[1]);
                             }
                             return null;
@@ -642,6 +655,98 @@ public final class LDIF {
         };
     }
 
+    /**
+     * Applies the set of changes contained in {@code patch} to the content of
+     * {@code input} using at most approximately {@code memoryBudget} bytes of
+     * heap, and returns the result in an entry reader. Closing the returned
+     * reader will cause {@code input} and {@code patch} to be closed as well,
+     * and any temporary files to be deleted.
+     * <p>
+     * The entries and the changes are sorted by DN, spilling to temporary
+     * files if the memory budget is exhausted, and the changes are then
+     * applied while merging the two sorted streams. The result is the same as
+     * if the changes had been applied one after the other: changes targeting
+     * the same entry are applied in order, and a change targeting a subtree
+     * which has been deleted or renamed by a preceding subtree delete or
+     * modify DN change is applied during an additional pass over the entries.
+     * Inputs which are already sorted by DN, and change records which do not
+     * depend on preceding subtree deletes or renames, are therefore processed
+     * in a single pass.
+     * <p>
+     * Unlike {@link #patch(EntryReader, ChangeRecordReader, RejectedChangeRecordListener)},
+     * the changes of the last pass are applied while the returned reader is
+     * read, and therefore any exception thrown by {@code listener} may be
+     * thrown when reading entries.
+     * <p>
+     * <b>NOTE:</b> this method will not perform modifications required in order
+     * to maintain referential integrity.
+     *
+     * @param input
+     *            The entry reader containing the set of entries to be patched.
+     * @param patch
+     *            The change record reader containing the set of changes to be
+     *            applied.
+     * @param listener
+     *            The rejected change listener.
+     * @param memoryBudget
+     *            The approximate number of bytes of heap which may be used for
+     *            sorting entries and changes.
+     * @param tempDirectory
+     *            The directory in which temporary files will be created, or
+     *            {@code null} if the default temporary-file directory should
+     *            be used.
+     * @return An entry reader containing the patched entries.
+     * @throws IOException
+     *             If an unexpected IO error occurred.
+     */
+    public static EntryReader patch(final EntryReader input, final ChangeRecordReader patch,
+            final RejectedChangeRecordListener listener, final long memoryBudget, final File tempDirectory)
+            throws IOException {
+        return patch(input, patch, listener, memoryBudget, tempDirectory, false);
+    }
+
+    /**
+     * Applies the set of changes contained in {@code patch} to the content of
+     * {@code input} using at most approximately {@code memoryBudget} bytes of
+     * heap, and returns the result in an entry reader. This method behaves
+     * like {@link #patch(EntryReader, ChangeRecordReader, RejectedChangeRecordListener, long, File)},
+     * except that when {@code isInputSorted} is {@code true} the entries of
+     * {@code input} are patched as they are read, instead of being sorted and
+     * spilled to temporary files first.
+     * <p>
+     * Sorted entries must be in the order defined by {@link DN#compareTo(DN)},
+     * which is the order of the entries exported from a directory server
+     * backend. A {@link DecodeException} is thrown as soon as an entry is read
+     * which is not in that order, which may happen while the returned reader
+     * is read.
+     *
+     * @param input
+     *            The entry reader containing the set of entries to be patched.
+     * @param patch
+     *            The change record reader containing the set of changes to be
+     *            applied.
+     * @param listener
+     *            The rejected change listener.
+     * @param memoryBudget
+     *            The approximate number of bytes of heap which may be used for
+     *            sorting entries and changes.
+     * @param tempDirectory
+     *            The directory in which temporary files will be created, or
+     *            {@code null} if the default temporary-file directory should
+     *            be used.
+     * @param isInputSorted
+     *            {@code true} if the entries of {@code input} are already
+     *            sorted by DN.
+     * @return An entry reader containing the patched entries.
+     * @throws IOException
+     *             If an unexpected IO error occurred.
+     */
+    public static EntryReader patch(final EntryReader input, final ChangeRecordReader patch,
+            final RejectedChangeRecordListener listener, final long memoryBudget, final File tempDirectory,
+            final boolean isInputSorted) throws IOException {
+        return StreamingPatch.patch(input, patch, listener, memoryBudget, tempDirectory, isInputSorted);
+    }
+
     /**
      * Returns a filtered view of {@code input} containing only those entries
      * which match the search base DN, scope, and filtered defined in
@@ -705,7 +810,7 @@ public final class LDIF {
                             final Entry entry = input.readEntry();
                             if (entry.getName().isInScopeOf(baseDN, scope)
                                     && matcher.matches(entry).toBoolean()) {
-                                nextEntry = filterEntry(entry);
+                                nextEntry = filterEntry(entry, search, schema);
                                 break;
                             }
                         }
@@ -725,80 +830,149 @@ public final class LDIF {
                     throw new NoSuchElementException();
                 }
             }
+        };
+    }
 
-            private Entry filterEntry(final Entry entry) {
-                // TODO: rename attributes; move functionality to Entries.
-                if (search.getAttributes().isEmpty()) {
-                    if (search.isTypesOnly()) {
-                        final Entry filteredEntry = new LinkedHashMapEntry(entry.getName());
-                        for (final Attribute attribute : entry.getAllAttributes()) {
-                            filteredEntry.addAttribute(Attributes.emptyAttribute(attribute
-                                    .getAttributeDescription()));
+    /**
+     * Evaluates several searches against {@code input} in a single pass,
+     * writing the entries matching each search to its associated entry writer.
+     * This is equivalent to, but much faster than, copying the result of
+     * {@link #search(EntryReader, SearchRequest)} to each entry writer, since
+     * the entries are read only once.
+     * <p>
+     * The filters and attribute descriptions will be decoded using the default
+     * schema, and the entries will be matched using a single thread.
+     *
+     * @param input
+     *            The entry reader containing the set of entries to be filtered.
+     * @param searches
+     *            The search requests defining the filtering criteria, and the
+     *            entry writers to which the matching entries will be written.
+     * @throws IOException
+     *             If an unexpected IO error occurred while reading or writing
+     *             entries.
+     * @see #searchAll(EntryReader, Map, Schema, int)
+     */
+    public static void searchAll(final EntryReader input, final Map<SearchRequest, ? extends EntryWriter> searches)
+            throws IOException {
+        searchAll(input, searches, Schema.getDefaultSchema(), 1);
+    }
+
+    /**
+     * Evaluates several searches against {@code input} in a single pass,
+     * writing the entries matching each search to its associated entry writer.
+     * This is equivalent to, but much faster than, copying the result of
+     * {@link #search(EntryReader, SearchRequest, Schema)} to each entry writer,
+     * since the entries are read only once.
+     * <p>
+     * Entries are read by the calling thread in batches, and the batches are
+     * matched against all the searches using {@code parallelism} threads. The
+     * number of batches being matched at any time is bounded, so the amount of
+     * memory used does not depend on the number of entries. Each entry writer
+     * is only invoked by the calling thread, and receives the matching entries
+     * in the order in which they were read. Searches whose size limit has been
+     * reached are no longer evaluated, and the input is no longer read once all
+     * the searches have reached their size limit. Neither the input nor the
+     * entry writers are closed by this method.
+     *
+     * @param input
+     *            The entry reader containing the set of entries to be filtered.
+     * @param searches
+     *            The search requests defining the filtering criteria, and the
+     *            entry writers to which the matching entries will be written.
+     * @param schema
+     *            The schema which should be used to decode the search filters
+     *            and attribute descriptions.
+     * @param parallelism
+     *            The number of threads matching entries, which must be greater
+     *            than {@code 0}.
+     * @throws IOException
+     *             If an unexpected IO error occurred while reading or writing
+     *             entries.
+     */
+    public static void searchAll(final EntryReader input, final Map<SearchRequest, ? extends EntryWriter> searches,
+            final Schema schema, final int parallelism) throws IOException {
+        Reject.ifNull(input, searches, schema);
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        new MultiSearch(searches, schema, parallelism).run(input);
+    }
+
+    /**
+     * Returns the provided entry, or a copy of it, containing only the attributes
+     * requested by {@code search}.
+     */
+    static Entry filterEntry(final Entry entry, final SearchRequest search, final Schema schema) {
+        // TODO: rename attributes; move functionality to Entries.
+        if (search.getAttributes().isEmpty()) {
+            if (search.isTypesOnly()) {
+                final Entry filteredEntry = new LinkedHashMapEntry(entry.getName());
+                for (final Attribute attribute : entry.getAllAttributes()) {
+                    filteredEntry.addAttribute(Attributes.emptyAttribute(attribute
+                            .getAttributeDescription()));
+                }
+                return filteredEntry;
+            } else {
+                return entry;
+            }
+        } else {
+            final Entry filteredEntry = new LinkedHashMapEntry(entry.getName());
+            for (final String atd : search.getAttributes()) {
+                if ("*".equals(atd)) {
+                    for (final Attribute attribute : entry.getAllAttributes()) {
+                        if (attribute.getAttributeDescription().getAttributeType()
+                                .getUsage() == AttributeUsage.USER_APPLICATIONS) {
+                            if (search.isTypesOnly()) {
+                                filteredEntry
+                                        .addAttribute(Attributes.emptyAttribute(attribute
+                                                .getAttributeDescription()));
+                            } else {
+                                filteredEntry.addAttribute(attribute);
+                            }
                         }
-                        return filteredEntry;
-                    } else {
-                        return entry;
                     }
-                } else {
-                    final Entry filteredEntry = new LinkedHashMapEntry(entry.getName());
-                    for (final String atd : search.getAttributes()) {
-                        if ("*".equals(atd)) {
-                            for (final Attribute attribute : entry.getAllAttributes()) {
-                                if (attribute.getAttributeDescription().getAttributeType()
-                                        .getUsage() == AttributeUsage.USER_APPLICATIONS) {
-                                    if (search.isTypesOnly()) {
-                                        filteredEntry
-                                                .addAttribute(Attributes.emptyAttribute(attribute
-                                                        .getAttributeDescription()));
-                                    } else {
-                                        filteredEntry.addAttribute(attribute);
-                                    }
-                                }
-                            }
-                        } else if ("+".equals(atd)) {
-                            for (final Attribute attribute : entry.getAllAttributes()) {
-                                if (attribute.getAttributeDescription().getAttributeType()
-                                        .getUsage() != AttributeUsage.USER_APPLICATIONS) {
-                                    if (search.isTypesOnly()) {
-                                        filteredEntry
-                                                .addAttribute(Attributes.emptyAttribute(attribute
-                                                        .getAttributeDescription()));
-                                    } else {
-                                        filteredEntry.addAttribute(attribute);
-                                    }
-                                }
+                } else if ("+".equals(atd)) {
+                    for (final Attribute attribute : entry.getAllAttributes()) {
+                        if (attribute.getAttributeDescription().getAttributeType()
+                                .getUsage() != AttributeUsage.USER_APPLICATIONS) {
+                            if (search.isTypesOnly()) {
+                                filteredEntry
+                                        .addAttribute(Attributes.emptyAttribute(attribute
+                                                .getAttributeDescription()));
+                            } else {
+                                filteredEntry.addAttribute(attribute);
                             }
+                        }
+                    }
+                } else {
+                    final AttributeDescription ad =
+                            AttributeDescription.valueOf(atd, schema);
+                    for (final Attribute attribute : entry.getAllAttributes(ad)) {
+                        if (search.isTypesOnly()) {
+                            filteredEntry.addAttribute(Attributes.emptyAttribute(attribute
+                                    .getAttributeDescription()));
                         } else {
-                            final AttributeDescription ad =
-                                    AttributeDescription.valueOf(atd, schema);
-                            for (final Attribute attribute : entry.getAllAttributes(ad)) {
-                                if (search.isTypesOnly()) {
-                                    filteredEntry.addAttribute(Attributes.emptyAttribute(attribute
-                                            .getAttributeDescription()));
-                                } else {
-                                    filteredEntry.addAttribute(attribute);
-                                }
-                            }
+                            filteredEntry.addAttribute(attribute);
                         }
                     }
-                    return filteredEntry;
                 }
             }
-
-        };
+            return filteredEntry;
+        }
     }
 
-    private static List<byte[][]> readEntriesAsList(final EntryReader reader) throws IOException {
-        final List<byte[][]> entries = new ArrayList<>();
-
-        while (reader.hasNext()) {
-            final Entry entry = reader.readEntry();
-            entries.add(encodeEntry(entry));
+    private static ExternalEntrySorter sortEntries(final EntryReader reader, final long memoryBudget,
+            final File tempDirectory) throws IOException {
+        final ExternalEntrySorter sorter = new ExternalEntrySorter(memoryBudget, tempDirectory);
+        try {
+            while (reader.hasNext()) {
+                sorter.add(encodeEntry(reader.readEntry()));
+            }
+            sorter.sort();
+            return sorter;
+        } catch (final IOException | RuntimeException e) {
+            sorter.close();
+            throw e;
         }
-        // Sorting the list by DN
-        Collections.sort(entries, DN_ORDER2);
-
-        return entries;
     }
 
     private static TreeMap<byte[], byte[]> readEntriesAsMap(final EntryReader reader)
@@ -814,7 +988,48 @@ public final class LDIF {
         return entries;
     }
 
-    private static Entry decodeEntry(final byte[] asn1EntryFormat) {
+    /** Returns the DN of the entry targeted by {@code change} once it has been renamed. */
+    static DN newDN(final ModifyDNRequest change) {
+        DN newSuperior = change.getNewSuperior();
+        if (newSuperior == null) {
+            newSuperior = change.getName().parent();
+            if (newSuperior == null) {
+                newSuperior = DN.rootDN();
+            }
+        }
+        return newSuperior.child(change.getNewRDN());
+    }
+
+    /** Updates the RDN attribute values of the entry targeted by {@code change} once it has been renamed. */
+    static void applyNewRDN(final Entry targetEntry, final ModifyDNRequest change, final DN oldDN,
+            final DN newDN) {
+        if (change.isDeleteOldRDN()) {
+            for (final AVA ava : oldDN.rdn()) {
+                targetEntry.removeAttribute(ava.toAttribute(), null);
+            }
+        }
+        for (final AVA ava : newDN.rdn()) {
+            targetEntry.addAttribute(ava.toAttribute());
+        }
+    }
+
+    static void applyModifications(final Entry entry, final ModifyRequest change) {
+        for (final Modification modification : change.getModifications()) {
+            final ModificationType modType = modification.getModificationType();
+            if (modType.equals(ModificationType.ADD)) {
+                entry.addAttribute(modification.getAttribute(), null);
+            } else if (modType.equals(ModificationType.DELETE)) {
+                entry.removeAttribute(modification.getAttribute(), null);
+            } else if (modType.equals(ModificationType.REPLACE)) {
+                entry.replaceAttribute(modification.getAttribute());
+            } else {
+                System.err.println("Unable to apply \"" + modType + "\" modification to entry \""
+                        + change.getName() + "\": modification type not supported");
+            }
+        }
+    }
+
+    static Entry decodeEntry(final byte[] asn1EntryFormat) {
         try {
             return LDAP.readEntry(ASN1.getReader(asn1EntryFormat), new DecodeOptions());
         } catch (IOException ex) {
@@ -822,11 +1037,11 @@ public final class LDIF {
         }
     }
 
-    private static byte[] toNormalizedByteArray(DN dn) {
+    static byte[] toNormalizedByteArray(DN dn) {
         return dn.toNormalizedByteString().toByteArray();
     }
 
-    private static byte[][] encodeEntry(final Entry entry) {
+    static byte[][] encodeEntry(final Entry entry) {
         final byte[][] bEntry = new byte[2][];
         // Store normalized DN
         bEntry[0] = toNormalizedByteArray(entry.getName());
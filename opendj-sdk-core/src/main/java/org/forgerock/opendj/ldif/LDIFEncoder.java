@@ -0,0 +1,186 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+
+/**
+ * Encodes lines of LDIF as UTF-8 directly into a byte buffer. Attribute
+ * values are copied, or base64 encoded, from their bytes without being
+ * converted to strings, and long lines are wrapped as the bytes are appended.
+ * <p>
+ * Lines are separated using the platform line separator, like
+ * {@link java.io.BufferedWriter#newLine()}.
+ */
+final class LDIFEncoder {
+    private static final byte[] LINE_SEPARATOR =
+            System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int length;
+    /** The number of bytes written to the current line, including any leading space of continuation lines. */
+    private int column;
+
+    LDIFEncoder(final int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /** Appends the provided characters without wrapping them. */
+    void appendUtf8(final CharSequence s) {
+        final int sLength = s.length();
+        ensureCapacity(sLength);
+        for (int i = 0; i < sLength; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                // Slow path for non-ASCII characters.
+                append(s.subSequence(i, sLength).toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            buffer[length++] = (byte) c;
+            column++;
+        }
+    }
+
+    /**
+     * Appends an attribute value record, base64 encoding the value if needed,
+     * and wrapping the line if it is longer than {@code wrapColumn}. The line
+     * separator is not appended.
+     */
+    void appendKeyAndValue(final CharSequence key, final ByteSequence value, final int wrapColumn) {
+        final int wrap = wrapColumn > 1 ? wrapColumn : Integer.MAX_VALUE;
+        final int keyLength = key.length();
+        for (int i = 0; i < keyLength; i++) {
+            final char c = key.charAt(i);
+            if (c >= 0x80) {
+                // Slow path for non-ASCII characters.
+                for (final byte b : key.subSequence(i, keyLength).toString().getBytes(StandardCharsets.UTF_8)) {
+                    appendWrapped(b, wrap);
+                }
+                break;
+            }
+            appendWrapped((byte) c, wrap);
+        }
+
+        final int valueLength = value.length();
+        if (valueLength == 0) {
+            appendWrapped((byte) ':', wrap);
+            appendWrapped((byte) ' ', wrap);
+        } else if (AbstractLDIFWriter.needsBase64Encoding(value)) {
+            appendWrapped((byte) ':', wrap);
+            appendWrapped((byte) ':', wrap);
+            appendWrapped((byte) ' ', wrap);
+            appendBase64(value, wrap);
+        } else {
+            appendWrapped((byte) ':', wrap);
+            appendWrapped((byte) ' ', wrap);
+            // The value only contains ASCII characters, so it can be copied as is.
+            int pos = 0;
+            while (pos < valueLength) {
+                if (column >= wrap) {
+                    appendContinuation();
+                }
+                final int chunk = Math.min(valueLength - pos, wrap - column);
+                ensureCapacity(chunk);
+                if (pos == 0 && chunk == valueLength) {
+                    value.copyTo(buffer, length);
+                } else {
+                    value.subSequence(pos, pos + chunk).copyTo(buffer, length);
+                }
+                length += chunk;
+                column += chunk;
+                pos += chunk;
+            }
+        }
+    }
+
+    void appendNewLine() {
+        append(LINE_SEPARATOR);
+        column = 0;
+    }
+
+    void clear() {
+        length = 0;
+        column = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void writeTo(final OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    private void appendBase64(final ByteSequence value, final int wrap) {
+        final int valueLength = value.length();
+        ensureCapacity(valueLength / 3 * 4 + 4);
+        int i = 0;
+        for (; i + 2 < valueLength; i += 3) {
+            final int bits = (value.byteAt(i) & 0xFF) << 16 | (value.byteAt(i + 1) & 0xFF) << 8
+                    | (value.byteAt(i + 2) & 0xFF);
+            appendWrapped(BASE64_ALPHABET[bits >>> 18], wrap);
+            appendWrapped(BASE64_ALPHABET[(bits >>> 12) & 0x3F], wrap);
+            appendWrapped(BASE64_ALPHABET[(bits >>> 6) & 0x3F], wrap);
+            appendWrapped(BASE64_ALPHABET[bits & 0x3F], wrap);
+        }
+        final int remaining = valueLength - i;
+        if (remaining > 0) {
+            final int bits =
+                    (value.byteAt(i) & 0xFF) << 16 | (remaining == 2 ? (value.byteAt(i + 1) & 0xFF) << 8 : 0);
+            appendWrapped(BASE64_ALPHABET[bits >>> 18], wrap);
+            appendWrapped(BASE64_ALPHABET[(bits >>> 12) & 0x3F], wrap);
+            appendWrapped(remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3F] : (byte) '=', wrap);
+            appendWrapped((byte) '=', wrap);
+        }
+    }
+
+    private void appendWrapped(final byte b, final int wrap) {
+        if (column >= wrap) {
+            appendContinuation();
+        }
+        ensureCapacity(1);
+        buffer[length++] = b;
+        column++;
+    }
+
+    private void appendContinuation() {
+        appendNewLine();
+        ensureCapacity(1);
+        buffer[length++] = ' ';
+        column = 1;
+    }
+
+    private void append(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        column += bytes.length;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -21,10 +21,17 @@ import static com.forgerock.opendj.ldap.CoreMessages.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
@@ -92,11 +99,41 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
         }
     }
 
+    /** The number of records which are parsed together by a single task when parsing in parallel. */
+    private static final int PARSE_BATCH_SIZE = 128;
+
+    /** The outcome of parsing and validating an LDIF record. */
+    private static final class ParsedRecord {
+        private final LDIFRecord record;
+        /** The parsed entry, or {@code null} if the record was rejected or is a version record. */
+        private Entry entry;
+        private LocalizableMessage malformedMessage;
+        private LocalizableMessage skippedMessage;
+        /** The schema validation errors, which are warnings if the entry is not {@code null}. */
+        private List<LocalizableMessage> schemaErrors;
+
+        private ParsedRecord(final LDIFRecord record) {
+            this.record = record;
+        }
+    }
+
     private Entry nextEntry;
+    /** The byte offsets of the next entry and of the last entry returned, or {@code -1}. */
+    private long nextEntryOffset = -1;
+    private long lastEntryOffset = -1;
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    private final Queue<ForkJoinTask<List<ParsedRecord>>> parseTasks = new ArrayDeque<>();
+    private Iterator<ParsedRecord> parsedRecords;
+    private boolean isEndOfRecords;
 
     /**
      * Creates a new LDIF entry reader whose source is the provided input
-     * stream.
+     * stream, which must contain UTF-8 encoded LDIF.
+     * <p>
+     * The LDIF is parsed directly from the bytes read from the input stream:
+     * attribute values are extracted without being decoded into strings. The
+     * input stream does not need to be buffered.
      *
      * @param in
      *            The input stream to use.
@@ -104,7 +141,7 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
      *             If {@code in} was {@code null}.
      */
     public LDIFEntryReader(final InputStream in) {
-        super(in);
+        super(new LDIFTokenizer(in));
     }
 
     /**
@@ -148,6 +185,9 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
 
     @Override
     public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
         close0();
     }
 
@@ -177,6 +217,7 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
 
         final Entry entry = nextEntry;
         nextEntry = null;
+        lastEntryOffset = nextEntryOffset;
         return entry;
     }
 
@@ -349,72 +390,189 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
         return this;
     }
 
+    /**
+     * Specifies the number of threads which should be used for parsing and
+     * validating entries. The default is {@code 1}, meaning that entries are
+     * parsed by the thread reading them.
+     * <p>
+     * When more than one thread is used, the thread reading entries splits
+     * the LDIF source into records and submits batches of records for parsing
+     * to a fork-join pool which is shut down when this reader is closed.
+     * Records are parsed ahead of the application, but entries are returned
+     * and the rejected record listener is notified in the order in which the
+     * records appear in the LDIF source, and from the thread reading entries.
+     * This reader should therefore be fully configured before reading the
+     * first entry, and any include or exclude filter matchers must be thread
+     * safe.
+     *
+     * @param parallelism
+     *            The number of threads which should be used for parsing
+     *            entries.
+     * @return A reference to this {@code LDIFEntryReader}.
+     */
+    public LDIFEntryReader setParallelism(final int parallelism) {
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        Reject.ifTrue(pool != null, "entries have already been read");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Returns the position in the input stream of the first byte of the
+     * record containing the last entry returned by {@link #readEntry()}, or
+     * {@code -1} if the source of this reader is not an input stream.
+     */
+    long getLastEntryOffset() {
+        return lastEntryOffset;
+    }
+
+    /**
+     * Skips the input stream up to the provided position, which must not
+     * precede the end of the last record read, so that the next entry read is
+     * the entry whose record starts at this position. Entries must not be
+     * parsed in parallel.
+     */
+    void skipTo(final long offset) throws IOException {
+        Reject.ifTrue(parallelism > 1, "entries are parsed in parallel");
+        skipLDIFRecordsTo(offset);
+        nextEntry = null;
+    }
+
     private Entry getNextEntry() throws DecodeException, IOException {
         while (nextEntry == null) {
-            // Read the set of lines that make up the next entry.
-            final LDIFRecord record = readLDIFRecord();
-            if (record == null) {
+            final ParsedRecord parsedRecord = nextParsedRecord();
+            if (parsedRecord == null) {
                 nextEntry = EOF;
                 break;
             }
+            nextEntry = acceptParsedRecord(parsedRecord);
+            nextEntryOffset = parsedRecord.record.offset;
+        }
+        return nextEntry;
+    }
 
-            try {
-                /* Read the DN of the entry and see if it is one that should be included in the import. */
-                final DN entryDN = readLDIFRecordDN(record);
-                if (entryDN == null) {
-                    // Skip version record.
-                    continue;
-                }
+    private ParsedRecord nextParsedRecord() throws IOException {
+        if (parallelism == 1) {
+            final LDIFRecord record = readLDIFRecord();
+            return record != null ? parseRecord(record) : null;
+        }
 
-                // Skip if branch containing the entry DN is excluded.
-                if (isBranchExcluded(entryDN)) {
-                    final LocalizableMessage message =
-                            ERR_LDIF_ENTRY_EXCLUDED_BY_DN
-                                    .get(record.lineNumber, entryDN.toString());
-                    handleSkippedRecord(record, message);
-                    continue;
-                }
+        for (;;) {
+            if (parsedRecords != null && parsedRecords.hasNext()) {
+                return parsedRecords.next();
+            }
+            submitParseTasks();
+            final ForkJoinTask<List<ParsedRecord>> task = parseTasks.poll();
+            if (task == null) {
+                return null;
+            }
+            parsedRecords = task.join().iterator();
+        }
+    }
 
-                // Use an Entry for the AttributeSequence.
-                final Entry entry = new LinkedHashMapEntry(entryDN);
-                boolean schemaValidationFailure = false;
-                final List<LocalizableMessage> schemaErrors = new LinkedList<>();
-                while (record.iterator.hasNext()) {
-                    final String ldifLine = record.iterator.next();
-                    if (!readLDIFRecordAttributeValue(record, ldifLine, entry, schemaErrors)) {
-                        schemaValidationFailure = true;
+    /** Reads records ahead of the application and submits them for parsing in batches. */
+    private void submitParseTasks() throws IOException {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        while (!isEndOfRecords && parseTasks.size() < parallelism * 2) {
+            final List<LDIFRecord> records = new ArrayList<>(PARSE_BATCH_SIZE);
+            while (records.size() < PARSE_BATCH_SIZE) {
+                final LDIFRecord record = readLDIFRecord();
+                if (record == null) {
+                    isEndOfRecords = true;
+                    break;
+                }
+                records.add(record);
+            }
+            if (records.isEmpty()) {
+                break;
+            }
+            parseTasks.add(pool.submit(new Callable<List<ParsedRecord>>() {
+                @Override
+                public List<ParsedRecord> call() {
+                    final List<ParsedRecord> parsedRecords = new ArrayList<>(records.size());
+                    for (final LDIFRecord record : records) {
+                        parsedRecords.add(parseRecord(record));
                     }
+                    return parsedRecords;
                 }
+            }));
+        }
+    }
 
-                // Skip if the entry is excluded by any filters.
-                if (isEntryExcluded(entry)) {
-                    final LocalizableMessage message =
-                            ERR_LDIF_ENTRY_EXCLUDED_BY_FILTER.get(record.lineNumber, entryDN
-                                    .toString());
-                    handleSkippedRecord(record, message);
-                    continue;
-                }
+    /**
+     * Parses and validates a record. This method does not notify the
+     * rejected record listener and may be invoked by any thread.
+     */
+    private ParsedRecord parseRecord(final LDIFRecord record) {
+        final ParsedRecord parsedRecord = new ParsedRecord(record);
+        try {
+            /* Read the DN of the entry and see if it is one that should be included in the import. */
+            final DN entryDN = readLDIFRecordDN(record);
+            if (entryDN == null) {
+                // Skip version record.
+                return parsedRecord;
+            }
 
-                if (!schema.validateEntry(entry, schemaValidationPolicy, schemaErrors)) {
+            // Skip if branch containing the entry DN is excluded.
+            if (isBranchExcluded(entryDN)) {
+                parsedRecord.skippedMessage =
+                        ERR_LDIF_ENTRY_EXCLUDED_BY_DN.get(record.lineNumber, entryDN.toString());
+                return parsedRecord;
+            }
+
+            // Use an Entry for the AttributeSequence.
+            final Entry entry = new LinkedHashMapEntry(entryDN);
+            boolean schemaValidationFailure = false;
+            final List<LocalizableMessage> schemaErrors = new LinkedList<>();
+            while (record.hasNextLine()) {
+                if (!readLDIFRecordAttributeValue(record, entry, schemaErrors)) {
                     schemaValidationFailure = true;
                 }
+            }
 
-                if (schemaValidationFailure) {
-                    handleSchemaValidationFailure(record, schemaErrors);
-                    continue;
-                }
+            // Skip if the entry is excluded by any filters.
+            if (isEntryExcluded(entry)) {
+                parsedRecord.skippedMessage =
+                        ERR_LDIF_ENTRY_EXCLUDED_BY_FILTER.get(record.lineNumber, entryDN.toString());
+                return parsedRecord;
+            }
 
-                if (!schemaErrors.isEmpty()) {
-                    handleSchemaValidationWarning(record, schemaErrors);
-                }
+            if (!schema.validateEntry(entry, schemaValidationPolicy, schemaErrors)) {
+                schemaValidationFailure = true;
+            }
 
-                nextEntry = entry;
-            } catch (final DecodeException e) {
-                handleMalformedRecord(record, e.getMessageObject());
-                continue;
+            parsedRecord.schemaErrors = schemaErrors;
+            if (!schemaValidationFailure) {
+                parsedRecord.entry = entry;
             }
+        } catch (final DecodeException e) {
+            parsedRecord.malformedMessage = e.getMessageObject();
         }
+        return parsedRecord;
+    }
 
-        return nextEntry;
+    /**
+     * Notifies the rejected record listener if needed and returns the parsed
+     * entry, or {@code null} if the record should be skipped.
+     */
+    private Entry acceptParsedRecord(final ParsedRecord parsedRecord) throws DecodeException {
+        final LDIFRecord record = parsedRecord.record;
+        try {
+            if (parsedRecord.malformedMessage != null) {
+                throw DecodeException.error(parsedRecord.malformedMessage);
+            } else if (parsedRecord.skippedMessage != null) {
+                handleSkippedRecord(record, parsedRecord.skippedMessage);
+            } else if (parsedRecord.schemaErrors != null && parsedRecord.entry == null) {
+                handleSchemaValidationFailure(record, parsedRecord.schemaErrors);
+            } else if (parsedRecord.schemaErrors != null && !parsedRecord.schemaErrors.isEmpty()) {
+                handleSchemaValidationWarning(record, parsedRecord.schemaErrors);
+            }
+            return parsedRecord.entry;
+        } catch (final DecodeException e) {
+            handleMalformedRecord(record, e.getMessageObject());
+            return null;
+        }
     }
 }
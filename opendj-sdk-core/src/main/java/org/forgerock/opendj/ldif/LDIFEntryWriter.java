@@ -20,7 +20,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.forgerock.opendj.ldap.Attribute;
 import org.forgerock.opendj.ldap.AttributeDescription;
@@ -58,6 +64,14 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
         return writer.toString();
     }
 
+    /** The number of entries which are encoded together by a single task when encoding in parallel. */
+    private static final int ENCODE_BATCH_SIZE = 64;
+
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    private List<Entry> pendingEntries = new ArrayList<>(ENCODE_BATCH_SIZE);
+    private final Queue<ForkJoinTask<LDIFEncoder>> encodeTasks = new ArrayDeque<>();
+
     /**
      * Creates a new LDIF entry writer which will append lines of LDIF to the
      * provided list.
@@ -71,7 +85,8 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
 
     /**
      * Creates a new LDIF entry writer whose destination is the provided output
-     * stream.
+     * stream. The LDIF is encoded as UTF-8 directly from the attribute values
+     * into a large buffer, so the output stream does not need to be buffered.
      *
      * @param out
      *            The output stream to use.
@@ -93,11 +108,19 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
 
     @Override
     public void close() throws IOException {
-        close0();
+        try {
+            writeEncodedEntries();
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            close0();
+        }
     }
 
     @Override
     public void flush() throws IOException {
+        writeEncodedEntries();
         flush0();
     }
 
@@ -234,6 +257,32 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
         return this;
     }
 
+    /**
+     * Specifies the number of threads which should be used for encoding
+     * entries. The default is {@code 1}, meaning that entries are encoded by
+     * the thread writing them. This setting is ignored unless the destination
+     * of this writer is an output stream.
+     * <p>
+     * When more than one thread is used, entries are encoded in batches on a
+     * fork-join pool which is shut down when this writer is closed, and the
+     * encoded entries are written in the order in which they were provided.
+     * Entries must therefore not be modified once they have been passed to
+     * {@link #writeEntry(Entry)}, and any include or exclude filter matchers
+     * must be thread safe. Entries may not be written to the output stream
+     * until this writer is flushed or closed.
+     *
+     * @param parallelism
+     *            The number of threads which should be used for encoding
+     *            entries.
+     * @return A reference to this {@code LDIFEntryWriter}.
+     */
+    public LDIFEntryWriter setParallelism(final int parallelism) {
+        Reject.ifFalse(parallelism > 0, "parallelism must be greater than 0");
+        Reject.ifTrue(pool != null, "entries have already been written");
+        this.parallelism = parallelism;
+        return this;
+    }
+
     /**
      * Specifies the column at which long lines should be wrapped. A value less
      * than or equal to zero (the default) indicates that no wrapping should be
@@ -250,6 +299,7 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
 
     @Override
     public LDIFEntryWriter writeComment(final CharSequence comment) throws IOException {
+        writeEncodedEntries();
         writeComment0(comment);
         return this;
     }
@@ -268,6 +318,14 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
             return this;
         }
 
+        if (parallelism > 1 && isByteOriented()) {
+            pendingEntries.add(entry);
+            if (pendingEntries.size() == ENCODE_BATCH_SIZE) {
+                submitPendingEntries();
+            }
+            return this;
+        }
+
         writeKeyAndValue("dn", entry.getName().toString());
         for (final Attribute attribute : entry.getAllAttributes()) {
             // Filter the attribute if required.
@@ -290,4 +348,59 @@ public final class LDIFEntryWriter extends AbstractLDIFWriter implements EntryWr
 
         return this;
     }
+
+    /** Submits the pending entries for encoding, writing the oldest encoded entries if too many are in flight. */
+    private void submitPendingEntries() throws IOException {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        final List<Entry> entries = pendingEntries;
+        pendingEntries = new ArrayList<>(ENCODE_BATCH_SIZE);
+        encodeTasks.add(pool.submit(new Callable<LDIFEncoder>() {
+            @Override
+            public LDIFEncoder call() {
+                final LDIFEncoder encoder = new LDIFEncoder(entries.size() * 512);
+                for (final Entry entry : entries) {
+                    encodeEntry(entry, encoder);
+                }
+                return encoder;
+            }
+        }));
+        while (encodeTasks.size() > parallelism * 2) {
+            writeEncoded(encodeTasks.poll().join());
+        }
+    }
+
+    /** Writes all the entries which are pending or being encoded. */
+    private void writeEncodedEntries() throws IOException {
+        if (!pendingEntries.isEmpty()) {
+            submitPendingEntries();
+        }
+        for (ForkJoinTask<LDIFEncoder> task = encodeTasks.poll(); task != null; task = encodeTasks.poll()) {
+            writeEncoded(task.join());
+        }
+    }
+
+    /** Encodes an entry which has already been filtered, in the same way as {@link #writeEntry(Entry)}. */
+    private void encodeEntry(final Entry entry, final LDIFEncoder encoder) {
+        encoder.appendKeyAndValue("dn", ByteString.valueOfUtf8(entry.getName().toString()), wrapColumn);
+        encoder.appendNewLine();
+        for (final Attribute attribute : entry.getAllAttributes()) {
+            if (isAttributeExcluded(attribute.getAttributeDescription())) {
+                continue;
+            }
+
+            final String attributeDescription = attribute.getAttributeDescriptionAsString();
+            if (attribute.isEmpty()) {
+                encoder.appendKeyAndValue(attributeDescription, ByteString.empty(), wrapColumn);
+                encoder.appendNewLine();
+            } else {
+                for (final ByteString value : attribute) {
+                    encoder.appendKeyAndValue(attributeDescription, value, wrapColumn);
+                    encoder.appendNewLine();
+                }
+            }
+        }
+        encoder.appendNewLine();
+    }
 }
@@ -0,0 +1,992 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static com.forgerock.opendj.ldap.CoreMessages.ERR_LDIF_INDEX_INVALID;
+import static com.forgerock.opendj.ldap.CoreMessages.ERR_LDIF_INDEX_STALE;
+import static com.forgerock.opendj.ldap.CoreMessages.WARN_LDIF_INDEX_SAVE_FAILED;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.Attribute;
+import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.Filter;
+import org.forgerock.opendj.ldap.FilterVisitor;
+import org.forgerock.opendj.ldap.RDN;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldap.spi.IndexQueryFactory;
+import org.forgerock.opendj.ldap.spi.Indexer;
+import org.forgerock.opendj.ldap.spi.IndexingOptions;
+import org.forgerock.util.Reject;
+
+/**
+ * An index of the entries contained in an LDIF file, which allows searches to
+ * read only the entries which may match them instead of scanning the entire
+ * file. The index maps the normalized DN of each entry to the position of its
+ * record in the file, so that base object, single level and subtree searches
+ * only need to read the entries within their scope. In addition, the values of
+ * a set of attributes may be indexed using the keys generated by their
+ * equality matching rule, so that searches whose filter contains equality
+ * assertions on these attributes only need to read the entries containing the
+ * asserted values.
+ * <p>
+ * Indexes are built by reading the LDIF file once, and may be saved to a file
+ * next to the LDIF file so that subsequent searches do not need to rebuild
+ * them. The keys of the index are stored sorted, and a saved index is mapped
+ * in memory when opened, so that searches binary search the keys of the saved
+ * index instead of loading them in the heap. The size and modification time
+ * of the LDIF file are recorded in the saved index, which is rejected when
+ * opened if the LDIF file has been modified since.
+ * <p>
+ * The entries read using an index are matched against the search request, in
+ * the same way as {@link LDIF#search(EntryReader, SearchRequest, Schema)}, so
+ * searches return the same entries, in the same order, as a scan of the LDIF
+ * file would. Searches which cannot make use of the index, or which would read
+ * a large proportion of the entries, are performed by scanning the file.
+ * <p>
+ * The LDIF file must be encoded using UTF-8. Example usage:
+ *
+ * <pre>
+ * File ldif = new File("example.ldif");
+ * LDIFIndex index = LDIFIndex.openOrBuild(ldif, schema,
+ *         Collections.singleton(AttributeDescription.valueOf("uid")));
+ * try (EntryReader reader = index.search(Requests.newSearchRequest(
+ *         "ou=people,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(uid=user.1)"))) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class LDIFIndex {
+    /** A growable list of entry offsets, ignoring consecutive duplicates. */
+    private static final class OffsetList {
+        private long[] offsets = new long[4];
+        private int size;
+
+        private void add(final long offset) {
+            if (size > 0 && offsets[size - 1] == offset) {
+                return;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(offsets, size);
+        }
+    }
+
+    /** The DN of an entry together with the position of its record, used while building the index. */
+    private static final class DNRecord {
+        private final ByteString key;
+        private final long offset;
+        private final int size;
+
+        private DNRecord(final ByteString key, final long offset, final int size) {
+            this.key = key;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A table of records sorted by key, which is read directly from the
+     * content of the index. Each record starts with the length and the bytes
+     * of its key, followed by its value, and the table lists the positions of
+     * the records in key order.
+     */
+    private static final class KeyTable {
+        private final ByteBuffer content;
+        private final int position;
+        private final int size;
+
+        private KeyTable(final ByteBuffer content, final int position, final int size) {
+            if (position < 0 || size < 0 || position + 4L * size > content.limit()) {
+                throw new IndexOutOfBoundsException();
+            }
+            this.content = content;
+            this.position = position;
+            this.size = size;
+        }
+
+        /**
+         * Returns the position in the table of the first record whose key is
+         * greater than, or equal to if {@code inclusive} is {@code true}, the
+         * provided key.
+         */
+        private int lowerBound(final ByteSequence key, final boolean inclusive) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compareKey(mid, key);
+                if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int compareKey(final int i, final ByteSequence key) {
+            final int record = content.getInt(position + 4 * i);
+            final int length = content.getInt(record);
+            final int count = Math.min(length, key.length());
+            for (int j = 0; j < count; j++) {
+                final int b1 = content.get(record + 4 + j) & 0xFF;
+                final int b2 = key.byteAt(j) & 0xFF;
+                if (b1 != b2) {
+                    return b1 - b2;
+                }
+            }
+            return length - key.length();
+        }
+
+        /** Returns the position in the content of the value of a record. */
+        private int getValuePosition(final int i) {
+            final int record = content.getInt(position + 4 * i);
+            return record + 4 + content.getInt(record);
+        }
+
+        /** Returns the sorted offsets of the entries which are the value of a record of an attribute index. */
+        private long[] getOffsets(final int i) {
+            final int value = getValuePosition(i);
+            final long[] offsets = new long[content.getInt(value)];
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = content.getLong(value + 4 + 8 * j);
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * Evaluates index queries against the indexes of an attribute type.
+     * Queries return the sorted offsets of the candidate entries, or
+     * {@code null} if all the entries are candidates.
+     */
+    private static final class IndexQuery implements IndexQueryFactory<long[]> {
+        private final Map<String, KeyTable> indexes;
+
+        private IndexQuery(final Map<String, KeyTable> indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public long[] createExactMatchQuery(final String indexID, final ByteSequence key) {
+            final KeyTable index = indexes.get(indexID);
+            if (index == null) {
+                return null;
+            }
+            final int i = index.lowerBound(key, true);
+            return i < index.size && index.compareKey(i, key) == 0 ? index.getOffsets(i) : NO_CANDIDATES;
+        }
+
+        @Override
+        public long[] createMatchAllQuery() {
+            return null;
+        }
+
+        @Override
+        public long[] createRangeMatchQuery(final String indexID, final ByteSequence lower,
+                final ByteSequence upper, final boolean lowerIncluded, final boolean upperIncluded) {
+            final KeyTable index = indexes.get(indexID);
+            if (index == null) {
+                return null;
+            }
+            final int from = lower.length() > 0 ? index.lowerBound(lower, lowerIncluded) : 0;
+            final int to = upper.length() > 0 ? index.lowerBound(upper, !upperIncluded) : index.size;
+            long[] candidates = NO_CANDIDATES;
+            for (int i = from; i < to; i++) {
+                candidates = union(candidates, index.getOffsets(i));
+            }
+            return candidates;
+        }
+
+        @Override
+        public long[] createIntersectionQuery(final Collection<long[]> subqueries) {
+            long[] candidates = null;
+            for (final long[] subquery : subqueries) {
+                candidates = intersect(candidates, subquery);
+            }
+            return candidates;
+        }
+
+        @Override
+        public long[] createUnionQuery(final Collection<long[]> subqueries) {
+            long[] candidates = NO_CANDIDATES;
+            for (final long[] subquery : subqueries) {
+                if (subquery == null) {
+                    return null;
+                }
+                candidates = union(candidates, subquery);
+            }
+            return candidates;
+        }
+
+        @Override
+        public IndexingOptions getIndexingOptions() {
+            return INDEXING_OPTIONS;
+        }
+    }
+
+    /**
+     * An input stream reading a file channel from a position, which does not
+     * close the channel. Skipping bytes only moves the position.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+
+        private ChannelInputStream(final FileChannel channel, final long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) > 0 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            // Entries are usually small, so avoid reading much more than the entry.
+            final int bytesRead = channel.read(ByteBuffer.wrap(b, off, Math.min(len, READ_SIZE)), position);
+            if (bytesRead > 0) {
+                position += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(final long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            position += n;
+            return n;
+        }
+    }
+
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    private static final int MAGIC = 0x4C444958;
+    private static final int VERSION = 2;
+    /** The position in the index of the position of its directory, which follows the size and time of the LDIF file. */
+    private static final int DIRECTORY_POSITION_OFFSET = 24;
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+    private static final int READ_SIZE = 8 * 1024;
+
+    /** Searches whose candidate entries exceed this proportion of the entries are performed by scanning the file. */
+    private static final int SCAN_RATIO = 8;
+
+    private static final long[] NO_CANDIDATES = new long[0];
+
+    private static final IndexingOptions INDEXING_OPTIONS = new IndexingOptions() {
+        @Override
+        public int substringKeySize() {
+            return 6;
+        }
+    };
+
+    private static final Comparator<DNRecord> DN_RECORD_ORDER = new Comparator<DNRecord>() {
+        @Override
+        public int compare(final DNRecord r1, final DNRecord r2) {
+            return r1.key.compareTo(r2.key);
+        }
+    };
+
+    /**
+     * Builds an index of the provided LDIF file.
+     *
+     * @param ldifFile
+     *            The LDIF file to be indexed.
+     * @param schema
+     *            The schema which should be used for decoding the entries and
+     *            generating the index keys.
+     * @param indexedAttributes
+     *            The attributes whose values should be indexed, which may be
+     *            empty if only the DNs of the entries should be indexed.
+     * @return The index of the LDIF file.
+     * @throws IOException
+     *             If an error occurred while reading the LDIF file, or if it
+     *             contained malformed entries.
+     */
+    public static LDIFIndex build(final File ldifFile, final Schema schema,
+            final Collection<AttributeDescription> indexedAttributes) throws IOException {
+        Reject.ifNull(ldifFile, schema, indexedAttributes);
+        final long ldifLength = ldifFile.length();
+        final long ldifLastModified = ldifFile.lastModified();
+
+        final Map<String, AttributeDescription> indexedTypes = new HashMap<>();
+        final Map<String, Map<Indexer, TreeMap<ByteString, OffsetList>>> indexBuilders = new HashMap<>();
+        for (final AttributeDescription attributeDescription : indexedAttributes) {
+            final AttributeType type = attributeDescription.getAttributeType();
+            if (indexedTypes.containsKey(type.getOID())) {
+                continue;
+            }
+            indexedTypes.put(type.getOID(), AttributeDescription.create(type));
+            final Map<Indexer, TreeMap<ByteString, OffsetList>> builders = new HashMap<>();
+            final MatchingRule rule = type.getEqualityMatchingRule();
+            if (rule != null) {
+                for (final Indexer indexer : rule.createIndexers(INDEXING_OPTIONS)) {
+                    builders.put(indexer, new TreeMap<ByteString, OffsetList>());
+                }
+            }
+            indexBuilders.put(type.getOID(), builders);
+        }
+
+        final List<DNRecord> dns = new ArrayList<>();
+        final List<ByteString> keys = new ArrayList<>();
+        try (LDIFEntryReader reader = new LDIFEntryReader(new FileInputStream(ldifFile)).setSchema(schema)) {
+            while (reader.hasNext()) {
+                final Entry entry = reader.readEntry();
+                final long offset = reader.getLastEntryOffset();
+                final DN dn = entry.getName();
+                dns.add(new DNRecord(dn.toNormalizedByteString(), offset, dn.size()));
+
+                for (final Map.Entry<String, AttributeDescription> indexedType : indexedTypes.entrySet()) {
+                    final Map<Indexer, TreeMap<ByteString, OffsetList>> builders =
+                            indexBuilders.get(indexedType.getKey());
+                    for (final Attribute attribute : entry.getAllAttributes(indexedType.getValue())) {
+                        for (final ByteString value : attribute) {
+                            for (final Map.Entry<Indexer, TreeMap<ByteString, OffsetList>> builder
+                                    : builders.entrySet()) {
+                                addKeys(schema, builder.getKey(), value, offset, builder.getValue(), keys);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(ldifLength);
+        out.writeLong(ldifLastModified);
+        // The position of the directory is only known once the tables have been written.
+        out.writeInt(0);
+
+        // The sort is stable, so entries having the same DN remain in file order.
+        Collections.sort(dns, DN_RECORD_ORDER);
+        final int[] dnRecords = new int[dns.size()];
+        for (int i = 0; i < dnRecords.length; i++) {
+            final DNRecord record = dns.get(i);
+            dnRecords[i] = out.size();
+            writeBytes(out, record.key);
+            out.writeLong(record.offset);
+            out.writeInt(record.size);
+        }
+        final int dnTable = writeTable(out, dnRecords);
+
+        // The positions and sizes of the tables of the attribute indexes, keyed by attribute type OID and index ID.
+        final Map<String, Map<String, int[]>> attributeTables = new LinkedHashMap<>();
+        for (final Map.Entry<String, Map<Indexer, TreeMap<ByteString, OffsetList>>> builders
+                : indexBuilders.entrySet()) {
+            final Map<String, int[]> tables = new LinkedHashMap<>();
+            for (final Map.Entry<Indexer, TreeMap<ByteString, OffsetList>> builder : builders.getValue().entrySet()) {
+                final int[] records = new int[builder.getValue().size()];
+                int i = 0;
+                for (final Map.Entry<ByteString, OffsetList> key : builder.getValue().entrySet()) {
+                    records[i++] = out.size();
+                    writeBytes(out, key.getKey());
+                    final OffsetList offsets = key.getValue();
+                    out.writeInt(offsets.size);
+                    for (int j = 0; j < offsets.size; j++) {
+                        out.writeLong(offsets.offsets[j]);
+                    }
+                }
+                tables.put(builder.getKey().getIndexID(), new int[] { writeTable(out, records), records.length });
+            }
+            attributeTables.put(builders.getKey(), tables);
+        }
+
+        final int directory = out.size();
+        out.writeInt(dnTable);
+        out.writeInt(dnRecords.length);
+        out.writeInt(attributeTables.size());
+        for (final Map.Entry<String, Map<String, int[]>> tables : attributeTables.entrySet()) {
+            writeString(out, schema.getAttributeType(tables.getKey()).getNameOrOID());
+            out.writeInt(tables.getValue().size());
+            for (final Map.Entry<String, int[]> table : tables.getValue().entrySet()) {
+                writeString(out, table.getKey());
+                out.writeInt(table.getValue()[0]);
+                out.writeInt(table.getValue()[1]);
+            }
+        }
+        final ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+        content.putInt(DIRECTORY_POSITION_OFFSET, directory);
+        return new LDIFIndex(ldifFile, schema, content);
+    }
+
+    /**
+     * Returns the file in which the index of the provided LDIF file is saved
+     * by default, which is located next to the LDIF file.
+     *
+     * @param ldifFile
+     *            The LDIF file.
+     * @return The default index file of the LDIF file.
+     */
+    public static File getDefaultIndexFile(final File ldifFile) {
+        return new File(ldifFile.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Opens a previously saved index of the provided LDIF file. The index file
+     * is mapped in memory rather than read, so that only the parts of the
+     * index used by searches are read from the disk.
+     *
+     * @param ldifFile
+     *            The indexed LDIF file.
+     * @param indexFile
+     *            The file containing the index.
+     * @param schema
+     *            The schema which should be used for decoding the entries and
+     *            the search filters.
+     * @return The index of the LDIF file.
+     * @throws DecodeException
+     *             If the index file is not a valid index, or if the LDIF file
+     *             has been modified since the index was built.
+     * @throws IOException
+     *             If an error occurred while reading the index file.
+     */
+    public static LDIFIndex open(final File ldifFile, final File indexFile, final Schema schema)
+            throws IOException {
+        Reject.ifNull(ldifFile, indexFile, schema);
+        final ByteBuffer content;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw DecodeException.error(ERR_LDIF_INDEX_INVALID.get(indexFile));
+            }
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final LDIFIndex index;
+        try {
+            if (content.getInt(0) != MAGIC || content.getInt(4) != VERSION) {
+                throw DecodeException.error(ERR_LDIF_INDEX_INVALID.get(indexFile));
+            }
+            index = new LDIFIndex(ldifFile, schema, content);
+        } catch (final IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw DecodeException.error(ERR_LDIF_INDEX_INVALID.get(indexFile), e);
+        }
+        if (index.isStale()) {
+            throw DecodeException.error(ERR_LDIF_INDEX_STALE.get(indexFile, ldifFile));
+        }
+        return index;
+    }
+
+    /**
+     * Opens the index of the provided LDIF file saved in its
+     * {@link #getDefaultIndexFile(File) default index file}, or builds and
+     * saves it if the index does not exist, is out of date, or does not index
+     * all the provided attributes. If the index cannot be saved, for example
+     * because the directory of the LDIF file is read-only, the error is logged
+     * and the index which has been built is returned.
+     *
+     * @param ldifFile
+     *            The LDIF file to be indexed.
+     * @param schema
+     *            The schema which should be used for decoding the entries and
+     *            generating the index keys.
+     * @param indexedAttributes
+     *            The attributes whose values should be indexed, which may be
+     *            empty if only the DNs of the entries should be indexed.
+     * @return The index of the LDIF file.
+     * @throws IOException
+     *             If an error occurred while reading the LDIF file or reading
+     *             the index file.
+     */
+    public static LDIFIndex openOrBuild(final File ldifFile, final Schema schema,
+            final Collection<AttributeDescription> indexedAttributes) throws IOException {
+        final File indexFile = getDefaultIndexFile(ldifFile);
+        if (indexFile.exists()) {
+            try {
+                final LDIFIndex index = open(ldifFile, indexFile, schema);
+                if (index.isIndexed(indexedAttributes)) {
+                    return index;
+                }
+            } catch (final IOException e) {
+                // The index is invalid, out of date, or cannot be read, so rebuild it.
+            }
+        }
+        final LDIFIndex index = build(ldifFile, schema, indexedAttributes);
+        try {
+            index.save(indexFile);
+        } catch (final IOException e) {
+            // The index can still be searched, it will only need to be rebuilt next time.
+            logger.warn(WARN_LDIF_INDEX_SAVE_FAILED.get(indexFile, e.getMessage()));
+        }
+        return index;
+    }
+
+    private static void addKeys(final Schema schema, final Indexer indexer, final ByteString value,
+            final long offset, final TreeMap<ByteString, OffsetList> index, final List<ByteString> keys) {
+        keys.clear();
+        try {
+            indexer.createKeys(schema, value, keys);
+        } catch (final DecodeException e) {
+            // Invalid values cannot match any assertion, so they do not need to be indexed.
+            return;
+        }
+        for (final ByteString key : keys) {
+            OffsetList offsets = index.get(key);
+            if (offsets == null) {
+                offsets = new OffsetList();
+                index.put(key, offsets);
+            }
+            offsets.add(offset);
+        }
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        writeBytes(out, ByteString.valueOfUtf8(s));
+    }
+
+    private static void writeBytes(final DataOutputStream out, final ByteString bytes) throws IOException {
+        out.writeInt(bytes.length());
+        bytes.copyTo(out);
+    }
+
+    /** Writes the table listing the positions of the provided records, and returns its position. */
+    private static int writeTable(final DataOutputStream out, final int[] records) throws IOException {
+        final int position = out.size();
+        for (final int record : records) {
+            out.writeInt(record);
+        }
+        return position;
+    }
+
+    /** Returns the offsets present in both of the sorted arrays, where {@code null} means all the offsets. */
+    private static long[] intersect(final long[] offsets1, final long[] offsets2) {
+        if (offsets1 == null) {
+            return offsets2;
+        } else if (offsets2 == null) {
+            return offsets1;
+        }
+        final long[] result = new long[Math.min(offsets1.length, offsets2.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < offsets1.length && j < offsets2.length;) {
+            if (offsets1[i] < offsets2[j]) {
+                i++;
+            } else if (offsets1[i] > offsets2[j]) {
+                j++;
+            } else {
+                result[size++] = offsets1[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** Returns the offsets present in either of the sorted arrays, which must not be {@code null}. */
+    private static long[] union(final long[] offsets1, final long[] offsets2) {
+        final long[] result = new long[offsets1.length + offsets2.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < offsets1.length && j < offsets2.length) {
+            if (offsets1[i] < offsets2[j]) {
+                result[size++] = offsets1[i++];
+            } else if (offsets1[i] > offsets2[j]) {
+                result[size++] = offsets2[j++];
+            } else {
+                result[size++] = offsets1[i++];
+                j++;
+            }
+        }
+        while (i < offsets1.length) {
+            result[size++] = offsets1[i++];
+        }
+        while (j < offsets2.length) {
+            result[size++] = offsets2[j++];
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private final File ldifFile;
+    private final Schema schema;
+
+    /** The content of the index, which is either held in the heap or mapped from the index file. */
+    private final ByteBuffer content;
+    private final long ldifLength;
+    private final long ldifLastModified;
+
+    /**
+     * The normalized DNs of the entries in DN order, whose values are the
+     * offsets of their records and their number of RDNs.
+     */
+    private final KeyTable dnTable;
+
+    /** The attribute value indexes, keyed by attribute type OID and then by index ID. */
+    private final Map<String, Map<String, KeyTable>> attributeIndexes = new HashMap<>();
+
+    private final FilterVisitor<long[], Void> filterIndexer = new FilterVisitor<long[], Void>() {
+        @Override
+        public long[] visitAndFilter(final Void p, final List<Filter> subFilters) {
+            long[] candidates = null;
+            for (final Filter subFilter : subFilters) {
+                candidates = intersect(candidates, subFilter.accept(this, p));
+            }
+            return candidates;
+        }
+
+        @Override
+        public long[] visitApproxMatchFilter(final Void p, final String attributeDescription,
+                final ByteString assertionValue) {
+            return null;
+        }
+
+        @Override
+        public long[] visitEqualityMatchFilter(final Void p, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeType type;
+            try {
+                type = AttributeDescription.valueOf(attributeDescription, schema).getAttributeType();
+            } catch (final LocalizedIllegalArgumentException e) {
+                return null;
+            }
+            final Map<String, KeyTable> indexes = attributeIndexes.get(type.getOID());
+            final MatchingRule rule = type.getEqualityMatchingRule();
+            if (indexes == null || rule == null) {
+                return null;
+            }
+            try {
+                return rule.getAssertion(assertionValue).createIndexQuery(new IndexQuery(indexes));
+            } catch (final DecodeException e) {
+                // Let the search filter decide how to handle the invalid assertion.
+                return null;
+            }
+        }
+
+        @Override
+        public long[] visitExtensibleMatchFilter(final Void p, final String matchingRule,
+                final String attributeDescription, final ByteString assertionValue, final boolean dnAttributes) {
+            return null;
+        }
+
+        @Override
+        public long[] visitGreaterOrEqualFilter(final Void p, final String attributeDescription,
+                final ByteString assertionValue) {
+            return null;
+        }
+
+        @Override
+        public long[] visitLessOrEqualFilter(final Void p, final String attributeDescription,
+                final ByteString assertionValue) {
+            return null;
+        }
+
+        @Override
+        public long[] visitNotFilter(final Void p, final Filter subFilter) {
+            return null;
+        }
+
+        @Override
+        public long[] visitOrFilter(final Void p, final List<Filter> subFilters) {
+            long[] candidates = NO_CANDIDATES;
+            for (final Filter subFilter : subFilters) {
+                final long[] subCandidates = subFilter.accept(this, p);
+                if (subCandidates == null) {
+                    return null;
+                }
+                candidates = union(candidates, subCandidates);
+            }
+            return candidates;
+        }
+
+        @Override
+        public long[] visitPresentFilter(final Void p, final String attributeDescription) {
+            return null;
+        }
+
+        @Override
+        public long[] visitSubstringsFilter(final Void p, final String attributeDescription,
+                final ByteString initialSubstring, final List<ByteString> anySubstrings,
+                final ByteString finalSubstring) {
+            return null;
+        }
+
+        @Override
+        public long[] visitUnrecognizedFilter(final Void p, final byte filterTag, final ByteString filterBytes) {
+            return null;
+        }
+    };
+
+    /** Reads the header and the directory of the index, but not its tables. */
+    private LDIFIndex(final File ldifFile, final Schema schema, final ByteBuffer content) {
+        this.ldifFile = ldifFile;
+        this.schema = schema;
+        this.content = content;
+        this.ldifLength = content.getLong(8);
+        this.ldifLastModified = content.getLong(16);
+
+        final ByteBuffer directory = content.duplicate();
+        directory.position(content.getInt(DIRECTORY_POSITION_OFFSET));
+        this.dnTable = new KeyTable(content, directory.getInt(), directory.getInt());
+        final int typeCount = directory.getInt();
+        for (int i = 0; i < typeCount; i++) {
+            final String typeName = readString(directory);
+            final int indexCount = directory.getInt();
+            final Map<String, KeyTable> indexes = new HashMap<>();
+            for (int j = 0; j < indexCount; j++) {
+                final String indexID = readString(directory);
+                indexes.put(indexID, new KeyTable(content, directory.getInt(), directory.getInt()));
+            }
+            attributeIndexes.put(schema.getAttributeType(typeName).getOID(), indexes);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the indexed LDIF file.
+     *
+     * @return The number of entries in the indexed LDIF file.
+     */
+    public int size() {
+        return dnTable.size;
+    }
+
+    /**
+     * Returns {@code true} if the values of all the provided attributes are
+     * indexed.
+     *
+     * @param attributeDescriptions
+     *            The attribute descriptions.
+     * @return {@code true} if the values of all the provided attributes are
+     *         indexed.
+     */
+    public boolean isIndexed(final Collection<AttributeDescription> attributeDescriptions) {
+        for (final AttributeDescription attributeDescription : attributeDescriptions) {
+            if (!attributeIndexes.containsKey(attributeDescription.getAttributeType().getOID())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves this index to the provided file. The index is written to a
+     * temporary file in the same directory which then replaces the index file,
+     * so that indexes opened from the index file remain valid.
+     *
+     * @param indexFile
+     *            The file to which the index should be saved.
+     * @throws IOException
+     *             If an error occurred while writing the index file.
+     */
+    public void save(final File indexFile) throws IOException {
+        final File tmpFile =
+                File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE)) {
+                final ByteBuffer bytes = content.duplicate();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Returns an entry reader containing the entries of the indexed LDIF file
+     * which match the search base DN, scope, and filter defined in
+     * {@code search}, filtered according to any attribute filtering criteria
+     * defined in the search request. The entries are returned in the order in
+     * which they appear in the LDIF file.
+     *
+     * @param search
+     *            The search request defining the filtering criteria.
+     * @return An entry reader containing the matching entries.
+     * @throws DecodeException
+     *             If the LDIF file has been modified since the index was
+     *             built, or if the index is not a valid index.
+     * @throws IOException
+     *             If an error occurred while opening the LDIF file.
+     */
+    public EntryReader search(final SearchRequest search) throws IOException {
+        if (isStale()) {
+            throw DecodeException.error(ERR_LDIF_INDEX_STALE.get(getDefaultIndexFile(ldifFile), ldifFile));
+        }
+        final long[] candidates;
+        try {
+            candidates = getCandidates(search);
+        } catch (final IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw DecodeException.error(ERR_LDIF_INDEX_INVALID.get(getDefaultIndexFile(ldifFile)), e);
+        }
+        final EntryReader input;
+        if (candidates != null) {
+            input = new CandidateEntryReader(candidates);
+        } else {
+            input = new LDIFEntryReader(new FileInputStream(ldifFile)).setSchema(schema);
+        }
+        return LDIF.search(input, search, schema);
+    }
+
+    /**
+     * Returns the sorted offsets of the entries which may match the provided
+     * search request, or {@code null} if the LDIF file should be scanned.
+     */
+    long[] getCandidates(final SearchRequest search) {
+        final long[] candidates =
+                intersect(getScopeCandidates(search.getName(), search.getScope()),
+                        search.getFilter().accept(filterIndexer, null));
+        if (candidates == null || candidates.length > dnTable.size / SCAN_RATIO) {
+            // Reading most of the entries is faster sequentially.
+            return null;
+        }
+        return candidates;
+    }
+
+    private boolean isStale() {
+        return ldifLength != ldifFile.length() || ldifLastModified != ldifFile.lastModified();
+    }
+
+    private long[] getScopeCandidates(final DN baseDN, final SearchScope scope) {
+        final ByteString baseKey = baseDN.toNormalizedByteString();
+        final int from = dnTable.lowerBound(baseKey, true);
+        final int to;
+        switch (scope.asEnum()) {
+        case BASE_OBJECT:
+            to = dnTable.lowerBound(baseKey, false);
+            break;
+        case SINGLE_LEVEL:
+        case WHOLE_SUBTREE:
+        case SUBORDINATES:
+            to = dnTable.lowerBound(baseDN.child(RDN.maxValue()).toNormalizedByteString(), true);
+            break;
+        default:
+            return null;
+        }
+
+        final long[] candidates = new long[to - from];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            final int value = dnTable.getValuePosition(i);
+            final int dnSize = content.getInt(value + 8);
+            if ((scope == SearchScope.SINGLE_LEVEL && dnSize != baseDN.size() + 1)
+                    || (scope == SearchScope.SUBORDINATES && dnSize == baseDN.size())) {
+                continue;
+            }
+            candidates[size++] = content.getLong(value);
+        }
+        final long[] sortedCandidates = Arrays.copyOf(candidates, size);
+        Arrays.sort(sortedCandidates);
+        return sortedCandidates;
+    }
+
+    /**
+     * Reads the entries located at the provided offsets of the LDIF file,
+     * using a single LDIF reader which skips the bytes between the entries.
+     */
+    private final class CandidateEntryReader implements EntryReader {
+        private final long[] offsets;
+        private int nextOffset;
+        private RandomAccessFile file;
+        private LDIFEntryReader reader;
+
+        private CandidateEntryReader(final long[] offsets) {
+            this.offsets = offsets;
+        }
+
+        @Override
+        public void close() throws IOException {
+            nextOffset = offsets.length;
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextOffset < offsets.length;
+        }
+
+        @Override
+        public Entry readEntry() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (reader == null) {
+                file = new RandomAccessFile(ldifFile, "r");
+                reader = new LDIFEntryReader(new ChannelInputStream(file.getChannel(), 0)).setSchema(schema);
+            }
+            final long offset = offsets[nextOffset++];
+            reader.skipTo(offset);
+            if (!reader.hasNext()) {
+                throw DecodeException.error(ERR_LDIF_INDEX_STALE.get(getDefaultIndexFile(ldifFile), ldifFile));
+            }
+            final Entry entry = reader.readEntry();
+            if (reader.getLastEntryOffset() != offset) {
+                throw DecodeException.error(ERR_LDIF_INDEX_STALE.get(getDefaultIndexFile(ldifFile), ldifFile));
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static com.forgerock.opendj.ldap.CoreMessages.ERR_LDIF_INVALID_LEADING_SPACE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldif.AbstractLDIFReader.LDIFRecord;
+import org.forgerock.util.Reject;
+
+/**
+ * Splits a UTF-8 encoded LDIF input stream into records without decoding it
+ * into strings. Line delimiters, comments and continuation lines are located
+ * directly in the bytes read from the input stream, and the unfolded lines of
+ * each record are copied into a single byte array from which attribute values
+ * can then be extracted, avoiding the decoding and re-encoding of every line.
+ * <p>
+ * Records are split using the same rules as
+ * {@link AbstractLDIFReader#readLDIFRecord()}: lines may be delimited by a
+ * line feed, a carriage return, or a carriage return followed by a line feed.
+ */
+final class LDIFTokenizer implements Closeable {
+    /** The initial size of the input buffer, which is grown in order to hold lines longer than this. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The initial size of the buffer holding the unfolded lines of a record. */
+    private static final int RECORD_BUFFER_SIZE = 4096;
+
+    /** The initial number of lines which can be held by a record before growing the line arrays. */
+    private static final int RECORD_LINES = 64;
+
+    /** Decodes the provided UTF-8 bytes as a string. */
+    static String toString(final byte[] bytes, final int from, final int to) {
+        return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    /** The position of the next unread byte in the buffer. */
+    private int pos;
+    /** The number of valid bytes in the buffer. */
+    private int limit;
+    /** The position in the input stream of the first byte in the buffer. */
+    private long bufferOffset;
+    /** The bounds of the last line read from the input stream. */
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+
+    /** The unfolded lines of the record being read, which are copied once the record is complete. */
+    private byte[] recordBytes = new byte[RECORD_BUFFER_SIZE];
+    private int recordLength;
+    private int[] recordLineStarts = new int[RECORD_LINES];
+    private int[] recordLineEnds = new int[RECORD_LINES];
+    private int recordLineCount;
+
+    LDIFTokenizer(final InputStream in) {
+        Reject.ifNull(in);
+        this.in = in;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Reads the next record from the input stream, skipping blank lines and
+     * comments.
+     *
+     * @return The next record, or {@code null} if the end of the input stream
+     *         has been reached.
+     */
+    LDIFRecord readRecord() throws IOException {
+        final int stateStart = 0;
+        final int stateStartCommentLine = 1;
+        final int stateGotLDIFLine = 2;
+        final int stateGotCommentLine = 3;
+        int state = stateStart;
+        long recordLineNumber = 0;
+        long recordOffset = 0;
+        recordLength = 0;
+        recordLineCount = 0;
+
+        while (true) {
+            final boolean isEndOfInput = !readLine();
+            final boolean isBlank = isEndOfInput || lineStart == lineEnd;
+
+            switch (state) {
+            case stateStart:
+            case stateStartCommentLine:
+                if (isEndOfInput) {
+                    return null;
+                } else if (isBlank) {
+                    // Skip leading blank lines and comments.
+                    state = stateStart;
+                } else if (buffer[lineStart] == '#') {
+                    state = stateStartCommentLine;
+                } else if (isContinuationLine()) {
+                    if (state == stateStart) {
+                        // Fatal: got a continuation line at the start of the record.
+                        throw DecodeException.fatalError(
+                                ERR_LDIF_INVALID_LEADING_SPACE.get(lineNumber, toString(buffer, lineStart, lineEnd)));
+                    }
+                    // Skip comment continuation lines.
+                } else {
+                    // Got the first line of LDIF.
+                    recordOffset = bufferOffset + lineStart;
+                    addLine();
+                    recordLineNumber = lineNumber;
+                    state = stateGotLDIFLine;
+                }
+                break;
+            default: // stateGotLDIFLine or stateGotCommentLine
+                if (isBlank) {
+                    // We have reached the end of the LDIF record.
+                    return new LDIFRecord(recordLineNumber, recordOffset, Arrays.copyOf(recordBytes, recordLength),
+                            Arrays.copyOf(recordLineStarts, recordLineCount),
+                            Arrays.copyOf(recordLineEnds, recordLineCount));
+                } else if (buffer[lineStart] == '#') {
+                    state = stateGotCommentLine;
+                } else if (isContinuationLine()) {
+                    if (state == stateGotLDIFLine) {
+                        // Got a continuation line for the previous line.
+                        appendToRecord(lineStart + 1, lineEnd);
+                        recordLineEnds[recordLineCount - 1] = recordLength;
+                    }
+                    // Otherwise skip comment continuation lines.
+                } else {
+                    addLine();
+                    state = stateGotLDIFLine;
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Skips the bytes of the input stream preceding the provided position,
+     * which must not precede the end of the last record read, so that the next
+     * record read is the record starting at this position. The bytes which
+     * have already been read into the buffer are not read again, and the
+     * remaining bytes are skipped using {@link InputStream#skip(long)}.
+     */
+    void skipTo(final long offset) throws IOException {
+        Reject.ifTrue(offset < bufferOffset + pos, "cannot skip backwards");
+        if (offset <= bufferOffset + limit) {
+            pos = (int) (offset - bufferOffset);
+            return;
+        }
+        long remaining = offset - bufferOffset - limit;
+        bufferOffset = offset;
+        pos = 0;
+        limit = 0;
+        while (in != null && remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+            } else if (in.read() >= 0) {
+                remaining--;
+            } else {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Determines whether the last line read is a continuation line. Note that
+     * while RFC 2849 technically only allows a space in this position, both
+     * OpenLDAP and the Sun Java System Directory Server allow a tab as well.
+     */
+    private boolean isContinuationLine() {
+        return buffer[lineStart] == ' ' || buffer[lineStart] == '\t';
+    }
+
+    private void addLine() {
+        if (recordLineCount == recordLineStarts.length) {
+            recordLineStarts = Arrays.copyOf(recordLineStarts, recordLineCount * 2);
+            recordLineEnds = Arrays.copyOf(recordLineEnds, recordLineCount * 2);
+        }
+        recordLineStarts[recordLineCount] = recordLength;
+        appendToRecord(lineStart, lineEnd);
+        recordLineEnds[recordLineCount] = recordLength;
+        recordLineCount++;
+    }
+
+    private void appendToRecord(final int from, final int to) {
+        final int length = to - from;
+        if (recordLength + length > recordBytes.length) {
+            recordBytes = Arrays.copyOf(recordBytes, Math.max(recordBytes.length * 2, recordLength + length));
+        }
+        System.arraycopy(buffer, from, recordBytes, recordLength, length);
+        recordLength += length;
+    }
+
+    /**
+     * Reads the next line from the input stream, setting {@link #lineStart}
+     * and {@link #lineEnd}.
+     *
+     * @return {@code false} if the end of the input stream has been reached.
+     */
+    private boolean readLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            while (scan < limit) {
+                final byte b = buffer[scan];
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && scan + 1 == limit) {
+                        // Check whether the carriage return is followed by a line feed.
+                        final int offset = scan - pos;
+                        fill();
+                        scan = pos + offset;
+                    }
+                    lineStart = pos;
+                    lineEnd = scan;
+                    pos = b == '\r' && scan + 1 < limit && buffer[scan + 1] == '\n' ? scan + 2 : scan + 1;
+                    lineNumber++;
+                    return true;
+                }
+                scan++;
+            }
+            final int offset = scan - pos;
+            if (!fill()) {
+                if (pos == limit) {
+                    return false;
+                }
+                // The last line is not terminated.
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                lineNumber++;
+                return true;
+            }
+            scan = pos + offset;
+        }
+    }
+
+    /**
+     * Reads more bytes into the buffer, discarding the bytes before
+     * {@link #pos} and growing the buffer if it is full.
+     *
+     * @return {@code false} if the end of the input stream has been reached.
+     */
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            bufferOffset += pos;
+            limit -= pos;
+            pos = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int bytesRead = in.read(buffer, limit, buffer.length - limit);
+        if (bytesRead == 0) {
+            // Guard against streams which do not block: wait for a single byte instead.
+            final int b = in.read();
+            if (b >= 0) {
+                buffer[limit] = (byte) b;
+                bytesRead = 1;
+            } else {
+                bytesRead = -1;
+            }
+        }
+        if (bytesRead < 0) {
+            // Automatically close.
+            close();
+            return false;
+        }
+        limit += bytesRead;
+        return true;
+    }
+}
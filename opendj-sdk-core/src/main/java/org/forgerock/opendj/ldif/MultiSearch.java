@@ -0,0 +1,176 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.forgerock.opendj.ldif.LDIF.filterEntry;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.Matcher;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.util.Reject;
+
+/**
+ * Evaluates several search requests in a single pass over a set of entries.
+ * Entries are read in batches by the calling thread, and each batch is matched
+ * against all the searches which have not reached their size limit, possibly
+ * using a fork-join pool. The matching entries are then written to the entry
+ * writer of each search by the calling thread, in the order in which the
+ * batches were read.
+ */
+final class MultiSearch {
+    /** The number of entries matched by each task. */
+    private static final int MATCH_BATCH_SIZE = 128;
+
+    private final SearchRequest[] searches;
+    private final EntryWriter[] writers;
+    private final Matcher[] matchers;
+    private final Schema schema;
+    private final int parallelism;
+    /** The number of entries written for each search. */
+    private final int[] entryCounts;
+
+    MultiSearch(final Map<SearchRequest, ? extends EntryWriter> searches, final Schema schema,
+            final int parallelism) {
+        final int size = searches.size();
+        this.searches = new SearchRequest[size];
+        this.writers = new EntryWriter[size];
+        this.matchers = new Matcher[size];
+        this.schema = schema;
+        this.parallelism = parallelism;
+        this.entryCounts = new int[size];
+        int i = 0;
+        for (final Map.Entry<SearchRequest, ? extends EntryWriter> search : searches.entrySet()) {
+            Reject.ifNull(search.getKey(), search.getValue());
+            this.searches[i] = search.getKey();
+            this.writers[i] = search.getValue();
+            this.matchers[i] = search.getKey().getFilter().matcher(schema);
+            i++;
+        }
+    }
+
+    /** Reads the entries and writes them to the entry writers of the searches they match. */
+    void run(final EntryReader input) throws IOException {
+        if (parallelism == 1) {
+            while (!isSizeLimitExceeded() && input.hasNext()) {
+                writeMatchingEntries(match(readBatch(input), getActiveSearches()));
+            }
+            return;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final Queue<ForkJoinTask<List<List<Entry>>>> matchTasks = new ArrayDeque<>();
+        try {
+            while (!isSizeLimitExceeded()) {
+                while (matchTasks.size() < parallelism * 2 && input.hasNext()) {
+                    final List<Entry> entries = readBatch(input);
+                    final boolean[] activeSearches = getActiveSearches();
+                    matchTasks.add(pool.submit(new Callable<List<List<Entry>>>() {
+                        @Override
+                        public List<List<Entry>> call() {
+                            return match(entries, activeSearches);
+                        }
+                    }));
+                }
+                final ForkJoinTask<List<List<Entry>>> task = matchTasks.poll();
+                if (task == null) {
+                    return;
+                }
+                writeMatchingEntries(task.join());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<Entry> readBatch(final EntryReader input) throws IOException {
+        final List<Entry> entries = new ArrayList<>(MATCH_BATCH_SIZE);
+        while (entries.size() < MATCH_BATCH_SIZE && input.hasNext()) {
+            entries.add(input.readEntry());
+        }
+        return entries;
+    }
+
+    /** Returns, for each active search, the filtered entries which match it, or {@code null}. */
+    private List<List<Entry>> match(final List<Entry> entries, final boolean[] activeSearches) {
+        final List<List<Entry>> matchingEntries = new ArrayList<>(searches.length);
+        for (int i = 0; i < searches.length; i++) {
+            if (!activeSearches[i]) {
+                matchingEntries.add(null);
+                continue;
+            }
+            final SearchRequest search = searches[i];
+            final List<Entry> matches = new ArrayList<>();
+            for (final Entry entry : entries) {
+                if (entry.getName().isInScopeOf(search.getName(), search.getScope())
+                        && matchers[i].matches(entry).toBoolean()) {
+                    matches.add(filterEntry(entry, search, schema));
+                }
+            }
+            matchingEntries.add(matches);
+        }
+        return matchingEntries;
+    }
+
+    private void writeMatchingEntries(final List<List<Entry>> matchingEntries) throws IOException {
+        for (int i = 0; i < searches.length; i++) {
+            final List<Entry> matches = matchingEntries.get(i);
+            if (matches == null) {
+                continue;
+            }
+            for (final Entry entry : matches) {
+                if (isSizeLimitExceeded(i)) {
+                    break;
+                }
+                writers[i].writeEntry(entry);
+                entryCounts[i]++;
+            }
+        }
+    }
+
+    private boolean[] getActiveSearches() {
+        final boolean[] activeSearches = new boolean[searches.length];
+        for (int i = 0; i < searches.length; i++) {
+            activeSearches[i] = !isSizeLimitExceeded(i);
+        }
+        return activeSearches;
+    }
+
+    /** Returns {@code true} if all the searches have returned as many entries as their size limit. */
+    private boolean isSizeLimitExceeded() {
+        for (int i = 0; i < searches.length; i++) {
+            if (!isSizeLimitExceeded(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSizeLimitExceeded(final int i) {
+        final int sizeLimit = searches[i].getSizeLimit();
+        return sizeLimit != 0 && entryCounts[i] >= sizeLimit;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static com.forgerock.opendj.util.StaticUtils.DEFAULT_SCHEDULER;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.ResultHandler;
+
+import com.forgerock.opendj.util.ReferenceCountedObject;
+
+/**
+ * A {@code PipelinedConnectionEntryWriter} writes entries by sending
+ * asynchronous Add requests over one or more underlying connections, without
+ * waiting for the result of each request before sending the next one. It is
+ * intended for loading large numbers of entries, for example from an
+ * {@link EntryGenerator} or an {@link LDIFEntryReader}, as fast as the server
+ * accepts them:
+ *
+ * <pre>
+ * try (EntryReader reader = new EntryGenerator(templatePath);
+ *      PipelinedConnectionEntryWriter writer = new PipelinedConnectionEntryWriter(connections)) {
+ *     LDIF.copyTo(reader, writer);
+ *     writer.flush();
+ * }
+ * </pre>
+ *
+ * Requests are distributed over the connections in a round robin fashion, and
+ * the number of outstanding requests is limited by a window: writing an entry
+ * blocks while the window is full. Since requests are processed concurrently
+ * by the server, an entry is not sent until the Add request of its parent, if
+ * it has been written before and is still outstanding, has completed. Entries
+ * must therefore be written parents first, as is the case in LDIF files.
+ * <p>
+ * Add requests which fail because the server is {@link ResultCode#BUSY busy}
+ * are retried after a delay which doubles at each attempt. Other failures are
+ * not retried: the first failure is propagated to the caller using an
+ * {@code LdapException} by the next call to {@link #writeEntry(Entry)} or
+ * {@link #flush()}, at which point no further entries are accepted.
+ * <p>
+ * <b>Note:</b> comments are not supported by connection entry writers.
+ * Attempts to write comments will be ignored.
+ */
+public final class PipelinedConnectionEntryWriter implements EntryWriter {
+    /** The default number of outstanding requests per connection. */
+    private static final int DEFAULT_WINDOW_SIZE_PER_CONNECTION = 16;
+
+    private final List<Connection> connections;
+    private final ReferenceCountedObject<ScheduledExecutorService>.Reference scheduler;
+    private int windowSize;
+    private int maxRetries = 10;
+    private long retryDelayMillis = 100;
+    private int nextConnection;
+
+    /** Protects all the fields below, and is notified whenever a request completes. */
+    private final Object lock = new Object();
+    /** The names of the entries whose Add request is outstanding. */
+    private final Set<DN> outstandingDNs = new HashSet<>();
+    private LdapException failure;
+    private long entriesWritten;
+    private long retries;
+    private boolean isClosed;
+
+    /**
+     * Creates a new pipelined connection entry writer whose destination is the
+     * provided connections.
+     *
+     * @param connections
+     *            The connections to use.
+     * @throws IllegalArgumentException
+     *             If no connections are provided.
+     * @throws NullPointerException
+     *             If {@code connections} was {@code null}.
+     */
+    public PipelinedConnectionEntryWriter(final Connection... connections) {
+        this(Arrays.asList(connections));
+    }
+
+    /**
+     * Creates a new pipelined connection entry writer whose destination is the
+     * provided connections.
+     *
+     * @param connections
+     *            The connections to use.
+     * @throws IllegalArgumentException
+     *             If no connections are provided.
+     * @throws NullPointerException
+     *             If {@code connections} was {@code null}.
+     */
+    public PipelinedConnectionEntryWriter(final Collection<? extends Connection> connections) {
+        Reject.ifNull(connections);
+        Reject.ifTrue(connections.isEmpty(), "at least one connection must be provided");
+        this.connections = new ArrayList<>(connections);
+        this.windowSize = DEFAULT_WINDOW_SIZE_PER_CONNECTION * connections.size();
+        this.scheduler = DEFAULT_SCHEDULER.acquire();
+    }
+
+    /**
+     * Sets the maximum number of Add requests which may be outstanding at any
+     * time, for all the connections. The default is 16 requests per
+     * connection.
+     *
+     * @param windowSize
+     *            The maximum number of outstanding Add requests.
+     * @return A reference to this {@code PipelinedConnectionEntryWriter}.
+     */
+    public PipelinedConnectionEntryWriter setWindowSize(final int windowSize) {
+        Reject.ifFalse(windowSize > 0, "windowSize must be greater than 0");
+        synchronized (lock) {
+            this.windowSize = windowSize;
+            lock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of times an Add request rejected because the server is
+     * busy is retried, and the delay before the first retry. The delay doubles
+     * at each subsequent retry. The default is 10 retries, starting after 100
+     * milliseconds.
+     *
+     * @param maxRetries
+     *            The maximum number of retries for each Add request, which may
+     *            be {@code 0} in order to disable retries.
+     * @param delay
+     *            The delay before the first retry.
+     * @param unit
+     *            The time unit of the delay.
+     * @return A reference to this {@code PipelinedConnectionEntryWriter}.
+     */
+    public PipelinedConnectionEntryWriter setRetryPolicy(final int maxRetries, final long delay,
+            final TimeUnit unit) {
+        Reject.ifFalse(maxRetries >= 0, "maxRetries must be positive");
+        Reject.ifFalse(delay >= 0, "delay must be positive");
+        Reject.ifNull(unit);
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = unit.toMillis(delay);
+        return this;
+    }
+
+    /**
+     * Returns the number of entries which have been successfully added so far.
+     *
+     * @return The number of entries which have been successfully added.
+     */
+    public long getEntriesWritten() {
+        synchronized (lock) {
+            return entriesWritten;
+        }
+    }
+
+    /**
+     * Returns the number of Add requests which have been retried so far
+     * because the server was busy.
+     *
+     * @return The number of retried Add requests.
+     */
+    public long getRetries() {
+        synchronized (lock) {
+            return retries;
+        }
+    }
+
+    /**
+     * Waits for all the outstanding Add requests to complete, then closes this
+     * entry writer, including the underlying connections. Failures of the
+     * outstanding requests are not reported: applications should
+     * {@link #flush()} this writer before closing it. Closing a previously
+     * closed entry writer has no effect.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (isClosed) {
+                return;
+            }
+            try {
+                awaitOutstandingRequests();
+            } catch (final InterruptedIOException e) {
+                // Close the connections anyway, abandoning the outstanding requests.
+            }
+            isClosed = true;
+        }
+        scheduler.release();
+        for (final Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Waits for all the outstanding Add requests to complete.
+     *
+     * @throws LdapException
+     *             If an Add request has failed.
+     * @throws InterruptedIOException
+     *             If the current thread was interrupted while waiting.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            awaitOutstandingRequests();
+            throwIfFailed();
+        }
+    }
+
+    /**
+     * Connection entry writers do not support comments, so the provided comment
+     * will be ignored.
+     *
+     * @param comment
+     *            The {@code CharSequence} to be written as a comment.
+     * @return A reference to this connection entry writer.
+     * @throws NullPointerException
+     *             If {@code comment} was {@code null}.
+     */
+    @Override
+    public PipelinedConnectionEntryWriter writeComment(final CharSequence comment) {
+        Reject.ifNull(comment);
+
+        // Do nothing.
+        return this;
+    }
+
+    /**
+     * Sends an Add request for the provided entry, blocking while the window
+     * of outstanding requests is full or while the Add request of the parent
+     * entry is outstanding. The entry must not be modified afterwards.
+     *
+     * @param entry
+     *            The {@code Entry} to be written.
+     * @return A reference to this connection entry writer.
+     * @throws LdapException
+     *             If a previous Add request has failed.
+     * @throws InterruptedIOException
+     *             If the current thread was interrupted while waiting.
+     * @throws NullPointerException
+     *             If {@code entry} was {@code null}.
+     */
+    @Override
+    public PipelinedConnectionEntryWriter writeEntry(final Entry entry) throws IOException {
+        Reject.ifNull(entry);
+        final DN name = entry.getName();
+        final DN parent = name.parent();
+        synchronized (lock) {
+            Reject.ifTrue(isClosed, "this entry writer is closed");
+            try {
+                while (failure == null && (outstandingDNs.size() >= windowSize || outstandingDNs.contains(name)
+                        || (parent != null && outstandingDNs.contains(parent)))) {
+                    lock.wait();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+            throwIfFailed();
+            outstandingDNs.add(name);
+        }
+        sendAddRequest(Requests.newAddRequest(entry), name, 0);
+        return this;
+    }
+
+    private void sendAddRequest(final AddRequest request, final DN name, final int attempt) {
+        final Connection connection;
+        synchronized (lock) {
+            connection = connections.get(nextConnection);
+            nextConnection = (nextConnection + 1) % connections.size();
+        }
+        connection.addAsync(request).thenOnResultOrException(new ResultHandler<Result>() {
+            @Override
+            public void handleResult(final Result result) {
+                requestCompleted(name, null);
+            }
+        }, new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException exception) {
+                if (exception.getResult().getResultCode().equals(ResultCode.BUSY) && attempt < maxRetries
+                        && retry(request, name, attempt + 1)) {
+                    return;
+                }
+                requestCompleted(name, exception);
+            }
+        });
+    }
+
+    /** Schedules a new attempt of a request, returning {@code false} if it cannot be scheduled. */
+    private boolean retry(final AddRequest request, final DN name, final int attempt) {
+        synchronized (lock) {
+            if (isClosed || failure != null) {
+                return false;
+            }
+            retries++;
+        }
+        scheduler.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                sendAddRequest(request, name, attempt);
+            }
+        }, retryDelayMillis << Math.min(attempt - 1, 20), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void requestCompleted(final DN name, final LdapException exception) {
+        synchronized (lock) {
+            outstandingDNs.remove(name);
+            if (exception == null) {
+                entriesWritten++;
+            } else if (failure == null) {
+                failure = exception;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /** Waits until all the outstanding requests have completed, while holding the lock. */
+    private void awaitOutstandingRequests() throws InterruptedIOException {
+        try {
+            while (!outstandingDNs.isEmpty()) {
+                lock.wait();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private void throwIfFailed() throws LdapException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
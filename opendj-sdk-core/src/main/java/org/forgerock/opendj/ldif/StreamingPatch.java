@@ -0,0 +1,811 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static com.forgerock.opendj.ldap.CoreMessages.*;
+import static org.forgerock.opendj.ldif.LDIF.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Writer;
+import org.forgerock.opendj.io.AbstractLDAPMessageHandler;
+import org.forgerock.opendj.io.LDAP;
+import org.forgerock.opendj.io.LDAPWriter;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.DecodeOptions;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LinkedHashMapEntry;
+import org.forgerock.opendj.ldap.RDN;
+import org.forgerock.opendj.ldap.controls.SubtreeDeleteRequestControl;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.util.Reject;
+
+/**
+ * Applies a set of changes to a set of entries using a bounded amount of
+ * memory. The entries, unless they are already sorted, and the changes are
+ * sorted by DN using an {@link ExternalEntrySorter}, and the changes are then
+ * applied while merging the two sorted streams.
+ * <p>
+ * Each change is sorted by the DN which its target entry has in the input of
+ * the merge pass. A sorted map of the subtrees renamed by the modify DN
+ * operations read so far translates the DN of each subsequent change back to
+ * that DN, so that the changes targeting renamed entries are applied during
+ * the same pass. The changes targeting an entry are applied in the order in
+ * which they were read, together with the subtree deletes and modify DN
+ * operations targeting its superiors. Entries whose DN has changed are moved
+ * to a separate sorted stream which is merged with the result of the pass,
+ * detecting duplicate entries.
+ * <p>
+ * A change targeting a subtree which has been deleted or renamed away by a
+ * previous change, such as an entry added again after a subtree delete, is
+ * deferred to a new merge pass over the result of the previous one, because
+ * its target cannot be told apart from the entries of the input. So are the
+ * changes read once the renamed and deleted subtrees exceed their share of the
+ * memory budget.
+ */
+final class StreamingPatch {
+    /** A source of encoded entries sorted by DN. */
+    private interface SortedEntries extends Closeable {
+        /** Returns the next entry, or {@code null} if there are no more entries. */
+        byte[][] next() throws IOException;
+
+        @Override
+        void close();
+    }
+
+    /** Reads entries which are already sorted by DN directly from the input, checking their order. */
+    private static final class SortedInput implements SortedEntries {
+        private final EntryReader input;
+        private DN previousDN;
+        private byte[] previousNormalizedDN;
+
+        private SortedInput(final EntryReader input) {
+            this.input = input;
+        }
+
+        @Override
+        public byte[][] next() throws IOException {
+            if (!input.hasNext()) {
+                return null;
+            }
+            final Entry entry = input.readEntry();
+            final byte[][] encodedEntry = encodeEntry(entry);
+            if (previousNormalizedDN != null && DN_ORDER.compare(previousNormalizedDN, encodedEntry[0]) > 0) {
+                throw DecodeException.error(ERR_LDIF_PATCH_INPUT_NOT_SORTED.get(entry.getName(), previousDN));
+            }
+            previousDN = entry.getName();
+            previousNormalizedDN = encodedEntry[0];
+            return encodedEntry;
+        }
+
+        @Override
+        public void close() {
+            // The input is closed by the reader returned by patch().
+        }
+    }
+
+
+    /** A subtree of DNs, expressed as a range of normalized DNs. */
+    private static final class Scope {
+        private final byte[] lower;
+        private final byte[] upper;
+
+        private Scope(final byte[] lower, final byte[] upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        private boolean contains(final byte[] normalizedDN) {
+            return DN_ORDER.compare(normalizedDN, lower) >= 0 && DN_ORDER.compare(normalizedDN, upper) < 0;
+        }
+    }
+
+    /**
+     * A change of the batch, decoded from the changes sorter. Changes are
+     * encoded as the normalized DN of their target in the input of the pass,
+     * the encoded change record, the sequence number of the change followed
+     * by a byte set if the change targets the entry itself, and for subtree
+     * deletes and modify DN operations the upper bound of the subtree.
+     */
+    private static final class Change {
+        private final byte[] normalizedDN;
+        private final ChangeRecord record;
+        private final int sequence;
+        private final boolean targetsEntry;
+        private final Scope scope;
+
+        /** Set if the change was rejected, in which case it does not apply to the subordinates of its target. */
+        private boolean isRejected;
+
+        private Change(final byte[][] encodedChange) throws IOException {
+            this.normalizedDN = encodedChange[0];
+            this.record = decodeChangeRecord(encodedChange[1]);
+            final byte[] header = encodedChange[2];
+            this.sequence = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8
+                    | (header[3] & 0xFF);
+            this.targetsEntry = header[4] != 0;
+            this.scope = encodedChange.length > 3 ? new Scope(encodedChange[0], encodedChange[3]) : null;
+        }
+    }
+
+    /** The subtree deletes and modify DN operations targeting a superior of the entries being merged. */
+    private static final class SubtreeChanges {
+        private final Scope scope;
+        private final List<Change> changes = new ArrayList<>();
+
+        private SubtreeChanges(final Scope scope) {
+            this.scope = scope;
+        }
+    }
+
+    /** A subtree which has been renamed by a modify DN operation of the batch. */
+    private static final class RenamedSubtree {
+        /** The current DN of the subtree. */
+        private final DN dn;
+        /** The DN of the subtree in the input of the pass. */
+        private final DN sourceDN;
+        /** The sequence number of the change which moved the subtree to a DN which is not in the input. */
+        private final int sequence;
+
+        private RenamedSubtree(final DN dn, final DN sourceDN, final int sequence) {
+            this.dn = dn;
+            this.sourceDN = sourceDN;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Change> SEQUENCE_ORDER = new Comparator<Change>() {
+        @Override
+        public int compare(final Change c1, final Change c2) {
+            return Integer.compare(c1.sequence, c2.sequence);
+        }
+    };
+
+    /** A merge pass which applies a batch of changes to the entries. */
+    private final class Pass implements ChangeRecordVisitor<IOException, Void>, Closeable {
+        private final SortedEntries entries;
+        private final ExternalEntrySorter changes;
+        private final boolean hasRenames;
+        private ExternalEntrySorter renamedEntries;
+        private ExternalEntrySorter updatedEntries;
+        private byte[][] nextEntry;
+        private byte[][] nextChange;
+        private byte[][] nextUpdatedEntry;
+        private byte[][] nextRenamedEntry;
+        private boolean isMerging;
+
+        /** The subtree changes of the superiors of the entry being merged, the closest superior first. */
+        private final Deque<SubtreeChanges> superiors = new ArrayDeque<>();
+        private final List<Change> entryChanges = new ArrayList<>();
+
+        /** The entry whose changes are being applied. */
+        private Entry entry;
+
+        /** The last modify DN operation which renamed the entry, if any. */
+        private ModifyDNRequest entryRename;
+
+        private Pass(final SortedEntries entries, final ExternalEntrySorter changes, final boolean hasRenames)
+                throws IOException {
+            this.entries = entries;
+            this.changes = changes;
+            this.hasRenames = hasRenames;
+            this.nextEntry = entries.next();
+            this.nextChange = changes.next();
+        }
+
+        @Override
+        public void close() {
+            entries.close();
+            changes.close();
+            if (renamedEntries != null) {
+                renamedEntries.close();
+            }
+            if (updatedEntries != null) {
+                updatedEntries.close();
+            }
+        }
+
+        /** Returns the next entry resulting from this pass, or {@code null} if there are no more entries. */
+        byte[][] next() throws IOException {
+            if (!hasRenames) {
+                return readUpdatedEntry();
+            }
+            if (!isMerging) {
+                // Renamed entries may precede entries which have already been updated, so merge them afterwards.
+                updatedEntries = newSorter();
+                for (byte[][] e = readUpdatedEntry(); e != null; e = readUpdatedEntry()) {
+                    updatedEntries.add(e);
+                }
+                updatedEntries.sort();
+                if (renamedEntries == null) {
+                    renamedEntries = newSorter();
+                }
+                renamedEntries.sort();
+                nextUpdatedEntry = updatedEntries.next();
+                nextRenamedEntry = renamedEntries.next();
+                isMerging = true;
+            }
+            return readMergedEntry();
+        }
+
+        private byte[][] readMergedEntry() throws IOException {
+            final byte[][] result;
+            final int cmp;
+            if (nextUpdatedEntry == null && nextRenamedEntry == null) {
+                return null;
+            } else if (nextRenamedEntry == null) {
+                cmp = -1;
+            } else if (nextUpdatedEntry == null) {
+                cmp = 1;
+            } else {
+                cmp = DN_ORDER2.compare(nextUpdatedEntry, nextRenamedEntry);
+            }
+            if (cmp < 0) {
+                result = nextUpdatedEntry;
+                nextUpdatedEntry = updatedEntries.next();
+            } else if (cmp > 0) {
+                result = new byte[][] { nextRenamedEntry[0], nextRenamedEntry[1] };
+                nextRenamedEntry = renamedEntries.next();
+            } else {
+                final Entry existingEntry = decodeEntry(nextUpdatedEntry[1]);
+                final Entry renamedEntry = decodeEntry(nextRenamedEntry[1]);
+                if (nextRenamedEntry.length > 2) {
+                    final ModifyDNRequest change = (ModifyDNRequest) decodeChangeRecord(nextRenamedEntry[2]);
+                    result = encodeEntry(listener.handleDuplicateEntry(change, existingEntry, renamedEntry));
+                } else {
+                    // The entry was added below a renamed subtree.
+                    final AddRequest change = Requests.newAddRequest(renamedEntry);
+                    result = encodeEntry(listener.handleDuplicateEntry(change, existingEntry));
+                }
+                nextUpdatedEntry = updatedEntries.next();
+                nextRenamedEntry = renamedEntries.next();
+            }
+            return result;
+        }
+
+        /** Merges the entries and the changes, excluding entries whose DN has changed. */
+        private byte[][] readUpdatedEntry() throws IOException {
+            while (nextEntry != null || nextChange != null) {
+                final byte[] normalizedDN;
+                if (nextChange == null || (nextEntry != null && DN_ORDER2.compare(nextEntry, nextChange) <= 0)) {
+                    normalizedDN = nextEntry[0];
+                } else {
+                    normalizedDN = nextChange[0];
+                }
+
+                // The last of several entries having the same DN wins.
+                byte[][] encodedEntry = null;
+                while (nextEntry != null && DN_ORDER.compare(nextEntry[0], normalizedDN) == 0) {
+                    encodedEntry = nextEntry;
+                    nextEntry = entries.next();
+                }
+
+                while (!superiors.isEmpty() && !superiors.peek().scope.contains(normalizedDN)) {
+                    superiors.pop();
+                }
+
+                SubtreeChanges subtreeChanges = null;
+                while (nextChange != null && DN_ORDER.compare(nextChange[0], normalizedDN) == 0) {
+                    final Change change = new Change(nextChange);
+                    entryChanges.add(change);
+                    if (change.scope != null) {
+                        if (subtreeChanges == null) {
+                            subtreeChanges = new SubtreeChanges(change.scope);
+                        }
+                        subtreeChanges.changes.add(change);
+                    }
+                    nextChange = changes.next();
+                }
+
+                if (entryChanges.isEmpty() && superiors.isEmpty()) {
+                    if (encodedEntry != null) {
+                        return encodedEntry;
+                    }
+                    continue;
+                }
+
+                // Apply the changes in the order in which they were read. The sort is stable, so a change targeting
+                // the entry itself comes before the same change applying to the subtree of a superior.
+                final List<Change> allChanges = new ArrayList<>(entryChanges);
+                for (final SubtreeChanges superior : superiors) {
+                    allChanges.addAll(superior.changes);
+                }
+                Collections.sort(allChanges, SEQUENCE_ORDER);
+                entryChanges.clear();
+                if (subtreeChanges != null) {
+                    superiors.push(subtreeChanges);
+                }
+
+                entry = encodedEntry != null ? decodeEntry(encodedEntry[1]) : null;
+                entryRename = null;
+                int previousSequence = -1;
+                for (final Change change : allChanges) {
+                    if (change.sequence != previousSequence) {
+                        previousSequence = change.sequence;
+                        applyChange(change, DN_ORDER.compare(change.normalizedDN, normalizedDN) == 0);
+                    }
+                }
+
+                if (entry != null) {
+                    final byte[][] updatedEntry = encodeEntry(entry);
+                    if (DN_ORDER.compare(updatedEntry[0], normalizedDN) == 0) {
+                        return updatedEntry;
+                    }
+                    addRenamedEntry(updatedEntry);
+                }
+            }
+            return null;
+        }
+
+        private void applyChange(final Change change, final boolean isEntryChange) throws IOException {
+            if (isEntryChange && change.targetsEntry) {
+                final boolean entryExists = entry != null;
+                final IOException e = change.record.accept(this, null);
+                if (e != null) {
+                    throw e;
+                }
+                change.isRejected = !entryExists && !(change.record instanceof AddRequest);
+            } else if (!change.isRejected && entry != null
+                    && entry.getName().isSubordinateOrEqualTo(change.record.getName())) {
+                // A subtree delete or a modify DN operation targeting a superior of the entry.
+                if (change.record instanceof ModifyDNRequest) {
+                    final ModifyDNRequest modifyDNRequest = (ModifyDNRequest) change.record;
+                    entry.setName(entry.getName().rename(modifyDNRequest.getName(), newDN(modifyDNRequest)));
+                    entryRename = modifyDNRequest;
+                } else {
+                    entry = null;
+                }
+            }
+        }
+
+        @Override
+        public IOException visitChangeRecord(final Void p, final AddRequest change) {
+            try {
+                if (entry != null) {
+                    entry = listener.handleDuplicateEntry(change, entry);
+                } else {
+                    entry = LinkedHashMapEntry.deepCopyOfEntry(change);
+                }
+                return null;
+            } catch (final IOException e) {
+                return e;
+            }
+        }
+
+        @Override
+        public IOException visitChangeRecord(final Void p, final DeleteRequest change) {
+            try {
+                if (entry == null) {
+                    listener.handleRejectedChangeRecord(change,
+                            REJECTED_CHANGE_FAIL_DELETE.get(change.getName().toString()));
+                } else {
+                    entry = null;
+                }
+                return null;
+            } catch (final IOException e) {
+                return e;
+            }
+        }
+
+        @Override
+        public IOException visitChangeRecord(final Void p, final ModifyDNRequest change) {
+            try {
+                if (entry == null) {
+                    listener.handleRejectedChangeRecord(change,
+                            REJECTED_CHANGE_FAIL_MODIFYDN.get(change.getName().toString()));
+                } else {
+                    final DN oldDN = change.getName();
+                    final DN newDN = newDN(change);
+                    entry.setName(entry.getName().rename(oldDN, newDN));
+                    applyNewRDN(entry, change, oldDN, newDN);
+                    entryRename = change;
+                }
+                return null;
+            } catch (final IOException e) {
+                return e;
+            }
+        }
+
+        @Override
+        public IOException visitChangeRecord(final Void p, final ModifyRequest change) {
+            try {
+                if (entry == null) {
+                    listener.handleRejectedChangeRecord(change,
+                            REJECTED_CHANGE_FAIL_MODIFY.get(change.getName().toString()));
+                } else {
+                    applyModifications(entry, change);
+                }
+                return null;
+            } catch (final IOException e) {
+                return e;
+            }
+        }
+
+        private void addRenamedEntry(final byte[][] encodedEntry) throws IOException {
+            if (renamedEntries == null) {
+                renamedEntries = newSorter();
+            }
+            if (entryRename != null) {
+                renamedEntries.add(new byte[][] { encodedEntry[0], encodedEntry[1], encodeChangeRecord(entryRename) });
+            } else {
+                renamedEntries.add(encodedEntry);
+            }
+        }
+    }
+
+    /**
+     * The estimated amount of heap used for tracking each subtree deleted or
+     * renamed by the changes of a batch. It is deducted from the memory budget
+     * of a sorter, bounding the number of such changes in a single pass.
+     */
+    private static final int SUBTREE_MEMORY = 1024;
+
+    /** The maximum number of sorters used at the same time, which share the memory budget. */
+    private static final int MAX_SORTERS = 5;
+
+    /**
+     * Applies the changes read from {@code patch} to the entries read from
+     * {@code input}. See {@link LDIF#patch(EntryReader, ChangeRecordReader,
+     * RejectedChangeRecordListener, long, File, boolean)}.
+     */
+    static EntryReader patch(final EntryReader input, final ChangeRecordReader patch,
+            final RejectedChangeRecordListener listener, final long memoryBudget, final File tempDirectory,
+            final boolean isInputSorted) throws IOException {
+        Reject.ifFalse(memoryBudget >= MAX_SORTERS, "memoryBudget is too small");
+        return new StreamingPatch(patch, listener, memoryBudget / MAX_SORTERS, tempDirectory)
+                .apply(input, isInputSorted);
+    }
+
+    private final ChangeRecordReader patch;
+    private final RejectedChangeRecordListener listener;
+    private final long sorterMemoryBudget;
+    private final File tempDirectory;
+
+    /** A change which conflicts with the changes of the previous pass, and which therefore starts a new pass. */
+    private ChangeRecord pendingChange;
+
+    /** Set by {@link #readBatch()} if the batch contains modify DN operations. */
+    private boolean hasRenames;
+
+    /**
+     * The subtrees renamed by the changes of the batch read so far, keyed by
+     * their current DN, which are used for translating the DN of subsequent
+     * changes to the DN of their target in the input of the pass.
+     */
+    private final NavigableMap<DN, RenamedSubtree> renamedSubtrees = new TreeMap<>();
+
+    /**
+     * The subtrees of the input of the pass which have been deleted or
+     * renamed by the changes of the batch read so far, with the sequence
+     * number of the last such change.
+     */
+    private final Map<DN, Integer> removedSubtrees = new HashMap<>();
+
+    /** The estimated amount of heap used by {@link #renamedSubtrees} and {@link #removedSubtrees}. */
+    private long subtreesMemory;
+
+    private StreamingPatch(final ChangeRecordReader patch, final RejectedChangeRecordListener listener,
+            final long sorterMemoryBudget, final File tempDirectory) {
+        this.patch = patch;
+        this.listener = listener;
+        this.sorterMemoryBudget = sorterMemoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    private EntryReader apply(final EntryReader input, final boolean isInputSorted) throws IOException {
+        SortedEntries entries = isInputSorted ? new SortedInput(input) : sort(input);
+
+        for (;;) {
+            final Pass pass;
+            try {
+                final ExternalEntrySorter changes = readBatch();
+                try {
+                    pass = new Pass(entries, changes, hasRenames);
+                } catch (final IOException | RuntimeException e) {
+                    changes.close();
+                    throw e;
+                }
+            } catch (final IOException | RuntimeException e) {
+                entries.close();
+                throw e;
+            }
+            if (pendingChange == null) {
+                return newEntryReader(input, pass);
+            }
+
+            // Materialize the result of the pass, which is the input of the next one.
+            final ExternalEntrySorter updatedEntries = newSorter();
+            try {
+                for (byte[][] e = pass.next(); e != null; e = pass.next()) {
+                    updatedEntries.add(e);
+                }
+                updatedEntries.sort();
+            } catch (final IOException | RuntimeException e) {
+                updatedEntries.close();
+                throw e;
+            } finally {
+                pass.close();
+            }
+            entries = sorted(updatedEntries);
+        }
+    }
+
+    private SortedEntries sort(final EntryReader input) throws IOException {
+        final ExternalEntrySorter entries = newSorter();
+        try {
+            while (input.hasNext()) {
+                entries.add(encodeEntry(input.readEntry()));
+            }
+            entries.sort();
+        } catch (final IOException | RuntimeException e) {
+            entries.close();
+            throw e;
+        }
+        return sorted(entries);
+    }
+
+    private static SortedEntries sorted(final ExternalEntrySorter sorter) {
+        return new SortedEntries() {
+            @Override
+            public byte[][] next() throws IOException {
+                return sorter.next();
+            }
+
+            @Override
+            public void close() {
+                sorter.close();
+            }
+        };
+    }
+
+    /**
+     * Reads and sorts the changes which can be applied in a single pass, keyed
+     * by the DN of their target in the input of the pass. The batch ends
+     * before the first change which targets a subtree deleted or renamed away
+     * by a previous change of the batch, before a modify DN operation whose
+     * new DN is the current DN of a subtree renamed by the batch, or once the
+     * tracked subtrees exceed their memory budget.
+     */
+    private ExternalEntrySorter readBatch() throws IOException {
+        hasRenames = false;
+        final ExternalEntrySorter changes = newSorter();
+        try {
+            int sequence = 0;
+            while (pendingChange != null || patch.hasNext()) {
+                final ChangeRecord change = pendingChange != null ? pendingChange : patch.readChangeRecord();
+                pendingChange = null;
+                if (!addChange(changes, change, sequence)) {
+                    pendingChange = change;
+                    break;
+                }
+                sequence++;
+            }
+            changes.sort();
+            return changes;
+        } catch (final IOException | RuntimeException e) {
+            changes.close();
+            throw e;
+        } finally {
+            renamedSubtrees.clear();
+            removedSubtrees.clear();
+            subtreesMemory = 0;
+        }
+    }
+
+    /** Adds a change to the batch, returning {@code false} if it must be applied during a new pass instead. */
+    private boolean addChange(final ExternalEntrySorter changes, final ChangeRecord change, final int sequence)
+            throws IOException {
+        final DN dn = change.getName();
+        final RenamedSubtree renamedSubtree = getRenamedSubtree(dn);
+        final DN sourceDN = renamedSubtree != null ? dn.rename(renamedSubtree.dn, renamedSubtree.sourceDN) : dn;
+        if (isRemoved(sourceDN, renamedSubtree)) {
+            return false;
+        }
+
+        final boolean isRename = change instanceof ModifyDNRequest;
+        if (!isRename && !(change instanceof DeleteRequest && isSubtreeDelete((DeleteRequest) change))) {
+            changes.add(new byte[][] {
+                toNormalizedByteArray(sourceDN), encodeChangeRecord(change), encodeHeader(sequence, true) });
+            return true;
+        }
+
+        final DN newDN = isRename ? newDN((ModifyDNRequest) change) : null;
+        if ((subtreesMemory > 0 && subtreesMemory + SUBTREE_MEMORY > sorterMemoryBudget)
+                || (newDN != null && renamedSubtrees.containsKey(newDN))) {
+            return false;
+        }
+        subtreesMemory += SUBTREE_MEMORY;
+
+        // The change also applies to the subtrees which have been renamed below its target.
+        final byte[] encodedChange = encodeChangeRecord(change);
+        addSubtreeChange(changes, sourceDN, encodedChange, sequence, true);
+        final NavigableMap<DN, RenamedSubtree> subordinates =
+                renamedSubtrees.subMap(dn, false, dn.child(RDN.maxValue()), false);
+        final List<RenamedSubtree> movedSubtrees = new ArrayList<>(subordinates.values());
+        for (final RenamedSubtree subordinate : movedSubtrees) {
+            addSubtreeChange(changes, subordinate.sourceDN, encodedChange, sequence, false);
+        }
+        subordinates.clear();
+        renamedSubtrees.remove(dn);
+        removedSubtrees.put(sourceDN, sequence);
+
+        if (isRename) {
+            for (final RenamedSubtree subordinate : movedSubtrees) {
+                final DN movedDN = subordinate.dn.rename(dn, newDN);
+                renamedSubtrees.put(movedDN, new RenamedSubtree(movedDN, subordinate.sourceDN, subordinate.sequence));
+            }
+            renamedSubtrees.put(newDN, new RenamedSubtree(newDN, sourceDN, sequence));
+            hasRenames = true;
+        }
+        return true;
+    }
+
+    private static void addSubtreeChange(final ExternalEntrySorter changes, final DN sourceDN,
+            final byte[] encodedChange, final int sequence, final boolean targetsEntry) throws IOException {
+        changes.add(new byte[][] { toNormalizedByteArray(sourceDN), encodedChange,
+            encodeHeader(sequence, targetsEntry), toNormalizedByteArray(sourceDN.child(RDN.maxValue())) });
+    }
+
+    /** Returns the closest renamed subtree containing {@code dn}, or {@code null} if there is none. */
+    private RenamedSubtree getRenamedSubtree(final DN dn) {
+        if (!renamedSubtrees.isEmpty()) {
+            for (DN superior = dn; superior != null; superior = superior.parent()) {
+                final RenamedSubtree renamedSubtree = renamedSubtrees.get(superior);
+                if (renamedSubtree != null) {
+                    return renamedSubtree;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the entry having {@code sourceDN} in the input of
+     * the pass belongs to a subtree which has been deleted or renamed away by
+     * a previous change of the batch, in which case the entry cannot be told
+     * apart from the entry which had the same DN. When the entry has been
+     * reached through a renamed subtree, the changes made to the superiors of
+     * the subtree in the input are not relevant.
+     */
+    private boolean isRemoved(final DN sourceDN, final RenamedSubtree renamedSubtree) {
+        if (!removedSubtrees.isEmpty()) {
+            for (DN superior = sourceDN; superior != null; superior = superior.parent()) {
+                final Integer sequence = removedSubtrees.get(superior);
+                if (renamedSubtree != null && superior.size() == renamedSubtree.sourceDN.size()) {
+                    return sequence != null && sequence > renamedSubtree.sequence;
+                } else if (sequence != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSubtreeDelete(final DeleteRequest change) throws DecodeException {
+        return change.getControl(SubtreeDeleteRequestControl.DECODER, new DecodeOptions()) != null;
+    }
+
+    private ExternalEntrySorter newSorter() {
+        return new ExternalEntrySorter(sorterMemoryBudget, tempDirectory);
+    }
+
+    private EntryReader newEntryReader(final EntryReader input, final Pass pass) {
+        return new EntryReader() {
+            /** The next entry, which is only read once requested so that the pass starts with the first read. */
+            private byte[][] nextEntry;
+            private boolean hasReadNextEntry;
+
+            @Override
+            public void close() throws IOException {
+                pass.close();
+                try {
+                    input.close();
+                } finally {
+                    patch.close();
+                }
+            }
+
+            @Override
+            public boolean hasNext() throws IOException {
+                return peekEntry() != null;
+            }
+
+            @Override
+            public Entry readEntry() throws IOException {
+                if (peekEntry() == null) {
+                    throw new NoSuchElementException();
+                }
+                hasReadNextEntry = false;
+                return decodeEntry(nextEntry[1]);
+            }
+
+            private byte[][] peekEntry() throws IOException {
+                if (!hasReadNextEntry) {
+                    nextEntry = pass.next();
+                    hasReadNextEntry = true;
+                }
+                return nextEntry;
+            }
+        };
+    }
+
+    /** Encodes a change record as an LDAP request, which is more compact and faster to decode than LDIF. */
+    private static byte[] encodeChangeRecord(final ChangeRecord change) throws IOException {
+        final ByteStringBuilder builder = new ByteStringBuilder();
+        final LDAPWriter<ASN1Writer> writer = LDAP.getWriter(ASN1.getWriter(builder));
+        if (change instanceof AddRequest) {
+            writer.writeAddRequest(0, (AddRequest) change);
+        } else if (change instanceof DeleteRequest) {
+            writer.writeDeleteRequest(0, (DeleteRequest) change);
+        } else if (change instanceof ModifyRequest) {
+            writer.writeModifyRequest(0, (ModifyRequest) change);
+        } else {
+            writer.writeModifyDNRequest(0, (ModifyDNRequest) change);
+        }
+        return builder.toByteArray();
+    }
+
+    private static ChangeRecord decodeChangeRecord(final byte[] bytes) throws IOException {
+        final ChangeRecord[] change = new ChangeRecord[1];
+        LDAP.getReader(ASN1.getReader(bytes), new DecodeOptions()).readMessage(new AbstractLDAPMessageHandler() {
+            @Override
+            public void addRequest(final int messageID, final AddRequest request) {
+                change[0] = request;
+            }
+
+            @Override
+            public void deleteRequest(final int messageID, final DeleteRequest request) {
+                change[0] = request;
+            }
+
+            @Override
+            public void modifyDNRequest(final int messageID, final ModifyDNRequest request) {
+                change[0] = request;
+            }
+
+            @Override
+            public void modifyRequest(final int messageID, final ModifyRequest request) {
+                change[0] = request;
+            }
+        });
+        return change[0];
+    }
+
+    private static byte[] encodeHeader(final int sequence, final boolean targetsEntry) {
+        return new byte[] { (byte) (sequence >>> 24), (byte) (sequence >>> 16), (byte) (sequence >>> 8),
+            (byte) sequence, (byte) (targetsEntry ? 1 : 0) };
+    }
+}
@@ -27,8 +27,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -60,6 +62,7 @@ import org.forgerock.opendj.ldif.TemplateTag.IfAbsentTag;
 import org.forgerock.opendj.ldif.TemplateTag.IfPresentTag;
 import org.forgerock.opendj.ldif.TemplateTag.LastNameTag;
 import org.forgerock.opendj.ldif.TemplateTag.ListTag;
+import org.forgerock.opendj.ldif.TemplateTag.NameTag;
 import org.forgerock.opendj.ldif.TemplateTag.ParentDNTag;
 import org.forgerock.opendj.ldif.TemplateTag.PresenceTag;
 import org.forgerock.opendj.ldif.TemplateTag.RDNTag;
@@ -134,6 +137,9 @@ final class TemplateFile {
     /** The random number generator for this template file. */
     private final Random random;
 
+    /** The lines of the template file definitions which have been parsed. */
+    private final List<String[]> parsedLines = new ArrayList<>();
+
     /** The next first name that should be used. */
     private String firstName;
 
@@ -422,6 +428,7 @@ final class TemplateFile {
      *             If any other problem occurs while parsing the template lines.
      */
     void parse(final String[] lines, final List<LocalizableMessage> warnings) throws DecodeException {
+        parsedLines.add(lines);
         TemplateData templateData = new TemplateData();
 
         for (int lineNumber = 0; lineNumber < lines.length; lineNumber++) {
@@ -1298,14 +1305,124 @@ final class TemplateFile {
      *             If this reader does not contain any more entries.
      */
     Entry nextEntry() {
+        return nextTemplateEntry().toEntry();
+    }
+
+    /**
+     * Returns the next generated template entry, which may be converted to an
+     * entry by any thread once it has been returned.
+     *
+     * @return The next template entry.
+     * @throws NoSuchElementException
+     *             If this reader does not contain any more entries.
+     */
+    TemplateEntry nextTemplateEntry() {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
-        final Entry entry = nextEntry.toEntry();
+        final TemplateEntry entry = nextEntry;
         nextEntry = null;
         return entry;
     }
 
+    /**
+     * Indicates whether the entries below each branch can be generated
+     * independently of the entries below the other branches. This is the case
+     * when several branches have subordinate entries and when the templates
+     * used below a branch do not share any tag with the templates used below
+     * another branch, since tags such as sequential counters keep state from
+     * one entry to the next. First and last names are generated from a single
+     * sequence and may only be used below one branch.
+     *
+     * @return {@code true} if the entries below each branch can be generated
+     *         independently.
+     */
+    boolean hasIndependentBranches() {
+        int branchesWithSubordinates = 0;
+        for (final Branch branch : branches.values()) {
+            if (!branch.subordinateTemplates.isEmpty()) {
+                branchesWithSubordinates++;
+            }
+        }
+        if (branchesWithSubordinates < 2) {
+            return false;
+        }
+        final Set<TemplateTag> usedTags = Collections.newSetFromMap(new IdentityHashMap<TemplateTag, Boolean>());
+        boolean namesAreUsed = false;
+        for (final Branch branch : branches.values()) {
+            final Set<TemplateTag> branchTags = Collections.newSetFromMap(new IdentityHashMap<TemplateTag, Boolean>());
+            branch.collectSubordinateTags(branchTags);
+            boolean branchUsesNames = false;
+            for (final TemplateTag tag : branchTags) {
+                if (!usedTags.add(tag)) {
+                    return false;
+                }
+                branchUsesNames |= tag instanceof NameTag;
+            }
+            if (branchUsesNames) {
+                if (namesAreUsed) {
+                    return false;
+                }
+                namesAreUsed = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of branches of this template file.
+     *
+     * @return The number of branches.
+     */
+    int getBranchCount() {
+        return branches.size();
+    }
+
+    /**
+     * Returns the entries of the branches, in order, or an empty list if
+     * branch entries are not generated. This must be called before reading
+     * entries.
+     *
+     * @return The entries of the branches.
+     */
+    List<TemplateEntry> getBranchEntries() {
+        final List<TemplateEntry> entries = new ArrayList<>();
+        for (final Branch branch : branches.values()) {
+            if (branch.branchEntry != null) {
+                entries.add(branch.branchEntry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a new template file parsed from the same definitions as this
+     * template file, which only generates the entries below the specified
+     * branch, without the branch entry itself.
+     *
+     * @param branchIndex
+     *            The index of the branch whose subordinate entries should be
+     *            generated.
+     * @param random
+     *            The random number generator for the new template file.
+     * @return The new template file.
+     * @throws IOException
+     *             If a problem occurs when initializing the new template file.
+     * @throws DecodeException
+     *             If a problem occurs while parsing the template file.
+     */
+    TemplateFile newBranchTemplateFile(final int branchIndex, final Random random)
+            throws IOException, DecodeException {
+        final TemplateFile templateFile =
+                new TemplateFile(schema, new HashMap<>(constants), resourcePath, random, false);
+        for (final String[] lines : parsedLines) {
+            templateFile.parse(lines, new ArrayList<LocalizableMessage>());
+        }
+        templateFile.currentBranch = new ArrayList<>(templateFile.branches.values()).get(branchIndex);
+        templateFile.branchesIterator = Collections.emptyIterator();
+        return templateFile;
+    }
+
     /**
      * Represents a branch that should be included in the generated results. A
      * branch may or may not have subordinate entries.
@@ -1332,6 +1449,9 @@ final class TemplateFile {
         /** The set of extra lines that should be included in this branch entry. */
         private final List<TemplateLine> extraLines;
 
+        /** The entry of this branch, which is {@code null} if branch entries are not generated. */
+        private TemplateEntry branchEntry;
+
         /** Entry to return when calling {@code nextEntry} method. */
         private TemplateEntry nextEntry;
 
@@ -1423,7 +1543,16 @@ final class TemplateFile {
                 }
             }
 
-            nextEntry = buildBranchEntry(generateBranches);
+            branchEntry = buildBranchEntry(generateBranches);
+            nextEntry = branchEntry;
+        }
+
+        /** Adds the tags used to generate the entries below this branch to the provided set. */
+        private void collectSubordinateTags(final Set<TemplateTag> tags) {
+            final Set<Template> visitedTemplates = new HashSet<>();
+            for (final Template template : subordinateTemplates) {
+                template.collectTags(tags, visitedTemplates);
+            }
         }
 
         DN getBranchDN() {
@@ -1643,6 +1772,18 @@ final class TemplateFile {
             return name;
         }
 
+        /** Adds the tags used by this template and its subordinate templates to the provided set. */
+        private void collectTags(final Set<TemplateTag> tags, final Set<Template> visitedTemplates) {
+            if (visitedTemplates.add(this)) {
+                for (final TemplateLine line : templateLines) {
+                    tags.addAll(line.getTags());
+                }
+                for (final Template template : subTemplates) {
+                    template.collectTags(tags, visitedTemplates);
+                }
+            }
+        }
+
         List<AttributeType> getRDNAttributes() {
             return rdnAttributes;
         }
@@ -2006,6 +2147,10 @@ final class TemplateFile {
             return attributeType;
         }
 
+        List<TemplateTag> getTags() {
+            return tags;
+        }
+
         /**
          * Generates the content for this template line and places it in the
          * provided template entry.
@@ -253,6 +253,26 @@ public class ByteStringTestCase extends ByteSequenceTestCase {
         Assert.assertEquals(decodedData, data);
     }
 
+    @Test(dataProvider = "invalidBase64Data",
+            expectedExceptions = { LocalizedIllegalArgumentException.class })
+    public void testValueOfBase64BytesThrowsLIAE(final String invalidBase64) throws Exception {
+        final byte[] bytes = ("AAAA" + invalidBase64 + "AAAA").getBytes("US-ASCII");
+        ByteString.valueOfBase64(bytes, 4, invalidBase64.length());
+    }
+
+    @Test(dataProvider = "validBase64Data")
+    public void testValueOfBase64Bytes(final String hexData, final String encodedData) throws Exception {
+        final byte[] data = DatatypeConverter.parseHexBinary(hexData);
+        final byte[] bytes = ("#" + encodedData + "#").getBytes("US-ASCII");
+        final byte[] decodedData = ByteString.valueOfBase64(bytes, 1, encodedData.length()).toByteArray();
+        Assert.assertEquals(decodedData, data);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testValueOfBase64BytesChecksBounds() throws Exception {
+        ByteString.valueOfBase64("AAAA".getBytes("US-ASCII"), 1, 4);
+    }
+
     @Test
     public void testToHex() throws Exception {
         ByteString byteString = new ByteStringBuilder().appendUtf8("org=example").toByteString();
@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.ldap;
@@ -23,9 +23,14 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.spi.LdapPromises;
+import org.forgerock.util.Options;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.PromiseImpl;
 import org.mockito.invocation.InvocationOnMock;
@@ -37,6 +42,7 @@ import static org.fest.assertions.Assertions.*;
 import static org.forgerock.opendj.ldap.Connections.*;
 import static org.forgerock.opendj.ldap.LdapException.*;
 import static org.forgerock.opendj.ldap.TestCaseUtils.*;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
@@ -300,6 +306,33 @@ public class ConnectionPoolTestCase extends SdkTestCase {
         pool.close();
     }
 
+    /**
+     * Verifies that stale connections released after the pool has been closed
+     * are not replaced.
+     *
+     * @throws Exception
+     *             If an unexpected error occurred.
+     */
+    @Test
+    public void testSkipStaleConnectionsOnCloseAfterPoolClosed() throws Exception {
+        // Setup.
+        final Connection connection1 = mock(Connection.class);
+        when(connection1.isValid()).thenReturn(true);
+        final Connection connection2 = mock(Connection.class);
+        when(connection2.isValid()).thenReturn(true);
+
+        final ConnectionFactory factory = mockConnectionFactory(connection1, connection2);
+        final ConnectionPool pool = Connections.newFixedConnectionPool(factory, 2);
+
+        final Connection pc1 = pool.getConnection();
+        pool.close();
+        when(connection1.isValid()).thenReturn(false);
+        pc1.close();
+
+        verify(connection1).close();
+        verify(factory, times(1)).getConnection();
+    }
+
     /**
      * Verifies that stale connections which have become invalid while cached in
      * the internal pool are not returned to the caller. This may occur when an
@@ -536,4 +569,156 @@ public class ConnectionPoolTestCase extends SdkTestCase {
         }
     }
 
+    /**
+     * Verifies that a pool configured with an initial size opens the
+     * connections as soon as it is created.
+     */
+    @Test
+    public void testPrewarmInitialConnections() throws Exception {
+        final Connection pooledConnection1 = mock(Connection.class, "pooledConnection1");
+        final Connection pooledConnection2 = mock(Connection.class, "pooledConnection2");
+        when(pooledConnection1.isValid()).thenReturn(true);
+        when(pooledConnection2.isValid()).thenReturn(true);
+
+        final ConnectionFactory factory = mockConnectionFactory(pooledConnection1, pooledConnection2);
+        final Options options = Options.defaultOptions().set(CONNECTION_POOL_INITIAL_SIZE, 2);
+        final CachedConnectionPool pool = new CachedConnectionPool(factory, 0, 4, 0, null, null, options);
+
+        verify(factory, times(2)).getConnectionAsync();
+        assertThat(pool.currentPoolSize()).isEqualTo(2);
+
+        // Connections are served from the pre-warmed pool.
+        final Connection c1 = pool.getConnection();
+        final Connection c2 = pool.getConnection();
+        verify(factory, times(2)).getConnectionAsync();
+        c1.close();
+        c2.close();
+
+        pool.close();
+        verify(pooledConnection1).close();
+        verify(pooledConnection2).close();
+    }
+
+    /**
+     * Verifies that idle connections are replenished in the background when
+     * the number of idle connections drops below the low-water mark, and that
+     * they are not purged below it.
+     */
+    @Test
+    public void testReplenishIdleConnections() throws Exception {
+        final Connection pooledConnection1 = mock(Connection.class, "pooledConnection1");
+        final Connection pooledConnection2 = mock(Connection.class, "pooledConnection2");
+        final Connection pooledConnection3 = mock(Connection.class, "pooledConnection3");
+        when(pooledConnection1.isValid()).thenReturn(true);
+        when(pooledConnection2.isValid()).thenReturn(true);
+        when(pooledConnection3.isValid()).thenReturn(true);
+
+        final ConnectionFactory factory =
+                mockConnectionFactory(pooledConnection1, pooledConnection2, pooledConnection3);
+        final MockScheduler scheduler = new MockScheduler();
+        final Options options = Options.defaultOptions().set(CONNECTION_POOL_MIN_IDLE_SIZE, 2);
+        final CachedConnectionPool pool =
+                new CachedConnectionPool(factory, 0, 4, 100, TimeUnit.MILLISECONDS, scheduler, options);
+        pool.timeService = mockTimeService(0);
+
+        // The pool is pre-warmed up to the low-water mark.
+        assertThat(pool.currentPoolSize()).isEqualTo(2);
+        assertThat(scheduler.getAllTasks()).hasSize(1);
+
+        // Taking an idle connection schedules replenishment.
+        final Connection c1 = pool.getConnection();
+        assertThat(scheduler.getAllTasks()).hasSize(2);
+        scheduler.runTask(1);
+        verify(factory, times(3)).getConnectionAsync();
+        assertThat(pool.currentPoolSize()).isEqualTo(3);
+        c1.close();
+
+        // Idle connections are not purged below the low-water mark, even if they have all expired.
+        when(pool.timeService.now()).thenReturn(Long.MAX_VALUE);
+        scheduler.runFirstTask();
+        assertThat(pool.currentPoolSize()).isEqualTo(2);
+
+        pool.close();
+        assertThat(scheduler.isScheduled()).isFalse();
+    }
+
+    /**
+     * Verifies that connection attempts exceeding the configured rate are
+     * deferred rather than performed immediately.
+     */
+    @Test
+    public void testConnectionRateLimit() throws Exception {
+        final Connection pooledConnection1 = mock(Connection.class, "pooledConnection1");
+        final Connection pooledConnection2 = mock(Connection.class, "pooledConnection2");
+        final Connection pooledConnection3 = mock(Connection.class, "pooledConnection3");
+        when(pooledConnection1.isValid()).thenReturn(true);
+        when(pooledConnection2.isValid()).thenReturn(true);
+        when(pooledConnection3.isValid()).thenReturn(true);
+
+        final ConnectionFactory factory =
+                mockConnectionFactory(pooledConnection1, pooledConnection2, pooledConnection3);
+        final MockScheduler scheduler = new MockScheduler();
+        final Options options = Options.defaultOptions()
+                                       .set(CONNECTION_POOL_INITIAL_SIZE, 3)
+                                       .set(CONNECTION_POOL_MAX_CONNECT_RATE, 1);
+        final CachedConnectionPool pool = new CachedConnectionPool(factory, 3, 3, 0, null, scheduler, options);
+
+        // Only the first connection attempt is performed immediately.
+        verify(factory, times(1)).getConnectionAsync();
+        assertThat(scheduler.getAllTasks()).hasSize(2);
+        assertThat(pool.currentPoolSize()).isEqualTo(3);
+
+        scheduler.runAllTasks();
+        verify(factory, times(3)).getConnectionAsync();
+        assertThat(scheduler.isScheduled()).isFalse();
+
+        pool.close();
+        verify(pooledConnection1).close();
+        verify(pooledConnection2).close();
+        verify(pooledConnection3).close();
+    }
+
+    @Test
+    public void testEventListener() throws Exception {
+        final Connection pooledConnection = mock(Connection.class, "pooledConnection");
+        when(pooledConnection.isValid()).thenReturn(true);
+        when(pooledConnection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS)));
+        when(pooledConnection.modifyAsync(any(ModifyRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(LdapPromises.<Result, LdapException> newFailedLdapPromise(
+                        newLdapException(ResultCode.NO_SUCH_OBJECT)));
+
+        final ConnectionFactory factory = mockConnectionFactory(pooledConnection);
+        final ConnectionPoolEventListener listener = mock(ConnectionPoolEventListener.class);
+        final Options options = Options.defaultOptions().set(CONNECTION_POOL_EVENT_LISTENER, listener);
+        final CachedConnectionPool pool = new CachedConnectionPool(factory, 1, 1, 0, null, null, options);
+        verify(listener).handleConnectionPoolCreated(pool);
+
+        final Connection connection = pool.getConnection();
+        verify(listener).handleConnectionCreated(anyLong());
+        verify(listener).handleConnectionCheckedOut(anyLong());
+        assertThat(pool.getActiveConnectionCount()).isEqualTo(1);
+        assertThat(pool.getIdleConnectionCount()).isEqualTo(0);
+
+        connection.delete("dc=example,dc=com");
+        verify(listener).handleOperationCompleted(eq(OperationType.DELETE), eq(ResultCode.SUCCESS), anyLong());
+        try {
+            connection.modify(Requests.newModifyRequest("dc=example,dc=com"));
+            Assert.fail("Modify unexpectedly succeeded");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.NO_SUCH_OBJECT);
+        }
+        verify(listener).handleOperationCompleted(eq(OperationType.MODIFY), eq(ResultCode.NO_SUCH_OBJECT),
+                anyLong());
+
+        connection.close();
+        verify(listener).handleConnectionReleased(anyLong());
+        assertThat(pool.getActiveConnectionCount()).isEqualTo(0);
+        assertThat(pool.getIdleConnectionCount()).isEqualTo(1);
+
+        pool.close();
+        verify(pooledConnection).close();
+        verify(listener).handleConnectionDestroyed();
+        verify(listener).handleConnectionPoolClosed(pool);
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.TestCaseUtils.mockConnectionFactory;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.requests.AbandonRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.spi.LdapPromises;
+import org.forgerock.util.Options;
+import org.forgerock.util.promise.PromiseImpl;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class HedgedRequestLoadBalancerTestCase extends SdkTestCase {
+    /** Collects the entries returned by a search. */
+    private static final class EntryCollector implements SearchResultHandler {
+        private final List<SearchResultEntry> entries = new ArrayList<>();
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            entries.add(entry);
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+    }
+
+    /** A search answer which returns one entry and then completes successfully. */
+    private static final Answer<LdapPromise<Result>> RETURN_ONE_ENTRY = new Answer<LdapPromise<Result>>() {
+        @Override
+        public LdapPromise<Result> answer(final InvocationOnMock invocation) throws Throwable {
+            final SearchResultHandler handler = (SearchResultHandler) invocation.getArguments()[2];
+            handler.handleEntry(Responses.newSearchResultEntry("cn=fast,dc=example,dc=com"));
+            return newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS));
+        }
+    };
+
+    private final SearchRequest request =
+            Requests.newSearchRequest("dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)");
+
+    @Test
+    public void testSlowReadIsHedgedAndLoserAbandoned() throws Exception {
+        final Connection fast = mockSearchConnection();
+        when(fast.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class))).thenAnswer(RETURN_ONE_ENTRY);
+
+        final PromiseImpl<Result, LdapException> slowPromise = PromiseImpl.create();
+        final List<SearchResultHandler> slowHandlers = new ArrayList<>();
+        final Connection slow = mockSearchConnection();
+        when(slow.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class))).thenAnswer(new Answer<LdapPromise<Result>>() {
+                    @Override
+                    public LdapPromise<Result> answer(final InvocationOnMock invocation) throws Throwable {
+                        slowHandlers.add((SearchResultHandler) invocation.getArguments()[2]);
+                        return LdapPromises.asPromise(slowPromise);
+                    }
+                });
+
+        final MockScheduler scheduler = new MockScheduler();
+        final ConnectionFactory loadBalancer = newHedgedRequestLoadBalancer(
+                asList(mockConnectionFactory(fast), mockConnectionFactory(slow)), hedgingOptions(scheduler));
+        final Connection connection = loadBalancer.getConnection();
+
+        // The first read is sent to the fast replica and credits the hedging budget.
+        assertThat(connection.searchAsync(request, null, new EntryCollector()).get().getResultCode())
+                .isEqualTo(ResultCode.SUCCESS);
+        scheduler.runAllTasks();
+
+        // The second read is sent to the slow replica and then hedged to the fast replica.
+        final EntryCollector entries = new EntryCollector();
+        final LdapPromise<Result> promise = connection.searchAsync(request, null, entries);
+        assertThat(promise.isDone()).isFalse();
+        scheduler.runAllTasks();
+        assertThat(promise.isDone()).isTrue();
+        assertThat(promise.get().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        assertThat(entries.entries).hasSize(1);
+        verify(slow).abandonAsync(any(AbandonRequest.class));
+        verify(slow).close();
+
+        // Late responses from the slow replica are ignored.
+        slowHandlers.get(0).handleEntry(Responses.newSearchResultEntry("cn=slow,dc=example,dc=com"));
+        slowPromise.handleResult(Responses.newResult(ResultCode.SUCCESS));
+        assertThat(entries.entries).hasSize(1);
+        loadBalancer.close();
+    }
+
+    @Test
+    public void testReadIsNotHedgedWhenBudgetIsExhausted() throws Exception {
+        final Connection slow1 = mockSearchConnection();
+        final Connection slow2 = mockSearchConnection();
+        final PromiseImpl<Result, LdapException> slowPromise = PromiseImpl.create();
+        when(slow1.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class))).thenReturn(LdapPromises.asPromise(slowPromise));
+
+        final MockScheduler scheduler = new MockScheduler();
+        final ConnectionFactory loadBalancer = newHedgedRequestLoadBalancer(
+                asList(mockConnectionFactory(slow1), mockConnectionFactory(slow2)), hedgingOptions(scheduler));
+
+        // No reads have completed yet, so there is no budget for hedging.
+        final LdapPromise<Result> promise = loadBalancer.getConnection().searchAsync(request, null, null);
+        assertThat(scheduler.isScheduled()).isFalse();
+        scheduler.runAllTasks();
+        assertThat(promise.isDone()).isFalse();
+        verify(slow2, never()).searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class));
+
+        slowPromise.handleResult(Responses.newResult(ResultCode.SUCCESS));
+        assertThat(promise.get().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        verify(slow1).close();
+        loadBalancer.close();
+    }
+
+    @Test
+    public void testUpdatesAreNotHedged() throws Exception {
+        final Connection connection1 = mockSearchConnection();
+        final Connection connection2 = mockSearchConnection();
+        when(connection1.deleteAsync(any(DeleteRequest.class),
+                any(IntermediateResponseHandler.class))).thenReturn(
+                        LdapPromises.asPromise(PromiseImpl.<Result, LdapException> create()));
+
+        final MockScheduler scheduler = new MockScheduler();
+        final ConnectionFactory loadBalancer = newHedgedRequestLoadBalancer(
+                asList(mockConnectionFactory(connection1), mockConnectionFactory(connection2)),
+                hedgingOptions(scheduler));
+        loadBalancer.getConnection().deleteAsync(Requests.newDeleteRequest("dc=example,dc=com"));
+        assertThat(scheduler.isScheduled()).isFalse();
+        verifyZeroInteractions(connection2);
+        loadBalancer.close();
+    }
+
+    private static Options hedgingOptions(final MockScheduler scheduler) {
+        return Options.defaultOptions()
+                      .set(LOAD_BALANCER_SCHEDULER, scheduler)
+                      .set(LOAD_BALANCER_EVENT_LISTENER, LoadBalancerEventListener.NO_OP)
+                      .set(HEDGED_REQUEST_MAX_RATIO, 1.0);
+    }
+
+    private static Connection mockSearchConnection() {
+        final Connection connection = mock(Connection.class);
+        when(connection.isValid()).thenReturn(true);
+        when(connection.abandonAsync(any(AbandonRequest.class)))
+                .thenReturn(LdapPromises.<Void> newSuccessfulLdapPromise(null));
+        return connection;
+    }
+}
@@ -18,24 +18,39 @@ package org.forgerock.opendj.ldap;
 import static java.util.Arrays.asList;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.fest.assertions.Fail.fail;
+import static org.forgerock.opendj.ldap.Connections.LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO;
+import static org.forgerock.opendj.ldap.Connections.LOAD_BALANCER_CIRCUIT_BREAKER_MIN_REQUESTS;
 import static org.forgerock.opendj.ldap.Connections.LOAD_BALANCER_EVENT_LISTENER;
+import static org.forgerock.opendj.ldap.Connections.LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS;
 import static org.forgerock.opendj.ldap.Connections.LOAD_BALANCER_MONITORING_INTERVAL;
 import static org.forgerock.opendj.ldap.Connections.LOAD_BALANCER_SCHEDULER;
+import static org.forgerock.opendj.ldap.Connections.newFailoverLoadBalancer;
 import static org.forgerock.opendj.ldap.Connections.newRoundRobinLoadBalancer;
 import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newFailedLdapPromise;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
 import static org.forgerock.util.Options.defaultOptions;
 import static org.forgerock.util.promise.Promises.newExceptionPromise;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.logging.Level;
 
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.spi.LdapPromises;
 import org.forgerock.util.Options;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -176,4 +191,88 @@ public class LoadBalancerTestCase extends SdkTestCase {
             loadBalancer.close();
         }
     }
+
+    @Test
+    public void testCircuitBreakerTripsOnServerFailures() throws Exception {
+        final LdapPromise<Result> busy = newFailedLdapPromise(newLdapException(ResultCode.BUSY));
+        final Connection firstConnection = mock(Connection.class, "firstConnection");
+        when(firstConnection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(busy);
+        final ConnectionFactory first = mock(ConnectionFactory.class, "first");
+        final ConnectionFactory firstAsync = mockAsync(first);
+        when(first.getConnection()).thenReturn(firstConnection);
+
+        final Connection secondConnection = mock(Connection.class, "secondConnection");
+        when(secondConnection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS)));
+        final ConnectionFactory second = mock(ConnectionFactory.class, "second");
+        when(second.getConnection()).thenReturn(secondConnection);
+
+        final LoadBalancerEventListener listener = mock(LoadBalancerEventListener.class);
+        final MockScheduler scheduler = new MockScheduler();
+        final Options options = defaultOptions()
+                                   .set(LOAD_BALANCER_EVENT_LISTENER, listener)
+                                   .set(LOAD_BALANCER_SCHEDULER, scheduler)
+                                   .set(LOAD_BALANCER_CIRCUIT_BREAKER_FAILURE_RATIO, 0.5)
+                                   .set(LOAD_BALANCER_CIRCUIT_BREAKER_MIN_REQUESTS, 2);
+        final ConnectionFactory loadBalancer = newFailoverLoadBalancer(asList(firstAsync, mockAsync(second)), options);
+        try {
+            final Connection connection = loadBalancer.getConnection();
+            deleteAndExpectBusy(connection);
+            verifyNoMoreInteractions(listener);
+            deleteAndExpectBusy(connection);
+            verify(listener).handleConnectionFactoryOffline(eq(firstAsync), any(LdapException.class));
+
+            // Requests are now routed to the second factory.
+            loadBalancer.getConnection().delete("dc=example,dc=com");
+            verify(secondConnection).deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class));
+
+            // The first factory is reachable again, but the probe fails.
+            scheduler.runFirstTask();
+            verify(listener).handleConnectionFactoryOnline(firstAsync);
+            deleteAndExpectBusy(loadBalancer.getConnection());
+            verify(listener, times(2)).handleConnectionFactoryOffline(eq(firstAsync), any(LdapException.class));
+        } finally {
+            loadBalancer.close();
+        }
+    }
+
+    @Test
+    public void testLoadIsShedWhenFactoriesAreSaturated() throws Exception {
+        final PromiseImpl<Result, LdapException> pending = PromiseImpl.create();
+        final Connection connection = mock(Connection.class);
+        when(connection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(LdapPromises.asPromise(pending));
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnection()).thenReturn(connection);
+
+        final Options options = defaultOptions()
+                                   .set(LOAD_BALANCER_EVENT_LISTENER, LoadBalancerEventListener.NO_OP)
+                                   .set(LOAD_BALANCER_SCHEDULER, new MockScheduler())
+                                   .set(LOAD_BALANCER_MAX_IN_FLIGHT_REQUESTS, 1);
+        final ConnectionFactory loadBalancer = newFailoverLoadBalancer(asList(mockAsync(factory)), options);
+        try {
+            loadBalancer.getConnection().deleteAsync(Requests.newDeleteRequest("dc=example,dc=com"));
+            try {
+                loadBalancer.getConnection();
+                fail("Unexpectedly obtained a connection");
+            } catch (final LdapException e) {
+                assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.BUSY);
+            }
+
+            pending.handleResult(Responses.newResult(ResultCode.SUCCESS));
+            assertThat(loadBalancer.getConnection()).isNotNull();
+        } finally {
+            loadBalancer.close();
+        }
+    }
+
+    private static void deleteAndExpectBusy(final Connection connection) {
+        try {
+            connection.delete("dc=example,dc=com");
+            fail("Delete unexpectedly succeeded");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.BUSY);
+        }
+    }
 }
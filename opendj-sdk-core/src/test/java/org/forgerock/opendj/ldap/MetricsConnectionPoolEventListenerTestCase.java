@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.CONNECTION_POOL_EVENT_LISTENER;
+import static org.forgerock.opendj.ldap.TestCaseUtils.mockConnectionFactory;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.util.Options;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+@SuppressWarnings("javadoc")
+public class MetricsConnectionPoolEventListenerTestCase extends SdkTestCase {
+    private MetricRegistry registry;
+
+    @BeforeMethod
+    public void setUp() {
+        registry = new MetricRegistry();
+    }
+
+    @Test
+    public void testPoolsAreReportedUsingTheirPrefix() throws Exception {
+        final CachedConnectionPool pool1 = newPool(new MetricsConnectionPoolEventListener(registry, "pool1"), 1);
+        final CachedConnectionPool pool2 = newPool(new MetricsConnectionPoolEventListener(registry, "pool2"), 2);
+
+        final Connection connection = pool1.getConnection();
+        connection.delete("dc=example,dc=com");
+        assertThat(getGauge("pool1.pool.active")).isEqualTo(1);
+        assertThat(getGauge("pool1.pool.max_size")).isEqualTo(1);
+        assertThat(getGauge("pool2.pool.active")).isEqualTo(0);
+        assertThat(getGauge("pool2.pool.max_size")).isEqualTo(2);
+        assertThat(registry.getTimers().get("pool1.pool.checkout").getCount()).isEqualTo(1);
+        assertThat(registry.getTimers().get("pool1.operations.delete").getCount()).isEqualTo(1);
+        assertThat(registry.getTimers().get("pool2.pool.checkout").getCount()).isEqualTo(0);
+
+        connection.close();
+        assertThat(getGauge("pool1.pool.active")).isEqualTo(0);
+        assertThat(getGauge("pool1.pool.idle")).isEqualTo(1);
+        assertThat(registry.getTimers().get("pool1.pool.lease").getCount()).isEqualTo(1);
+
+        pool1.close();
+        pool2.close();
+        assertThat(getGauge("pool1.pool.size")).isEqualTo(0);
+        assertThat(getGauge("pool1.pool.max_size")).isEqualTo(0);
+        assertThat(registry.getMeters().get("pool1.pool.destroyed").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPoolsSharingAListenerAreReportedInAggregate() throws Exception {
+        final MetricsConnectionPoolEventListener listener = new MetricsConnectionPoolEventListener(registry, "pools");
+        final CachedConnectionPool pool1 = newPool(listener, 1);
+        final CachedConnectionPool pool2 = newPool(listener, 2);
+        assertThat(getGauge("pools.pool.max_size")).isEqualTo(3);
+
+        pool1.getConnection();
+        pool2.getConnection();
+        assertThat(getGauge("pools.pool.active")).isEqualTo(2);
+        assertThat(registry.getTimers().get("pools.pool.checkout").getCount()).isEqualTo(2);
+
+        pool1.close();
+        assertThat(getGauge("pools.pool.max_size")).isEqualTo(2);
+        pool2.close();
+        assertThat(getGauge("pools.pool.max_size")).isEqualTo(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testListenersCannotShareAPrefix() {
+        new MetricsConnectionPoolEventListener(registry, "pool");
+        new MetricsConnectionPoolEventListener(registry, "pool");
+    }
+
+    private static CachedConnectionPool newPool(final ConnectionPoolEventListener listener, final int poolSize) {
+        final Connection pooledConnection = mock(Connection.class);
+        when(pooledConnection.isValid()).thenReturn(true);
+        when(pooledConnection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS)));
+        final Options options = Options.defaultOptions().set(CONNECTION_POOL_EVENT_LISTENER, listener);
+        return new CachedConnectionPool(mockConnectionFactory(pooledConnection), poolSize, poolSize, 0, null, null,
+                options);
+    }
+
+    private int getGauge(final String name) {
+        return (Integer) registry.getGauges().get(name).getValue();
+    }
+}
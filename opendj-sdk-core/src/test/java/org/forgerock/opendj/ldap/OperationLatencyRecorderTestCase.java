@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newFailedLdapPromise;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class OperationLatencyRecorderTestCase extends SdkTestCase {
+
+    @Test
+    public void testIntervalHistogramsAreResetAfterSnapshot() {
+        final OperationLatencyRecorder recorder = new OperationLatencyRecorder(3, 4);
+        recorder.recordLatency(OperationType.SEARCH, ResultCode.SUCCESS, 1000);
+        recorder.recordLatency(OperationType.SEARCH, ResultCode.SUCCESS, 3000);
+        recorder.recordLatency(OperationType.SEARCH, ResultCode.NO_SUCH_OBJECT, 2000);
+        recorder.recordLatency(OperationType.BIND, ResultCode.INVALID_CREDENTIALS, 5000);
+
+        Map<OperationType, Map<ResultCode, Histogram>> histograms = recorder.getIntervalHistograms();
+        assertThat(histograms.keySet()).containsOnly(OperationType.SEARCH, OperationType.BIND);
+        assertThat(histograms.get(OperationType.SEARCH).keySet())
+                .containsOnly(ResultCode.SUCCESS, ResultCode.NO_SUCH_OBJECT);
+        final Histogram searchSuccess = histograms.get(OperationType.SEARCH).get(ResultCode.SUCCESS);
+        assertThat(searchSuccess.getTotalCount()).isEqualTo(2);
+        assertThat(searchSuccess.getMaxValue()).isBetween(2990L, 3010L);
+        assertThat(histograms.get(OperationType.BIND).get(ResultCode.INVALID_CREDENTIALS).getTotalCount())
+                .isEqualTo(1);
+
+        histograms = recorder.getIntervalHistograms();
+        assertThat(histograms.get(OperationType.SEARCH).get(ResultCode.SUCCESS).getTotalCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStripesAreAggregated() throws Exception {
+        final OperationLatencyRecorder recorder = new OperationLatencyRecorder(2, 8);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        recorder.recordLatency(OperationType.MODIFY, ResultCode.SUCCESS, j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        final Histogram histogram =
+                recorder.getIntervalHistograms().get(OperationType.MODIFY).get(ResultCode.SUCCESS);
+        assertThat(histogram.getTotalCount()).isEqualTo(8000);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInstrumentedConnection() throws Exception {
+        final LdapPromise<Result> failure = newFailedLdapPromise(newLdapException(ResultCode.NO_SUCH_OBJECT));
+        final Connection connection = mock(Connection.class);
+        when(connection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS)));
+        when(connection.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class)))
+                .thenReturn(failure, newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS)));
+
+        final OperationLatencyRecorder recorder = new OperationLatencyRecorder();
+        final Connection instrumented = Connections.newInstrumentedConnection(connection, recorder);
+        instrumented.delete("dc=example,dc=com");
+        try {
+            instrumented.readEntry("dc=example,dc=com");
+            fail("Search unexpectedly succeeded");
+        } catch (final EntryNotFoundException e) {
+            // Expected.
+        }
+        final SearchRequest request =
+                Requests.newSearchRequest("dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)");
+        final Result result = instrumented.searchAsync(request, null).getOrThrow();
+        assertThat(result.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+
+        final Map<OperationType, Map<ResultCode, Histogram>> histograms = recorder.getIntervalHistograms();
+        assertThat(histograms.keySet()).containsOnly(OperationType.DELETE, OperationType.SEARCH);
+        assertThat(histograms.get(OperationType.DELETE).get(ResultCode.SUCCESS).getTotalCount()).isEqualTo(1);
+        assertThat(histograms.get(OperationType.SEARCH).get(ResultCode.NO_SUCH_OBJECT).getTotalCount()).isEqualTo(1);
+        assertThat(histograms.get(OperationType.SEARCH).get(ResultCode.SUCCESS).getTotalCount()).isEqualTo(1);
+    }
+}
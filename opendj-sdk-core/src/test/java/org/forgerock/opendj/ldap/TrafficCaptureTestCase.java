@@ -0,0 +1,178 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.*;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newFailedLdapPromise;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.controls.SubtreeDeleteRequestControl;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.Options;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class TrafficCaptureTestCase extends SdkTestCase {
+    private File directory;
+    private File file;
+    private ConnectionFactory factory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("traffic-capture").toFile();
+        file = new File(directory, "capture.log");
+
+        final LdapPromise<Result> success = newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS));
+        final LdapPromise<Result> failure = newFailedLdapPromise(newLdapException(ResultCode.NO_SUCH_OBJECT));
+        final Connection connection = mock(Connection.class);
+        when(connection.addAsync(any(AddRequest.class), any(IntermediateResponseHandler.class))).thenReturn(success);
+        when(connection.modifyAsync(any(ModifyRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(success);
+        when(connection.deleteAsync(any(DeleteRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(failure);
+        when(connection.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class))).thenReturn(success);
+        when(connection.bindAsync(any(BindRequest.class), any(IntermediateResponseHandler.class)))
+                .thenReturn(newSuccessfulLdapPromise(Responses.newBindResult(ResultCode.SUCCESS)));
+        factory = mock(ConnectionFactory.class);
+        when(factory.getConnection()).thenReturn(connection);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testOperationsAreCaptured() throws Exception {
+        final ConnectionFactory capturing = newTrafficCaptureConnectionFactory(factory, file, Options.defaultOptions());
+        final Connection connection = capturing.getConnection();
+        connection.searchAsync(Requests.newSearchRequest("dc=example,dc=com", SearchScope.SINGLE_LEVEL,
+                "(uid=user.1)", "cn", "mail"), null).getOrThrow();
+        connection.modify(Requests.newModifyRequest("uid=user.1,dc=example,dc=com")
+                .addModification(ModificationType.REPLACE, "description", "a \"quoted\" value"));
+        connection.add("dn: uid=user.2,dc=example,dc=com", "objectClass: top", "objectClass: person", "cn: user",
+                "sn: 2");
+        try {
+            connection.delete(Requests.newDeleteRequest("uid=user.3,dc=example,dc=com")
+                    .addControl(SubtreeDeleteRequestControl.newControl(true)));
+        } catch (final LdapException e) {
+            // Expected.
+        }
+        connection.bind("uid=user.1,dc=example,dc=com", "secret".toCharArray());
+        connection.close();
+        // Connections without captured operations are not recorded when closed.
+        capturing.getConnection().close();
+        capturing.close();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines).hasSize(6);
+        assertThat(lines.get(0)).matches("\\d+ 1 SEARCH base=\"dc=example,dc=com\" scope=one "
+                + "filter=\"\\(uid=user.1\\)\" attrs=\"cn,mail\" result=0 etime=\\d+\\.\\d{3}");
+        assertThat(lines.get(1)).contains(" 1 MODIFY dn=\"uid=user.1,dc=example,dc=com\" "
+                + "changes=\"replace: description\\ndescription: a \\\"quoted\\\" value\\n-\" result=0");
+        assertThat(lines.get(2)).contains(" 1 ADD dn=\"uid=user.2,dc=example,dc=com\" "
+                + "entry=\"objectClass: top\\nobjectClass: person\\ncn: user\\nsn: 2\" result=0");
+        assertThat(lines.get(3)).contains(" 1 DELETE controls=\"" + SubtreeDeleteRequestControl.OID
+                + "\" dn=\"uid=user.3,dc=example,dc=com\" result=32");
+        assertThat(lines.get(4)).contains(" 1 BIND dn=\"uid=user.1,dc=example,dc=com\" result=0");
+        assertThat(lines.get(4)).doesNotContain("secret");
+        assertThat(lines.get(5)).matches("\\d+ 1 UNBIND");
+    }
+
+    @Test
+    public void testRequestsMayBeReusedOnceSent() throws Exception {
+        final ConnectionFactory capturing = newTrafficCaptureConnectionFactory(factory, file, Options.defaultOptions());
+        final Connection connection = capturing.getConnection();
+        final AddRequest add = Requests.newAddRequest("dn: uid=user.1,dc=example,dc=com", "objectClass: top");
+        final ModifyRequest modify = Requests.newModifyRequest("uid=user.1,dc=example,dc=com")
+                .addModification(ModificationType.REPLACE, "description", "first");
+        connection.add(add);
+        connection.modify(modify);
+        add.setName("uid=user.2,dc=example,dc=com").addAttribute("description", "second");
+        modify.setName("uid=user.2,dc=example,dc=com").getModifications().clear();
+        capturing.close();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).contains(" ADD dn=\"uid=user.1,dc=example,dc=com\" entry=\"objectClass: top\" ");
+        assertThat(lines.get(1)).contains(" MODIFY dn=\"uid=user.1,dc=example,dc=com\" "
+                + "changes=\"replace: description\\ndescription: first\\n-\" ");
+    }
+
+    @Test
+    public void testCaptureFileIsRotated() throws Exception {
+        final Options options = Options.defaultOptions()
+                                       .set(TRAFFIC_CAPTURE_MAX_FILE_SIZE_IN_BYTES, 1000L)
+                                       .set(TRAFFIC_CAPTURE_MAX_FILES, 3);
+        final ConnectionFactory capturing = newTrafficCaptureConnectionFactory(factory, file, options);
+        final Connection connection = capturing.getConnection();
+        for (int i = 0; i < 100; i++) {
+            connection.modify(Requests.newModifyRequest("uid=user." + i + ",dc=example,dc=com")
+                    .addModification(ModificationType.REPLACE, "description", "value " + i));
+        }
+        capturing.close();
+
+        assertThat(file.length()).isLessThanOrEqualTo(1000L);
+        assertThat(new File(directory, "capture.log.1").length()).isBetween(1L, 1000L);
+        assertThat(new File(directory, "capture.log.2").length()).isBetween(1L, 1000L);
+        assertThat(new File(directory, "capture.log.3")).doesNotExist();
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.get(lines.size() - 1)).contains("uid=user.99,");
+    }
+
+    @Test
+    public void testOperationsAreSampled() throws Exception {
+        final Options options = Options.defaultOptions().set(TRAFFIC_CAPTURE_SAMPLING_RATIO, 0.0);
+        final ConnectionFactory capturing = newTrafficCaptureConnectionFactory(factory, file, options);
+        capturing.getConnection().add("dn: uid=user.0,dc=example,dc=com", "objectClass: top");
+        capturing.close();
+
+        assertThat(file).exists();
+        assertThat(file.length()).isEqualTo(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidSamplingRatioIsRejected() throws Exception {
+        newTrafficCaptureConnectionFactory(factory, file,
+                Options.defaultOptions().set(TRAFFIC_CAPTURE_SAMPLING_RATIO, 2.0));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LinkedHashMapEntry;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class CompressedLDIFTestCase extends AbstractLDIFTestCase {
+    /** An input stream which exposes the number of bytes consumed from it. */
+    private static final class CountingInputStream extends ByteArrayInputStream {
+        private CountingInputStream(final byte[] data) {
+            super(data);
+        }
+
+        private synchronized int getConsumedBytes() {
+            return pos;
+        }
+    }
+
+    @DataProvider
+    public Object[][] sizesAndParallelism() {
+        final int blockSize = GZIPBlockOutputStream.MAX_BLOCK_INPUT;
+        return new Object[][] {
+            { 0, 1 }, { 1, 1 }, { 1, 4 }, { blockSize, 1 }, { blockSize + 1, 4 },
+            { blockSize * 16, 4 }, { blockSize * 16 + 1, 4 }, { 3 * 1024 * 1024 + 7, 1 }, { 3 * 1024 * 1024 + 7, 4 },
+        };
+    }
+
+    @Test(dataProvider = "sizesAndParallelism")
+    public void testCompressedDataIsReadableByGZIP(final int size, final int parallelism) throws Exception {
+        final byte[] data = getData(size);
+        final byte[] compressed = compress(data, parallelism);
+        assertThat(readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)))).isEqualTo(data);
+    }
+
+    @Test(dataProvider = "sizesAndParallelism")
+    public void testDecompressBlocks(final int size, final int parallelism) throws Exception {
+        final byte[] data = getData(size);
+        final byte[] compressed = compress(data, parallelism);
+        final InputStream in = CompressedLDIF.decompress(new ByteArrayInputStream(compressed), parallelism);
+        assertThat(in).isInstanceOf(GZIPBlockInputStream.class);
+        assertThat(readAll(in)).isEqualTo(data);
+    }
+
+    @Test(dataProvider = "sizesAndParallelism")
+    public void testDecompressGZIP(final int size, final int parallelism) throws Exception {
+        final byte[] data = getData(size);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data);
+        }
+        final InputStream in =
+                CompressedLDIF.decompress(new ByteArrayInputStream(compressed.toByteArray()), parallelism);
+        assertThat(readAll(in)).isEqualTo(data);
+    }
+
+    @Test
+    public void testDecompressBlocksFollowedByGZIPMember() throws Exception {
+        final byte[] data1 = getData(GZIPBlockOutputStream.MAX_BLOCK_INPUT * 20);
+        final byte[] data2 = getData(100000);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(compress(data1, 2));
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data2);
+        }
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(data1);
+        expected.write(data2);
+        final InputStream in = CompressedLDIF.decompress(new ByteArrayInputStream(compressed.toByteArray()), 2);
+        assertThat(readAll(in)).isEqualTo(expected.toByteArray());
+    }
+
+    @Test(timeOut = 10000)
+    public void testDecompressGZIPReadsOneChunkAhead() throws Exception {
+        // Random data is not compressible, hence decompressing a chunk consumes at least a chunk of input.
+        final byte[] data = new byte[GZIPBlockInputStream.CHUNK_SIZE * 4];
+        new Random(0).nextBytes(data);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data);
+        }
+        final CountingInputStream source = new CountingInputStream(compressed.toByteArray());
+        final InputStream in = CompressedLDIF.decompress(source, 2);
+        assertThat(in).isInstanceOf(GZIPBlockInputStream.class);
+
+        // The second chunk is decompressed while the reader is still reading the first one.
+        assertThat(in.read()).isEqualTo(data[0] & 0xff);
+        while (source.getConsumedBytes() < GZIPBlockInputStream.CHUNK_SIZE * 2) {
+            Thread.sleep(10);
+        }
+        assertThat(in.available()).isEqualTo(GZIPBlockInputStream.CHUNK_SIZE - 1);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(data, 1, data.length - 1);
+        assertThat(readAll(in)).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    public void testDecompressUncompressedData() throws Exception {
+        final byte[] data = "dn: dc=example,dc=com\n".getBytes("UTF-8");
+        final InputStream in = CompressedLDIF.decompress(new ByteArrayInputStream(data), 2);
+        assertThat(in instanceof GZIPBlockInputStream).isFalse();
+        assertThat(readAll(in)).isEqualTo(data);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDecompressCorruptBlock() throws Exception {
+        final byte[] compressed = compress(getData(100000), 2);
+        // Corrupt the CRC of the first block.
+        final int firstBlockSize = (compressed[16] & 0xff | (compressed[17] & 0xff) << 8) + 1;
+        compressed[firstBlockSize - 8] ^= 1;
+        readAll(CompressedLDIF.decompress(new ByteArrayInputStream(compressed), 2));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDecompressTruncatedBlock() throws Exception {
+        final byte[] compressed = compress(getData(100000), 2);
+        readAll(CompressedLDIF.decompress(new ByteArrayInputStream(compressed, 0, compressed.length / 2), 2));
+    }
+
+    @Test
+    public void testEntriesRoundTrip() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            entries.add(new LinkedHashMapEntry("dn: uid=user." + i + ",ou=people,dc=example,dc=com",
+                    "objectClass: top", "objectClass: person", "uid: user." + i, "sn: Last " + i, "cn: User " + i));
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (LDIFEntryWriter writer = new LDIFEntryWriter(CompressedLDIF.compress(compressed, 4))) {
+            for (final Entry entry : entries) {
+                writer.writeEntry(entry);
+            }
+        }
+
+        final List<Entry> readEntries = new ArrayList<>();
+        try (LDIFEntryReader reader = new LDIFEntryReader(
+                CompressedLDIF.decompress(new ByteArrayInputStream(compressed.toByteArray()), 4))) {
+            while (reader.hasNext()) {
+                readEntries.add(reader.readEntry());
+            }
+        }
+        assertThat(readEntries).isEqualTo(entries);
+    }
+
+    @Test
+    public void testIsCompressedFileName() {
+        assertThat(CompressedLDIF.isCompressed("backup.ldif.gz")).isTrue();
+        assertThat(CompressedLDIF.isCompressed("backup.ldif")).isFalse();
+    }
+
+    /** Returns compressible data, with some random bytes. */
+    private static byte[] getData(final int size) {
+        final Random random = new Random(size);
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i % 1000 < 100 ? random.nextInt() : 'a' + i % 26);
+        }
+        return data;
+    }
+
+    private static byte[] compress(final byte[] data, final int parallelism) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = CompressedLDIF.compress(compressed, parallelism)) {
+            // Write in uneven chunks in order to exercise the buffering.
+            for (int i = 0; i < data.length; i += 12345) {
+                out.write(data, i, Math.min(12345, data.length - i));
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[7919];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                data.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return data.toByteArray();
+    }
+}
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2013-2015 ForgeRock AS.
+ * Copyright 2013-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldif;
 
@@ -340,6 +340,116 @@ public class EntryGeneratorTestCase extends SdkTestCase {
         }
     }
 
+    @DataProvider
+    public Object[][] parallelism() {
+        return new Object[][] { { 2 }, { 4 } };
+    }
+
+    @Test(dataProvider = "parallelism")
+    public void testParallelGenerationIsReproducible(int parallelism) throws Exception {
+        final List<Entry> expectedEntries = generateEntries(1);
+        assertThat(expectedEntries).hasSize(10002);
+        assertThat(generateEntries(parallelism)).isEqualTo(expectedEntries);
+    }
+
+    @Test
+    public void testParallelGenerationStopsWhenClosed() throws Exception {
+        final EntryGenerator generator = new EntryGenerator(getTestFilePath(BASIC_TEMPLATE_PATH))
+                .setResourcePath(resourcePath).setRandomSeed(42).setParallelism(4);
+        assertThat(generator.readEntry().getName().toString()).isEqualTo("dc=example,dc=com");
+        generator.close();
+        assertThat(generator.hasNext()).isFalse();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSetParallelismRejectsZero() throws Exception {
+        new EntryGenerator().setParallelism(0);
+    }
+
+    @Test(dataProvider = "parallelism")
+    public void testParallelGenerationOfIndependentBranches(int parallelism) throws Exception {
+        final List<Entry> sequentialEntries = generateEntries(1, twoBranchesTemplate("<random:alpha:8>"));
+        final List<Entry> entries = generateEntries(parallelism, twoBranchesTemplate("<random:alpha:8>"));
+        assertThat(entries).hasSize(1003);
+        assertThat(getNames(entries)).containsOnly(getNames(sequentialEntries).toArray());
+
+        // The branch entries come first, then the entries below both branches are generated at the same time.
+        assertThat(entries.get(1).getName().toString()).isEqualTo("ou=People,dc=example,dc=com");
+        assertThat(entries.get(2).getName().toString()).isEqualTo("ou=Groups,dc=example,dc=com");
+        final int lastPersonIndex = getNames(entries).indexOf("uid=user.699,ou=People,dc=example,dc=com");
+        final int firstGroupIndex = getNames(entries).indexOf("cn=group.0,ou=Groups,dc=example,dc=com");
+        assertThat(firstGroupIndex).isLessThan(lastPersonIndex);
+
+        // Each branch has its own seed, so the entries do not depend on the number of threads.
+        assertThat(generateEntries(3, twoBranchesTemplate("<random:alpha:8>"))).isEqualTo(entries);
+    }
+
+    @Test(dataProvider = "parallelism")
+    public void testParallelGenerationOfBranchesSharingNames(int parallelism) throws Exception {
+        // First and last names are generated from a single sequence, so the template must be evaluated in order.
+        final List<Entry> entries = generateEntries(parallelism, twoBranchesTemplate("<first>"));
+        assertThat(entries).hasSize(1003);
+        assertThat(entries).isEqualTo(generateEntries(1, twoBranchesTemplate("<first>")));
+    }
+
+    private static String[] twoBranchesTemplate(final String groupDescription) {
+        return new String[] {
+            "branch: dc=example,dc=com",
+            "",
+            "branch: ou=People,dc=example,dc=com",
+            "subordinateTemplate: person:700",
+            "",
+            "branch: ou=Groups,dc=example,dc=com",
+            "subordinateTemplate: group:300",
+            "",
+            "template: person",
+            "rdnAttr: uid",
+            "objectClass: top",
+            "objectClass: inetOrgPerson",
+            "givenName: <first>",
+            "sn: <last>",
+            "cn: {givenName} {sn}",
+            "employeeNumber: <sequential:0>",
+            "uid: user.{employeeNumber}",
+            "description: <random:alpha:8>",
+            "",
+            "template: group",
+            "rdnAttr: cn",
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: group.<sequential:0>",
+            "description: " + groupDescription };
+    }
+
+    private List<Entry> generateEntries(final int parallelism) throws Exception {
+        return generateEntries(new EntryGenerator(getTestFilePath(BASIC_TEMPLATE_PATH)), parallelism);
+    }
+
+    private List<Entry> generateEntries(final int parallelism, final String... templateLines) throws Exception {
+        return generateEntries(new EntryGenerator(templateLines), parallelism);
+    }
+
+    private List<Entry> generateEntries(final EntryGenerator generator, final int parallelism) throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        try {
+            generator.setResourcePath(resourcePath).setRandomSeed(42).setParallelism(parallelism);
+            while (generator.hasNext()) {
+                entries.add(generator.readEntry());
+            }
+        } finally {
+            generator.close();
+        }
+        return entries;
+    }
+
+    private static List<String> getNames(final List<Entry> entries) {
+        final List<String> names = new ArrayList<>();
+        for (final Entry entry : entries) {
+            names.add(entry.getName().toString());
+        }
+        return names;
+    }
+
     /**
      * Test to show that reporting an error about an uninitialized variable when
      * generating templates reports the correct line.
@@ -0,0 +1,110 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldif.LDIF.toNormalizedByteArray;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.forgerock.opendj.ldap.DN;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ExternalEntrySorterTestCase extends AbstractLDIFTestCase {
+    private static final int DISTINCT_DNS = 10;
+
+    @Test
+    public void testSortIsStableAcrossIntermediateMerges() throws Exception {
+        // Every entry is spilled, leaving two full groups of runs and a single run to merge.
+        final int entryCount = 2 * ExternalEntrySorter.MAX_MERGE_FAN_IN + 1;
+        final File tempDirectory = Files.createTempDirectory("ldifsort").toFile();
+        final ExternalEntrySorter sorter = new ExternalEntrySorter(1, tempDirectory);
+        try {
+            for (int i = 0; i < entryCount; i++) {
+                sorter.add(newEntry(i % DISTINCT_DNS, i));
+            }
+            assertThat(tempDirectory.list()).hasSize(entryCount);
+            sorter.sort();
+            assertThat(tempDirectory.list()).hasSize(3);
+
+            byte[][] previous = null;
+            int count = 0;
+            for (byte[][] entry = sorter.next(); entry != null; entry = sorter.next()) {
+                if (previous != null) {
+                    final int cmp = LDIF.DN_ORDER2.compare(previous, entry);
+                    assertThat(cmp).isLessThanOrEqualTo(0);
+                    if (cmp == 0) {
+                        assertThat(entry[1][0]).isGreaterThan(previous[1][0]);
+                    }
+                }
+                previous = entry;
+                count++;
+            }
+            assertThat(count).isEqualTo(entryCount);
+        } finally {
+            sorter.close();
+            assertThat(tempDirectory.list()).isEmpty();
+            tempDirectory.delete();
+        }
+    }
+
+    @Test
+    public void testRunFilesAreDeletedOnceMerged() throws Exception {
+        final File tempDirectory = Files.createTempDirectory("ldifsort").toFile();
+        final ExternalEntrySorter sorter = new ExternalEntrySorter(1, tempDirectory);
+        try {
+            for (int i = 0; i < DISTINCT_DNS; i++) {
+                sorter.add(newEntry(i, i));
+            }
+            sorter.sort();
+            assertThat(tempDirectory.list()).hasSize(DISTINCT_DNS);
+
+            // Each run holds a single entry, so it is exhausted as soon as its entry has been read.
+            for (int i = 0; i < DISTINCT_DNS; i++) {
+                assertThat(sorter.next()).isNotNull();
+                assertThat(tempDirectory.list()).hasSize(DISTINCT_DNS - i - 1);
+            }
+            assertThat(sorter.next()).isNull();
+        } finally {
+            sorter.close();
+            tempDirectory.delete();
+        }
+    }
+
+    @Test
+    public void testRunFilesAreDeletedOnClose() throws Exception {
+        final File tempDirectory = Files.createTempDirectory("ldifsort").toFile();
+        final ExternalEntrySorter sorter = new ExternalEntrySorter(1, tempDirectory);
+        try {
+            for (int i = 0; i < DISTINCT_DNS; i++) {
+                sorter.add(newEntry(i, i));
+            }
+            sorter.sort();
+            sorter.next();
+        } finally {
+            sorter.close();
+            assertThat(tempDirectory.list()).isEmpty();
+            tempDirectory.delete();
+        }
+    }
+
+    private static byte[][] newEntry(final int user, final int sequence) {
+        final DN dn = DN.valueOf("uid=user." + user + ",ou=People,dc=example,dc=com");
+        return new byte[][] { toNormalizedByteArray(dn), { (byte) (sequence / DISTINCT_DNS) } };
+    }
+}
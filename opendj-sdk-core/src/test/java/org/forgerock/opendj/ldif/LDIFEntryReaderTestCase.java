@@ -19,11 +19,16 @@ package org.forgerock.opendj.ldif;
 
 import static org.testng.Assert.assertNotNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -40,6 +45,7 @@ import org.forgerock.opendj.ldap.schema.Schema;
 import org.forgerock.opendj.ldap.schema.SchemaBuilder;
 import org.forgerock.opendj.ldap.schema.SchemaValidationPolicy;
 import org.forgerock.opendj.ldap.schema.SchemaValidationPolicy.Action;
+import org.mockito.InOrder;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -1659,4 +1665,194 @@ public final class LDIFEntryReaderTestCase extends AbstractLDIFTestCase {
     public void testValueOfLDIFEntryDoesntAllowNull() throws Exception {
         LDIFEntryReader.valueOfLDIFEntry((String[]) null);
     }
+
+    /**
+     * Tests that entries parsed in parallel are returned in the order in
+     * which they appear in the LDIF, and that rejected records are reported
+     * in order as well.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test
+    public void testSetParallelismPreservesOrder() throws Exception {
+        final List<String> ldif = new ArrayList<>();
+        ldif.add("version: 1");
+        ldif.add("");
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 50) {
+                ldif.add("dn: baddn" + i);
+            } else {
+                ldif.add("dn: uid=user." + i + ",dc=example,dc=com");
+            }
+            ldif.add("objectClass: top");
+            ldif.add("objectClass: person");
+            ldif.add("uid: user." + i);
+            ldif.add("");
+        }
+
+        final RejectedLDIFListener listener = mock(RejectedLDIFListener.class);
+        final LDIFEntryReader reader = new LDIFEntryReader(ldif)
+                .setRejectedLDIFListener(listener)
+                .setParallelism(4);
+        int i = 0;
+        while (reader.hasNext()) {
+            if (i % 100 == 50) {
+                i++;
+            }
+            assertThat(reader.readEntry().getName().toString()).isEqualTo("uid=user." + i + ",dc=example,dc=com");
+            i++;
+        }
+        reader.close();
+        assertThat(i).isEqualTo(1000);
+
+        final InOrder inOrder = inOrder(listener);
+        for (i = 50; i < 1000; i += 100) {
+            inOrder.verify(listener).handleMalformedRecord(eq(3L + 5 * i), anyListOf(String.class),
+                    any(LocalizableMessage.class));
+        }
+        verifyNoMoreInteractions(listener);
+    }
+
+    /**
+     * Tests that a malformed record parsed in parallel is reported as a
+     * decode exception when the rejected record listener fails fast.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test(expectedExceptions = DecodeException.class)
+    public void testSetParallelismFailFast() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader reader = new LDIFEntryReader(
+                "dn: dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: domainComponent",
+                "dc: example",
+                "",
+                "dn: baddn",
+                "objectClass: top"
+        ).setParallelism(2);
+        // @formatter:on
+        try {
+            assertThat(reader.readEntry().getName().toString()).isEqualTo("dc=example,dc=com");
+            reader.readEntry();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSetParallelismDoesntAllowZero() throws Exception {
+        new LDIFEntryReader("dn: dc=example,dc=com").setParallelism(0);
+    }
+
+    /**
+     * Tests that LDIF read from an input stream, which is tokenized as bytes,
+     * is parsed in the same way as LDIF read from a character stream.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test
+    public void testInputStreamIsParsedLikeReader() throws Exception {
+        // @formatter:off
+        final String ldif =
+            "version: 1\r\n"
+            + "\r\n"
+            + "# A comment\n"
+            + " which is folded\n"
+            + "dn: dc=example,dc=com\r"
+            + "objectClass: top\r"
+            + "objectClass: domainComponent\n"
+            + "dc: example\n"
+            + "description: a description which is\n"
+            + "  folded\n"
+            + "# A comment within the record\n"
+            + "\tmore comment\n"
+            + "\n"
+            + "\n"
+            + "dn:: dWlkPXVzZXIuMCxkYz1leGFtcGxlLGRjPWNvbQ==\n"
+            + "objectClass: top\n"
+            + "objectClass: person\n"
+            + "uid:user.0\n"
+            + "cn:: SsOpcsO0bWU=\n"
+            + "CN: J\u00e9r\u00f4me\n"
+            + "sn:\n"
+            + "userPassword;binary:: AAEC/w==\n"
+            + "\n"
+            + "dn: uid=user.1,dc=example,dc=com\n"
+            + "objectClass: top\n"
+            + "objectClass: person\n"
+            + "uid:  user.1";
+        // @formatter:on
+
+        final LDIFEntryReader bytesReader =
+                new LDIFEntryReader(new ByteArrayInputStream(ldif.getBytes(StandardCharsets.UTF_8)));
+        final LDIFEntryReader charsReader = new LDIFEntryReader(new StringReader(ldif));
+        int count = 0;
+        while (charsReader.hasNext()) {
+            assertThat(bytesReader.hasNext()).isTrue();
+            final Entry expected = charsReader.readEntry();
+            final Entry actual = bytesReader.readEntry();
+            assertThat((Object) actual).isEqualTo(expected);
+            assertThat(actual.toString()).isEqualTo(expected.toString());
+            count++;
+        }
+        assertThat(bytesReader.hasNext()).isFalse();
+        assertThat(count).isEqualTo(3);
+        bytesReader.close();
+        charsReader.close();
+    }
+
+    /**
+     * Tests that rejected records read from an input stream are reported with
+     * their unfolded lines.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test
+    public void testInputStreamRejectedRecordLines() throws Exception {
+        // @formatter:off
+        final String ldif =
+            "dn: dc=example,dc=com\n"
+            + "objectClass: top\n"
+            + "\n"
+            + "# Comment\n"
+            + "dn: uid=user.0,dc=example,dc=com\n"
+            + "description:: not base64\n"
+            + "cn: J\u00e9r\n"
+            + " \u00f4me\n";
+        // @formatter:on
+
+        final RejectedLDIFListener listener = mock(RejectedLDIFListener.class);
+        final LDIFEntryReader reader =
+                new LDIFEntryReader(new ByteArrayInputStream(ldif.getBytes(StandardCharsets.UTF_8)))
+                        .setRejectedLDIFListener(listener);
+        assertThat(reader.readEntry().getName().toString()).isEqualTo("dc=example,dc=com");
+        assertThat(reader.hasNext()).isFalse();
+        verify(listener).handleMalformedRecord(eq(5L),
+                eq(Arrays.asList("dn: uid=user.0,dc=example,dc=com", "description:: not base64",
+                        "cn: J\u00e9r\u00f4me")), any(LocalizableMessage.class));
+        reader.close();
+    }
+
+    /**
+     * Tests that a continuation line at the start of a record read from an
+     * input stream is a fatal error.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test(expectedExceptions = DecodeException.class)
+    public void testInputStreamLeadingContinuationLine() throws Exception {
+        final LDIFEntryReader reader =
+                new LDIFEntryReader(new ByteArrayInputStream(" dn: dc=example,dc=com\n".getBytes("UTF-8")));
+        try {
+            reader.readEntry();
+        } finally {
+            reader.close();
+        }
+    }
 }
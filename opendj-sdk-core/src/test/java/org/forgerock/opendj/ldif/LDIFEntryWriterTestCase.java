@@ -17,18 +17,22 @@
 
 package org.forgerock.opendj.ldif;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.Entry;
 import org.forgerock.opendj.ldap.Filter;
 import org.forgerock.opendj.ldap.LinkedHashMapEntry;
 import org.forgerock.opendj.ldap.Matcher;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -823,4 +827,81 @@ public final class LDIFEntryWriterTestCase extends AbstractLDIFTestCase {
 
         verify(out, times(1)).write(any(byte[].class), anyInt(), anyInt());
     }
+
+    /**
+     * Tests that entries written to an output stream, which are encoded as
+     * bytes, are identical to entries written to a character stream.
+     *
+     * @throws Exception
+     *             If the test failed unexpectedly.
+     */
+    @Test(dataProvider = "wrapColumns")
+    public void testWriteEntryOutputStreamIsEncodedLikeWriter(final int wrapColumn) throws Exception {
+        final List<Entry> entries = getEntriesToEncode();
+
+        final StringWriter expected = new StringWriter();
+        final LDIFEntryWriter charsWriter = new LDIFEntryWriter(expected).setWrapColumn(wrapColumn);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final LDIFEntryWriter bytesWriter = new LDIFEntryWriter(actual).setWrapColumn(wrapColumn);
+        for (final Entry entry : entries) {
+            charsWriter.writeEntry(entry);
+            bytesWriter.writeEntry(entry);
+        }
+        charsWriter.writeComment("A comment with non-ASCII characters: J\u00e9r\u00f4me");
+        bytesWriter.writeComment("A comment with non-ASCII characters: J\u00e9r\u00f4me");
+        charsWriter.close();
+        bytesWriter.close();
+
+        assertThat(actual.toString("UTF-8")).isEqualTo(expected.toString());
+    }
+
+    @DataProvider
+    public Object[][] wrapColumns() {
+        return new Object[][] { { 0 }, { 1 }, { 3 }, { 10 }, { 76 } };
+    }
+
+    /**
+     * Tests that entries encoded in parallel are written in order.
+     *
+     * @throws Exception
+     *             If the test failed unexpectedly.
+     */
+    @Test
+    public void testSetParallelismPreservesOrder() throws Exception {
+        final StringWriter expected = new StringWriter();
+        final LDIFEntryWriter charsWriter = new LDIFEntryWriter(expected).setWrapColumn(20);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final LDIFEntryWriter bytesWriter = new LDIFEntryWriter(actual).setWrapColumn(20).setParallelism(4);
+        for (int i = 0; i < 1000; i++) {
+            final Entry entry = new LinkedHashMapEntry("uid=user." + i + ",dc=example,dc=com")
+                    .addAttribute("objectClass", "top", "person")
+                    .addAttribute("description", "The description of user number " + i);
+            charsWriter.writeEntry(entry);
+            bytesWriter.writeEntry(entry);
+            if (i == 500) {
+                charsWriter.writeComment("Half way");
+                bytesWriter.writeComment("Half way");
+            }
+        }
+        bytesWriter.flush();
+        charsWriter.flush();
+        assertThat(actual.toString("UTF-8")).isEqualTo(expected.toString());
+        charsWriter.close();
+        bytesWriter.close();
+    }
+
+    private List<Entry> getEntriesToEncode() {
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(getStandardEntry());
+        entries.add(new LinkedHashMapEntry("cn=J\u00e9r\u00f4me,dc=example,dc=com")
+                .addAttribute("objectClass", "top", "person")
+                .addAttribute("cn", "J\u00e9r\u00f4me")
+                .addAttribute("description", " leading space", "trailing space ", ":colon", "<less than",
+                        "line\nbreak", "a long value which will need to be wrapped on several lines")
+                .addAttribute("userPassword;binary", ByteString.wrap(new byte[] { 0, 1, 2, (byte) 0xFF }),
+                        ByteString.wrap(new byte[] { 0 }), ByteString.wrap(new byte[] { 0, 1 }))
+                .addAttribute("sn", ""));
+        entries.add(new LinkedHashMapEntry(DN.rootDN()).addAttribute("objectClass", "top"));
+        return entries;
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LDIFIndexTestCase extends AbstractLDIFTestCase {
+    private static final int USER_COUNT = 200;
+
+    private File ldifFile;
+
+    @BeforeClass
+    public void createLDIFFile() throws Exception {
+        ldifFile = File.createTempFile("LDIFIndexTestCase", ".ldif");
+        writeLDIFFile(ldifFile, USER_COUNT);
+    }
+
+    @AfterClass
+    public void deleteLDIFFile() {
+        LDIFIndex.getDefaultIndexFile(ldifFile).delete();
+        ldifFile.delete();
+    }
+
+    @DataProvider
+    public Object[][] searches() {
+        return new Object[][] {
+            { "dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)" },
+            { "uid=user.7,ou=People,dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)" },
+            { "uid=USER.7,ou=people,dc=example,dc=com", SearchScope.BASE_OBJECT, "(uid=user.8)" },
+            { "uid=user.5,ou=People,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)" },
+            { "uid=user.5,ou=People,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=*)" },
+            { "uid=user.5,ou=People,dc=example,dc=com", SearchScope.SUBORDINATES, "(objectClass=*)" },
+            { "ou=People,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)" },
+            { "dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=user.42)" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=USER.42)" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=missing)" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(&(uid=user.42)(sn=Last 42))" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(&(uid=user.42)(sn=Last 43))" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(|(uid=user.1)(uid=user.150)(uid=user.99))" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(|(uid=user.1)(sn=Last 150))" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(sn=Last 150)" },
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(description=wrapped*)" },
+            { "ou=Groups,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=user.42)" },
+            { "ou=missing,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=*)" },
+            { "", SearchScope.WHOLE_SUBTREE, "(uid=user.199)" },
+        };
+    }
+
+    @Test(dataProvider = "searches")
+    public void testSearchMatchesScan(final String baseDN, final SearchScope scope, final String filter)
+            throws Exception {
+        final SearchRequest search = Requests.newSearchRequest(baseDN, scope, filter, "uid", "description");
+        final LDIFIndex index = LDIFIndex.build(ldifFile, Schema.getDefaultSchema(), getIndexedAttributes());
+        assertThat(readAll(index.search(search))).isEqualTo(scan(search));
+    }
+
+    @Test(dataProvider = "searches")
+    public void testSearchUsingSavedIndex(final String baseDN, final SearchScope scope, final String filter)
+            throws Exception {
+        final SearchRequest search = Requests.newSearchRequest(baseDN, scope, filter);
+        final File indexFile = File.createTempFile("LDIFIndexTestCase", ".idx");
+        try {
+            LDIFIndex.build(ldifFile, Schema.getDefaultSchema(), getIndexedAttributes()).save(indexFile);
+            final LDIFIndex index = LDIFIndex.open(ldifFile, indexFile, Schema.getDefaultSchema());
+            assertThat(index.size()).isEqualTo(USER_COUNT + 4);
+            assertThat(readAll(index.search(search))).isEqualTo(scan(search));
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testCandidatesAreOnlyEntriesWhichMayMatch() throws Exception {
+        final LDIFIndex index = LDIFIndex.build(ldifFile, Schema.getDefaultSchema(), getIndexedAttributes());
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "uid=user.7,ou=People,dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)"))).hasSize(1);
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "uid=user.5,ou=People,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)"))).hasSize(1);
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=user.42)"))).hasSize(1);
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(|(uid=user.1)(uid=user.2)(uid=missing))")))
+                .hasSize(2);
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "ou=Groups,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=user.42)"))).isEmpty();
+
+        // Unindexed searches, or searches matching most entries, scan the LDIF file.
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(sn=Last 150)"))).isNull();
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(|(uid=user.1)(sn=Last 150))"))).isNull();
+        assertThat(index.getCandidates(Requests.newSearchRequest(
+                "ou=People,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)"))).isNull();
+    }
+
+    @Test(expectedExceptions = DecodeException.class)
+    public void testOpenInvalidIndex() throws Exception {
+        final File indexFile = File.createTempFile("LDIFIndexTestCase", ".idx");
+        try {
+            try (FileOutputStream out = new FileOutputStream(indexFile)) {
+                out.write("dn: dc=example,dc=com".getBytes(StandardCharsets.UTF_8));
+            }
+            LDIFIndex.open(ldifFile, indexFile, Schema.getDefaultSchema());
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void testOpenOrBuildRebuildsStaleIndex() throws Exception {
+        final File file = File.createTempFile("LDIFIndexTestCase", ".ldif");
+        final File indexFile = LDIFIndex.getDefaultIndexFile(file);
+        try {
+            writeLDIFFile(file, 10);
+            assertThat(LDIFIndex.openOrBuild(file, Schema.getDefaultSchema(), getIndexedAttributes()).size())
+                    .isEqualTo(14);
+            assertThat(indexFile).exists();
+            LDIFIndex.open(file, indexFile, Schema.getDefaultSchema());
+
+            writeLDIFFile(file, 20);
+            try {
+                LDIFIndex.open(file, indexFile, Schema.getDefaultSchema());
+                fail("Expected the index to be stale");
+            } catch (final DecodeException e) {
+                // Expected.
+            }
+            final LDIFIndex index = LDIFIndex.openOrBuild(file, Schema.getDefaultSchema(), getIndexedAttributes());
+            assertThat(index.size()).isEqualTo(24);
+            assertThat(LDIFIndex.open(file, indexFile, Schema.getDefaultSchema()).size()).isEqualTo(24);
+        } finally {
+            indexFile.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testOpenOrBuildRebuildsIndexMissingAttributes() throws Exception {
+        LDIFIndex.getDefaultIndexFile(ldifFile).delete();
+        final List<AttributeDescription> noAttributes = Collections.emptyList();
+        final LDIFIndex index = LDIFIndex.openOrBuild(ldifFile, Schema.getDefaultSchema(), noAttributes);
+        assertThat(index.isIndexed(getIndexedAttributes())).isFalse();
+        assertThat(LDIFIndex.openOrBuild(ldifFile, Schema.getDefaultSchema(), getIndexedAttributes())
+                .isIndexed(getIndexedAttributes())).isTrue();
+        assertThat(LDIFIndex.openOrBuild(ldifFile, Schema.getDefaultSchema(), noAttributes)
+                .isIndexed(getIndexedAttributes())).isTrue();
+    }
+
+    @Test
+    public void testOpenOrBuildSearchesIndexWhichCannotBeSaved() throws Exception {
+        final File directory = Files.createTempDirectory("LDIFIndexTestCase").toFile();
+        final File file = new File(directory, "test.ldif");
+        // The index cannot replace a directory.
+        final File indexFile = LDIFIndex.getDefaultIndexFile(file);
+        try {
+            writeLDIFFile(file, 10);
+            assertThat(indexFile.mkdir()).isTrue();
+            final LDIFIndex index = LDIFIndex.openOrBuild(file, Schema.getDefaultSchema(), getIndexedAttributes());
+            assertThat(index.size()).isEqualTo(14);
+            assertThat(readAll(index.search(Requests.newSearchRequest(
+                    "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=user.4)")))).hasSize(1);
+            assertThat(indexFile.isDirectory()).isTrue();
+            assertThat(directory.list()).containsOnly(file.getName(), indexFile.getName());
+        } finally {
+            indexFile.delete();
+            file.delete();
+            directory.delete();
+        }
+    }
+
+    private static List<AttributeDescription> getIndexedAttributes() {
+        return Collections.singletonList(AttributeDescription.valueOf("uid"));
+    }
+
+    private List<Entry> scan(final SearchRequest search) throws IOException {
+        return readAll(LDIF.search(new LDIFEntryReader(new FileInputStream(ldifFile)), search));
+    }
+
+    private static List<Entry> readAll(final EntryReader reader) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        try {
+            while (reader.hasNext()) {
+                entries.add(reader.readEntry());
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /** Writes entries in an order which differs from DN order, using comments and folded lines. */
+    private static void writeLDIFFile(final File file, final int userCount) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("version: 1\n\n");
+            out.write("dn: dc=example,dc=com\nobjectClass: top\nobjectClass: domain\ndc: example\n\n");
+            out.write("dn: ou=Groups,dc=example,dc=com\nobjectClass: top\nobjectClass: organizationalUnit\n"
+                    + "ou: Groups\n\n");
+            for (int i = userCount - 1; i >= 0; i--) {
+                if (i % 7 == 0) {
+                    out.write("# Comment before user " + i + "\n# continued\n");
+                }
+                out.write("dn: uid=user." + i + ",ou=People,dc=example,dc=com\r\n");
+                out.write("objectClass: top\nobjectClass: person\nobjectClass: inetOrgPerson\n");
+                out.write("uid: user." + i + "\ncn: First " + i + "\nsn: Last " + i + "\n");
+                out.write("description: wrapped description\n  of user " + i + "\n\n");
+                if (i == 5) {
+                    out.write("dn: cn=child,uid=user.5,ou=People,dc=example,dc=com\nobjectClass: top\n"
+                            + "objectClass: device\ncn: child\n\n");
+                }
+                if (i == userCount / 2) {
+                    out.write("dn: ou=People,dc=example,dc=com\nobjectClass: top\nobjectClass: organizationalUnit\n"
+                            + "ou: People\n\n\n");
+                }
+            }
+        }
+    }
+}
@@ -18,9 +18,12 @@ package org.forgerock.opendj.ldif;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -1069,6 +1072,53 @@ public class LDIFTestCase extends AbstractLDIFTestCase {
         target.close();
     }
 
+    /**
+     * Differences between inputs which do not fit within the memory budget and
+     * must be sorted using temporary files.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifDiffExternalSort() throws Exception {
+        final List<Entry> sourceEntries = new ArrayList<>();
+        final List<Entry> targetEntries = new ArrayList<>();
+        for (int i = 299; i >= 0; i--) {
+            if (i % 3 != 0) {
+                sourceEntries.add(new LinkedHashMapEntry("uid=user." + i + ",ou=People,dc=example,dc=com")
+                        .addAttribute("description", "source"));
+            }
+            final int j = (i * 7) % 300;
+            if (j % 5 != 0) {
+                targetEntries.add(new LinkedHashMapEntry("uid=user." + j + ",ou=People,dc=example,dc=com")
+                        .addAttribute("description", j % 2 == 0 ? "target" : "source"));
+            }
+        }
+
+        final File tempDirectory = Files.createTempDirectory("ldifdiff").toFile();
+        try {
+            final ChangeRecordReader expected = LDIF.diff(LDIF.newEntryCollectionReader(sourceEntries),
+                    LDIF.newEntryCollectionReader(targetEntries));
+            // Every entry is spilled, which requires intermediate merges.
+            final ChangeRecordReader actual = LDIF.diff(LDIF.newEntryCollectionReader(sourceEntries),
+                    LDIF.newEntryCollectionReader(targetEntries), 2, tempDirectory);
+            assertThat(tempDirectory.list()).isNotEmpty();
+
+            int count = 0;
+            while (expected.hasNext()) {
+                assertThat(actual.hasNext()).isTrue();
+                assertThat(actual.readChangeRecord().toString()).isEqualTo(expected.readChangeRecord().toString());
+                count++;
+            }
+            assertThat(actual.hasNext()).isFalse();
+            assertThat(count).isGreaterThan(ExternalEntrySorter.MAX_MERGE_FAN_IN);
+            expected.close();
+            actual.close();
+            assertThat(tempDirectory.list()).isEmpty();
+        } finally {
+            tempDirectory.delete();
+        }
+    }
+
     /**
      * Differences between two short LDIF examples.
      *
@@ -1318,6 +1368,508 @@ public class LDIFTestCase extends AbstractLDIFTestCase {
         LDIF.diff(null, null);
     }
 
+    /**
+     * Applying a patch using temporary files, including changes which depend
+     * on preceding subtree deletes and renames, has the same result as
+     * applying it in memory.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifPatchExternalSort() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (final String ou : new String[] { "People", "Groups", "Old" }) {
+            entries.add(new LinkedHashMapEntry("ou=" + ou + ",dc=example,dc=com")
+                    .addAttribute("objectClass", "organizationalUnit").addAttribute("ou", ou));
+            for (int i = 19; i >= 0; i--) {
+                entries.add(new LinkedHashMapEntry("cn=" + ou + "." + i + ",ou=" + ou + ",dc=example,dc=com")
+                        .addAttribute("objectClass", "person").addAttribute("cn", ou + "." + i)
+                        .addAttribute("sn", ou));
+            }
+        }
+
+        // @formatter:off
+        final String[] changes = {
+            "dn: cn=People.3,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "replace: sn",
+            "sn: modified",
+            "",
+            "dn: cn=People.100,ou=People,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: person",
+            "cn: People.100",
+            "sn: added",
+            "",
+            "dn: cn=People.5,ou=People,dc=example,dc=com",
+            "changetype: delete",
+            "",
+            "dn: ou=Old,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: ou=New",
+            "deleteoldrdn: 1",
+            "",
+            "dn: cn=Old.1,ou=New,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: modified after rename",
+            "",
+            "dn: cn=Old.2,ou=Old,dc=example,dc=com",
+            "changetype: delete",
+            "",
+            "dn: ou=Groups,dc=example,dc=com",
+            "control: 1.2.840.113556.1.4.805 true",
+            "changetype: delete",
+            "",
+            "dn: cn=Groups.100,ou=Groups,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: person",
+            "cn: Groups.100",
+            "sn: added after subtree delete",
+            "",
+            "dn: cn=People.100,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: modified after add",
+            "",
+            "dn: cn=People.7,ou=People,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: cn=People.8",
+            "deleteoldrdn: 1",
+            "",
+            "dn: cn=People.10,ou=People,dc=example,dc=com",
+            "changetype: moddn",
+            "newrdn: cn=People.10",
+            "deleteoldrdn: 0",
+            "newsuperior: ou=New,dc=example,dc=com"
+        };
+        // @formatter:on
+
+        final File tempDirectory = Files.createTempDirectory("ldifmodify").toFile();
+        try {
+            final EntryReader expected = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                    new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.OVERWRITE);
+            final EntryReader actual = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                    new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.OVERWRITE, 5, tempDirectory);
+            assertThat(tempDirectory.list()).isNotEmpty();
+
+            int count = 0;
+            while (expected.hasNext()) {
+                assertThat(actual.hasNext()).isTrue();
+                assertThat(actual.readEntry().toString()).isEqualTo(expected.readEntry().toString());
+                count++;
+            }
+            assertThat(actual.hasNext()).isFalse();
+            // Groups were deleted, two entries added, one deleted and one renamed onto an existing entry.
+            assertThat(count).isEqualTo(entries.size() - 21 + 2 - 1 - 1);
+            expected.close();
+            actual.close();
+            assertThat(tempDirectory.list()).isEmpty();
+        } finally {
+            tempDirectory.delete();
+        }
+    }
+
+    /**
+     * Change records spilled to temporary files keep values containing line
+     * separators, values read from folded lines and long values.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifPatchExternalSortPreservesValues() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(new LinkedHashMapEntry("cn=user." + i + ",dc=example,dc=com")
+                    .addAttribute("objectClass", "person").addAttribute("cn", "user." + i).addAttribute("sn", "user"));
+        }
+        final StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longValue.append("long value ");
+        }
+
+        // @formatter:off
+        final String[] changes = {
+            "dn: cn=user.3,dc=example,dc=com",
+            "changetype: modify",
+            "replace: description",
+            "description:: bGluZSAxDQpsaW5lIDIg",
+            "-",
+            "replace: sn",
+            "sn: folded",
+            "  value",
+            "",
+            "dn: cn=user.10,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: person",
+            "cn: user.10",
+            "sn:: CnN0YXJ0cyB3aXRoIGEgbGluZSBmZWVk",
+            "description: " + longValue
+        };
+        // @formatter:on
+
+        final File tempDirectory = Files.createTempDirectory("ldifmodify").toFile();
+        try {
+            final EntryReader expected = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                    new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.OVERWRITE);
+            final EntryReader actual = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                    new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.OVERWRITE, 5, tempDirectory);
+            assertThat(tempDirectory.list()).isNotEmpty();
+
+            Entry modified = null;
+            Entry added = null;
+            while (expected.hasNext()) {
+                assertThat(actual.hasNext()).isTrue();
+                final Entry entry = actual.readEntry();
+                assertThat(entry).isEqualTo(expected.readEntry());
+                if (entry.getName().equals(DN.valueOf("cn=user.3,dc=example,dc=com"))) {
+                    modified = entry;
+                } else if (entry.getName().equals(DN.valueOf("cn=user.10,dc=example,dc=com"))) {
+                    added = entry;
+                }
+            }
+            assertThat(actual.hasNext()).isFalse();
+            expected.close();
+            actual.close();
+
+            assertThat(modified.parseAttribute("description").asString()).isEqualTo("line 1\r\nline 2 ");
+            assertThat(modified.parseAttribute("sn").asString()).isEqualTo("folded value");
+            assertThat(added.parseAttribute("sn").asString()).isEqualTo("\nstarts with a line feed");
+            assertThat(added.parseAttribute("description").asString()).isEqualTo(longValue.toString());
+        } finally {
+            tempDirectory.delete();
+        }
+    }
+
+    /**
+     * Entries which are already sorted by DN are patched as they are read,
+     * without being sorted first.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifPatchSortedInput() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(new LinkedHashMapEntry("dc=example,dc=com").addAttribute("dc", "example"));
+        for (int i = 0; i < 10; i++) {
+            entries.add(new LinkedHashMapEntry("cn=user." + i + ",dc=example,dc=com").addAttribute("cn", "user." + i));
+        }
+        // @formatter:off
+        final String[] changes = {
+            "dn: cn=user.5,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: modified",
+            "",
+            "dn: cn=user.0,dc=example,dc=com",
+            "changetype: delete"
+        };
+        // @formatter:on
+
+        final CountingEntryReader input = new CountingEntryReader(entries);
+        final EntryReader expected = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.FAIL_FAST);
+        final EntryReader actual = LDIF.patch(input, new LDIFChangeRecordReader(changes),
+                RejectedChangeRecordListener.FAIL_FAST, Long.MAX_VALUE, null, true);
+        try {
+            assertThat(actual.readEntry()).isEqualTo(expected.readEntry());
+            assertThat(input.readCount).isLessThan(entries.size());
+            while (expected.hasNext()) {
+                assertThat(actual.hasNext()).isTrue();
+                assertThat(actual.readEntry()).isEqualTo(expected.readEntry());
+            }
+            assertThat(actual.hasNext()).isFalse();
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    /**
+     * Patching entries which are not sorted by DN fails when they are declared
+     * as sorted.
+     *
+     * @throws Exception
+     */
+    @Test(expectedExceptions = DecodeException.class)
+    public final void testLdifPatchSortedInputOutOfOrder() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: cn=user.1,dc=example,dc=com",
+            "cn: user.1",
+            "",
+            "dn: dc=example,dc=com",
+            "dc: example"
+        );
+        // @formatter:on
+        final EntryReader reader = LDIF.patch(input, new LDIFChangeRecordReader(new String[0]),
+                RejectedChangeRecordListener.FAIL_FAST, Long.MAX_VALUE, null, true);
+        try {
+            while (reader.hasNext()) {
+                reader.readEntry();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Changes targeting renamed subtrees, or renaming and deleting subtrees
+     * containing renamed entries, are applied during a single pass.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifPatchRenamesInSinglePass() throws Exception {
+        final int ouCount = 300;
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(new LinkedHashMapEntry("dc=example,dc=com").addAttribute("dc", "example"));
+        for (int i = 0; i < ouCount; i++) {
+            final String ouDN = "ou=ou" + i + ",dc=example,dc=com";
+            entries.add(new LinkedHashMapEntry(ouDN).addAttribute("ou", "ou" + i));
+            for (int j = 0; j < 2; j++) {
+                entries.add(new LinkedHashMapEntry("cn=u" + j + "," + ouDN).addAttribute("cn", "u" + j));
+            }
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry e1, final Entry e2) {
+                return e1.getName().compareTo(e2.getName());
+            }
+        });
+
+        final List<String> changes = new ArrayList<>();
+        for (int i = 0; i < ouCount; i++) {
+            final String suffix = ",dc=example,dc=com";
+            final String renamedDN = "ou=renamed" + i + suffix;
+            changes.addAll(Arrays.asList("dn: ou=ou" + i + suffix, "changetype: modrdn", "newrdn: ou=renamed" + i,
+                    "deleteoldrdn: 1", ""));
+            switch (i % 3) {
+            case 0:
+                // Modify the renamed entries, and rename them again.
+                changes.addAll(Arrays.asList("dn: cn=u0," + renamedDN, "changetype: modify", "add: description",
+                        "description: renamed", "", "dn: " + renamedDN, "changetype: modrdn",
+                        "newrdn: ou=final" + i, "deleteoldrdn: 0", "", "dn: cn=u1,ou=final" + i + suffix,
+                        "changetype: modify", "add: description", "description: renamed twice", ""));
+                break;
+            case 1:
+                // Move a renamed entry to the next subtree, which is then deleted.
+                changes.addAll(Arrays.asList("dn: cn=u1," + renamedDN, "changetype: moddn", "newrdn: cn=moved" + i,
+                        "deleteoldrdn: 1", "newsuperior: ou=ou" + (i + 1) + suffix, ""));
+                break;
+            default:
+                changes.addAll(Arrays.asList("dn: cn=moved" + (i - 1) + "," + renamedDN, "changetype: modify",
+                        "add: description", "description: moved", "", "dn: " + renamedDN,
+                        "control: 1.2.840.113556.1.4.805 true", "changetype: delete", ""));
+                break;
+            }
+        }
+        final String[] patch = changes.toArray(new String[changes.size()]);
+
+        final CountingEntryReader input = new CountingEntryReader(entries);
+        final EntryReader expected = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                new LDIFChangeRecordReader(patch), RejectedChangeRecordListener.FAIL_FAST);
+        final EntryReader actual = LDIF.patch(input, new LDIFChangeRecordReader(patch),
+                RejectedChangeRecordListener.FAIL_FAST, Long.MAX_VALUE, null, true);
+        try {
+            // Only the first entry has been read, so no pass has been materialized.
+            assertThat(input.readCount).isEqualTo(1);
+            int count = 0;
+            while (expected.hasNext()) {
+                assertThat(actual.hasNext()).isTrue();
+                assertThat(actual.readEntry().toString()).isEqualTo(expected.readEntry().toString());
+                count++;
+            }
+            assertThat(actual.hasNext()).isFalse();
+            // A third of the subtrees have been deleted, together with the entries moved into them.
+            assertThat(count).isEqualTo(entries.size() - ouCount / 3 * 4);
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    /**
+     * Subtree deletes and modify DN operations only apply to the entries which
+     * belong to their subtree when they are applied.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifPatchSubtreeChangesAfterRenames() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(new LinkedHashMapEntry("dc=example,dc=com").addAttribute("dc", "example"));
+        for (final String ou : Arrays.asList("a", "b", "c", "h")) {
+            entries.add(new LinkedHashMapEntry("ou=" + ou + ",dc=example,dc=com").addAttribute("ou", ou));
+            entries.add(new LinkedHashMapEntry("cn=u1,ou=" + ou + ",dc=example,dc=com").addAttribute("cn", "u1"));
+            entries.add(new LinkedHashMapEntry("cn=u2,ou=" + ou + ",dc=example,dc=com").addAttribute("cn", "u2"));
+        }
+        // @formatter:off
+        final String[] changes = {
+            // Moved out of a subtree before it is deleted.
+            "dn: cn=u1,ou=a,dc=example,dc=com",
+            "changetype: moddn",
+            "newrdn: cn=a1",
+            "deleteoldrdn: 0",
+            "newsuperior: ou=c,dc=example,dc=com",
+            "",
+            "dn: ou=a,dc=example,dc=com",
+            "control: 1.2.840.113556.1.4.805 true",
+            "changetype: delete",
+            "",
+            // Moved into a subtree before it is deleted.
+            "dn: ou=h,dc=example,dc=com",
+            "changetype: moddn",
+            "newrdn: ou=i",
+            "deleteoldrdn: 0",
+            "newsuperior: ou=b,dc=example,dc=com",
+            "",
+            "dn: ou=b,dc=example,dc=com",
+            "control: 1.2.840.113556.1.4.805 true",
+            "changetype: delete",
+            "",
+            // Renamed twice, with an entry added in between.
+            "dn: ou=c,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: ou=d",
+            "deleteoldrdn: 1",
+            "",
+            "dn: cn=new,ou=d,dc=example,dc=com",
+            "changetype: add",
+            "cn: new",
+            "",
+            "dn: ou=d,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: ou=e",
+            "deleteoldrdn: 1",
+            "",
+            "dn: cn=new,ou=e,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: renamed after it was added",
+            "",
+            "dn: cn=a1,ou=e,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: moved then renamed"
+        };
+        // @formatter:on
+
+        final CountingEntryReader input = new CountingEntryReader(entries);
+        final EntryReader expected = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.FAIL_FAST);
+        final EntryReader actual = LDIF.patch(input, new LDIFChangeRecordReader(changes),
+                RejectedChangeRecordListener.FAIL_FAST, Long.MAX_VALUE, null, true);
+        try {
+            assertThat(input.readCount).isEqualTo(1);
+            final List<String> expectedEntries = new ArrayList<>();
+            while (expected.hasNext()) {
+                expectedEntries.add(expected.readEntry().toString());
+            }
+            final List<String> actualEntries = new ArrayList<>();
+            while (actual.hasNext()) {
+                actualEntries.add(actual.readEntry().toString());
+            }
+            assertThat(actualEntries).isEqualTo(expectedEntries);
+            // The root entry, and the renamed subtree with the entries moved and added into it.
+            assertThat(actualEntries).hasSize(6);
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    /**
+     * An entry added to a renamed subtree where an entry had been moved away
+     * before the rename is not mistaken for the moved entry.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifPatchAddToRenamedSubtreeAfterMoveOut() throws Exception {
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(new LinkedHashMapEntry("dc=example,dc=com").addAttribute("dc", "example"));
+        entries.add(new LinkedHashMapEntry("ou=a,dc=example,dc=com").addAttribute("ou", "a"));
+        entries.add(new LinkedHashMapEntry("cn=u1,ou=a,dc=example,dc=com").addAttribute("cn", "u1"));
+        // @formatter:off
+        final String[] changes = {
+            "dn: cn=u1,ou=a,dc=example,dc=com",
+            "changetype: moddn",
+            "newrdn: cn=u1",
+            "deleteoldrdn: 0",
+            "newsuperior: dc=example,dc=com",
+            "",
+            "dn: ou=a,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: ou=b",
+            "deleteoldrdn: 1",
+            "",
+            "dn: cn=u1,ou=b,dc=example,dc=com",
+            "changetype: add",
+            "cn: u1",
+            "description: added after the move"
+        };
+        // @formatter:on
+
+        final EntryReader expected = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.FAIL_FAST);
+        final EntryReader actual = LDIF.patch(LDIF.newEntryCollectionReader(entries),
+                new LDIFChangeRecordReader(changes), RejectedChangeRecordListener.FAIL_FAST,
+                Long.MAX_VALUE, null, true);
+        try {
+            final List<String> expectedEntries = new ArrayList<>();
+            while (expected.hasNext()) {
+                expectedEntries.add(expected.readEntry().toString());
+            }
+            final List<String> actualEntries = new ArrayList<>();
+            while (actual.hasNext()) {
+                actualEntries.add(actual.readEntry().toString());
+            }
+            assertThat(actualEntries).isEqualTo(expectedEntries);
+            assertThat(actualEntries).hasSize(4);
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    /**
+     * A change which cannot be applied when patching using temporary files is
+     * reported to the listener.
+     *
+     * @throws Exception
+     */
+    @Test(expectedExceptions = DecodeException.class)
+    public final void testLdifPatchExternalSortRejectedChange() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: ou=Old,dc=example,dc=com",
+            "objectClass: organizationalUnit",
+            "ou: Old"
+        );
+        final LDIFChangeRecordReader patch = new LDIFChangeRecordReader(
+            "dn: ou=Old,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: ou=New",
+            "deleteoldrdn: 1",
+            "",
+            "dn: ou=Old,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: the entry has been renamed"
+        );
+        // @formatter:on
+        final EntryReader reader =
+                LDIF.patch(input, patch, RejectedChangeRecordListener.FAIL_FAST, Long.MAX_VALUE, null);
+        try {
+            while (reader.hasNext()) {
+                reader.readEntry();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Create a patch without any differences with the original.
      *
@@ -2820,4 +3372,30 @@ public class LDIFTestCase extends AbstractLDIFTestCase {
     public void testMakeEntriesNull() throws Exception {
         LDIF.makeEntries((String[]) null);
     }
+
+    /** Reads entries from a collection, counting the entries which have been read. */
+    private static final class CountingEntryReader implements EntryReader {
+        private final Iterator<Entry> iterator;
+        private int readCount;
+
+        private CountingEntryReader(final Collection<Entry> entries) {
+            this.iterator = entries.iterator();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do.
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entry readEntry() {
+            readCount++;
+            return iterator.next();
+        }
+    }
 }
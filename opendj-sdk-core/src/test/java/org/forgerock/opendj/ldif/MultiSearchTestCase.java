@@ -0,0 +1,141 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LinkedHashMapEntry;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class MultiSearchTestCase extends AbstractLDIFTestCase {
+    private final List<Entry> entries = new ArrayList<>();
+
+    @BeforeClass
+    public void generateEntries() throws Exception {
+        try (EntryGenerator generator = new EntryGenerator().setConstant("numusers", 1000)) {
+            while (generator.hasNext()) {
+                entries.add(generator.readEntry());
+            }
+        }
+    }
+
+    @DataProvider
+    public Object[][] parallelism() {
+        return new Object[][] { { 1 }, { 4 } };
+    }
+
+    @Test(dataProvider = "parallelism")
+    public void testSearchAllMatchesIndividualSearches(final int parallelism) throws Exception {
+        final List<SearchRequest> searches = new ArrayList<>();
+        searches.add(Requests.newSearchRequest("dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=user.1*)"));
+        searches.add(Requests.newSearchRequest("dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=*)",
+                "uid", "sn"));
+        searches.add(Requests.newSearchRequest("ou=People,dc=example,dc=com", SearchScope.SINGLE_LEVEL,
+                "(&(uid=user.9*)(sn=*))", "*").setTypesOnly(true));
+        searches.add(Requests.newSearchRequest("dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)"));
+        searches.add(Requests.newSearchRequest("dc=example,dc=com", SearchScope.SUBORDINATES, "(uid=user.5*)")
+                .setSizeLimit(200));
+        searches.add(Requests.newSearchRequest("dc=example,dc=org", SearchScope.WHOLE_SUBTREE, "(objectClass=*)"));
+
+        final Map<SearchRequest, LDIFEntryWriter> writers = new LinkedHashMap<>();
+        final List<List<String>> results = new ArrayList<>();
+        for (final SearchRequest search : searches) {
+            final List<String> ldifLines = new ArrayList<>();
+            writers.put(search, new LDIFEntryWriter(ldifLines));
+            results.add(ldifLines);
+        }
+        LDIF.searchAll(LDIF.newEntryCollectionReader(entries), writers, Schema.getDefaultSchema(), parallelism);
+
+        for (int i = 0; i < searches.size(); i++) {
+            final List<String> expected = new ArrayList<>();
+            LDIF.copyTo(LDIF.search(LDIF.newEntryCollectionReader(entries), searches.get(i)),
+                    new LDIFEntryWriter(expected));
+            assertThat(results.get(i)).isEqualTo(expected);
+        }
+        assertThat(results.get(0)).isNotEmpty();
+        assertThat(results.get(5)).isEmpty();
+    }
+
+    @Test(dataProvider = "parallelism", timeOut = 10000)
+    public void testSearchAllStopsReadingWhenSizeLimitsAreReached(final int parallelism) throws Exception {
+        final Iterator<Entry> endlessEntries = new Iterator<Entry>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Entry next() {
+                return new LinkedHashMapEntry("dn: uid=user." + i++ + ",dc=example,dc=com", "objectClass: top");
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final List<String> ldifLines1 = new ArrayList<>();
+        final List<String> ldifLines2 = new ArrayList<>();
+        final Map<SearchRequest, LDIFEntryWriter> writers = new LinkedHashMap<>();
+        writers.put(Requests.newSearchRequest("dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=*)")
+                .setSizeLimit(1000), new LDIFEntryWriter(ldifLines1));
+        writers.put(Requests.newSearchRequest("dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)")
+                .setSizeLimit(10), new LDIFEntryWriter(ldifLines2));
+        LDIF.searchAll(LDIF.newEntryIteratorReader(endlessEntries), writers, Schema.getDefaultSchema(), parallelism);
+
+        assertThat(countEntries(ldifLines1)).isEqualTo(1000);
+        assertThat(countEntries(ldifLines2)).isEqualTo(10);
+        assertThat(ldifLines2.get(0)).isEqualTo("dn: uid=user.0,dc=example,dc=com");
+    }
+
+    @Test
+    public void testSearchAllWithoutSearches() throws IOException {
+        LDIF.searchAll(LDIF.newEntryCollectionReader(entries), new LinkedHashMap<SearchRequest, EntryWriter>());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSearchAllRejectsZeroParallelism() throws IOException {
+        LDIF.searchAll(LDIF.newEntryCollectionReader(entries), new LinkedHashMap<SearchRequest, EntryWriter>(),
+                Schema.getDefaultSchema(), 0);
+    }
+
+    private static int countEntries(final List<String> ldifLines) {
+        int count = 0;
+        for (final String line : ldifLines) {
+            if (line.startsWith("dn: ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.LinkedHashMapEntry;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.forgerock.opendj.ldap.spi.LdapPromises;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PipelinedConnectionEntryWriterTestCase extends AbstractLDIFTestCase {
+    @Test
+    public void testLoadGeneratedEntries() throws Exception {
+        final MemoryBackend backend = new MemoryBackend(new LDIFEntryReader("dn: dc=com", "objectClass: top",
+                "objectClass: domain", "dc: com"));
+        final List<Entry> entries = new ArrayList<>();
+        try (EntryGenerator generator = new EntryGenerator().setConstant("numusers", 100)) {
+            while (generator.hasNext()) {
+                entries.add(generator.readEntry());
+            }
+        }
+
+        try (PipelinedConnectionEntryWriter writer = new PipelinedConnectionEntryWriter(
+                Connections.newInternalConnection(backend), Connections.newInternalConnection(backend))) {
+            LDIF.copyTo(LDIF.newEntryCollectionReader(entries), writer);
+            writer.flush();
+            assertThat(writer.getEntriesWritten()).isEqualTo(entries.size());
+            assertThat(writer.getRetries()).isEqualTo(0);
+        }
+        assertThat(backend.size()).isEqualTo(entries.size() + 1);
+        for (final Entry entry : entries) {
+            assertThat(backend.get(entry.getName())).isEqualTo(entry);
+        }
+    }
+
+    @Test
+    public void testChildIsSentAfterParentCompletes() throws Exception {
+        final List<LdapPromiseImpl<Result>> promises = new ArrayList<>();
+        final Connection connection = newConnection(promises);
+        final PipelinedConnectionEntryWriter writer = new PipelinedConnectionEntryWriter(connection);
+        writer.writeEntry(new LinkedHashMapEntry("dc=com"));
+        writer.writeEntry(new LinkedHashMapEntry("dc=org"));
+        assertThat(promises).hasSize(2);
+
+        final Thread childWriter = writeInBackground(writer, new LinkedHashMapEntry("dc=example,dc=com"));
+        childWriter.join(100);
+        assertThat(childWriter.isAlive()).isTrue();
+        assertThat(promises).hasSize(2);
+
+        promises.get(1).handleResult(Responses.newResult(ResultCode.SUCCESS));
+        childWriter.join(100);
+        assertThat(childWriter.isAlive()).isTrue();
+
+        promises.get(0).handleResult(Responses.newResult(ResultCode.SUCCESS));
+        childWriter.join(10000);
+        assertThat(childWriter.isAlive()).isFalse();
+        assertThat(promises).hasSize(3);
+        promises.get(2).handleResult(Responses.newResult(ResultCode.SUCCESS));
+        writer.flush();
+        assertThat(writer.getEntriesWritten()).isEqualTo(3);
+    }
+
+    @Test
+    public void testWindowLimitsOutstandingRequests() throws Exception {
+        final List<LdapPromiseImpl<Result>> promises = new ArrayList<>();
+        final PipelinedConnectionEntryWriter writer =
+                new PipelinedConnectionEntryWriter(newConnection(promises)).setWindowSize(2);
+        writer.writeEntry(new LinkedHashMapEntry("dc=com"));
+        writer.writeEntry(new LinkedHashMapEntry("dc=org"));
+
+        final Thread thirdWriter = writeInBackground(writer, new LinkedHashMapEntry("dc=net"));
+        thirdWriter.join(100);
+        assertThat(thirdWriter.isAlive()).isTrue();
+        assertThat(promises).hasSize(2);
+
+        promises.get(0).handleResult(Responses.newResult(ResultCode.SUCCESS));
+        thirdWriter.join(10000);
+        assertThat(thirdWriter.isAlive()).isFalse();
+        assertThat(promises).hasSize(3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBusyRequestsAreRetried() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(connection.addAsync(any(AddRequest.class)))
+                .thenReturn(failed(ResultCode.BUSY),
+                            failed(ResultCode.BUSY),
+                            succeeded());
+        try (PipelinedConnectionEntryWriter writer =
+                new PipelinedConnectionEntryWriter(connection).setRetryPolicy(3, 1, TimeUnit.MILLISECONDS)) {
+            writer.writeEntry(new LinkedHashMapEntry("dc=com"));
+            writer.flush();
+            assertThat(writer.getEntriesWritten()).isEqualTo(1);
+            assertThat(writer.getRetries()).isEqualTo(2);
+        }
+        verify(connection, times(3)).addAsync(any(AddRequest.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailureIsReported() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(connection.addAsync(any(AddRequest.class)))
+                .thenReturn(failed(ResultCode.BUSY),
+                            failed(ResultCode.ENTRY_ALREADY_EXISTS));
+        final PipelinedConnectionEntryWriter writer =
+                new PipelinedConnectionEntryWriter(connection).setRetryPolicy(3, 1, TimeUnit.MILLISECONDS);
+        try {
+            writer.writeEntry(new LinkedHashMapEntry("dc=com"));
+            writer.flush();
+            throw new AssertionError("flush should have failed");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.ENTRY_ALREADY_EXISTS);
+        }
+
+        try {
+            writer.writeEntry(new LinkedHashMapEntry("dc=org"));
+            throw new AssertionError("writeEntry should have failed");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.ENTRY_ALREADY_EXISTS);
+        }
+        writer.close();
+        verify(connection, times(2)).addAsync(any(AddRequest.class));
+        verify(connection).close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRequiresConnections() {
+        new PipelinedConnectionEntryWriter(new ArrayList<Connection>());
+    }
+
+    /** Returns a connection whose Add requests complete when the test completes their promise. */
+    private static Connection newConnection(final List<LdapPromiseImpl<Result>> promises) {
+        final Connection connection = mock(Connection.class);
+        when(connection.addAsync(any(AddRequest.class))).thenAnswer(new Answer<LdapPromiseImpl<Result>>() {
+            @Override
+            public LdapPromiseImpl<Result> answer(final InvocationOnMock invocation) {
+                final LdapPromiseImpl<Result> promise = LdapPromiseImpl.newLdapPromiseImpl();
+                synchronized (promises) {
+                    promises.add(promise);
+                }
+                return promise;
+            }
+        });
+        return connection;
+    }
+
+    private static LdapPromise<Result> succeeded() {
+        return LdapPromises.newSuccessfulLdapPromise(Responses.newResult(ResultCode.SUCCESS));
+    }
+
+    private static LdapPromise<Result> failed(final ResultCode resultCode) {
+        return LdapPromises.newFailedLdapPromise(newLdapException(resultCode));
+    }
+
+    private static Thread writeInBackground(final EntryWriter writer, final Entry entry) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    writer.writeEntry(entry);
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+}